@@ -0,0 +1,269 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Microbenchmarks for the hot paths of a lookup: encoding a Request, parsing
+ * each response in WireCorpus, creating Records through recordFactory, and
+ * formatting them with toString. Each benchmark is warmed up, then timed
+ * over several fixed-length iterations, and reported as operations per
+ * second along with the bytes it allocated per operation, so a change that
+ * slows a path down or makes it allocate more shows up before it ships.
+ *
+ * The benchmarks live outside src, and are compiled alongside it:
+ *
+ *     javac -d out $(find src bench -name '*.java')
+ *     java -cp out edu.wcu.cs.agora.allen.DnsResolver.Benchmarks [REGEX]
+ *
+ * Only benchmarks whose names contain a match for REGEX are run.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class Benchmarks
+{
+    /** The number of untimed iterations run first, to let the JIT settle. */
+    public static final int WARMUP_ITERATIONS  = 5;
+    /** The number of timed iterations. */
+    public static final int MEASURE_ITERATIONS = 10;
+    /** How long each iteration runs for, in ms. */
+    public static final long ITERATION_MS      = 500;
+    /** The number of operations run between looks at the clock. */
+    public static final int BATCH              = 256;
+    /** The number of nanoseconds in a millisecond. */
+    public static final long NANOS_IN_MS       = 1_000_000L;
+    /** The number of nanoseconds in a second. */
+    public static final double NANOS_IN_SEC    = 1e9;
+    /** The DNS server the encoded requests are addressed to. */
+    public static final String DNS_ADDR        = "127.0.0.1";
+    /** The name the encoded requests look up. */
+    public static final String LOOKUP_ADDR     = "www.example.com";
+    /** The class of the records made by the factory benchmarks (IN). */
+    public static final short CLASS_IN         = 1;
+
+    /** Every result is folded in here, so the JIT can't discard the work
+     *  that produced it. */
+    private static volatile long sink;
+
+    /** Reads the bytes allocated by the current thread, if the JVM can. */
+    private static final com.sun.management.ThreadMXBean THREADS =
+            threads();
+
+    /**
+     * One operation to be measured.
+     */
+    private interface Operation
+    {
+        /**
+         * Runs the operation once.
+         * @return Anything derived from the result, to be folded into sink.
+         * @throws Exception If the operation fails.
+         */
+        long run() throws Exception;
+    }
+
+    /**
+     * Runs the benchmarks whose names match the first argument, or all of
+     * them.
+     * @param args An optional regular expression to select benchmarks by.
+     * @throws Exception If a benchmark fails.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : "");
+        System.out.printf("%-28s %14s %10s %12s%n", "Benchmark", "ops/s",
+                          "+-", "B/op");
+        for (Map.Entry<String, Operation> benchmark : benchmarks().entrySet())
+            if (filter.matcher(benchmark.getKey()).find())
+                measure(benchmark.getKey(), benchmark.getValue());
+    }
+
+    /**
+     * Builds every benchmark, by name, in the order they are reported.
+     * @return The benchmarks.
+     * @throws Exception If the corpus can't be parsed.
+     */
+    private static Map<String, Operation> benchmarks() throws Exception
+    {
+        Map<String, Operation> benchmarks = new LinkedHashMap<>();
+        benchmarks.put("encode.new", () ->
+                new Request(DNS_ADDR, LOOKUP_ADDR, "A").getRawTcpRequest()
+                                                       .length);
+        Request request = new Request(DNS_ADDR, LOOKUP_ADDR, "A");
+        ByteBuffer buffer = ByteBuffer.allocate(request.getEncodedLength() +
+                                                Request.TCP_LEN_SIZE);
+        benchmarks.put("encode.reuse", () ->
+        {
+            buffer.clear();
+            return request.encode(buffer).position();
+        });
+        for (int i = 0; i < WireCorpus.ALL.length; i++)
+        {
+            byte[] wire = WireCorpus.ALL[i];
+            benchmarks.put("parse." + WireCorpus.NAMES[i], () ->
+                    parse(wire).getAnswers().size());
+        }
+        for (Record record : sample())
+        {
+            DomainName name = record.getDomainName();
+            RecordType type = record.getType();
+            int ttl = record.getTtl();
+            byte[] rdata = record.getRdata();
+            benchmarks.put("factory." + type, () ->
+                    Record.recordFactory(name, type, CLASS_IN, ttl, rdata)
+                          .getTtl());
+        }
+        for (int i = 0; i < WireCorpus.ALL.length; i++)
+        {
+            Resolver.Response response = parse(WireCorpus.ALL[i]);
+            benchmarks.put("format." + WireCorpus.NAMES[i], () ->
+                    format(response));
+        }
+        return benchmarks;
+    }
+
+    /**
+     * Parses a response from the corpus. Negative answers are parsed in full
+     * before being thrown, so their Response is taken from the exception.
+     * @param wire The response, in wire format.
+     * @return The parsed Response.
+     * @throws Exception If the response is malformed.
+     */
+    private static Resolver.Response parse(byte[] wire) throws Exception
+    {
+        try
+        {
+            return new Resolver.ResponseGenerator(wire, wire.length,
+                    WireCorpus.identifier(wire)).getResponse();
+        }
+        catch (NxDomainException nxe)
+        {
+            return nxe.getResponse();
+        }
+    }
+
+    /**
+     * Picks the first record of each type out of the corpus, to be recreated
+     * by the factory benchmarks.
+     * @return One record of each type the corpus holds.
+     * @throws Exception If the corpus can't be parsed.
+     */
+    private static List<Record> sample() throws Exception
+    {
+        Map<RecordType, Record> byType = new LinkedHashMap<>();
+        for (byte[] wire : WireCorpus.ALL)
+        {
+            Resolver.Response response = parse(wire);
+            List<Record> records = new ArrayList<>(response.getAnswers());
+            records.addAll(response.getAuthority());
+            for (Record record : records)
+                byType.putIfAbsent(record.getType(), record);
+        }
+        return new ArrayList<>(byType.values());
+    }
+
+    /**
+     * Formats every record in a Response, as Main does when printing one.
+     * @param response The Response to format.
+     * @return The total length of the formatted records.
+     */
+    private static long format(Resolver.Response response)
+    {
+        long length = 0;
+        for (Record record : response.getAnswers())
+            length += record.toString().length();
+        for (Record record : response.getAuthority())
+            length += record.toString().length();
+        for (Record record : response.getAdditional())
+            length += record.toString().length();
+        return length;
+    }
+
+    /**
+     * Warms a benchmark up, then times it and reports the result.
+     * @param name The name of the benchmark.
+     * @param operation The operation to measure.
+     * @throws Exception If the operation fails.
+     */
+    private static void measure(String name, Operation operation)
+                                throws Exception
+    {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++)
+            iterate(operation);
+        double[] rates = new double[MEASURE_ITERATIONS];
+        long ops = 0;
+        long allocated = allocatedBytes();
+        for (int i = 0; i < MEASURE_ITERATIONS; i++)
+        {
+            long start = System.nanoTime();
+            long count = iterate(operation);
+            rates[i] = count * NANOS_IN_SEC / (System.nanoTime() - start);
+            ops += count;
+        }
+        allocated = allocatedBytes() - allocated;
+        double mean = 0;
+        for (double rate : rates)
+            mean += rate / rates.length;
+        double variance = 0;
+        for (double rate : rates)
+            variance += (rate - mean) * (rate - mean) / rates.length;
+        System.out.printf("%-28s %14.0f %10.0f %12s%n", name, mean,
+                          Math.sqrt(variance), THREADS == null ? "n/a" :
+                          String.format("%.1f", (double) allocated / ops));
+    }
+
+    /**
+     * Runs an operation over and over for one iteration.
+     * @param operation The operation to run.
+     * @return The number of times it was run.
+     * @throws Exception If the operation fails.
+     */
+    private static long iterate(Operation operation) throws Exception
+    {
+        long end = System.nanoTime() + ITERATION_MS * NANOS_IN_MS;
+        long count = 0;
+        long result = 0;
+        do
+        {
+            for (int i = 0; i < BATCH; i++)
+                result += operation.run();
+            count += BATCH;
+        }
+        while (System.nanoTime() - end < 0);
+        sink += result;
+        return count;
+    }
+
+    /**
+     * The number of bytes the current thread has allocated so far.
+     * @return The bytes allocated, or 0 if the JVM can't say.
+     */
+    private static long allocatedBytes()
+    {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Finds the bean that counts allocated bytes, and turns the counting on.
+     * @return The bean, or null if this JVM doesn't support counting.
+     */
+    private static com.sun.management.ThreadMXBean threads()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof
+              com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean)
+                ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported())
+            return null;
+        threads.setThreadAllocatedMemoryEnabled(true);
+        return threads;
+    }
+}
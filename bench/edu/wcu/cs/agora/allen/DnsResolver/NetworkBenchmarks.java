@@ -0,0 +1,417 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Throughput and latency benchmarks of the resolver's real network path,
+ * run against a StubServer on the loopback address so they need no network.
+ * Each scenario sends a number of queries, each for a different name so none
+ * is answered from the cache, and reports queries per second and latency
+ * percentiles. Run it as:
+ *
+ *     java -cp out edu.wcu.cs.agora.allen.DnsResolver.NetworkBenchmarks
+ *          [REGEX] [QUERIES] [WINDOW]
+ *
+ * Only scenarios whose names contain a match for REGEX are run. WINDOW is the
+ * number of queries in flight at once.
+ *
+ * Most scenarios wait the fixed Resolver.TIMEOUT for each reply. The .rto
+ * and .hedged ones put their stub servers in an UpstreamPool, so each reply
+ * is waited for no longer than the server's RTO, and, for .hedged, slow
+ * queries are hedged to a second stub server.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class NetworkBenchmarks
+{
+    /** The number of queries each scenario sends by default. */
+    public static final int DEFAULT_QUERIES   = 20000;
+    /** The number of queries in flight at once by default. */
+    public static final int DEFAULT_WINDOW    = 256;
+    /** The number of queries sent first to warm up, and not counted. */
+    public static final int WARMUP_QUERIES    = 5000;
+    /** The address every A query is answered with. */
+    public static final String ADDRESS        = "192.0.2.1";
+    /** The number of records in the large answers. */
+    public static final int LARGE_RRSET       = 60;
+    /** The number of records in answers too large for UDP. */
+    public static final int HUGE_RRSET        = 200;
+    /** The longest a delayed reply waits, in microseconds. */
+    public static final int MAX_DELAY_US      = 20000;
+    /** One in this many queries is dropped by the lossy scenario. */
+    public static final int DROP_ONE_IN       = 1000;
+    /** One in this many replies is delayed by the jittery scenarios. */
+    public static final int SLOW_ONE_IN       = 50;
+    /** The question WireCorpus.CNAME_CHAIN answers. */
+    public static final String CANNED_NAME    = "www.microsoft.com";
+    /** The percentiles reported. */
+    public static final double[] PERCENTILES  = {50, 90, 99, 99.9};
+    /** The number of nanoseconds in a microsecond. */
+    public static final long NANOS_IN_US      = 1000;
+    /** The number of nanoseconds in a second. */
+    public static final double NANOS_IN_SEC   = 1e9;
+    /** The number of percent in a whole. */
+    public static final double PERCENT        = 100.0;
+
+    /** The resolver being measured. */
+    private static final Resolver RESOLVER = Resolver.getInstance();
+    /** Tells the names of different runs apart, so none hit the cache. */
+    private static final AtomicLong RUN = new AtomicLong();
+
+    /**
+     * Sends one query the way a scenario does.
+     */
+    private interface Transport
+    {
+        /**
+         * Resolves a request.
+         * @param request The request.
+         * @return A future that completes with the Response.
+         */
+        CompletableFuture<Resolver.Response> resolve(Request request);
+    }
+
+    /**
+     * Runs the scenarios whose names match the first argument, or all of
+     * them.
+     * @param args An optional regular expression to select scenarios by,
+     *             the number of queries, and the window.
+     * @throws Exception If the stub server can't be started.
+     */
+    public static void main(String[] args) throws Exception
+    {
+        Pattern filter = Pattern.compile(args.length > 0 ? args[0] : "");
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) :
+                                        DEFAULT_QUERIES;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) :
+                                       DEFAULT_WINDOW;
+        ExecutorService blocking = Executors.newCachedThreadPool(runnable ->
+        {
+            Thread thread = new Thread(runnable, "bench-tcp");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Transport udp = RESOLVER::resolveAsync;
+        Transport tcp = request -> CompletableFuture.supplyAsync(() ->
+                callTcp(request), blocking);
+        Transport fallback = request -> RESOLVER.resolveAsync(request)
+                .handle((response, e) -> response != null ?
+                        CompletableFuture.completedFuture(response) :
+                        unwrap(e) instanceof TruncatedUdpPacketException ?
+                        tcp.resolve(request) :
+                        CompletableFuture.<Resolver.Response>failedFuture(e))
+                .thenCompose(future -> future);
+        Transport retrying = request -> RESOLVER.resolveAsync(request)
+                .handle((response, e) -> response != null ?
+                        CompletableFuture.completedFuture(response) :
+                        unwrap(e) instanceof SocketTimeoutException ?
+                        RESOLVER.resolveAsync(request) :
+                        CompletableFuture.<Resolver.Response>failedFuture(e))
+                .thenCompose(future -> future);
+        // Each attempt goes to whichever pooled server is fastest.
+        Transport pooled = request -> RESOLVER.resolveAsync(upstream(request))
+                .handle((response, e) -> response != null ?
+                        CompletableFuture.completedFuture(response) :
+                        unwrap(e) instanceof SocketTimeoutException ?
+                        RESOLVER.resolveAsync(upstream(request)) :
+                        CompletableFuture.<Resolver.Response>failedFuture(e))
+                .thenCompose(future -> future);
+
+        System.out.printf("%-16s %8s %7s %10s %9s %9s %9s %9s %9s%n",
+                          "Scenario", "queries", "failed", "q/s", "p50 us",
+                          "p90 us", "p99 us", "p99.9 us", "max us");
+        AtomicInteger seen = new AtomicInteger();
+        run(filter, "udp", StubServer.answering(ADDRESS, 0), udp, queries,
+            window);
+        run(filter, "udp.large", query -> reply(rrset(query, LARGE_RRSET)),
+            udp, queries, window);
+        // A canned response only answers the question it was captured for,
+        // so every query asks that, and the cache is emptied before each.
+        Transport uncached = request ->
+        {
+            RESOLVER.getCache().clear();
+            return RESOLVER.resolveAsync(request);
+        };
+        run(filter, "udp.canned", query -> StubServer.Reply.canned(query,
+            WireCorpus.CNAME_CHAIN), uncached, queries, window,
+            CANNED_NAME);
+        run(filter, "udp.delayed", query -> reply(rrset(query, 1)).after(
+            ThreadLocalRandom.current().nextInt(MAX_DELAY_US)), udp, queries,
+            window);
+        StubServer.Handler lossy = query ->
+            seen.incrementAndGet() % DROP_ONE_IN == 0 ?
+            StubServer.Reply.drop() : reply(rrset(query, 1));
+        run(filter, "udp.lossy", lossy, retrying, queries, window);
+        run(filter, "udp.lossy.rto", lossy, pooled, queries, window, null, 1,
+            false);
+        run(filter, "udp.lossy.hedged", lossy, pooled, queries, window, null,
+            2, true);
+        StubServer.Handler jittery = query ->
+            reply(rrset(query, 1)).after(
+            seen.incrementAndGet() % SLOW_ONE_IN == 0 ? MAX_DELAY_US : 0);
+        run(filter, "udp.jittery", jittery, udp, queries, window);
+        run(filter, "udp.jittery.hedged", jittery, pooled, queries, window,
+            null, 2, true);
+        run(filter, "tcp", StubServer.answering(ADDRESS, 0), tcp, queries,
+            window);
+        run(filter, "udp.truncated", query -> reply(rrset(query, HUGE_RRSET)),
+            fallback, queries, window);
+    }
+
+    /**
+     * Runs one scenario, asking a different name with each query.
+     * @param filter Selects the scenarios to run.
+     * @param name The name of the scenario.
+     * @param handler How the stub server replies.
+     * @param transport How queries are sent.
+     * @param queries The number of queries to time.
+     * @param window The number of queries in flight at once.
+     * @throws Exception If the stub server can't be started.
+     */
+    private static void run(Pattern filter, String name,
+                            StubServer.Handler handler, Transport transport,
+                            int queries, int window) throws Exception
+    {
+        run(filter, name, handler, transport, queries, window, null);
+    }
+
+    /**
+     * Runs one scenario against a fresh stub server, outside any
+     * UpstreamPool.
+     * @param filter Selects the scenarios to run.
+     * @param name The name of the scenario.
+     * @param handler How the stub server replies.
+     * @param transport How queries are sent.
+     * @param queries The number of queries to time.
+     * @param window The number of queries in flight at once.
+     * @param lookup The name every query asks about, or null for a
+     *               different one each time.
+     * @throws Exception If the stub server can't be started.
+     */
+    private static void run(Pattern filter, String name,
+                            StubServer.Handler handler, Transport transport,
+                            int queries, int window, String lookup)
+                            throws Exception
+    {
+        run(filter, name, handler, transport, queries, window, lookup, 0,
+            false);
+    }
+
+    /**
+     * Runs one scenario against fresh stub servers, if its name matches.
+     * @param filter Selects the scenarios to run.
+     * @param name The name of the scenario.
+     * @param handler How each stub server replies.
+     * @param transport How queries are sent.
+     * @param queries The number of queries to time.
+     * @param window The number of queries in flight at once.
+     * @param lookup The name every query asks about, or null for a
+     *               different one each time.
+     * @param pooled The number of stub servers to put in the Resolver's
+     *               UpstreamPool, or 0 to start one and use no pool.
+     * @param hedging Whether the pool hedges slow queries.
+     * @throws Exception If a stub server can't be started.
+     */
+    private static void run(Pattern filter, String name,
+                            StubServer.Handler handler, Transport transport,
+                            int queries, int window, String lookup,
+                            int pooled, boolean hedging) throws Exception
+    {
+        if (!filter.matcher(name).find())
+            return;
+        List<StubServer> servers = new ArrayList<>();
+        try
+        {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            do
+            {
+                StubServer server = new StubServer(handler);
+                servers.add(server);
+                addresses.add(new InetSocketAddress(server.getAddress(),
+                                                    server.getPort()));
+            }
+            while (servers.size() < pooled);
+            UpstreamPool pool = null;
+            if (pooled > 0)
+            {
+                pool = new UpstreamPool(addresses);
+                pool.setHedging(hedging);
+            }
+            RESOLVER.setUpstreams(pool);
+            send(servers.get(0), transport, WARMUP_QUERIES, window, lookup);
+            long start = System.nanoTime();
+            long[] latencies = send(servers.get(0), transport, queries,
+                                    window, lookup);
+            long elapsed = System.nanoTime() - start;
+            report(name, latencies, elapsed);
+        }
+        finally
+        {
+            RESOLVER.setUpstreams(null);
+            for (StubServer server : servers)
+                server.close();
+        }
+    }
+
+    /**
+     * Sends queries to a server, keeping a window of them in flight, and
+     * waits for every one to complete.
+     * @param server The server.
+     * @param transport How queries are sent.
+     * @param queries The number of queries to send.
+     * @param window The number of queries in flight at once.
+     * @param lookup The name every query asks about, or null for a
+     *               different one each time.
+     * @return The latency of each query in ns, or -1 for those that failed.
+     * @throws Exception If interrupted, or a request can't be created.
+     */
+    private static long[] send(StubServer server, Transport transport,
+                               int queries, int window, String lookup)
+                               throws Exception
+    {
+        long[] latencies = new long[queries];
+        Semaphore permits = new Semaphore(window);
+        long run = RUN.incrementAndGet();
+        for (int i = 0; i < queries; i++)
+        {
+            permits.acquire();
+            int index = i;
+            String name = lookup != null ? lookup :
+                          "q" + i + ".r" + run + ".bench.test";
+            Request request = new Request(server.getAddress(),
+                    server.getPort(), name, "A", Request.UDP_PAYLOAD);
+            long start = System.nanoTime();
+            transport.resolve(request).whenComplete((response, e) ->
+            {
+                latencies[index] = response != null ?
+                                   System.nanoTime() - start : -1;
+                permits.release();
+            });
+        }
+        permits.acquire(window);
+        return latencies;
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of a scenario.
+     * @param name The name of the scenario.
+     * @param latencies The latency of each query in ns, -1 if it failed.
+     * @param elapsed The time the whole scenario took, in ns.
+     */
+    private static void report(String name, long[] latencies, long elapsed)
+    {
+        long[] sorted = Arrays.stream(latencies).filter(l -> l >= 0)
+                              .sorted().toArray();
+        StringBuilder row = new StringBuilder(String.format(
+                "%-16s %8d %7d %10.0f", name, latencies.length,
+                latencies.length - sorted.length,
+                latencies.length * NANOS_IN_SEC / elapsed));
+        for (double percentile : PERCENTILES)
+            row.append(String.format(" %9d", percentile(sorted, percentile)));
+        row.append(String.format(" %9d", sorted.length == 0 ? 0 :
+                                 sorted[sorted.length - 1] / NANOS_IN_US));
+        System.out.println(row);
+    }
+
+    /**
+     * Finds a percentile of sorted latencies.
+     * @param sorted The latencies in ns, in ascending order.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency at that percentile, in microseconds.
+     */
+    private static long percentile(long[] sorted, double percentile)
+    {
+        if (sorted.length == 0)
+            return 0;
+        int index = (int) Math.ceil(percentile / PERCENT * sorted.length) - 1;
+        return sorted[Math.max(0, index)] / NANOS_IN_US;
+    }
+
+    /**
+     * Builds an answer holding many A records, compressed against the name
+     * asked about.
+     * @param query The query.
+     * @param count The number of records.
+     * @return The message.
+     */
+    private static StubServer.Message rrset(StubServer.Query query, int count)
+    {
+        StubServer.Message message = new StubServer.Message(query);
+        for (int i = 0; i < count; i++)
+            message.a(StubServer.ANSWER, query.getName(), 0,
+                      "10.0." + (i >>> Byte.SIZE) + "." + (i & 0xFF));
+        return message;
+    }
+
+    /**
+     * Builds the reply carrying a message.
+     * @param message The message.
+     * @return The reply, sent at once.
+     */
+    private static StubServer.Reply reply(StubServer.Message message)
+    {
+        return StubServer.Reply.of(message);
+    }
+
+    /**
+     * Moves a request to the fastest server in the Resolver's UpstreamPool.
+     * @param request The request.
+     * @return A Request for the same name, to that server.
+     */
+    private static Request upstream(Request request)
+    {
+        try
+        {
+            return RESOLVER.newRequest(request.getName(),
+                    RecordType.nameLookup(request.getTypeCode()));
+        }
+        catch (IOException ioe)
+        {
+            throw new CompletionException(ioe);
+        }
+    }
+
+    /**
+     * Makes a blocking TCP request, for use in a future.
+     * @param request The request.
+     * @return The Response.
+     */
+    private static Resolver.Response callTcp(Request request)
+    {
+        try
+        {
+            return RESOLVER.makeTcpRequest(request);
+        }
+        catch (IOException ioe)
+        {
+            throw new CompletionException(ioe);
+        }
+    }
+
+    /**
+     * Removes the CompletionException futures wrap their failures in.
+     * @param e The failure.
+     * @return The failure that caused it.
+     */
+    private static Throwable unwrap(Throwable e)
+    {
+        while (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+}
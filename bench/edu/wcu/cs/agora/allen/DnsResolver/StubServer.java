@@ -0,0 +1,973 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.BindException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * A StubServer answers DNS queries over UDP and TCP on the loopback address,
+ * so the resolver's real network path can be driven without a network. It
+ * listens on the same ephemeral port for both, and hands every query to a
+ * Handler, which decides the reply: a message built with Message, a canned
+ * response from elsewhere, nothing at all (a drop), and how long to wait
+ * before sending it. Replies too large for the UDP payload the query
+ * advertised are truncated, with the TC bit set, as a real server would, so
+ * the client has to ask again over TCP. TCP connections are pipelined, and
+ * delayed replies go out in whatever order their delays run out.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class StubServer implements Closeable
+{
+    /** The section the question is in. */
+    public static final int QUESTION   = 0;
+    /** The answer section. */
+    public static final int ANSWER     = 1;
+    /** The authority section. */
+    public static final int AUTHORITY  = 2;
+    /** The additional section. */
+    public static final int ADDITIONAL = 3;
+    /** The number of sections in a message. */
+    public static final int SECTIONS   = 4;
+
+    /** The payload a UDP client can take if it doesn't say, from RFC 1035. */
+    public static final int DEFAULT_PAYLOAD = 512;
+    /** The number of times binding both sockets to one port is tried. */
+    public static final int BIND_ATTEMPTS   = 16;
+    /** The size of the buffer UDP queries are received into. */
+    public static final int RECEIVE_BUFF    = 4096;
+    /** The QR, RD and RA bits, set in every reply. */
+    public static final int QR_RD_RA        = 0x8180;
+    /** The TC bit. */
+    public static final int TC              = 0x0200;
+    /** Where the flags sit in the header. */
+    public static final int FLAGS_INDEX     = 2;
+    /** The largest offset a compression pointer can hold. */
+    public static final int MAX_POINTER     = 0x3FFF;
+    /** The top bits that mark a compression pointer. */
+    public static final int POINTER         = 0xC000;
+    /** The class every record is in (IN). */
+    public static final int CLASS_IN        = 1;
+    /** The length of the fixed fields in an SOA record after its names. */
+    public static final int SOA_INTS        = 5;
+
+    /** Decides the reply to each query. */
+    private final Handler handler;
+    /** Receives UDP queries and sends UDP replies. */
+    private final DatagramSocket udp;
+    /** Accepts TCP connections. */
+    private final ServerSocket tcp;
+    /** Sends replies whose delay has run out. */
+    private final ScheduledExecutorService scheduler;
+    /** The number of queries received, over either transport. */
+    private final LongAdder queries;
+    /** The number of queries the handler chose not to answer. */
+    private final LongAdder drops;
+    /** The number of UDP replies that had to be truncated. */
+    private final LongAdder truncations;
+    /** Set once the server has been closed. */
+    private volatile boolean closed;
+
+    /**
+     * Decides how to reply to a query.
+     */
+    public interface Handler
+    {
+        /**
+         * Builds the reply to a query. Called on the thread that read it.
+         * @param query The query.
+         * @return The reply; Reply.drop() to send nothing.
+         */
+        Reply handle(Query query);
+    }
+
+    /**
+     * Starts a server on an ephemeral loopback port.
+     * @param handler Decides the reply to each query.
+     * @throws IOException If no port could be bound for both transports.
+     */
+    public StubServer(Handler handler) throws IOException
+    {
+        this(handler, InetAddress.getLoopbackAddress());
+    }
+
+    /**
+     * Starts a server on an ephemeral port of a given address.
+     * @param handler Decides the reply to each query.
+     * @param loopback The address to listen on.
+     * @throws IOException If no port could be bound for both transports.
+     */
+    public StubServer(Handler handler, InetAddress loopback)
+                      throws IOException
+    {
+        this(handler, bind(loopback));
+    }
+
+    /**
+     * Starts a server on a bound pair of sockets.
+     * @param handler Decides the reply to each query.
+     * @param sockets The TCP and UDP sockets, on the same port.
+     */
+    private StubServer(Handler handler, Sockets sockets)
+    {
+        this(handler, sockets.tcp, sockets.udp);
+    }
+
+    /**
+     * Binds a TCP and a UDP socket to the same ephemeral port.
+     * @param loopback The address to bind them to.
+     * @return The sockets.
+     * @throws IOException If no port could be bound for both transports.
+     */
+    private static Sockets bind(InetAddress loopback) throws IOException
+    {
+        for (int i = 0; i < BIND_ATTEMPTS; i++)
+        {
+            ServerSocket tcp = new ServerSocket(0, 0, loopback);
+            try
+            {
+                return new Sockets(tcp, new DatagramSocket(
+                        new InetSocketAddress(loopback, tcp.getLocalPort())));
+            }
+            catch (BindException be)
+            {
+                tcp.close();
+            }
+        }
+        throw new BindException("No port free for both UDP and TCP.");
+    }
+
+    /**
+     * Starts a server on a given address and port, such as one of a
+     * hierarchy of servers on different loopback addresses that must share
+     * a port, because referrals give only an address.
+     * @param address The address to listen on.
+     * @param port The port to listen on, for both UDP and TCP.
+     * @param handler Decides the reply to each query.
+     * @throws IOException If the address and port can't be bound.
+     */
+    public StubServer(InetAddress address, int port, Handler handler)
+                      throws IOException
+    {
+        this(handler, new ServerSocket(port, 0, address),
+             new DatagramSocket(new InetSocketAddress(address, port)));
+    }
+
+    /**
+     * Starts a server on sockets that are already bound.
+     * @param handler Decides the reply to each query.
+     * @param tcp The TCP socket.
+     * @param udp The UDP socket, on the same port.
+     */
+    private StubServer(Handler handler, ServerSocket tcp, DatagramSocket udp)
+    {
+        this.handler     = handler;
+        this.queries     = new LongAdder();
+        this.drops       = new LongAdder();
+        this.truncations = new LongAdder();
+        this.tcp         = tcp;
+        this.udp         = udp;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable ->
+                daemon(runnable, "dns-stub-delay"));
+        daemon(this::serveUdp, "dns-stub-udp").start();
+        daemon(this::acceptTcp, "dns-stub-tcp").start();
+    }
+
+    /**
+     * An answer to every A query with one address, and an empty answer to
+     * anything else.
+     * @param address The address to answer with.
+     * @param ttl The TTL of the answer. 0 keeps it out of the cache.
+     * @return The handler.
+     */
+    public static Handler answering(String address, int ttl)
+    {
+        return query -> Reply.of(query.getType() == RecordType.A.toShort() ?
+                new Message(query).a(ANSWER, query.getName(), ttl, address) :
+                new Message(query));
+    }
+
+    /**
+     * The address of the server, for requests to be sent to.
+     * @return The loopback address, as a string.
+     */
+    public String getAddress()
+    {
+        return tcp.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * The port the server listens on, for both UDP and TCP.
+     * @return The port.
+     */
+    public int getPort()
+    {
+        return tcp.getLocalPort();
+    }
+
+    /**
+     * The number of queries received, over either transport.
+     * @return The query count.
+     */
+    public long getQueries()
+    {
+        return queries.sum();
+    }
+
+    /**
+     * The number of queries that were dropped.
+     * @return The drop count.
+     */
+    public long getDrops()
+    {
+        return drops.sum();
+    }
+
+    /**
+     * The number of UDP replies that were truncated.
+     * @return The truncation count.
+     */
+    public long getTruncations()
+    {
+        return truncations.sum();
+    }
+
+    /**
+     * Receives UDP queries until the server is closed.
+     */
+    private void serveUdp()
+    {
+        byte[] buffer = new byte[RECEIVE_BUFF];
+        while (!closed)
+        {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try
+            {
+                udp.receive(packet);
+                Query query = Query.parse(buffer, packet.getLength(), false);
+                if (query == null)
+                    continue;
+                SocketAddress client = packet.getSocketAddress();
+                reply(query, message ->
+                {
+                    byte[] sent = message;
+                    if (sent.length > query.getPayloadSize())
+                    {
+                        sent = truncate(query);
+                        truncations.increment();
+                    }
+                    try
+                    {
+                        udp.send(new DatagramPacket(sent, sent.length, client));
+                    }
+                    catch (IOException ioe)
+                    {
+                        // The client is gone; nothing to do.
+                    }
+                });
+            }
+            catch (IOException ioe)
+            {
+                if (!closed)
+                    System.err.println("Stub UDP receive failed: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Accepts TCP connections until the server is closed, reading each on a
+     * thread of its own.
+     */
+    private void acceptTcp()
+    {
+        while (!closed)
+        {
+            try
+            {
+                Socket socket = tcp.accept();
+                socket.setTcpNoDelay(true);
+                daemon(() -> serveTcp(socket), "dns-stub-tcp-conn").start();
+            }
+            catch (IOException ioe)
+            {
+                if (!closed)
+                    System.err.println("Stub TCP accept failed: " + ioe);
+            }
+        }
+    }
+
+    /**
+     * Reads queries off one TCP connection until it closes. Replies are
+     * written whole, under a lock, as their delays run out.
+     * @param socket The connection.
+     */
+    private void serveTcp(Socket socket)
+    {
+        try (Socket s = socket)
+        {
+            FrameReader in = new FrameReader(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            ReentrantLock writeLock = new ReentrantLock();
+            while (!closed)
+            {
+                int length = in.readFrame();
+                Query query = Query.parse(in.getBuffer(), length, true);
+                if (query == null)
+                    continue;
+                reply(query, message ->
+                {
+                    writeLock.lock();
+                    try
+                    {
+                        out.write(message.length >>> Byte.SIZE);
+                        out.write(message.length);
+                        out.write(message);
+                        out.flush();
+                    }
+                    catch (IOException ioe)
+                    {
+                        // The client is gone; nothing to do.
+                    }
+                    finally
+                    {
+                        writeLock.unlock();
+                    }
+                });
+            }
+        }
+        catch (IOException ioe)
+        {
+            // The connection closed, which ends it.
+        }
+    }
+
+    /**
+     * Asks the handler for the reply to a query, and sends it now or once
+     * its delay has run out.
+     * @param query The query.
+     * @param send Sends a reply message.
+     */
+    private void reply(Query query, Consumer<byte[]> send)
+    {
+        queries.increment();
+        Reply reply = handler.handle(query);
+        if (reply == null || reply.message == null)
+        {
+            drops.increment();
+            return;
+        }
+        if (reply.delay <= 0)
+            send.accept(reply.message);
+        else
+            scheduler.schedule(() -> send.accept(reply.message), reply.delay,
+                               TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Builds the reply to send in place of one too large for UDP: just the
+     * header and question, with the TC bit set.
+     * @param query The query.
+     * @return The truncated reply.
+     */
+    private static byte[] truncate(Query query)
+    {
+        byte[] message = new Message(query).build();
+        int flags = Util.unsignShortToInt(Util.bytesToShort(
+                message[FLAGS_INDEX], message[FLAGS_INDEX + 1])) | TC;
+        message[FLAGS_INDEX] = (byte) (flags >>> Byte.SIZE);
+        message[FLAGS_INDEX + 1] = (byte) flags;
+        return message;
+    }
+
+    /**
+     * Creates a daemon thread.
+     * @param runnable What the thread runs.
+     * @param name The name of the thread.
+     * @return The thread, not yet started.
+     */
+    private static Thread daemon(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * Stops the server. Connections already open are dropped as their
+     * threads notice.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        closed = true;
+        scheduler.shutdownNow();
+        udp.close();
+        tcp.close();
+    }
+
+    /**
+     * A TCP and a UDP socket bound to the same port.
+     */
+    private static class Sockets
+    {
+        /** The TCP socket. */
+        private final ServerSocket tcp;
+        /** The UDP socket. */
+        private final DatagramSocket udp;
+
+        /**
+         * Pairs two sockets.
+         * @param tcp The TCP socket.
+         * @param udp The UDP socket.
+         */
+        private Sockets(ServerSocket tcp, DatagramSocket udp)
+        {
+            this.tcp = tcp;
+            this.udp = udp;
+        }
+    }
+
+    /**
+     * A query, as the server received it.
+     */
+    public static class Query
+    {
+        /** The query's identifier. */
+        private final int id;
+        /** The name asked about, in lower case without a trailing dot. */
+        private final String name;
+        /** The type asked for. */
+        private final short type;
+        /** Whether the query came over TCP. */
+        private final boolean tcp;
+        /** The largest UDP reply the client can take. */
+        private final int payloadSize;
+        /** The question section, as it was sent. */
+        private final byte[] question;
+
+        /**
+         * Creates a query.
+         * @param id The query's identifier.
+         * @param name The name asked about.
+         * @param type The type asked for.
+         * @param tcp Whether the query came over TCP.
+         * @param payloadSize The largest UDP reply the client can take.
+         * @param question The question section, as it was sent.
+         */
+        private Query(int id, String name, short type, boolean tcp,
+                      int payloadSize, byte[] question)
+        {
+            this.id          = id;
+            this.name        = name;
+            this.type        = type;
+            this.tcp         = tcp;
+            this.payloadSize = payloadSize;
+            this.question    = question;
+        }
+
+        /**
+         * Reads a query with one question, and perhaps an OPT record, out
+         * of a message.
+         * @param buffer The buffer holding the message.
+         * @param length The length of the message.
+         * @param tcp Whether the message came over TCP.
+         * @return The query, or null if the message isn't one we can read.
+         */
+        private static Query parse(byte[] buffer, int length, boolean tcp)
+        {
+            if (length < Request.HEADER_LEN)
+                return null;
+            StringBuilder name = new StringBuilder();
+            int pos = Request.HEADER_LEN;
+            while (pos < length && buffer[pos] != 0)
+            {
+                int labelLen = buffer[pos] & 0xFF;
+                if (pos + 1 + labelLen > length)
+                    return null;
+                if (name.length() > 0)
+                    name.append(Request.LABEL_SEPARATOR);
+                name.append(new String(buffer, pos + 1, labelLen,
+                                       StandardCharsets.UTF_8));
+                pos += 1 + labelLen;
+            }
+            int questionEnd = pos + 1 + Request.TYPE_CLASS_LEN;
+            if (questionEnd > length)
+                return null;
+            short type = Util.bytesToShort(buffer[pos + 1], buffer[pos + 2]);
+            int payloadSize = DEFAULT_PAYLOAD;
+            // An OPT record's owner is the root, one zero byte, so its CLASS
+            // (the payload size) starts three bytes after the name.
+            int optClass = questionEnd + 1 + Short.BYTES;
+            if (optClass + 1 < length && buffer[questionEnd] == 0 &&
+                Util.bytesToShort(buffer[questionEnd + 1],
+                                  buffer[questionEnd + 2]) ==
+                RecordType.OPT.toShort())
+                payloadSize = Math.max(DEFAULT_PAYLOAD, Util.unsignShortToInt(
+                        Util.bytesToShort(buffer[optClass],
+                                          buffer[optClass + 1])));
+            return new Query(Util.unsignShortToInt(Util.bytesToShort(
+                    buffer[0], buffer[1])), name.toString().toLowerCase(),
+                    type, tcp, payloadSize, Arrays.copyOfRange(buffer,
+                    Request.HEADER_LEN, questionEnd));
+        }
+
+        /**
+         * The query's identifier.
+         * @return The identifier, from 0 to 65535.
+         */
+        public int getId()
+        {
+            return id;
+        }
+
+        /**
+         * The name asked about.
+         * @return The name, in lower case without a trailing dot.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * The type asked for.
+         * @return The type, as it appears in the packet.
+         */
+        public short getType()
+        {
+            return type;
+        }
+
+        /**
+         * Whether the query came over TCP.
+         * @return True for TCP, false for UDP.
+         */
+        public boolean isTcp()
+        {
+            return tcp;
+        }
+
+        /**
+         * The largest UDP reply the client can take: the size in its OPT
+         * record, or 512 if it sent none.
+         * @return The payload size.
+         */
+        public int getPayloadSize()
+        {
+            return payloadSize;
+        }
+    }
+
+    /**
+     * The reply to a query: the message to send, and how long to wait first.
+     */
+    public static class Reply
+    {
+        /** The message to send, or null to send nothing. */
+        private final byte[] message;
+        /** How long to wait before sending, in microseconds. */
+        private final long delay;
+
+        /**
+         * Creates a reply.
+         * @param message The message to send, or null to send nothing.
+         * @param delay How long to wait before sending, in microseconds.
+         */
+        private Reply(byte[] message, long delay)
+        {
+            this.message = message;
+            this.delay   = delay;
+        }
+
+        /**
+         * A reply that sends nothing, as if the query were lost.
+         * @return The reply.
+         */
+        public static Reply drop()
+        {
+            return new Reply(null, 0);
+        }
+
+        /**
+         * A reply carrying a built message.
+         * @param message The message.
+         * @return The reply, sent at once.
+         */
+        public static Reply of(Message message)
+        {
+            return new Reply(message.build(), 0);
+        }
+
+        /**
+         * A reply carrying a canned response, such as one from WireCorpus,
+         * with its identifier changed to match the query's.
+         * @param query The query being answered.
+         * @param response The response, in wire format.
+         * @return The reply, sent at once.
+         */
+        public static Reply canned(Query query, byte[] response)
+        {
+            byte[] message = Arrays.copyOf(response, response.length);
+            message[0] = (byte) (query.getId() >>> Byte.SIZE);
+            message[1] = (byte) query.getId();
+            return new Reply(message, 0);
+        }
+
+        /**
+         * The same reply, sent after a delay.
+         * @param micros How long to wait, in microseconds.
+         * @return The delayed reply.
+         */
+        public Reply after(long micros)
+        {
+            return new Reply(message, micros);
+        }
+    }
+
+    /**
+     * Builds a reply message to a query, record by record. Names are
+     * compressed against those written before them, unless compression is
+     * turned off.
+     */
+    public static class Message
+    {
+        /** The query being answered. */
+        private final Query query;
+        /** Writes the records of each section, in order. */
+        private final List<List<Consumer<Writer>>> sections;
+        /** The RCODE of the reply. */
+        private int rcode;
+        /** Whether names are compressed. */
+        private boolean compress;
+
+        /**
+         * Starts a reply to a query, with the question copied from it and
+         * no records.
+         * @param query The query being answered.
+         */
+        public Message(Query query)
+        {
+            this.query    = query;
+            this.compress = true;
+            this.sections = new ArrayList<>(SECTIONS);
+            for (int i = 0; i < SECTIONS; i++)
+                sections.add(new ArrayList<>());
+        }
+
+        /**
+         * Sets the RCODE, such as 3 for NXDOMAIN.
+         * @param rcode The RCODE.
+         * @return This message.
+         */
+        public Message rcode(int rcode)
+        {
+            this.rcode = rcode;
+            return this;
+        }
+
+        /**
+         * Turns name compression on or off.
+         * @param compress Whether names are compressed.
+         * @return This message.
+         */
+        public Message compress(boolean compress)
+        {
+            this.compress = compress;
+            return this;
+        }
+
+        /**
+         * Adds an A record.
+         * @param section The section to add it to.
+         * @param name The owner name.
+         * @param ttl The TTL.
+         * @param address The address, in dotted form.
+         * @return This message.
+         */
+        public Message a(int section, String name, int ttl, String address)
+        {
+            String[] octets = address.split("\\.");
+            return add(section, name, RecordType.A, ttl, w ->
+            {
+                for (String octet : octets)
+                    w.put(Integer.parseInt(octet));
+            });
+        }
+
+        /**
+         * Adds a CNAME record.
+         * @param section The section to add it to.
+         * @param name The owner name.
+         * @param ttl The TTL.
+         * @param target The name it is an alias for.
+         * @return This message.
+         */
+        public Message cname(int section, String name, int ttl, String target)
+        {
+            return add(section, name, RecordType.CNAME, ttl,
+                       w -> w.putName(target));
+        }
+
+        /**
+         * Adds an NS record.
+         * @param section The section to add it to.
+         * @param name The owner name.
+         * @param ttl The TTL.
+         * @param server The name server.
+         * @return This message.
+         */
+        public Message ns(int section, String name, int ttl, String server)
+        {
+            return add(section, name, RecordType.NS, ttl,
+                       w -> w.putName(server));
+        }
+
+        /**
+         * Adds an MX record.
+         * @param section The section to add it to.
+         * @param name The owner name.
+         * @param ttl The TTL.
+         * @param preference The preference of the exchange.
+         * @param exchange The mail exchange.
+         * @return This message.
+         */
+        public Message mx(int section, String name, int ttl, int preference,
+                          String exchange)
+        {
+            return add(section, name, RecordType.MX, ttl, w ->
+            {
+                w.putShort(preference);
+                w.putName(exchange);
+            });
+        }
+
+        /**
+         * Adds an SOA record.
+         * @param section The section to add it to.
+         * @param zone The zone it is the SOA of.
+         * @param ttl The TTL.
+         * @param mname The zone's primary server.
+         * @param rname The mailbox of the zone's administrator.
+         * @param fields The serial, refresh, retry, expire and minimum.
+         * @return This message.
+         */
+        public Message soa(int section, String zone, int ttl, String mname,
+                           String rname, int... fields)
+        {
+            int[] ints = Arrays.copyOf(fields, SOA_INTS);
+            return add(section, zone, RecordType.SOA, ttl, w ->
+            {
+                w.putName(mname);
+                w.putName(rname);
+                for (int field : ints)
+                    w.putInt(field);
+            });
+        }
+
+        /**
+         * Adds an OPT record to the additional section.
+         * @param payloadSize The largest UDP payload we can take.
+         * @return This message.
+         */
+        public Message opt(int payloadSize)
+        {
+            sections.get(ADDITIONAL).add(w ->
+            {
+                w.put(0);
+                w.putShort(RecordType.OPT.toShort());
+                w.putShort(payloadSize);
+                w.putInt(0);
+                w.putShort(0);
+            });
+            return this;
+        }
+
+        /**
+         * Adds a record whose RDATA is written by the caller.
+         * @param section The section to add it to.
+         * @param name The owner name.
+         * @param type The record type.
+         * @param ttl The TTL.
+         * @param rdata Writes the RDATA.
+         * @return This message.
+         */
+        private Message add(int section, String name, RecordType type,
+                            int ttl, Consumer<Writer> rdata)
+        {
+            sections.get(section).add(w ->
+            {
+                w.putName(name);
+                w.putShort(type.toShort());
+                w.putShort(CLASS_IN);
+                w.putInt(ttl);
+                int lengthAt = w.length;
+                w.putShort(0);
+                rdata.accept(w);
+                w.setShort(lengthAt, w.length - lengthAt - Short.BYTES);
+            });
+            return this;
+        }
+
+        /**
+         * Writes the message out.
+         * @return The message, in wire format.
+         */
+        public byte[] build()
+        {
+            Writer w = new Writer(compress);
+            w.putShort(query.getId());
+            w.putShort(QR_RD_RA | rcode);
+            w.putShort(1);
+            for (int i = ANSWER; i < SECTIONS; i++)
+                w.putShort(sections.get(i).size());
+            int nameAt = w.length;
+            w.putBytes(query.question);
+            w.remember(query.getName(), nameAt);
+            for (int i = ANSWER; i < SECTIONS; i++)
+                for (Consumer<Writer> record : sections.get(i))
+                    record.accept(w);
+            return Arrays.copyOf(w.buffer, w.length);
+        }
+    }
+
+    /**
+     * A growable buffer that messages are written into, which remembers
+     * where each name was written so later ones can point back to it.
+     */
+    private static class Writer
+    {
+        /** The bytes written so far, and room for more. */
+        private byte[] buffer;
+        /** The number of bytes written. */
+        private int length;
+        /** Where each name, and each suffix of one, was written. */
+        private final Map<String, Integer> names;
+        /** Whether names are compressed. */
+        private final boolean compress;
+
+        /**
+         * Creates an empty writer.
+         * @param compress Whether names are compressed.
+         */
+        private Writer(boolean compress)
+        {
+            this.buffer   = new byte[DEFAULT_PAYLOAD];
+            this.names    = new HashMap<>();
+            this.compress = compress;
+        }
+
+        /**
+         * Writes one byte.
+         * @param b The byte, in the low 8 bits.
+         */
+        private void put(int b)
+        {
+            if (length == buffer.length)
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            buffer[length++] = (byte) b;
+        }
+
+        /**
+         * Writes two bytes, in network order.
+         * @param s The value, in the low 16 bits.
+         */
+        private void putShort(int s)
+        {
+            put(s >>> Byte.SIZE);
+            put(s);
+        }
+
+        /**
+         * Writes four bytes, in network order.
+         * @param i The value.
+         */
+        private void putInt(int i)
+        {
+            putShort(i >>> Short.SIZE);
+            putShort(i);
+        }
+
+        /**
+         * Overwrites two bytes already written.
+         * @param at Where the bytes are.
+         * @param s The value, in the low 16 bits.
+         */
+        private void setShort(int at, int s)
+        {
+            buffer[at] = (byte) (s >>> Byte.SIZE);
+            buffer[at + 1] = (byte) s;
+        }
+
+        /**
+         * Writes an array of bytes.
+         * @param bytes The bytes.
+         */
+        private void putBytes(byte[] bytes)
+        {
+            for (byte b : bytes)
+                put(b);
+        }
+
+        /**
+         * Writes a name, pointing back to the longest suffix of it that has
+         * already been written, if compressing.
+         * @param name The name, with labels separated by dots.
+         */
+        private void putName(String name)
+        {
+            String rest = name.toLowerCase();
+            while (!rest.isEmpty())
+            {
+                Integer earlier = compress ? names.get(rest) : null;
+                if (earlier != null)
+                {
+                    putShort(POINTER | earlier);
+                    return;
+                }
+                remember(rest, length);
+                int end = rest.indexOf(Request.LABEL_SEPARATOR);
+                String label = end < 0 ? rest : rest.substring(0, end);
+                byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+                put(bytes.length);
+                putBytes(bytes);
+                rest = end < 0 ? "" : rest.substring(end + 1);
+            }
+            put(0);
+        }
+
+        /**
+         * Notes where a name was written, if it is near enough the start
+         * for a pointer to reach.
+         * @param name The name.
+         * @param at Where it was written.
+         */
+        private void remember(String name, int at)
+        {
+            if (at > MAX_POINTER)
+                return;
+            names.putIfAbsent(name, at);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * Wire-format DNS responses for the benchmarks to parse, one for each shape
+ * of answer the resolver sees most: a plain address, a CNAME chain, MX
+ * records leaning on compression, a delegation with glue, and a negative
+ * answer with its SOA. Each is laid out as the server sent it, down to the
+ * compression pointers and the trailing OPT record.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class WireCorpus
+{
+    /** The number of hex digits in a byte. */
+    public static final int HEX_DIGITS = 2;
+    /** The radix of the hex digits. */
+    public static final int HEX_RADIX  = 16;
+
+    /** A lookup of www.example.com, answered with one address. */
+    public static final byte[] A = hex(
+            "1a2b8180000100010000000103777777076578616d706c6503636f6d00000100" +
+            "01c00c0001000100000e1000045db8d82200002904d0000000000000");
+    /** A lookup of www.microsoft.com, answered through a chain of three
+     *  CNAMEs into a CDN. */
+    public static final byte[] CNAME_CHAIN = hex(
+            "2c3d8180000100040000000103777777096d6963726f736f667403636f6d0000" +
+            "010001c00c0005000100000e10002303777777096d6963726f736f667407636f" +
+            "6d2d632d3307656467656b6579036e657400c02f000500010000038400370377" +
+            "7777096d6963726f736f667407636f6d2d632d3307656467656b6579036e6574" +
+            "0b676c6f62616c726564697206616b61646e73c04dc05e000500010000038400" +
+            "190665313336373804647363620a616b616d616965646765c04dc0a100010001" +
+            "000000140004173670b500002904d0000000000000");
+    /** An MX lookup of gmail.com, with five exchanges compressed against
+     *  each other. */
+    public static final byte[] MX = hex(
+            "3e4f8180000100050000000105676d61696c03636f6d00000f0001c00c000f00" +
+            "0100000e10001b00050d676d61696c2d736d74702d696e016c06676f6f676c65" +
+            "c012c00c000f000100000e100009000a04616c7431c029c00c000f000100000e" +
+            "100009001404616c7432c029c00c000f000100000e100009001e04616c7433c0" +
+            "29c00c000f000100000e100009002804616c7434c02900002904d00000000000" +
+            "00");
+    /** An NS lookup of google.com, with glue addresses for each server in
+     *  the additional section. */
+    public static final byte[] NS_GLUE = hex(
+            "4a5b8180000100040000000506676f6f676c6503636f6d0000020001c00c0002" +
+            "00010002a3000006036e7331c00cc00c000200010002a3000006036e7332c00c" +
+            "c00c000200010002a3000006036e7333c00cc00c000200010002a3000006036e" +
+            "7334c00cc028000100010002a3000004d8ef200ac03a000100010002a3000004" +
+            "d8ef220ac04c000100010002a3000004d8ef240ac05e000100010002a3000004" +
+            "d8ef260a00002904d0000000000000");
+    /** An NXDOMAIN for nosuchhost.example.com, with the zone's SOA in
+     *  the authority section. */
+    public static final byte[] SOA_NXDOMAIN = hex(
+            "5c6d818300010000000100010a6e6f73756368686f7374076578616d706c6503" +
+            "636f6d0000010001c0170006000100000e10002c026e73056963616e6e036f72" +
+            "6700036e6f6303646e73c03778a5082c00001c2000000e100012750000000e10" +
+            "00002904d0000000000000");
+
+    /** Every response above, in the order they are declared. */
+    public static final byte[][] ALL   = {A, CNAME_CHAIN, MX, NS_GLUE,
+                                          SOA_NXDOMAIN};
+    /** The names of the responses in ALL, in the same order. */
+    public static final String[] NAMES = {"A", "CNAME_CHAIN", "MX",
+                                          "NS_GLUE", "SOA_NXDOMAIN"};
+
+    /**
+     * Returns the identifier a response carries, which is what the request
+     * it answers must have had.
+     * @param response The response.
+     * @return Its identifier.
+     */
+    public static byte[] identifier(byte[] response)
+    {
+        return new byte[] {response[0], response[1]};
+    }
+
+    /**
+     * Turns a string of hex digits into the bytes they spell.
+     * @param digits The hex digits, two for each byte.
+     * @return The bytes.
+     */
+    private static byte[] hex(String digits)
+    {
+        byte[] bytes = new byte[digits.length() / HEX_DIGITS];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = (byte) Integer.parseInt(digits.substring(
+                    i * HEX_DIGITS, (i + 1) * HEX_DIGITS), HEX_RADIX);
+        return bytes;
+    }
+}
@@ -1,7 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.util.List;
-
 /**
  * Record for the ARecord type.
  * @author Tyler Allen
@@ -17,8 +15,8 @@ public class ARecord extends Record
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected ARecord(String name, RecordType type, String classType, int ttl,
-                      List<Byte> rdata)
+    protected ARecord(DomainName name, RecordType type, String classType,
+                      int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
     }
@@ -40,10 +38,10 @@ public class ARecord extends Record
      */
     private String formatRData()
     {
-        String returnVal = "";
-        for (Byte bite : getRdata())
+        StringBuilder returnVal = new StringBuilder();
+        for (byte bite : getRdata())
         {
-            returnVal += Util.unsignByteToShort(bite) + ".";
+            returnVal.append(Util.unsignByteToShort(bite)).append('.');
         }
         return returnVal.substring(0, returnVal.length() - 1);
     }
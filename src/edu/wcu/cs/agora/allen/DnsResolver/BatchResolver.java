@@ -0,0 +1,391 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A BatchResolver resolves a stream of domain names, one per line, keeping a
+ * bounded number of requests in flight at once through
+ * Resolver.resolveAsync. Each line holds a name, optionally followed by the
+ * type of record to look up; lines without a type use the default type.
+ * Blank lines and lines starting with '#' are skipped.
+ *
+ * Answers that stop at a CNAME record are followed, through the same
+ * server, to the records asked for, as Main does.
+ *
+ * Alternatively, each name can be resolved on a thread of its own from a
+ * QueryExecutor, through the Resolver's blocking calls; the window then
+ * bounds the number of threads. Where the JVM has virtual threads, this
+ * keeps tens of thousands of names in flight without a thread each to pay
+ * for.
+ *
+ * Answers are written out as each request completes, so they are not in the
+ * order of the input. Failures are written to System.err, and a summary of
+ * the run is written there at the end.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class BatchResolver
+{
+    /** The number of requests in flight at once by default. */
+    public static final int DEFAULT_WINDOW = 256;
+    /** Starts a comment line in the input. */
+    public static final String COMMENT     = "#";
+    /** Separates the name from the type on a line of input. */
+    public static final String SEPARATOR   = "\\s+";
+    /** The number of nanoseconds in a millisecond. */
+    public static final long NANOS_IN_MS   = 1_000_000L;
+    /** The number of milliseconds in a second. */
+    public static final double MS_IN_SEC   = 1000.0;
+
+    /** The resolver requests are made through. */
+    private final Resolver resolver;
+    /** The DNS servers requests are sent to. */
+    private final UpstreamPool upstreams;
+    /** The record type for lines that don't name one. */
+    private final String defaultType;
+    /** Bounds the number of requests in flight. */
+    private final Semaphore window;
+    /** The number of permits in window. */
+    private final int windowSize;
+    /** Resolves each name on a thread of its own, or null to resolve them
+     *  through resolveAsync. */
+    private final QueryExecutor queries;
+    /** Retries truncated answers over TCP, whose calls block, when names are
+     *  resolved through resolveAsync; otherwise null. There are never more
+     *  of these than the window holds, so it never makes the thread that
+     *  completed the UDP request wait. */
+    private final QueryExecutor fallbacks;
+    /** Answers are written here. */
+    private final PrintWriter out;
+    /** Writes answers out in the order they complete, off the threads that
+     *  complete them. */
+    private final ExecutorService writer;
+    /** The number of names resolved. */
+    private final AtomicLong resolved;
+    /** The number of names that could not be resolved. */
+    private final AtomicLong failed;
+
+    /**
+     * Creates a BatchResolver, and sets the servers it sends requests to as
+     * the Resolver's upstream servers.
+     * @param upstreams The DNS servers to send requests to.
+     * @param defaultType The record type for lines that don't name one.
+     * @param windowSize The most requests in flight at once.
+     * @param out Where answers are written.
+     */
+    public BatchResolver(UpstreamPool upstreams, String defaultType,
+                         int windowSize, PrintWriter out)
+    {
+        this(upstreams, defaultType, windowSize, out, false);
+    }
+
+    /**
+     * Creates a BatchResolver, and sets the servers it sends requests to as
+     * the Resolver's upstream servers.
+     * @param upstreams The DNS servers to send requests to.
+     * @param defaultType The record type for lines that don't name one.
+     * @param windowSize The most requests in flight at once.
+     * @param out Where answers are written.
+     * @param threadPerQuery Whether to resolve each name on a thread of its
+     *                       own, rather than through resolveAsync.
+     */
+    public BatchResolver(UpstreamPool upstreams, String defaultType,
+                         int windowSize, PrintWriter out,
+                         boolean threadPerQuery)
+    {
+        this.resolver    = Resolver.getInstance();
+        this.upstreams   = upstreams;
+        this.defaultType = defaultType;
+        this.windowSize  = windowSize;
+        this.window      = new Semaphore(windowSize);
+        this.queries     = threadPerQuery ?
+                           new QueryExecutor("dns-batch-query", windowSize) :
+                           null;
+        this.fallbacks   = threadPerQuery ? null :
+                           new QueryExecutor("dns-batch-tcp", windowSize);
+        this.out         = out;
+        this.writer      = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "dns-batch-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.resolved    = new AtomicLong();
+        this.failed      = new AtomicLong();
+        resolver.setUpstreams(upstreams);
+    }
+
+    /**
+     * Resolves every name read from in, and waits for the last of them to
+     * complete before writing the summary.
+     * @param in The names to resolve, one per line.
+     * @throws IOException If in can't be read.
+     * @throws InterruptedException If interrupted while waiting for room in
+     *                              the window.
+     */
+    public void run(BufferedReader in) throws IOException, InterruptedException
+    {
+        long start = System.nanoTime();
+        String line;
+        while ((line = in.readLine()) != null)
+        {
+            line = line.trim();
+            if (!line.isEmpty() && !line.startsWith(COMMENT))
+                submit(line);
+        }
+        // Every permit is back once every request has completed.
+        if (queries != null)
+        {
+            queries.awaitIdle();
+            queries.close();
+        }
+        else
+        {
+            window.acquire(windowSize);
+            fallbacks.close();
+        }
+        writer.shutdown();
+        writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        out.flush();
+        summarize(System.nanoTime() - start);
+    }
+
+    /**
+     * Starts the request for one line of input, once there is room for it in
+     * the window.
+     * @param line The line, holding a name and optionally a type.
+     * @throws InterruptedException If interrupted while waiting for room.
+     */
+    private void submit(String line) throws InterruptedException
+    {
+        String[] parts = line.split(SEPARATOR);
+        String name = parts[0];
+        String type = parts.length > 1 ? parts[1] : defaultType;
+        if (RecordType.codeLookup(type) == null)
+        {
+            report(name, type, new DnsException("Unsupported Record Type"));
+            return;
+        }
+        if (queries != null)
+        {
+            queries.execute(() -> resolveBlocking(name, type));
+            return;
+        }
+        window.acquire();
+        Request request;
+        try
+        {
+            request = resolver.newRequest(name, type);
+        }
+        catch (IOException ioe)
+        {
+            window.release();
+            report(name, type, ioe);
+            return;
+        }
+        CnameChain chain = new CnameChain(request.getName(),
+                                          request.getTypeCode(),
+                                          Resolver.CNAME_DEPTH);
+        resolve(request, 1).thenCompose(response ->
+                follow(request, chain, response))
+                .whenCompleteAsync((response, e) ->
+        {
+            if (response != null)
+                write(response);
+            else
+                report(name, type, e);
+            window.release();
+        }, writer);
+    }
+
+    /**
+     * Resolves a name on the calling thread, through the Resolver's blocking
+     * calls, following any CNAME records, and hands the answers to the
+     * writer.
+     * @param name The name.
+     * @param type The type of record to look up.
+     */
+    private void resolveBlocking(String name, String type)
+    {
+        Resolver.Response response;
+        try
+        {
+            Request request = resolver.newRequest(name, type);
+            response = resolver.followCnames(request,
+                    resolver.resolve(request, Main.UDP_ATTEMPTS),
+                    Resolver.CNAME_DEPTH);
+        }
+        catch (IOException ioe)
+        {
+            report(name, type, ioe);
+            return;
+        }
+        writer.execute(() -> write(response));
+    }
+
+    /**
+     * Resolves a request, trying UDP up to Main.UDP_ATTEMPTS times and
+     * falling back to TCP if the UDP response is truncated. Each attempt
+     * goes to the upstream server that is fastest at the time. The TCP
+     * request is made on a thread from fallbacks.
+     * @param request The request to resolve.
+     * @param attempt The number of this UDP attempt, starting at 1.
+     * @return A future that completes with the Response.
+     */
+    private CompletableFuture<Resolver.Response> resolve(Request request,
+                                                         int attempt)
+    {
+        return resolver.resolveAsync(request).handle((response, e) ->
+        {
+            if (response != null)
+                return CompletableFuture.completedFuture(response);
+            Throwable cause = unwrap(e);
+            if (cause instanceof SocketTimeoutException &&
+                attempt < Main.UDP_ATTEMPTS)
+                return retry(request, attempt + 1);
+            if (cause instanceof TruncatedUdpPacketException)
+                return CompletableFuture.supplyAsync(() ->
+                {
+                    try
+                    {
+                        return resolver.makeTcpRequest(request);
+                    }
+                    catch (IOException ioe)
+                    {
+                        throw new CompletionException(ioe);
+                    }
+                }, fallbacks);
+            return CompletableFuture.<Resolver.Response>failedFuture(cause);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Resolves a request again after a timeout, through whichever upstream
+     * server is fastest by now.
+     * @param request The request that timed out.
+     * @param attempt The number of this UDP attempt.
+     * @return A future that completes with the Response.
+     */
+    private CompletableFuture<Resolver.Response> retry(Request request,
+                                                       int attempt)
+    {
+        resolver.getMetrics().recordRetry();
+        try
+        {
+            return resolve(resolver.newRequest(request.getName(),
+                    RecordType.nameLookup(request.getTypeCode())), attempt);
+        }
+        catch (IOException ioe)
+        {
+            return CompletableFuture.failedFuture(ioe);
+        }
+    }
+
+    /**
+     * Adds a Response to a chain of CNAME records, and resolves the next
+     * name in the chain, if there is one, through the same server.
+     * @param request The request the chain started from.
+     * @param chain The chain.
+     * @param response The Response to the last name resolved.
+     * @return A future that completes with the Response holding the whole
+     *         chain, or with NxDomainException if a target does not exist.
+     */
+    private CompletableFuture<Resolver.Response> follow(Request request,
+            CnameChain chain, Resolver.Response response)
+    {
+        Request hop;
+        try
+        {
+            DomainName next = chain.add(response);
+            if (next == null)
+                return CompletableFuture.completedFuture(chain.getResponse());
+            hop = request.forName(next);
+        }
+        catch (IOException ioe)
+        {
+            return CompletableFuture.failedFuture(ioe);
+        }
+        return resolve(hop, 1).handle((next, e) ->
+        {
+            if (next != null)
+                return follow(request, chain, next);
+            Throwable cause = unwrap(e);
+            if (cause instanceof NxDomainException)
+                cause = chain.end((NxDomainException) cause);
+            return CompletableFuture.<Resolver.Response>failedFuture(cause);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Writes the answers of a Response.
+     * @param response The Response to write.
+     */
+    private void write(Resolver.Response response)
+    {
+        resolved.incrementAndGet();
+        long start = System.nanoTime();
+        for (Record record : response.getAnswers())
+            out.println(record);
+        resolver.getMetrics().recordFormat(response,
+                                           System.nanoTime() - start);
+    }
+
+    /**
+     * Reports a name that could not be resolved.
+     * @param name The name.
+     * @param type The type of record requested.
+     * @param e The reason it could not be resolved.
+     */
+    private void report(String name, String type, Throwable e)
+    {
+        failed.incrementAndGet();
+        Throwable cause = unwrap(e);
+        System.err.println(name + "\t" + type + "\t" +
+                           cause.getClass().getSimpleName() + ": " +
+                           cause.getMessage());
+    }
+
+    /**
+     * Writes the number of names resolved and failed, the rate they were
+     * resolved at, and the statistics of each upstream server, to
+     * System.err.
+     * @param elapsed The time the whole batch took, in ns.
+     */
+    private void summarize(long elapsed)
+    {
+        long ms = Math.max(1, elapsed / NANOS_IN_MS);
+        long total = resolved.get() + failed.get();
+        System.err.printf("%nResolved %d of %d names in %d ms " +
+                          "(%.1f names/s), %d failed.%n", resolved.get(),
+                          total, ms, total * MS_IN_SEC / ms, failed.get());
+        System.err.printf("%d requests to upstream servers, %d hedged.%n",
+                          upstreams.getRequests(), upstreams.getHedges());
+        if (queries != null)
+            System.err.println("Names resolved on " + queries + ".");
+        for (UpstreamPool.Upstream upstream : upstreams.getUpstreams())
+            System.err.println(upstream);
+    }
+
+    /**
+     * Removes the CompletionException futures wrap their failures in.
+     * @param e The failure.
+     * @return The failure that caused it.
+     */
+    private static Throwable unwrap(Throwable e)
+    {
+        while (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+}
@@ -1,8 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 /**
  * Record for the CNAME Record type.
  * @author Tyler Allen
@@ -10,39 +7,40 @@ import java.util.List;
  */
 public class CNAMERecord extends Record
 {
+    /** The canonical name this record's name is an alias for. */
+    private final DomainName target;
+
     /**
-     * Constructor simply calls super.
+     * Calls super, and reads the canonical name out of the RDATA.
      * @param name Associated with the name field in Record.
      * @param type Associated with the type field in Record.
      * @param classType Associated with the classType field in Record.
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected CNAMERecord(String name, RecordType type, String classType,
-                          int ttl, List<Byte> rdata)
+    protected CNAMERecord(DomainName name, RecordType type, String classType,
+                          int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
+        this.target = DomainName.fromWire(rdata, 0);
     }
 
     /**
-     * Adds the rData for this record to super.toString().
-     * @return The newly created toString.
+     * Returns the name this record is an alias for.
+     * @return The canonical name.
      */
-    @Override
-    public String toString()
+    public DomainName getTarget()
     {
-        return super.toString() + formatRData();
+        return target;
     }
 
     /**
-     * Formats the RDATA in a readable format. Because this contains domain
-     * addresses, it is already formatted. We simply transform the bytes into
-     * String form.
-     * @return The string form of the RDATA.
+     * Adds the rData for this record to super.toString().
+     * @return The newly created toString.
      */
-    private String formatRData()
+    @Override
+    public String toString()
     {
-        return new String(Util.unboxBytes(getRdata()),
-                          StandardCharsets.UTF_8);
+        return super.toString() + target;
     }
 }
@@ -0,0 +1,122 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * A CacheKey identifies one question: a domain name, a record type and a
+ * class. Names are DomainNames, so they are compared without regard to
+ * case or a trailing '.', as DNS does. The hash depends only on the
+ * question, so it is the same from one run to the next.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class CacheKey
+{
+    /** The class code for the Internet class, which every Request uses. */
+    public static final short CLASS_IN = 1;
+
+    /** The domain name. */
+    private final DomainName name;
+    /** The code of the type of record. */
+    private final short typeCode;
+    /** The class code of the record. */
+    private final short classType;
+    /** Computed once, as keys are hashed on every cache lookup. */
+    private final int hash;
+
+    /**
+     * Creates a key for a question.
+     * @param name The domain name.
+     * @param type The type of record.
+     * @param classType The class code of the record.
+     */
+    public CacheKey(DomainName name, RecordType type, short classType)
+    {
+        this(name, type.toShort(), classType);
+    }
+
+    /**
+     * Creates a key for a question about a type, which RecordType may not
+     * name.
+     * @param name The domain name.
+     * @param typeCode The code of the type of record.
+     * @param classType The class code of the record.
+     */
+    public CacheKey(DomainName name, short typeCode, short classType)
+    {
+        this.name = name;
+        this.typeCode = typeCode;
+        this.classType = classType;
+        this.hash = (name.hashCode() * 31 + typeCode) * 31 + classType;
+    }
+
+    /**
+     * Creates the key for the question a Request asks.
+     * @param request The request.
+     * @return The key for the request.
+     */
+    public static CacheKey of(Request request)
+    {
+        return new CacheKey(request.getName(), request.getTypeCode(),
+                            CLASS_IN);
+    }
+
+    /**
+     * Getter for name.
+     * @return The domain name.
+     */
+    public DomainName getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the type of record.
+     * @return The RecordType, or null if RecordType doesn't name it.
+     */
+    public RecordType getType()
+    {
+        return RecordType.reverseTypeLookup(typeCode);
+    }
+
+    /**
+     * Getter for typeCode.
+     * @return The code of the type of record.
+     */
+    public short getTypeCode()
+    {
+        return typeCode;
+    }
+
+    /**
+     * Getter for classType.
+     * @return The class code of the record.
+     */
+    public short getClassType()
+    {
+        return classType;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof CacheKey))
+            return false;
+        CacheKey other = (CacheKey) o;
+        return hash == other.hash && typeCode == other.typeCode &&
+               classType == other.classType && name.equals(other.name);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name + "/" + RecordType.nameLookup(typeCode) + "/" + classType;
+    }
+}
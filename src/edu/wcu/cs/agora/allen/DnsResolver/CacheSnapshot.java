@@ -0,0 +1,527 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * A CacheSnapshot is a file of the entries of a ResponseCache, written by
+ * one run so that the next starts with them rather than an empty cache.
+ * The snapshot is mapped into memory, not read: a ResponseCache it is set
+ * on looks a question up in it when the cache has no entry, and restores
+ * the entry found there if it has not expired. Only the header and index
+ * are checked when the snapshot is opened; the entries are read as they
+ * are asked for.
+ *
+ * The file starts with a header, then the entries, each laid out as an
+ * OffHeapResponseCache block, with the times it was stored and expires in
+ * milliseconds of the wall clock, as System.nanoTime() means nothing to
+ * another run. The index comes last: a table of slots, probed linearly,
+ * each holding the hash of a question, the offset of its entry, or 0 if
+ * the slot is empty, and the CRC-32 of the entry. The header holds a
+ * checksum of itself and the index. An entry is checked against its CRC
+ * when it is read, and one that doesn't match is treated as missing.
+ *
+ * A snapshot is written to a temporary file and moved into place, so a
+ * snapshot being read is never written over. Entries of the snapshot a
+ * cache falls back on that it has not restored, and that have not
+ * expired, are carried over to the next. It is at most MAX_FILE bytes,
+ * as a mapped file can't be larger; entries beyond that are left out.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class CacheSnapshot
+{
+    /** The first four bytes of a snapshot: "DNSC". */
+    public static final int  MAGIC    = 0x444E5343;
+    /** The version of the layout this class writes and reads. */
+    public static final int  VERSION  = 3;
+    /** The largest snapshot written or read, in bytes. */
+    public static final long MAX_FILE = Integer.MAX_VALUE;
+    /** How often a snapshot is written by default, in seconds. */
+    public static final int  DEFAULT_INTERVAL = 300;
+
+    // The layout of the header.
+    /** MAGIC. An int. */
+    private static final int MAGIC_AT    = 0;
+    /** VERSION. An int. */
+    private static final int VERSION_AT  = 4;
+    /** When the snapshot was written, in ms of the wall clock. A long. */
+    private static final int WRITTEN_AT  = 8;
+    /** The number of entries. An int. */
+    private static final int ENTRIES_AT  = 16;
+    /** The number of slots in the index, a power of two. An int. */
+    private static final int SLOTS_AT    = 20;
+    /** Where the index starts. An int. */
+    private static final int INDEX_AT    = 24;
+    /** The CRC-32 of the rest of the header and the index. An int. */
+    private static final int CHECKSUM_AT = 28;
+    /** The length of the header. */
+    private static final int HEADER      = 32;
+    /** The length of a slot of the index: a hash, an offset, then a
+     *  CRC-32. */
+    private static final int SLOT        = 12;
+    /** Where in a slot the offset is. */
+    private static final int OFFSET      = 4;
+    /** Where in a slot the CRC-32 is. */
+    private static final int ENTRY_CRC   = 8;
+    /** The fewest slots an index has. */
+    private static final int MIN_SLOTS   = 16;
+    /** The size of the buffer entries are written through. */
+    private static final int WRITE_BUFFER = 1 << 16;
+
+    /** The file, mapped into memory. Only read at absolute positions or
+     *  through slices, so callers can share it. */
+    private final MappedByteBuffer file;
+    /** Where the index starts. */
+    private final int index;
+    /** The number of slots in the index. */
+    private final int slots;
+    /** The number of entries. */
+    private final int entries;
+    /** When the snapshot was written, in ms of the wall clock. */
+    private final long written;
+    /** The number of entries restored from the snapshot. */
+    private final LongAdder restored;
+
+    /**
+     * Creates a snapshot of a file already mapped and checked.
+     * @param file The file.
+     * @param index Where its index starts.
+     * @param slots The number of slots in its index.
+     * @param entries The number of entries it holds.
+     * @param written When it was written, in ms of the wall clock.
+     */
+    private CacheSnapshot(MappedByteBuffer file, int index, int slots,
+                          int entries, long written)
+    {
+        this.file     = file;
+        this.index    = index;
+        this.slots    = slots;
+        this.entries  = entries;
+        this.written  = written;
+        this.restored = new LongAdder();
+    }
+
+    /**
+     * Maps a snapshot into memory, checking its header and index.
+     * @param path The file.
+     * @return The snapshot.
+     * @throws IOException If the file can't be read, or isn't a snapshot
+     *                     this class wrote.
+     */
+    public static CacheSnapshot open(Path path) throws IOException
+    {
+        MappedByteBuffer file;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.READ))
+        {
+            long size = channel.size();
+            if (size < HEADER || size > MAX_FILE)
+                throw invalid(path, "its size, " + size + " bytes");
+            file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (file.getInt(MAGIC_AT) != MAGIC)
+            throw invalid(path, "its magic number");
+        if (file.getInt(VERSION_AT) != VERSION)
+            throw invalid(path, "its version, " + file.getInt(VERSION_AT));
+        int slots = file.getInt(SLOTS_AT);
+        int index = file.getInt(INDEX_AT);
+        int entries = file.getInt(ENTRIES_AT);
+        if (slots < MIN_SLOTS || Integer.bitCount(slots) != 1 ||
+            index < HEADER || (long) index + (long) slots * SLOT !=
+            file.capacity() || entries < 0 || entries >= slots)
+            throw invalid(path, "its index");
+        if (file.getInt(CHECKSUM_AT) != checksum(file, index))
+            throw invalid(path, "its checksum");
+        return new CacheSnapshot(file, index, slots, entries,
+                                 file.getLong(WRITTEN_AT));
+    }
+
+    /**
+     * Creates the exception for a file that isn't a snapshot.
+     * @param path The file.
+     * @param what What about it is wrong.
+     * @return The exception.
+     */
+    private static IOException invalid(Path path, String what)
+    {
+        return new IOException(path + " is not a cache snapshot: " + what +
+                               " is wrong.");
+    }
+
+    /**
+     * Works out the checksum of a snapshot: the CRC-32 of its header, up
+     * to the checksum, and of its index.
+     * @param file The snapshot.
+     * @param index Where its index starts.
+     * @return The checksum.
+     */
+    private static int checksum(ByteBuffer file, int index)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(file.duplicate().position(0).limit(CHECKSUM_AT));
+        crc.update(file.duplicate().position(index).limit(file.capacity()));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Hashes a question the same way in every run, which CacheKey's own
+     * hash does, spread so the low bits choose the slot.
+     * @param key The question.
+     * @return The hash.
+     */
+    private static int hash(CacheKey key)
+    {
+        int hash = key.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Looks a question up in the snapshot, and if its entry has not expired,
+     * puts the entry in a cache, with the time it has left.
+     * @param key The question.
+     * @param cache The cache to restore the entry to.
+     * @return The Response, with its TTLs counted down, or null if the
+     *         snapshot has no entry for the question that has not expired.
+     */
+    public Resolver.Response restore(CacheKey key, ResponseCache cache)
+    {
+        ByteBuffer block = find(key);
+        if (block == null)
+            return null;
+        long nowMs = System.currentTimeMillis();
+        long storedMs = OffHeapResponseCache.storedOf(block);
+        long expiresMs = OffHeapResponseCache.expiresOf(block);
+        if (expiresMs <= nowMs)
+            return null;
+        Resolver.Response response;
+        try
+        {
+            response = OffHeapResponseCache.decode(block, 0, false);
+        }
+        catch (RuntimeException e)
+        {
+            // Torn or corrupt; the question goes to the network instead.
+            return null;
+        }
+        long now = System.nanoTime();
+        cache.putEntry(key, response,
+                       now - TimeUnit.MILLISECONDS.toNanos(
+                               Math.max(nowMs - storedMs, 0)),
+                       now + TimeUnit.MILLISECONDS.toNanos(expiresMs - nowMs));
+        restored.increment();
+        int elapsed = (int) TimeUnit.MILLISECONDS.toSeconds(
+                Math.max(nowMs - storedMs, 0));
+        return elapsed == 0 ? response :
+               OffHeapResponseCache.decode(block, elapsed, false);
+    }
+
+    /**
+     * Finds the entry for a question.
+     * @param key The question.
+     * @return The entry, as a buffer of its own, or null if there is none
+     *         or it runs past the entries.
+     */
+    private ByteBuffer find(CacheKey key)
+    {
+        byte[] name = key.getName().toCanonicalWire();
+        int hash = hash(key);
+        int mask = slots - 1;
+        for (int probes = 0, i = hash & mask; probes < slots;
+             probes++, i = (i + 1) & mask)
+        {
+            int at = index + i * SLOT;
+            int offset = file.getInt(at + OFFSET);
+            if (offset == 0)
+                return null;
+            if (file.getInt(at) != hash)
+                continue;
+            if (offset < HEADER || !fits(offset,
+                    OffHeapResponseCache.HEADER + name.length))
+                return null;
+            if (!OffHeapResponseCache.matches(file, offset, key, name))
+                continue;
+            int length = OffHeapResponseCache.lengthOf(file, offset);
+            if (length < OffHeapResponseCache.HEADER + name.length ||
+                !fits(offset, length))
+                return null;
+            ByteBuffer block = file.slice(offset, length);
+            return crc(block) == file.getInt(at + ENTRY_CRC) ? block : null;
+        }
+        return null;
+    }
+
+    /**
+     * Works out the CRC-32 of an entry.
+     * @param block The entry.
+     * @return Its CRC-32.
+     */
+    private static int crc(ByteBuffer block)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(block.duplicate().position(0));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Checks that an entry lies within the entries, before the index.
+     * @param offset Where the entry starts.
+     * @param length Its length.
+     * @return True if it does.
+     */
+    private boolean fits(int offset, int length)
+    {
+        return length >= 0 && (long) offset + length <= index;
+    }
+
+    /**
+     * Writes a snapshot of a cache's entries that have not expired.
+     * @param cache The cache.
+     * @param path The file to write it to, which is replaced once the
+     *             snapshot is complete.
+     * @return The number of entries written.
+     * @throws IOException If the file can't be written.
+     */
+    public static int write(ResponseCache cache, Path path)
+                            throws IOException
+    {
+        Path dir = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, path.getFileName().toString(),
+                                         ".tmp");
+        long nowMs = System.currentTimeMillis();
+        long now = System.nanoTime();
+        int count;
+        try (FileChannel channel = FileChannel.open(temp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            Writer writer = new Writer(channel, HEADER);
+            cache.forEach((key, response, stored, expires) ->
+                    writer.add(key, OffHeapResponseCache.encode(key,
+                            key.getName().toCanonicalWire(),
+                            response,
+                            nowMs - TimeUnit.NANOSECONDS.toMillis(now - stored),
+                            nowMs + TimeUnit.NANOSECONDS.toMillis(
+                                    expires - now))));
+            CacheSnapshot previous = cache.getSnapshot();
+            if (previous != null)
+                previous.carryOver(cache, writer, nowMs);
+            writer.flush();
+            count = writer.count;
+            int slots = MIN_SLOTS;
+            while (slots < 2 * count)
+                slots *= 2;
+            int index = (int) writer.position;
+            ByteBuffer table = ByteBuffer.allocate(slots * SLOT);
+            for (int e = 0; e < count; e++)
+            {
+                int i = writer.hashes[e] & (slots - 1);
+                while (table.getInt(i * SLOT + OFFSET) != 0)
+                    i = (i + 1) & (slots - 1);
+                table.putInt(i * SLOT, writer.hashes[e]);
+                table.putInt(i * SLOT + OFFSET, writer.offsets[e]);
+                table.putInt(i * SLOT + ENTRY_CRC, writer.crcs[e]);
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER);
+            header.putInt(MAGIC_AT, MAGIC);
+            header.putInt(VERSION_AT, VERSION);
+            header.putLong(WRITTEN_AT, nowMs);
+            header.putInt(ENTRIES_AT, count);
+            header.putInt(SLOTS_AT, slots);
+            header.putInt(INDEX_AT, index);
+            CRC32 crc = new CRC32();
+            crc.update(header.duplicate().limit(CHECKSUM_AT));
+            crc.update(table.duplicate());
+            header.putInt(CHECKSUM_AT, (int) crc.getValue());
+            channel.write(table, index);
+            channel.write(header, 0);
+            channel.force(false);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Adds the entries of this snapshot that have not expired, and that a
+     * cache has no entry of its own for, to the snapshot being written.
+     * They are copied as they are, without building their Records.
+     * @param cache The cache.
+     * @param writer Writes the new snapshot.
+     * @param nowMs The current time, in ms of the wall clock.
+     */
+    private void carryOver(ResponseCache cache, Writer writer, long nowMs)
+    {
+        for (int i = 0; i < slots; i++)
+        {
+            int at = index + i * SLOT;
+            int offset = file.getInt(at + OFFSET);
+            if (offset < HEADER ||
+                !fits(offset, OffHeapResponseCache.HEADER))
+                continue;
+            int length = OffHeapResponseCache.lengthOf(file, offset);
+            if (length < OffHeapResponseCache.HEADER || !fits(offset, length))
+                continue;
+            ByteBuffer block = file.slice(offset, length);
+            if (OffHeapResponseCache.expiresOf(block) <= nowMs ||
+                crc(block) != file.getInt(at + ENTRY_CRC))
+                continue;
+            try
+            {
+                CacheKey key = OffHeapResponseCache.decodeKey(block);
+                if (cache.contains(key))
+                    continue;
+                byte[] bytes = new byte[length];
+                block.get(0, bytes);
+                writer.add(key, bytes);
+            }
+            catch (RuntimeException e)
+            {
+                // Torn or corrupt; it is left out.
+            }
+        }
+    }
+
+    /**
+     * The number of entries in the snapshot.
+     * @return The number of entries, expired or not.
+     */
+    public int getEntries()
+    {
+        return entries;
+    }
+
+    /**
+     * When the snapshot was written.
+     * @return The time, in ms of the wall clock.
+     */
+    public long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * The number of entries restored from the snapshot to a cache.
+     * @return The restored count.
+     */
+    public long getRestored()
+    {
+        return restored.sum();
+    }
+
+    /**
+     * Writes the entries of a snapshot through a buffer, noting the hash
+     * and offset of each for the index.
+     */
+    private static class Writer
+    {
+        /** The file written to. */
+        private final FileChannel channel;
+        /** Holds entries until there is a buffer's worth to write. */
+        private final ByteBuffer buffer;
+        /** Where in the file the buffer is written next. */
+        private long position;
+        /** The hash of each entry written. */
+        private int[] hashes;
+        /** The offset of each entry written. */
+        private int[] offsets;
+        /** The CRC-32 of each entry written. */
+        private int[] crcs;
+        /** The number of entries written. */
+        private int count;
+        /** The first exception writing, which stops any more entries. */
+        private IOException failure;
+
+        /**
+         * Creates a writer.
+         * @param channel The file to write to.
+         * @param position Where the first entry goes.
+         */
+        private Writer(FileChannel channel, long position)
+        {
+            this.channel  = channel;
+            this.buffer   = ByteBuffer.allocate(WRITE_BUFFER);
+            this.position = position;
+            this.hashes   = new int[MIN_SLOTS];
+            this.offsets  = new int[MIN_SLOTS];
+            this.crcs     = new int[MIN_SLOTS];
+        }
+
+        /**
+         * Adds an entry, unless it would take the snapshot past MAX_FILE,
+         * with room for the index.
+         * @param key The question it answers.
+         * @param block The entry, or null if it is too large for a block.
+         */
+        private void add(CacheKey key, byte[] block)
+        {
+            long end = position + buffer.position();
+            if (block == null || failure != null || end + block.length +
+                (long) 4 * (count + 1) * SLOT > MAX_FILE)
+                return;
+            if (count == hashes.length)
+            {
+                hashes  = Arrays.copyOf(hashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+                crcs    = Arrays.copyOf(crcs, count * 2);
+            }
+            hashes[count]  = hash(key);
+            offsets[count] = (int) end;
+            crcs[count]    = crc(ByteBuffer.wrap(block));
+            count++;
+            try
+            {
+                if (buffer.remaining() < block.length)
+                    flush();
+                if (buffer.remaining() < block.length)
+                    write(ByteBuffer.wrap(block));
+                else
+                    buffer.put(block);
+            }
+            catch (IOException ioe)
+            {
+                failure = ioe;
+            }
+        }
+
+        /**
+         * Writes what the buffer holds.
+         * @throws IOException The first exception writing, if any.
+         */
+        private void flush() throws IOException
+        {
+            if (failure != null)
+                throw failure;
+            buffer.flip();
+            write(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes bytes at the current position.
+         * @param bytes The bytes.
+         * @throws IOException If they can't be written.
+         */
+        private void write(ByteBuffer bytes) throws IOException
+        {
+            while (bytes.hasRemaining())
+                position += channel.write(bytes, position);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A CnameChain follows the CNAME records of one lookup to the records that
+ * were asked for. A server that answers with a CNAME whose target it doesn't
+ * hold, such as a target in another zone, stops the answer at the CNAME;
+ * the chain then names the target to be looked up next, and each Response
+ * added to it extends the chain, until one holds the records asked for, or
+ * says there are none.
+ *
+ * Every hop is looked up as a question of its own, so each is cached under
+ * its own name, and a later chain through the same names is answered from
+ * the cache. The answers of every hop are joined into a single Response.
+ *
+ * A name seen twice is a loop, and a chain longer than its depth is given
+ * up on; both are DnsExceptions.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class CnameChain
+{
+    /** The most CNAME records followed for one lookup by default. */
+    public static final int DEFAULT_MAX_DEPTH = 8;
+
+    /** The type code of the record being looked up. */
+    private final short type;
+    /** The most CNAME records followed; 0 follows none. */
+    private final int maxDepth;
+    /** Every name the chain has reached, to find loops. */
+    private final Set<DomainName> seen;
+    /** The name the chain has reached. */
+    private DomainName target;
+    /** The name last looked up. */
+    private DomainName asked;
+    /** The answers joined so far, or null before the first is added. */
+    private Resolver.Response response;
+
+    /**
+     * Creates a chain for a lookup.
+     * @param name The name looked up.
+     * @param type The type code of the record looked up.
+     * @param maxDepth The most CNAME records to follow; 0 follows none.
+     */
+    public CnameChain(DomainName name, short type, int maxDepth)
+    {
+        this.type     = type;
+        this.maxDepth = maxDepth;
+        this.target   = name;
+        this.asked    = target;
+        this.seen     = new HashSet<>();
+        seen.add(target);
+    }
+
+    /**
+     * Adds the Response to the last lookup, and follows its CNAME records
+     * as far as they go.
+     * @param next The Response to the first lookup, or to the last name
+     *             this method returned.
+     * @return The name to look up next, or null if the chain is complete.
+     * @throws DnsException If the chain loops, or is longer than the depth.
+     */
+    public DomainName add(Resolver.Response next) throws DnsException
+    {
+        response = response == null ? next : join(response, next);
+        if (maxDepth <= 0 || type == RecordType.CNAME.toShort())
+            return null;
+        DomainName alias;
+        while (!holdsType(next, target) &&
+               (alias = alias(next, target)) != null)
+        {
+            if (!seen.add(alias))
+                throw new DnsException("CNAME loop at \"" + alias + "\"");
+            if (seen.size() - 1 > maxDepth)
+                throw new DnsException("CNAME chain from \"" + first() +
+                                       "\" is longer than " + maxDepth);
+            target = alias;
+        }
+        if (target.equals(asked) || holdsType(next, target))
+            return null;
+        asked = target;
+        return target;
+    }
+
+    /**
+     * Ends the chain at a hop that does not exist.
+     * @param nxe The exception saying the last name looked up does not
+     *            exist.
+     * @return The exception saying so for the whole chain, holding the
+     *         answers that led there.
+     */
+    public NxDomainException end(NxDomainException nxe)
+    {
+        if (response == null)
+            return nxe;
+        return new NxDomainException(join(response, nxe.getResponse()));
+    }
+
+    /**
+     * Returns the answers joined so far.
+     * @return The Response, under the question first asked.
+     */
+    public Resolver.Response getResponse()
+    {
+        return response;
+    }
+
+    /**
+     * Joins the Response to a hop onto the chain so far. The question is
+     * the first one, the answers are those of every hop in turn, and the
+     * rest is the hop's.
+     * @param chain The chain so far.
+     * @param hop The Response to the hop.
+     * @return The joined Response.
+     */
+    private static Resolver.Response join(Resolver.Response chain,
+                                          Resolver.Response hop)
+    {
+        List<Record> answers = new ArrayList<>(chain.getAnswers().size() +
+                                               hop.getAnswers().size());
+        answers.addAll(chain.getAnswers());
+        answers.addAll(hop.getAnswers());
+        return new Resolver.Response(chain.getQueries(), answers,
+                hop.getAuthority(), hop.getAdditional(), hop.getRcode(),
+                hop.getOpt());
+    }
+
+    /**
+     * Checks if a Response holds records of the type asked for at a name.
+     * @param response The Response.
+     * @param name The name.
+     * @return True if one of its answers is such a record.
+     */
+    private boolean holdsType(Resolver.Response response, DomainName name)
+    {
+        for (Record record : response.getAnswers())
+            if (record.getTypeCode() == type &&
+                record.getDomainName().equals(name))
+                return true;
+        return false;
+    }
+
+    /**
+     * Finds the CNAME record of a name among the answers of a Response.
+     * @param response The Response.
+     * @param name The name.
+     * @return The name it is an alias for, or null if there is no such
+     *         record.
+     */
+    private static DomainName alias(Resolver.Response response,
+                                    DomainName name)
+    {
+        for (Record record : response.getAnswers())
+            if (record instanceof CNAMERecord &&
+                record.getDomainName().equals(name))
+                return ((CNAMERecord) record).getTarget();
+        return null;
+    }
+
+    /**
+     * The name the chain starts from.
+     * @return The name first looked up, as the first Response asked it.
+     */
+    private DomainName first()
+    {
+        List<Record> queries = response.getQueries();
+        return queries.isEmpty() ? asked : queries.get(0).getDomainName();
+    }
+}
@@ -0,0 +1,179 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A DelegationCache remembers, for each zone cut an IterativeResolver has
+ * been referred to, the addresses of the zone's name servers, until the TTL
+ * of its NS records runs out. Looking a name up finds the deepest zone
+ * known to enclose it, so iterative resolution can start there rather than
+ * at the root. The root zone is always present, and never expires.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class DelegationCache
+{
+    /** The number of zones a cache holds by default. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    /** The name of the root zone. */
+    public static final DomainName ROOT         = DomainName.ROOT;
+
+    /** The delegations, by zone. */
+    private final ConcurrentHashMap<DomainName, Delegation> zones;
+    /** The root zone, which every name is under. */
+    private final Delegation root;
+    /** The most zones this cache holds, not counting the root. */
+    private final int maxEntries;
+
+    /**
+     * Creates a cache that knows only the root servers.
+     * @param rootServers The addresses of the root servers.
+     * @param maxEntries The most zones to hold.
+     */
+    public DelegationCache(List<InetAddress> rootServers, int maxEntries)
+    {
+        this.zones      = new ConcurrentHashMap<>();
+        this.root       = new Delegation(ROOT, rootServers, Long.MAX_VALUE);
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Finds the deepest zone known to enclose a name.
+     * @param name The name.
+     * @return The delegation for that zone; the root if nothing closer is
+     *         known.
+     */
+    public Delegation find(DomainName name)
+    {
+        long now = System.nanoTime();
+        DomainName zone = name;
+        while (!zone.isRoot())
+        {
+            Delegation delegation = zones.get(zone);
+            if (delegation != null)
+            {
+                if (!delegation.isExpired(now))
+                    return delegation;
+                zones.remove(zone, delegation);
+            }
+            zone = zone.parent();
+        }
+        return root;
+    }
+
+    /**
+     * Remembers the name servers of a zone.
+     * @param zone The zone.
+     * @param servers The addresses of its name servers.
+     * @param ttl The number of seconds to remember them for.
+     * @return The delegation that was cached.
+     */
+    public Delegation put(DomainName zone, List<InetAddress> servers,
+                          int ttl)
+    {
+        long expires = System.nanoTime() + TimeUnit.SECONDS.toNanos(
+                Math.min(Math.max(ttl, 0), ResponseCache.MAX_TTL));
+        Delegation delegation = new Delegation(zone, servers, expires);
+        if (zone.isRoot() || maxEntries <= 0)
+            return delegation;
+        if (zones.put(zone, delegation) == null && zones.size() > maxEntries)
+            evict();
+        return delegation;
+    }
+
+    /**
+     * Removes expired zones, and then others if that isn't enough, until the
+     * cache is back within its bound.
+     */
+    private void evict()
+    {
+        long now = System.nanoTime();
+        zones.values().removeIf(delegation -> delegation.isExpired(now));
+        Iterator<Map.Entry<DomainName, Delegation>> it =
+                zones.entrySet().iterator();
+        while (zones.size() > maxEntries && it.hasNext())
+        {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Forgets every zone but the root.
+     */
+    public void clear()
+    {
+        zones.clear();
+    }
+
+    /**
+     * The number of zones cached, not counting the root.
+     * @return The number of zones.
+     */
+    public int size()
+    {
+        return zones.size();
+    }
+
+    /**
+     * The name servers of one zone.
+     */
+    public static class Delegation
+    {
+        /** The zone. */
+        private final DomainName zone;
+        /** The addresses of its name servers. */
+        private final List<InetAddress> servers;
+        /** When this delegation expires, in System.nanoTime() terms. */
+        private final long expires;
+
+        /**
+         * Creates a delegation.
+         * @param zone The zone.
+         * @param servers The addresses of its name servers.
+         * @param expires When it expires, in System.nanoTime() terms.
+         */
+        private Delegation(DomainName zone, List<InetAddress> servers,
+                           long expires)
+        {
+            this.zone    = zone;
+            this.servers = Collections.unmodifiableList(servers);
+            this.expires = expires;
+        }
+
+        /**
+         * Getter for zone.
+         * @return The zone.
+         */
+        public DomainName getZone()
+        {
+            return zone;
+        }
+
+        /**
+         * Getter for servers.
+         * @return The addresses of the zone's name servers.
+         */
+        public List<InetAddress> getServers()
+        {
+            return servers;
+        }
+
+        /**
+         * Checks if this delegation has expired.
+         * @param now The current System.nanoTime().
+         * @return True if its TTL has run out. The root never expires.
+         */
+        private boolean isExpired(long now)
+        {
+            return expires != Long.MAX_VALUE && now - expires >= 0;
+        }
+    }
+}
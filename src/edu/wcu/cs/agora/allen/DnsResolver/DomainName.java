@@ -0,0 +1,350 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A DomainName is a domain name held as it is written on the wire: each
+ * label after a byte holding its length, ending with the 0 length of the
+ * root, all in one array. The case of each letter is kept, so names can be
+ * written back as they were received, but names are compared and hashed
+ * without regard to the case of ASCII letters, as DNS does (RFC 4343), and
+ * the hash is computed once. Trailing '.'s and empty labels in text are
+ * ignored, so "example.com." and "Example.COM" are the same name.
+ *
+ * A DomainName never changes once it is created.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public final class DomainName
+{
+    /** The most bytes a name may take on the wire (RFC 1035). */
+    public static final int MAX_LENGTH = 255;
+    /** The most bytes in a label. */
+    public static final int MAX_LABEL  = 63;
+    /** The difference between an upper and lower case ASCII letter. */
+    public static final int CASE_BIT   = Request.CASE_BIT;
+    /** The mask that makes a byte unsigned. */
+    public static final int BYTE_MASK  = 0xFF;
+    /** The root, which has no labels. */
+    public static final DomainName ROOT = new DomainName(new byte[1]);
+
+    /** The labels, each after its length, ending with a 0 length. */
+    private final byte[] wire;
+    /** Where each label's length byte is in wire. */
+    private final short[] offsets;
+    /** Computed once, as names are hashed by every cache they are kept in. */
+    private final int hash;
+
+    /**
+     * Creates a name from wire format that is known to be valid, and is not
+     * shared with anything else.
+     * @param wire The name in wire format.
+     */
+    private DomainName(byte[] wire)
+    {
+        int labels = 0;
+        for (int i = 0; wire[i] != 0; i += 1 + wire[i])
+            labels++;
+        this.wire    = wire;
+        this.offsets = new short[labels];
+        int label = 0;
+        for (int i = 0; wire[i] != 0; i += 1 + wire[i])
+            offsets[label++] = (short) i;
+        int h = 0;
+        for (byte b : wire)
+            h = 31 * h + toLower(b);
+        this.hash = h;
+    }
+
+    /**
+     * Creates a name from text, with '.' between labels.
+     * @param name The name. Labels are encoded in UTF-8.
+     * @return The DomainName.
+     * @throws IllegalArgumentException If a label is longer than MAX_LABEL
+     *                                  bytes, or the name longer than
+     *                                  MAX_LENGTH.
+     */
+    public static DomainName of(String name)
+    {
+        // '.' can't be part of a multibyte UTF-8 character, so the labels
+        // can be found in the encoded bytes.
+        byte[] text = name.getBytes(StandardCharsets.UTF_8);
+        byte[] wire = new byte[text.length + 2];
+        int pos = 0;
+        int start = 0;
+        while (start < text.length)
+        {
+            int end = start;
+            while (end < text.length && text[end] != Request.LABEL_SEPARATOR)
+                end++;
+            int size = end - start;
+            if (size > MAX_LABEL)
+                throw new IllegalArgumentException("Label longer than " +
+                        MAX_LABEL + " bytes in \"" + name + "\"");
+            if (size > 0)
+            {
+                wire[pos] = (byte) size;
+                System.arraycopy(text, start, wire, pos + 1, size);
+                pos += 1 + size;
+            }
+            start = end + 1;
+        }
+        if (pos == 0)
+            return ROOT;
+        if (pos + 1 > MAX_LENGTH)
+            throw new IllegalArgumentException("Name longer than " +
+                    MAX_LENGTH + " bytes: \"" + name + "\"");
+        return new DomainName(pos + 1 == wire.length ? wire :
+                              Arrays.copyOf(wire, pos + 1));
+    }
+
+    /**
+     * Creates a name from part of an array that holds it in wire format,
+     * without compression pointers. The bytes are copied.
+     * @param buffer The array.
+     * @param from The name's first length byte.
+     * @param to The byte after the name's 0 length.
+     * @return The DomainName.
+     * @throws IllegalArgumentException If the bytes are not exactly one
+     *                                  uncompressed name of at most
+     *                                  MAX_LENGTH bytes.
+     */
+    public static DomainName fromWire(byte[] buffer, int from, int to)
+    {
+        if (to - from > MAX_LENGTH || to <= from)
+            throw new IllegalArgumentException("Bad name length: " +
+                                               (to - from));
+        int i = from;
+        while (i < to && buffer[i] != 0)
+        {
+            if ((buffer[i] & BYTE_MASK) > MAX_LABEL)
+                throw new IllegalArgumentException("Bad label length: " +
+                                                   (buffer[i] & BYTE_MASK));
+            i += 1 + buffer[i];
+        }
+        if (i != to - 1)
+            throw new IllegalArgumentException("Name does not end where " +
+                                               "it should");
+        return to - from == 1 ? ROOT :
+               new DomainName(Arrays.copyOfRange(buffer, from, to));
+    }
+
+    /**
+     * Creates a name from an array that holds it in wire format, without
+     * compression pointers, starting at from and running to its 0 length,
+     * as names do in RDATA. The bytes are copied.
+     * @param buffer The array.
+     * @param from The name's first length byte.
+     * @return The DomainName. getWireLength() says where the bytes after it
+     *         start.
+     * @throws IllegalArgumentException If the name runs past the end of the
+     *                                  array, or is not a valid name.
+     */
+    public static DomainName fromWire(byte[] buffer, int from)
+    {
+        int i = from;
+        while (i < buffer.length && buffer[i] != 0)
+            i += 1 + (buffer[i] & BYTE_MASK);
+        if (i >= buffer.length)
+            throw new IllegalArgumentException("Name runs past the end of " +
+                                               "the array");
+        return fromWire(buffer, from, i + 1);
+    }
+
+    /**
+     * Lower cases an ASCII letter, leaving any other byte alone.
+     * @param b The byte to lower case.
+     * @return The lower case byte.
+     */
+    private static int toLower(int b)
+    {
+        return (b >= 'A' && b <= 'Z') ? b | CASE_BIT : b;
+    }
+
+    /**
+     * Returns the number of labels, not counting the root.
+     * @return The number of labels.
+     */
+    public int getLabelCount()
+    {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the length of a label.
+     * @param i The label, counting from 0 at the left.
+     * @return The number of bytes in the label.
+     */
+    public int getLabelLength(int i)
+    {
+        return wire[offsets[i]];
+    }
+
+    /**
+     * Returns a label as text.
+     * @param i The label, counting from 0 at the left.
+     * @return The label, decoded as UTF-8.
+     */
+    public String getLabel(int i)
+    {
+        return new String(wire, offsets[i] + 1, wire[offsets[i]],
+                          StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the name with the first labels removed.
+     * @param labels The number of labels to remove.
+     * @return The rest of the name, which is the root if every label is
+     *         removed.
+     */
+    public DomainName suffix(int labels)
+    {
+        if (labels == 0)
+            return this;
+        if (labels >= offsets.length)
+            return ROOT;
+        return new DomainName(Arrays.copyOfRange(wire, offsets[labels],
+                                                 wire.length));
+    }
+
+    /**
+     * Returns the name of the zone above this one.
+     * @return The name without its first label, or the root if this is the
+     *         root.
+     */
+    public DomainName parent()
+    {
+        return suffix(1);
+    }
+
+    /**
+     * Whether this name is the root.
+     * @return True if the name has no labels.
+     */
+    public boolean isRoot()
+    {
+        return offsets.length == 0;
+    }
+
+    /**
+     * Whether this name is other, or a name below it.
+     * @param other The name that may hold this one.
+     * @return True if this name ends with every label of other.
+     */
+    public boolean isSubdomainOf(DomainName other)
+    {
+        int skip = offsets.length - other.offsets.length;
+        if (skip < 0)
+            return false;
+        if (skip == 0)
+            return equals(other);
+        if (other.isRoot())
+            return true;
+        return regionEquals(offsets[skip], other.wire);
+    }
+
+    /**
+     * Compares the end of wire, starting at from, to a whole name, without
+     * regard to case.
+     * @param from Where in wire to start.
+     * @param other The other name's wire format.
+     * @return True if they are the same.
+     */
+    private boolean regionEquals(int from, byte[] other)
+    {
+        if (wire.length - from != other.length)
+            return false;
+        for (int i = 0; i < other.length; i++)
+            if (toLower(wire[from + i]) != toLower(other[i]))
+                return false;
+        return true;
+    }
+
+    /**
+     * Returns the number of bytes the name takes on the wire, uncompressed.
+     * @return The length, including the root's 0 length.
+     */
+    public int getWireLength()
+    {
+        return wire.length;
+    }
+
+    /**
+     * Writes the name in wire format, uncompressed, as it was given.
+     * @param buffer The buffer to write it into, at its position.
+     */
+    public void writeTo(ByteBuffer buffer)
+    {
+        buffer.put(wire);
+    }
+
+    /**
+     * Writes one label, after its length.
+     * @param buffer The buffer to write it into, at its position.
+     * @param i The label, counting from 0 at the left.
+     */
+    public void writeLabel(ByteBuffer buffer, int i)
+    {
+        buffer.put(wire, offsets[i], 1 + wire[offsets[i]]);
+    }
+
+    /**
+     * Returns the name in wire format, as it was given.
+     * @return A copy of the name's bytes.
+     */
+    public byte[] toWire()
+    {
+        return wire.clone();
+    }
+
+    /**
+     * Returns the name in wire format with every ASCII letter in lower
+     * case, so names that are equal have the same bytes.
+     * @return The canonical form of the name's bytes.
+     */
+    public byte[] toCanonicalWire()
+    {
+        byte[] canonical = new byte[wire.length];
+        for (int i = 0; i < wire.length; i++)
+            canonical[i] = (byte) toLower(wire[i]);
+        return canonical;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o)
+            return true;
+        if (!(o instanceof DomainName))
+            return false;
+        DomainName other = (DomainName) o;
+        return hash == other.hash && regionEquals(0, other.wire);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return hash;
+    }
+
+    /**
+     * Returns the name as text, with '.' between labels and none after the
+     * last, in the case it was given.
+     * @return The name, or "" for the root.
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder text = new StringBuilder(wire.length);
+        for (int i = 0; i < offsets.length; i++)
+        {
+            if (i > 0)
+                text.append(Request.LABEL_SEPARATOR);
+            text.append(getLabel(i));
+        }
+        return text.toString();
+    }
+}
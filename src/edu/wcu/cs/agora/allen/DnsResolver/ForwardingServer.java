@@ -0,0 +1,394 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ForwardingServer answers DNS queries from clients over UDP and TCP, as a
+ * caching forwarder: each question is answered from the Resolver's cache if
+ * it can be, and otherwise sent on to the Resolver's upstream servers, over
+ * UDP and then TCP if the answer is truncated. The answer goes back with
+ * the client's own identifier and question.
+ *
+ * UDP queries are read by one thread, and each is answered on a thread of
+ * its own from a QueryExecutor, a virtual thread where the JVM has them, as
+ * answering may mean waiting on an upstream server. At most MAX_QUERIES are
+ * answered at once; past that, reading waits, and queries queue in the
+ * socket's buffer. Each TCP connection has a thread of its own too, and its
+ * queries are answered in the order they arrive; a connection idle for
+ * IDLE_TIMEOUT ms is closed.
+ *
+ * Only standard queries of the IN class for data types are forwarded, but
+ * those for any such type, whether or not RecordType names it; records of
+ * types it doesn't are passed on with their RDATA as it was received.
+ * Other queries are answered NOTIMP, and queries that can't be parsed
+ * FORMERR. A query the upstream servers don't answer in time is
+ * answered SERVFAIL, unless the Resolver serves stale answers and has one.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class ForwardingServer implements Closeable
+{
+    /** The most UDP queries answered at once. */
+    public static final int MAX_QUERIES     = QueryExecutor.DEFAULT_LIMIT;
+    /** The number of times a question is sent upstream before giving up. */
+    public static final int ATTEMPTS        = 2;
+    /** The most TCP connections open at once. */
+    public static final int MAX_TCP_CLIENTS = 128;
+    /** How long a TCP connection may sit idle before it is closed, in ms. */
+    public static final int IDLE_TIMEOUT    =
+            TcpConnectionPool.DEFAULT_IDLE_TIMEOUT;
+    /** The RCODE of a query that can't be parsed. */
+    public static final int FORMERR         = 1;
+    /** The RCODE of a query that could not be answered. */
+    public static final int SERVFAIL        = 2;
+    /** The RCODE of a query of a kind that is not supported. */
+    public static final int NOTIMP          = 4;
+
+    /** The Resolver questions are answered through. */
+    private final Resolver resolver;
+    /** The socket UDP queries arrive on. */
+    private final DatagramSocket udp;
+    /** The socket TCP connections arrive on. */
+    private final ServerSocket tcp;
+    /** Answers UDP queries, a thread each. */
+    private final QueryExecutor queries;
+    /** Serves TCP connections, a thread each. */
+    private final QueryExecutor connections;
+    /** The number of queries answered. */
+    private final LongAdder answered;
+    /** The number of queries answered SERVFAIL. */
+    private final LongAdder failed;
+    /** Cleared when the server is closed. */
+    private volatile boolean running;
+
+    /**
+     * Starts answering queries.
+     * @param resolver The Resolver to answer them through, whose upstream
+     *                 servers have been set.
+     * @param address The address and port to listen on, over both UDP and
+     *                TCP. Port 0 chooses a free port.
+     * @throws IOException If the address can't be bound.
+     */
+    public ForwardingServer(Resolver resolver, InetSocketAddress address)
+                            throws IOException
+    {
+        this.resolver        = resolver;
+        this.udp             = new DatagramSocket(address);
+        this.tcp             = new ServerSocket();
+        this.answered        = new LongAdder();
+        this.failed          = new LongAdder();
+        try
+        {
+            tcp.setReuseAddress(true);
+            tcp.bind(new InetSocketAddress(address.getAddress(),
+                                           udp.getLocalPort()));
+        }
+        catch (IOException ioe)
+        {
+            udp.close();
+            tcp.close();
+            throw ioe;
+        }
+        this.queries     = new QueryExecutor("dns-forwarder-query",
+                                             MAX_QUERIES);
+        this.connections = new QueryExecutor("dns-forwarder-tcp",
+                                             MAX_TCP_CLIENTS);
+        running = true;
+        // The listeners are not daemons, so they keep the JVM running.
+        new Thread(this::serveUdp, "dns-forwarder-udp").start();
+        new Thread(this::serveTcp, "dns-forwarder-accept").start();
+    }
+
+    /**
+     * Reads UDP queries until the server is closed, answering a copy of each
+     * on a thread of its own.
+     */
+    private void serveUdp()
+    {
+        byte[] buffer = new byte[Resolver.MAX_UDP_BUFF];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running)
+        {
+            packet.setLength(buffer.length);
+            try
+            {
+                udp.receive(packet);
+            }
+            catch (IOException ioe)
+            {
+                if (running)
+                    System.err.println("UDP receive failed: " +
+                                       ioe.getMessage());
+                continue;
+            }
+            byte[] query = Arrays.copyOf(buffer, packet.getLength());
+            SocketAddress client = packet.getSocketAddress();
+            try
+            {
+                queries.execute(() -> answerUdp(query, query.length,
+                                                client));
+            }
+            catch (RejectedExecutionException ree)
+            {
+                // The server was closed after the query arrived.
+                return;
+            }
+        }
+    }
+
+    /**
+     * Answers a UDP query, within the client's UDP payload size.
+     * @param buffer The buffer holding the query.
+     * @param length The length of the query.
+     * @param client Where the query came from.
+     */
+    private void answerUdp(byte[] buffer, int length, SocketAddress client)
+    {
+        byte[] answer = answer(buffer, length, false);
+        if (answer == null)
+            return;
+        try
+        {
+            udp.send(new DatagramPacket(answer, answer.length, client));
+        }
+        catch (IOException ioe)
+        {
+            if (running)
+                System.err.println("UDP send to " + client + " failed: " +
+                                   ioe.getMessage());
+        }
+    }
+
+    /**
+     * Accepts TCP connections until the server is closed, serving each on
+     * a thread of its own.
+     */
+    private void serveTcp()
+    {
+        while (running)
+        {
+            Socket socket;
+            try
+            {
+                socket = tcp.accept();
+            }
+            catch (IOException ioe)
+            {
+                if (running)
+                    System.err.println("TCP accept failed: " +
+                                       ioe.getMessage());
+                continue;
+            }
+            boolean started;
+            try
+            {
+                started = connections.tryExecute(() ->
+                        serveConnection(socket));
+            }
+            catch (RejectedExecutionException ree)
+            {
+                started = false;
+            }
+            if (!started)
+                close(socket);
+        }
+    }
+
+    /**
+     * Answers the queries on a TCP connection, in order, until the client
+     * closes it or it sits idle too long.
+     * @param socket The connection.
+     */
+    private void serveConnection(Socket socket)
+    {
+        try
+        {
+            socket.setSoTimeout(IDLE_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            FrameReader in = new FrameReader(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(
+                    socket.getOutputStream());
+            while (running)
+            {
+                int length = in.readFrame();
+                byte[] answer = answer(in.getBuffer(), length, true);
+                if (answer == null)
+                    continue;
+                out.write(answer.length >>> Byte.SIZE);
+                out.write(answer.length);
+                out.write(answer);
+                out.flush();
+            }
+        }
+        catch (EOFException | SocketTimeoutException e)
+        {
+            // The client is done with the connection.
+        }
+        catch (IOException ioe)
+        {
+            if (running && !(ioe instanceof SocketException))
+                System.err.println("TCP connection failed: " +
+                                   ioe.getMessage());
+        }
+        finally
+        {
+            close(socket);
+        }
+    }
+
+    /**
+     * Works out the answer to a query.
+     * @param buffer The buffer holding the query.
+     * @param length The length of the query.
+     * @param overTcp Whether the query came over TCP.
+     * @return The answer, or null if the packet should not be answered.
+     */
+    private byte[] answer(byte[] buffer, int length, boolean overTcp)
+    {
+        if (length < Request.HEADER_LEN || (buffer[2] & Query.QR) != 0)
+            return null;
+        answered.increment();
+        Query query;
+        try
+        {
+            query = Query.parse(buffer, length);
+        }
+        catch (DnsException de)
+        {
+            return MessageWriter.error(buffer, FORMERR);
+        }
+        int limit = overTcp ? MessageWriter.MAX_MESSAGE :
+                    Math.max(query.getPayloadSize(), Query.MIN_PAYLOAD);
+        if (!query.isStandardQuery() || !query.isDataType() ||
+            query.getClassCode() != CacheKey.CLASS_IN)
+            return MessageWriter.write(query, null, NOTIMP, limit);
+        Resolver.Response response = null;
+        int rcode;
+        try
+        {
+            response = resolve(query);
+            rcode = response.getRcode();
+        }
+        catch (NxDomainException nxe)
+        {
+            response = nxe.getResponse();
+            rcode = Resolver.ResponseGenerator.NXDOMAIN;
+        }
+        catch (RcodeException re)
+        {
+            rcode = re.getRcode();
+        }
+        catch (IOException ioe)
+        {
+            failed.increment();
+            rcode = SERVFAIL;
+        }
+        return MessageWriter.write(query, response, rcode, limit);
+    }
+
+    /**
+     * Resolves a question through the Resolver: from its cache, or from an
+     * upstream server over UDP, falling back to TCP if the answer is
+     * truncated. A question that times out is asked again, of whichever
+     * server is fastest by then. If the Resolver serves stale answers, one
+     * may be returned instead, when the servers are slow or failing.
+     * @param query The question.
+     * @return The Response.
+     * @throws IOException If the question could not be answered.
+     */
+    private Resolver.Response resolve(Query query) throws IOException
+    {
+        return resolver.resolve(resolver.newRequest(query.getName(),
+                RecordType.nameLookup((short) query.getTypeCode())), ATTEMPTS);
+    }
+
+    /**
+     * Closes a socket, ignoring any failure to.
+     * @param socket The socket.
+     */
+    private static void close(Socket socket)
+    {
+        try
+        {
+            socket.close();
+        }
+        catch (IOException ioe)
+        {
+            // Nothing more can be done with it.
+        }
+    }
+
+    /**
+     * Returns the address the server listens on.
+     * @return The address and port, the same for UDP and TCP.
+     */
+    public InetSocketAddress getAddress()
+    {
+        return (InetSocketAddress) udp.getLocalSocketAddress();
+    }
+
+    /**
+     * Getter for queries.
+     * @return The QueryExecutor UDP queries are answered on, which tells
+     *         what kind of threads they run on and how many are running.
+     */
+    public QueryExecutor getExecutor()
+    {
+        return queries;
+    }
+
+    /**
+     * Getter for answered.
+     * @return The number of queries answered.
+     */
+    public long getAnswered()
+    {
+        return answered.sum();
+    }
+
+    /**
+     * Getter for failed.
+     * @return The number of queries answered SERVFAIL.
+     */
+    public long getFailed()
+    {
+        return failed.sum();
+    }
+
+    /**
+     * Stops answering queries. Queries already being answered may still be
+     * answered over UDP.
+     */
+    @Override
+    public void close()
+    {
+        running = false;
+        udp.close();
+        try
+        {
+            tcp.close();
+        }
+        catch (IOException ioe)
+        {
+            // The listener stops either way.
+        }
+        queries.close();
+        connections.close(true);
+    }
+}
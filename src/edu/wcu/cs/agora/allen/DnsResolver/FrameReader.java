@@ -0,0 +1,98 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A FrameReader reads DNS messages off a TCP stream, where each message is
+ * preceded by its length as two bytes in network order (RFC 1035, section
+ * 4.2.2). The stream is read in bulk, and each message is read into the same
+ * buffer, which grows to fit the largest message seen; the buffer's contents
+ * are only good until the next call to readFrame.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class FrameReader
+{
+    /** The size of the buffer the stream is read through. Big enough that
+     *  a typical response and its prefix arrive in a single read. */
+    public static final int STREAM_BUFF  = 8192;
+    /** The size the frame buffer starts out at. */
+    public static final int INITIAL_BUFF = 512;
+    /** The number of bytes in the length prefix. */
+    public static final int PREFIX_LEN   = Request.TCP_LEN_SIZE;
+
+    /** The stream messages are read from. */
+    private final InputStream in;
+    /** Holds the last message read. */
+    private byte[] buffer;
+
+    /**
+     * Creates a FrameReader.
+     * @param in The stream to read messages from.
+     */
+    public FrameReader(InputStream in)
+    {
+        this.in     = new BufferedInputStream(in, STREAM_BUFF);
+        this.buffer = new byte[INITIAL_BUFF];
+    }
+
+    /**
+     * Reads the next message into the buffer, starting at index 0.
+     * @return The length of the message.
+     * @throws EOFException If the stream ends, including part way through a
+     *                      message.
+     * @throws IOException If the stream can't be read.
+     */
+    public int readFrame() throws IOException
+    {
+        readFully(PREFIX_LEN);
+        int length = Util.bytesToShort(buffer[0], buffer[1]) & 0xFFFF;
+        if (length > buffer.length)
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        readFully(length);
+        return length;
+    }
+
+    /**
+     * Reads exactly length bytes into the start of the buffer. Reads as
+     * large as the stream buffer or larger go straight into the buffer.
+     * @param length The number of bytes to read.
+     * @throws EOFException If the stream ends first.
+     * @throws IOException If the stream can't be read.
+     */
+    private void readFully(int length) throws IOException
+    {
+        int read = 0;
+        while (read < length)
+        {
+            int count = in.read(buffer, read, length - read);
+            if (count < 0)
+                throw new EOFException("Connection closed after " + read +
+                                       " of " + length + " bytes.");
+            read += count;
+        }
+    }
+
+    /**
+     * Returns the buffer holding the last message read. It is overwritten by
+     * the next call to readFrame.
+     * @return The buffer.
+     */
+    public byte[] getBuffer()
+    {
+        return buffer;
+    }
+
+    /**
+     * Closes the underlying stream.
+     * @throws IOException If the stream can't be closed.
+     */
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
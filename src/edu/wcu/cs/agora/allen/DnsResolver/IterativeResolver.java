@@ -0,0 +1,329 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * An IterativeResolver looks names up itself, rather than asking one
+ * recursive server to. It starts at the deepest zone it knows to enclose the
+ * name (the root, to begin with), and asks that zone's servers without
+ * recursion desired. A server that can't answer refers it to a zone further
+ * down, naming that zone's servers in NS records in the authority section
+ * and, usually, their addresses as glue in the additional section; the
+ * referral is followed, and remembered in a DelegationCache, so later
+ * lookups under the same zone go straight to its servers.
+ *
+ * The servers are asked through Resolver, but as what one server holds
+ * itself may be only a referral, their answers are not kept in its cache of
+ * recursive answers; the delegations are what is remembered. An answer
+ * that stops at a CNAME record whose target the server doesn't hold is
+ * followed, from the target's own zone, to the records asked for.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class IterativeResolver
+{
+    /** The IPv4 addresses of the 13 root servers, a through m. */
+    public static final String[] ROOT_HINTS = {"198.41.0.4", "170.247.170.2",
+            "192.33.4.12", "199.7.91.13", "192.203.230.10", "192.5.5.241",
+            "192.112.36.4", "198.97.190.53", "192.36.148.17", "192.58.128.30",
+            "193.0.14.129", "199.7.83.42", "202.12.27.33"};
+    /** The port every name server is asked on by default. */
+    public static final int DEFAULT_PORT  = 53;
+    /** The most referrals followed for one name. */
+    public static final int MAX_REFERRALS = 16;
+    /** The most lookups nested inside one another, to find the addresses
+     *  of name servers that came without glue. */
+    public static final int MAX_DEPTH     = 4;
+
+    /** Makes the requests to each server. */
+    private final Resolver resolver;
+    /** The servers of each zone we have been referred to. */
+    private final DelegationCache delegations;
+    /** The port every name server is asked on. */
+    private final int port;
+    /** The most CNAME records followed for one name; 0 follows none. */
+    private final int maxCnameDepth;
+
+    /**
+     * Creates an IterativeResolver that starts from the root servers.
+     * @throws UnknownHostException Never, as the hints are addresses.
+     */
+    public IterativeResolver() throws UnknownHostException
+    {
+        this(ROOT_HINTS, DEFAULT_PORT);
+    }
+
+    /**
+     * Creates an IterativeResolver that starts from other root servers,
+     * such as a hierarchy of stub servers on the loopback addresses.
+     * @param rootServers The addresses of the root servers.
+     * @param port The port every name server is asked on.
+     * @throws UnknownHostException If a root server can't be found.
+     */
+    public IterativeResolver(String[] rootServers, int port)
+                             throws UnknownHostException
+    {
+        this(rootServers, port, CnameChain.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Creates an IterativeResolver that follows CNAME records to a given
+     * depth.
+     * @param rootServers The addresses of the root servers.
+     * @param port The port every name server is asked on.
+     * @param maxCnameDepth The most CNAME records to follow for one name;
+     *                      0 follows none.
+     * @throws UnknownHostException If a root server can't be found.
+     */
+    public IterativeResolver(String[] rootServers, int port,
+                             int maxCnameDepth) throws UnknownHostException
+    {
+        List<InetAddress> roots = new ArrayList<>(rootServers.length);
+        for (String server : rootServers)
+            roots.add(InetAddress.getByName(server));
+        this.resolver    = Resolver.getInstance();
+        this.delegations = new DelegationCache(roots,
+                                   DelegationCache.DEFAULT_MAX_ENTRIES);
+        this.port        = port;
+        this.maxCnameDepth = maxCnameDepth;
+    }
+
+    /**
+     * Looks a name up by following referrals down from the deepest zone
+     * known to enclose it, and then any CNAME records the answer stops at.
+     * @param name The name to look up.
+     * @param type The type of record to look up.
+     * @return The Response of the server that answered, with the answers of
+     *         each CNAME target joined onto it.
+     * @throws IOException NxDomainException if the name or a target does not
+     *                     exist, DnsException if no server could answer, the
+     *                     referrals lead nowhere or the CNAME records loop,
+     *                     and socket exceptions.
+     * @throws IllegalArgumentException If type names no record type.
+     */
+    public Resolver.Response resolve(String name, String type)
+                                     throws IOException
+    {
+        DomainName first = Request.nameOf(name);
+        Short code = RecordType.codeLookup(type);
+        if (code == null)
+            throw new IllegalArgumentException("Unknown record type: " + type);
+        CnameChain chain = new CnameChain(first, code, maxCnameDepth);
+        DomainName next = chain.add(resolve(first, type, 0));
+        while (next != null)
+        {
+            try
+            {
+                next = chain.add(resolve(next, type, 0));
+            }
+            catch (NxDomainException nxe)
+            {
+                throw chain.end(nxe);
+            }
+        }
+        return chain.getResponse();
+    }
+
+    /**
+     * Looks a name up, as a lookup nested inside others.
+     * @param name The name.
+     * @param type The type of record to look up.
+     * @param depth The number of lookups this one is nested inside.
+     * @return The Response of the server that answered.
+     * @throws IOException As resolve(String, String) does.
+     */
+    private Resolver.Response resolve(DomainName name, String type,
+                                      int depth)
+                                      throws IOException
+    {
+        if (depth > MAX_DEPTH)
+            throw new DnsException("Too many nested lookups resolving " +
+                                   name);
+        DelegationCache.Delegation zone = delegations.find(name);
+        for (int i = 0; i < MAX_REFERRALS; i++)
+        {
+            Resolver.Response response = ask(zone, name, type);
+            DelegationCache.Delegation next = referral(response, name, zone,
+                                                       depth);
+            if (next == null)
+                return response;
+            zone = next;
+        }
+        throw new DnsException("Too many referrals resolving " + name);
+    }
+
+    /**
+     * Asks the servers of a zone about a name, one after another, until one
+     * of them answers. They are tried from a random starting point, to
+     * spread the load across them.
+     * @param zone The zone whose servers are asked.
+     * @param name The name to look up.
+     * @param type The type of record to look up.
+     * @return The first Response received.
+     * @throws IOException NxDomainException if the name does not exist, or
+     *                     the failure of the last server tried.
+     */
+    private Resolver.Response ask(DelegationCache.Delegation zone,
+                                  DomainName name, String type)
+                                  throws IOException
+    {
+        List<InetAddress> servers = zone.getServers();
+        IOException failure = new DnsException("No servers known for zone \""
+                                               + zone.getZone() + "\"");
+        int first = ThreadLocalRandom.current().nextInt(
+                Math.max(servers.size(), 1));
+        for (int i = 0; i < servers.size(); i++)
+        {
+            InetAddress server = servers.get((first + i) % servers.size());
+            Request request = new Request(server.getHostAddress(), port, name,
+                                          type, Request.UDP_PAYLOAD, false);
+            try
+            {
+                try
+                {
+                    return resolver.makeUdpRequest(request);
+                }
+                catch (TruncatedUdpPacketException tupe)
+                {
+                    return resolver.makeTcpRequest(request);
+                }
+            }
+            catch (NxDomainException nxe)
+            {
+                throw nxe;
+            }
+            catch (SocketTimeoutException | SocketException |
+                   DnsException e)
+            {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Checks if a Response refers us to a zone further down, and if so
+     * caches and returns that zone's servers. A referral has no answers and
+     * no SOA, and NS records for a zone that encloses the name and is
+     * enclosed by the zone that was asked.
+     * @param response The Response to check.
+     * @param name The name being looked up.
+     * @param zone The zone whose server sent the Response.
+     * @param depth The number of lookups this one is nested inside.
+     * @return The zone referred to, or null if the Response is an answer.
+     * @throws IOException DnsException if the referral leads nowhere.
+     */
+    private DelegationCache.Delegation referral(Resolver.Response response,
+            DomainName name, DelegationCache.Delegation zone, int depth)
+            throws IOException
+    {
+        if (response.getRcode() != Resolver.ResponseGenerator.NOERROR ||
+            !response.getAnswers().isEmpty())
+            return null;
+        DomainName cut = null;
+        List<DomainName> nameServers = new ArrayList<>();
+        int ttl = ResponseCache.MAX_TTL;
+        for (Record record : response.getAuthority())
+        {
+            if (record.getType() == RecordType.SOA)
+                return null;
+            DomainName owner = record.getDomainName();
+            if (record.getType() == RecordType.NS &&
+                (cut == null || cut.equals(owner)))
+            {
+                cut = owner;
+                nameServers.add(((NSRecord) record).getNameServer());
+                ttl = Math.min(ttl, record.getTtl());
+            }
+        }
+        if (cut == null)
+            return null;
+        if (cut.equals(zone.getZone()) ||
+            !cut.isSubdomainOf(zone.getZone()) || !name.isSubdomainOf(cut))
+            throw new DnsException("Server for zone \"" + zone.getZone() +
+                                   "\" referred " + name + " to \"" + cut +
+                                   "\", which is no closer.");
+        List<InetAddress> servers = glue(response, nameServers);
+        if (servers.isEmpty())
+            servers = lookUp(nameServers, cut, depth);
+        if (servers.isEmpty())
+            throw new DnsException("No address found for any name server " +
+                                   "of \"" + cut + "\"");
+        return delegations.put(cut, servers, ttl);
+    }
+
+    /**
+     * Collects the addresses of name servers from the glue in the additional
+     * section.
+     * @param response The referral.
+     * @param nameServers The names of the name servers.
+     * @return Their addresses, which may be none.
+     * @throws UnknownHostException Never, as the addresses are raw.
+     */
+    private static List<InetAddress> glue(Resolver.Response response,
+                                          List<DomainName> nameServers)
+                                          throws UnknownHostException
+    {
+        List<InetAddress> servers = new ArrayList<>();
+        for (Record record : response.getAdditional())
+            if (record.getType() == RecordType.A &&
+                nameServers.contains(record.getDomainName()))
+                servers.add(InetAddress.getByAddress(record.getRdata()));
+        return servers;
+    }
+
+    /**
+     * Looks up the addresses of name servers that came without glue, until
+     * one of them is found. Servers within the zone being delegated can't be
+     * looked up this way, as finding them needs the very servers we lack.
+     * @param nameServers The names of the name servers.
+     * @param cut The zone they serve.
+     * @param depth The number of lookups this one is nested inside.
+     * @return The addresses of the first server found, or none.
+     */
+    private List<InetAddress> lookUp(List<DomainName> nameServers,
+                                     DomainName cut, int depth)
+    {
+        List<InetAddress> servers = new ArrayList<>();
+        for (DomainName nameServer : nameServers)
+        {
+            if (nameServer.isSubdomainOf(cut))
+                continue;
+            try
+            {
+                Resolver.Response response = resolve(nameServer,
+                                                     RecordType.A_STR,
+                                                     depth + 1);
+                for (Record record : response.getAnswers())
+                    if (record.getType() == RecordType.A)
+                        servers.add(InetAddress.getByAddress(
+                                record.getRdata()));
+            }
+            catch (IOException ioe)
+            {
+                // Try the next one.
+            }
+            if (!servers.isEmpty())
+                break;
+        }
+        return servers;
+    }
+
+    /**
+     * Returns the cache of delegations, so its size can be read or its
+     * contents cleared.
+     * @return The DelegationCache.
+     */
+    public DelegationCache getDelegations()
+    {
+        return delegations;
+    }
+}
@@ -0,0 +1,198 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A LatencyHistogram counts latencies in log-linear buckets, as an HDR
+ * histogram does: each power of two is split into SUB_BUCKETS buckets of
+ * equal width, so every bucket is within 1/16 of the values in it, from 1
+ * up to 2^32, in a fixed 464 buckets. Latencies are kept in microseconds,
+ * which covers more than an hour, unless another unit is given; in
+ * nanoseconds, it covers four seconds.
+ *
+ * Recording never locks: it is an increment of one bucket, and of the
+ * running count, sum and maximum. Reading the buckets while others record
+ * may see a latency in the count that is not yet in its bucket, or the
+ * other way around.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class LatencyHistogram
+{
+    /** The number of bits of each latency kept below its highest bit. */
+    public static final int SUB_BUCKET_BITS = 4;
+    /** The number of buckets each power of two is split into. */
+    public static final int SUB_BUCKETS     = 1 << SUB_BUCKET_BITS;
+    /** The number of bits in the largest latency told apart. */
+    public static final int MAX_BITS        = 32;
+    /** The largest latency told apart; longer ones count as this. */
+    public static final long MAX_VALUE      = (1L << MAX_BITS) - 1;
+    /** The number of buckets. */
+    public static final int BUCKETS         = SUB_BUCKETS +
+            (MAX_BITS - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    /** The number of percent in a whole. */
+    public static final double PERCENT      = 100.0;
+
+    /** The unit latencies are kept in. */
+    private final TimeUnit unit;
+    /** The number of latencies in each bucket. */
+    private final AtomicLongArray buckets;
+    /** The number of latencies recorded. */
+    private final LongAdder count;
+    /** The sum of the latencies recorded. */
+    private final LongAdder sum;
+    /** The longest latency recorded. */
+    private final LongAccumulator max;
+
+    /**
+     * Creates an empty histogram of latencies in microseconds.
+     */
+    public LatencyHistogram()
+    {
+        this(TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Creates an empty histogram.
+     * @param unit The unit to keep latencies in.
+     */
+    public LatencyHistogram(TimeUnit unit)
+    {
+        this.unit    = unit;
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.count   = new LongAdder();
+        this.sum     = new LongAdder();
+        this.max     = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a latency.
+     * @param nanos The latency, in ns.
+     */
+    public void record(long nanos)
+    {
+        long value = Math.min(Math.max(unit.convert(nanos,
+                                                    TimeUnit.NANOSECONDS),
+                                       0), MAX_VALUE);
+        buckets.incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Finds the bucket a latency belongs in.
+     * @param value The latency, from 0 to MAX_VALUE.
+     * @return The index of its bucket.
+     */
+    public static int index(long value)
+    {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) -
+                    SUB_BUCKET_BITS;
+        return SUB_BUCKETS * (shift + 1) +
+               (int) ((value >>> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Finds the smallest latency a bucket holds.
+     * @param index The index of the bucket.
+     * @return The latency.
+     */
+    public static long lowerBound(int index)
+    {
+        if (index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Finds the smallest latency beyond a bucket.
+     * @param index The index of the bucket.
+     * @return The latency.
+     */
+    public static long upperBound(int index)
+    {
+        return index + 1 < BUCKETS ? lowerBound(index + 1) : MAX_VALUE + 1;
+    }
+
+    /**
+     * Copies the count of every bucket.
+     * @return The counts, by bucket index.
+     */
+    public long[] snapshot()
+    {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = buckets.get(i);
+        return copy;
+    }
+
+    /**
+     * Works out a percentile of the latencies recorded.
+     * @param percentile The percentile, from 0 to 100.
+     * @return The largest latency in the bucket holding that percentile,
+     *         or 0 if nothing has been recorded.
+     */
+    public long percentile(double percentile)
+    {
+        long[] counts = snapshot();
+        long total = 0;
+        for (long bucket : counts)
+            total += bucket;
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / PERCENT *
+                                                 total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++)
+        {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i) - 1, getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * Getter for count.
+     * @return The number of latencies recorded.
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * Getter for sum.
+     * @return The sum of the latencies recorded.
+     */
+    public long getSum()
+    {
+        return sum.sum();
+    }
+
+    /**
+     * Getter for max.
+     * @return The longest latency recorded.
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Getter for unit.
+     * @return The unit latencies are kept in.
+     */
+    public TimeUnit getUnit()
+    {
+        return unit;
+    }
+}
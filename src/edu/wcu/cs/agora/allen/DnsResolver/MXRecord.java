@@ -1,8 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 /**
  * Record for the CNAME Record type.
  * @author Tyler Allen
@@ -13,42 +10,54 @@ public class MXRecord extends Record
     /** Number of bytes representing "priority" before MX record. */
     public static final int PRIORITY_SIZE = 2;
 
+    /** The preference of this exchange; lower values are preferred. */
+    private final int priority;
+    /** The mail exchange. */
+    private final DomainName exchange;
+
     /**
-     * Constructor simply calls super.
+     * Calls super, and reads the priority and mail exchange out of the
+     * RDATA.
      * @param name Associated with the name field in Record.
      * @param type Associated with the type field in Record.
      * @param classType Associated with the classType field in Record.
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected MXRecord(String name, RecordType type, String classType,
-                       int ttl, List<Byte> rdata)
+    protected MXRecord(DomainName name, RecordType type, String classType,
+                       int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
+        this.priority = Util.unsignShortToInt(Util.bytesToShort(rdata[0],
+                                                                rdata[1]));
+        this.exchange = DomainName.fromWire(rdata, PRIORITY_SIZE);
     }
 
     /**
-     * Adds the rData for this record to super.toString().
-     * @return The newly created toString.
+     * Getter for priority.
+     * @return The preference of this exchange; lower values are preferred.
      */
-    @Override
-    public String toString()
+    public int getPriority()
     {
-        return super.toString() + formatRData();
+        return priority;
     }
 
     /**
-     * Formats the RDATA in a readable format. Because this contains domain
-     * addresses, it is already formatted. We simply transform the bytes into
-     * String form.
-     * @return The string form of the RDATA.
+     * Getter for exchange.
+     * @return The name of the mail exchange.
      */
-    private String formatRData()
+    public DomainName getExchange()
+    {
+        return exchange;
+    }
+
+    /**
+     * Adds the rData for this record to super.toString().
+     * @return The newly created toString.
+     */
+    @Override
+    public String toString()
     {
-        List<Byte> rdata = super.getRdata();
-        return Util.bytesToShort(rdata.get(0), rdata.get(1)) + "\t" +
-               new String(Util.unboxBytes(rdata.
-                               subList(PRIORITY_SIZE, rdata.size())),
-                               StandardCharsets.UTF_8);
+        return super.toString() + priority + "\t" + exchange;
     }
 }
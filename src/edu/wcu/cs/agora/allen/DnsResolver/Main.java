@@ -8,15 +8,68 @@ package edu.wcu.cs.agora.allen.DnsResolver;
  * will attempt a TCP connection instead. However, some servers do not implement
  * or respond to TCP DNS requests, so this is a last resort.
  *
+ * The DNS IP may be a comma separated list of servers, each optionally with
+ * a port after a colon; each query goes to whichever of them has been
+ * answering fastest.
+ *
+ * With --batch, names are instead read from a file (or standard input, if
+ * the file is "-") and resolved concurrently by a BatchResolver. Its
+ * metrics can be watched through JMX, and, if a metrics port is given,
+ * scraped in the Prometheus format from http://127.0.0.1:PORT/metrics.
+ *
+ * With --serve, the program instead runs as a caching forwarder: a
+ * ForwardingServer answers queries from other programs over UDP and TCP,
+ * from the cache or by asking the DNS servers given, until it is killed.
+ * Popular names are refreshed in the cache before their TTLs run out, and
+ * if the DNS servers are slow or unreachable, names whose TTLs have run out
+ * are answered from the cache anyway, for up to a day (RFC 8767).
+ *
+ * With --iterative, no DNS server is given; the name is looked up by an
+ * IterativeResolver, starting from the root servers.
+ *
+ * Any of these may be preceded by --trace, which times each phase of every
+ * query, from encoding it to formatting the answers. A single lookup prints
+ * its phases after the response; in batch mode they are kept in the
+ * metrics. Either way, they are sent to any Flight Recorder recording.
+ *
+ * With --off-heap, after any --trace, responses are cached off the heap,
+ * in an OffHeapResponseCache, which holds many more of them than the heap
+ * one without adding to the work of the garbage collector.
+ *
+ * With --snapshot FILE, after any --trace or --off-heap, the cache is
+ * saved to FILE every few minutes and when the program exits, and the
+ * next run started with the same FILE answers from the entries saved
+ * until their TTLs run out.
+ *
+ * With --threads before --batch, each name is resolved on a thread of its
+ * own, a virtual thread where the JVM has them, rather than asynchronously;
+ * the window is then the most threads running at once.
+ *
  * @author Tyler Allen
  * @version 10/7/2013
  */
 
+import java.io.BufferedReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
 
 
 public class Main
@@ -48,6 +101,66 @@ public class Main
     /** The number of attempts that a UDP request will be tried.*/
     public final static int UDP_ATTEMPTS = 3;
 
+    /** The first argument when names are to be resolved in a batch. */
+    public static final String BATCH_FLAG = "--batch";
+    /** The file name that means names are read from standard input. */
+    public static final String STDIN_FILE = "-";
+    /** The fewest arguments batch mode takes. */
+    public static final int BATCH_MIN_ARGS = 3;
+    /** The most arguments batch mode takes. */
+    public static final int BATCH_MAX_ARGS = 6;
+    /** Argument in batch mode where the DNS IP is expected. */
+    public static final int BATCH_DNS_IP = 1;
+    /** Argument in batch mode naming the file of names to look up. */
+    public static final int BATCH_FILE = 2;
+    /** Argument in batch mode with the default type of record. Optional. */
+    public static final int BATCH_TYPE = 3;
+    /** Argument in batch mode with the number of requests in flight at once.
+     *  Optional. */
+    public static final int BATCH_WINDOW = 4;
+    /** Argument in batch mode with the local port to serve metrics on.
+     *  Optional. */
+    public static final int BATCH_METRICS_PORT = 5;
+    /** The record type batch mode uses if none is given. */
+    public static final String BATCH_DEFAULT_TYPE = RecordType.A_STR;
+
+    /** The first argument when a name is to be resolved iteratively. */
+    public static final String ITERATIVE_FLAG = "--iterative";
+    /** The first argument when queries are to be answered as a server. */
+    public static final String SERVE_FLAG = "--serve";
+    /** The fewest arguments server mode takes. */
+    public static final int SERVE_MIN_ARGS = 2;
+    /** The most arguments server mode takes. */
+    public static final int SERVE_MAX_ARGS = 4;
+    /** Argument in server mode where the DNS IP is expected. */
+    public static final int SERVE_DNS_IP = 1;
+    /** Argument in server mode with the address to listen on. Optional. */
+    public static final int SERVE_LISTEN = 2;
+    /** Argument in server mode with the local port to serve metrics on.
+     *  Optional. */
+    public static final int SERVE_METRICS_PORT = 3;
+    /** The address server mode listens on if none is given. */
+    public static final String SERVE_DEFAULT_LISTEN = "127.0.0.1";
+
+    /** The first argument when queries are to be traced. */
+    public static final String TRACE_FLAG = "--trace";
+    /** Comes before --batch when each name is to have a thread of its own. */
+    public static final String THREADS_FLAG = "--threads";
+    /** Comes before the mode when responses are to be cached off the heap. */
+    public static final String OFF_HEAP_FLAG = "--off-heap";
+    /** Comes before the mode, followed by a file, when the cache is to be
+     *  saved for the next run. */
+    public static final String SNAPSHOT_FLAG = "--snapshot";
+    /** The name of the thread that saves the cache. */
+    public static final String SNAPSHOT_THREAD = "dns-cache-snapshot";
+
+    /** The number of arguments iterative mode takes. */
+    public static final int ITERATIVE_ARGS = 3;
+    /** Argument in iterative mode containing the hostname to look up. */
+    public static final int ITERATIVE_HOSTNAME = 1;
+    /** Argument in iterative mode containing the type of record. */
+    public static final int ITERATIVE_TYPE = 2;
+
     /**
      * Main primarily contains argument checking, and final printing of results.
      * All requests are made in the helper method makeRequest().
@@ -56,24 +169,74 @@ public class Main
      */
     public static void main(String[] args)
     {
+        if (args.length > 0 && args[0].equals(TRACE_FLAG))
+        {
+            QueryTrace.setEnabled(true);
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length > 0 && args[0].equals(OFF_HEAP_FLAG))
+        {
+            Resolver.getInstance().setCache(new OffHeapResponseCache());
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length > 1 && args[0].equals(SNAPSHOT_FLAG))
+        {
+            snapshots(Paths.get(args[1]));
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        boolean threadPerQuery = false;
+        if (args.length > 0 && args[0].equals(THREADS_FLAG))
+        {
+            threadPerQuery = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
+        if (args.length > 0 && args[0].equals(BATCH_FLAG))
+        {
+            batch(args, threadPerQuery);
+            return;
+        }
+        if (threadPerQuery)
+            usage(ERROR_INVALID_ARGS, THREADS_FLAG + " must come before " +
+                                      BATCH_FLAG);
+        if (args.length > 0 && args[0].equals(SERVE_FLAG))
+        {
+            serve(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals(ITERATIVE_FLAG))
+        {
+            iterative(args);
+            return;
+        }
         if (args.length != CORRECT_ARGS)
             usage(ERROR_INVALID_ARGS, "Invalid Number of Arguments: " +
                                       args.length);
         // tests record type validity
-        if (RecordType.typeLookup(args[LOOKUP_TYPE]) == null)
+        if (RecordType.codeLookup(args[LOOKUP_TYPE]) == null)
             usage(ERROR_INVALID_ARGS, "Unsupported Record Type");
         Request request = null;
         try
         {
-            request = new Request(args[DNS_IP], args[HOSTNAME_IP],
-                                  args[LOOKUP_TYPE]);
+            Resolver.getInstance().setUpstreams(
+                    UpstreamPool.parse(args[DNS_IP]));
+            request = Resolver.getInstance().newRequest(args[HOSTNAME_IP],
+                                                        args[LOOKUP_TYPE]);
         }
         catch (UnknownHostException uhe)
         {
             System.err.println(uhe.getMessage());
             usage(ERROR_INVALID_HOSTNAME, "Unknown Host");
         }
-        Resolver.Response response = makeRequest(request);
+        printResponse(makeRequest(request));
+    }
+
+    /**
+     * Prints every section of a Response.
+     * @param response The Response to print.
+     */
+    private static void printResponse(Resolver.Response response)
+    {
+        long start = System.nanoTime();
         System.out.println("Queries: ");
         printRecordList(response.getQueries());
         System.out.println("\nAnswers: ");
@@ -82,6 +245,268 @@ public class Main
         printRecordList(response.getAuthority());
         System.out.println("\nAdditional: ");
         printRecordList(response.getAdditional());
+        if (response.getOpt() != null)
+            System.out.println("\n" + response.getOpt());
+        Resolver.getInstance().getMetrics().recordFormat(response,
+                System.nanoTime() - start);
+        if (response.getTrace() != null)
+            System.err.println("\nTrace: " + response.getTrace());
+    }
+
+    /**
+     * Batch mode. Checks the arguments, then hands the names in the file to a
+     * BatchResolver.
+     * @param args --batch, the DNS server to contact, the file of names (or
+     *             "-" for standard input), and optionally the default type of
+     *             record, the number of requests to keep in flight and the
+     *             port to serve metrics on.
+     * @param threadPerQuery Whether to resolve each name on a thread of its
+     *                       own.
+     */
+    private static void batch(String[] args, boolean threadPerQuery)
+    {
+        if (args.length < BATCH_MIN_ARGS || args.length > BATCH_MAX_ARGS)
+            usage(ERROR_INVALID_ARGS, "Invalid Number of Arguments: " +
+                                      args.length);
+        String type = args.length > BATCH_TYPE ? args[BATCH_TYPE] :
+                      BATCH_DEFAULT_TYPE;
+        if (RecordType.codeLookup(type) == null)
+            usage(ERROR_INVALID_ARGS, "Unsupported Record Type");
+        int window = BatchResolver.DEFAULT_WINDOW;
+        try
+        {
+            if (args.length > BATCH_WINDOW)
+                window = Integer.parseInt(args[BATCH_WINDOW]);
+        }
+        catch (NumberFormatException nfe)
+        {
+            window = 0;
+        }
+        if (window <= 0)
+            usage(ERROR_INVALID_ARGS, "Invalid Window Size");
+        int metricsPort = metricsPort(args, BATCH_METRICS_PORT);
+        UpstreamPool upstreams = null;
+        try
+        {
+            upstreams = UpstreamPool.parse(args[BATCH_DNS_IP]);
+            // Tail latency matters over a whole batch, so a slow request is
+            // hedged to a second server, if one was given.
+            upstreams.setHedging(true);
+        }
+        catch (UnknownHostException uhe)
+        {
+            System.err.println(uhe.getMessage());
+            usage(ERROR_INVALID_HOSTNAME, "Unknown Host");
+        }
+        startMetrics(metricsPort);
+        PrintWriter out = new PrintWriter(new OutputStreamWriter(System.out,
+                                          StandardCharsets.UTF_8), false);
+        try (InputStream file = args[BATCH_FILE].equals(STDIN_FILE) ?
+                                System.in :
+                                new FileInputStream(args[BATCH_FILE]);
+             BufferedReader in = new BufferedReader(
+                     new InputStreamReader(file, StandardCharsets.UTF_8)))
+        {
+            new BatchResolver(upstreams, type, window, out, threadPerQuery)
+                    .run(in);
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("IO Exception Information:\n" +
+                    ioe.getMessage());
+            System.exit(GENERIC_IO_EXCEPTION);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Server mode. Checks the arguments, then answers queries with a
+     * ForwardingServer until the program is killed.
+     * @param args --serve, the DNS servers to forward to, and optionally the
+     *             address to listen on, as IP[:PORT], and the port to serve
+     *             metrics on.
+     */
+    private static void serve(String[] args)
+    {
+        if (args.length < SERVE_MIN_ARGS || args.length > SERVE_MAX_ARGS)
+            usage(ERROR_INVALID_ARGS, "Invalid Number of Arguments: " +
+                                      args.length);
+        int metricsPort = metricsPort(args, SERVE_METRICS_PORT);
+        Resolver resolver = Resolver.getInstance();
+        InetSocketAddress listen = null;
+        try
+        {
+            UpstreamPool upstreams = UpstreamPool.parse(args[SERVE_DNS_IP]);
+            // Clients wait on every answer, so a slow one is hedged to a
+            // second server, if one was given.
+            upstreams.setHedging(true);
+            resolver.setUpstreams(upstreams);
+            // The busiest names would otherwise each cost some client a
+            // round trip upstream whenever their TTLs ran out.
+            resolver.setPrefetcher(new Prefetcher(resolver),
+                                   ResponseCache.DEFAULT_REFRESH_AT,
+                                   ResponseCache.DEFAULT_REFRESH_HITS);
+            // Better an answer a little out of date than a client waiting
+            // on a server that is down.
+            resolver.setServeStale(ResponseCache.DEFAULT_STALE_WINDOW,
+                                   Resolver.STALE_TIMEOUT);
+            listen = UpstreamPool.parseAddress(args.length > SERVE_LISTEN ?
+                                               args[SERVE_LISTEN] :
+                                               SERVE_DEFAULT_LISTEN,
+                                               Request.DNS_PORT);
+        }
+        catch (UnknownHostException uhe)
+        {
+            System.err.println(uhe.getMessage());
+            usage(ERROR_INVALID_HOSTNAME, "Unknown Host");
+        }
+        startMetrics(metricsPort);
+        try
+        {
+            ForwardingServer server = new ForwardingServer(resolver, listen);
+            System.err.println("Answering queries on " +
+                               server.getAddress() + ", on " +
+                               server.getExecutor());
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("Socket Exception Information:\n" +
+                               ioe.getMessage());
+            System.exit(GENERIC_SOCKET_EXCEPTION);
+        }
+    }
+
+    /**
+     * Reads the optional metrics port argument.
+     * @param args The arguments.
+     * @param index Where the metrics port is, if it was given.
+     * @return The port, or -1 if none was given.
+     */
+    private static int metricsPort(String[] args, int index)
+    {
+        try
+        {
+            if (args.length > index)
+                return Integer.parseInt(args[index]);
+        }
+        catch (NumberFormatException nfe)
+        {
+            usage(ERROR_INVALID_ARGS, "Invalid Metrics Port");
+        }
+        return -1;
+    }
+
+    /**
+     * Falls back on the cache saved by an earlier run, if there is one, and
+     * saves the cache every CacheSnapshot.DEFAULT_INTERVAL seconds, and
+     * when the program exits.
+     * @param path The file the cache is saved to.
+     */
+    private static void snapshots(Path path)
+    {
+        Resolver resolver = Resolver.getInstance();
+        if (Files.exists(path))
+        {
+            try
+            {
+                resolver.getCache().setSnapshot(CacheSnapshot.open(path));
+            }
+            catch (IOException ioe)
+            {
+                System.err.println("Starting with an empty cache: " +
+                                   ioe.getMessage());
+            }
+        }
+        Runnable save = () ->
+        {
+            try
+            {
+                CacheSnapshot.write(resolver.getCache(), path);
+            }
+            catch (IOException ioe)
+            {
+                System.err.println("Cache not saved: " + ioe.getMessage());
+            }
+        };
+        ScheduledExecutorService timer =
+                Executors.newSingleThreadScheduledExecutor(runnable ->
+                {
+                    Thread thread = new Thread(runnable, SNAPSHOT_THREAD);
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        timer.scheduleWithFixedDelay(save, CacheSnapshot.DEFAULT_INTERVAL,
+                                     CacheSnapshot.DEFAULT_INTERVAL,
+                                     TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(save,
+                                                        SNAPSHOT_THREAD));
+    }
+
+    /**
+     * Registers the Resolver's metrics with JMX, and serves them over HTTP
+     * if a port is given.
+     * @param port The port to serve them on, or -1 for none.
+     */
+    private static void startMetrics(int port)
+    {
+        Metrics metrics = Resolver.getInstance().getMetrics();
+        try
+        {
+            metrics.registerMBean();
+            if (port >= 0)
+                new MetricsServer(metrics, port);
+        }
+        catch (JMException | IOException e)
+        {
+            System.err.println("Metrics unavailable: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Iterative mode. Checks the arguments, then looks the name up from the
+     * root servers down.
+     * @param args --iterative, the address to look up, and the type of
+     *             record to request.
+     */
+    private static void iterative(String[] args)
+    {
+        if (args.length != ITERATIVE_ARGS)
+            usage(ERROR_INVALID_ARGS, "Invalid Number of Arguments: " +
+                                      args.length);
+        if (RecordType.codeLookup(args[ITERATIVE_TYPE]) == null)
+            usage(ERROR_INVALID_ARGS, "Unsupported Record Type");
+        try
+        {
+            printResponse(new IterativeResolver().resolve(
+                    args[ITERATIVE_HOSTNAME], args[ITERATIVE_TYPE]));
+        }
+        catch (SocketTimeoutException ste)
+        {
+            System.err.println("Response timed out. No server for the name " +
+                               "answered.");
+            System.exit(ERROR_SOCKET_TIMEOUT);
+        }
+        catch (SocketException se)
+        {
+            System.err.println("Socket Exception Information:\n" +
+                    se.getMessage());
+            System.exit(GENERIC_SOCKET_EXCEPTION);
+        }
+        catch (DnsException de)
+        {
+            System.err.println("Error in DNS Response from server:\n" +
+                    de.getMessage());
+            System.exit(GENERIC_DNS_EXCEPTION);
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("IO Exception Information:\n" +
+                    ioe.getMessage());
+            System.exit(GENERIC_IO_EXCEPTION);
+        }
     }
 
     private static void printRecordList(List<Record> list)
@@ -95,8 +520,10 @@ public class Main
     /**
      * Helper method for main. Calls the helper method tryUDP.
      * In the event that tryUDP throws a TruncatedPacketException, we will call
-     * tryTCP as an attempt to recover. This method also handles all exceptions
-     * related to user error and socket exceptions, and exits accordingly.
+     * tryTCP as an attempt to recover. An answer that stops at a CNAME record
+     * is then followed to the records asked for. This method also handles all
+     * exceptions related to user error and socket exceptions, and exits
+     * accordingly.
      *
      * @param request The request we will be sending to Resolver to resolve.
      * @return The interpreted Response received from the server.
@@ -118,6 +545,8 @@ public class Main
                                    "\nAttempting TCP Connection...");
                 response = tryTCP(resolver, request);
             }
+            response = resolver.followCnames(request, response,
+                                             Resolver.CNAME_DEPTH);
         }
         catch (SocketTimeoutException ste)
         {
@@ -150,7 +579,8 @@ public class Main
      * This method is a helper method for main. It calls resolver to make a
      * UDP request. It will try 3 times to safeguard against UDP packet loss.
      * In the event that the 3rd attempt fails, the exception will be thrown up
-     * to be handled in main.
+     * to be handled in main. Each retry goes to the upstream server that is
+     * fastest by then, which is another one if there are several.
      * @param resolver The resolver object to process the DNS resolution.
      * @param request The request to send to the Resolver.
      * @return The response received back from Resolver.
@@ -177,6 +607,9 @@ public class Main
                     {
                         throw ste;
                     }
+                    resolver.getMetrics().recordRetry();
+                    request = resolver.newRequest(request.getName(),
+                            RecordType.nameLookup(request.getTypeCode()));
                 }
             }
         return response;
@@ -235,7 +668,23 @@ public class Main
             program = program.substring(0, program.indexOf(" "));
         System.err.println("Usage: java " + program + " <DNS IP> <HOSTNAME> " +
                            "<RECORD TYPE>");
-        System.err.println("Supported Record Types: A, CNAME, MX, PTR");
+        System.err.println("       java " + program + " [" + THREADS_FLAG +
+                           "] " + BATCH_FLAG +
+                           " <DNS IP> <FILE|-> [DEFAULT RECORD TYPE] " +
+                           "[IN-FLIGHT WINDOW] [METRICS PORT]");
+        System.err.println("       java " + program + " " + SERVE_FLAG +
+                           " <DNS IP> [LISTEN IP[:PORT]] [METRICS PORT]");
+        System.err.println("       java " + program + " " + ITERATIVE_FLAG +
+                           " <HOSTNAME> <RECORD TYPE>");
+        System.err.println("Where <DNS IP> is one or more servers, as " +
+                           "IP[:PORT],IP[:PORT],...");
+        System.err.println("Any of these may start with " + TRACE_FLAG +
+                           ", to time each phase of every query, and then " +
+                           OFF_HEAP_FLAG + ", to cache responses off the " +
+                           "heap, and then " + SNAPSHOT_FLAG + " <FILE>, " +
+                           "to save the cache for the next run.");
+        System.err.println("Supported Record Types: A, NS, CNAME, SOA, " +
+                           "PTR, MX, TXT, AAAA, SRV, or any as TYPEnnn");
         System.exit(error);
     }
 }
@@ -0,0 +1,269 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A MessageWriter encodes the answer to a Query, from a Response or just an
+ * RCODE, in the wire format of RFC 1035. The answer carries the query's
+ * identifier, RD bit and question as the client sent them. Names are
+ * compressed, each pointing back to the first place the same name, or the
+ * same ending of a name, was written.
+ *
+ * Records hold the names in their RDATA as DomainNames, so they are
+ * compressed again here with every label kept as it was received; they
+ * never pass through text. An answer that doesn't fit the client's UDP
+ * payload size is sent as its header and question alone, with TC set, so
+ * the client asks again over TCP.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class MessageWriter
+{
+    /** The largest DNS message, which is what a TCP client can take. */
+    public static final int MAX_MESSAGE   = 65535;
+    /** The TC bit, in the third byte of the header. */
+    public static final int TC            = 0x02;
+    /** The RA bit, in the fourth byte of the header. */
+    public static final int RA            = 0x80;
+    /** The bits of the RCODE, in the fourth byte of the header. */
+    public static final int RCODE_MASK    = 0x0F;
+    /** Where ANCOUNT sits in the header. */
+    public static final int ANCOUNT_INDEX = Query.ANCOUNT_INDEX;
+    /** Where RDLENGTH sits, counting back from the start of the RDATA. */
+    public static final int RDLENGTH_LEN  = 2;
+    /** The first byte of a compression pointer. */
+    public static final int POINTER       = 0xC000;
+    /** The largest offset a compression pointer can hold. */
+    public static final int MAX_POINTER   = 0x3FFF;
+    /** The length of the fixed fields at the end of SOA RDATA. */
+    public static final int SOA_DATA      = 20;
+
+    /** The buffer the message is written into. */
+    private final ByteBuffer buffer;
+    /** Where each name, and each ending of a name, has been written. */
+    private final Map<DomainName, Integer> names;
+
+    /**
+     * Creates a writer for one message.
+     * @param limit The most bytes the message may take.
+     */
+    private MessageWriter(int limit)
+    {
+        this.buffer = ByteBuffer.allocate(limit);
+        this.names  = new HashMap<>();
+    }
+
+    /**
+     * Encodes the answer to a query.
+     * @param query The query being answered.
+     * @param response The Response to send, or null to send no records.
+     * @param rcode The RCODE of the answer.
+     * @param limit The most bytes the answer may take: the client's UDP
+     *              payload size, or MAX_MESSAGE over TCP.
+     * @return The answer.
+     */
+    public static byte[] write(Query query, Resolver.Response response,
+                               int rcode, int limit)
+    {
+        MessageWriter writer = new MessageWriter(limit);
+        try
+        {
+            writer.header(query.getId(), query.getFlags(), false, rcode);
+            writer.question(query.getQuestion());
+            if (response != null)
+            {
+                writer.section(ANCOUNT_INDEX, response.getAnswers());
+                writer.section(Query.NSCOUNT_INDEX, response.getAuthority());
+                writer.section(Request.ARCOUNT_INDEX,
+                               response.getAdditional());
+            }
+            if (query.getPayloadSize() > 0)
+                writer.opt();
+        }
+        catch (BufferOverflowException boe)
+        {
+            return truncated(query, rcode);
+        }
+        return Arrays.copyOf(writer.buffer.array(), writer.buffer.position());
+    }
+
+    /**
+     * Encodes an answer that holds only the header and question, with TC
+     * set, for when the whole answer doesn't fit.
+     * @param query The query being answered.
+     * @param rcode The RCODE of the answer.
+     * @return The answer.
+     */
+    private static byte[] truncated(Query query, int rcode)
+    {
+        MessageWriter writer = new MessageWriter(Request.HEADER_LEN +
+                                                 query.getQuestion().length);
+        writer.header(query.getId(), query.getFlags(), true, rcode);
+        writer.question(query.getQuestion());
+        return writer.buffer.array();
+    }
+
+    /**
+     * Encodes an answer that holds only a header, for queries that can't
+     * be parsed far enough to echo their question.
+     * @param packet The query, which holds at least its identifier.
+     * @param rcode The RCODE of the answer.
+     * @return The answer.
+     */
+    public static byte[] error(byte[] packet, int rcode)
+    {
+        MessageWriter writer = new MessageWriter(Request.HEADER_LEN);
+        writer.header(Util.bytesToShort(packet[0], packet[1]) &
+                      Query.SHORT_MASK, 0, false, rcode);
+        return writer.buffer.array();
+    }
+
+    /**
+     * Writes the header, with every count at 0. Only the OPCODE and RD are
+     * kept from the query's flags; a client can't set TC in the answer.
+     * @param id The identifier of the query.
+     * @param flags The third byte of the query's header.
+     * @param truncated Whether to set TC.
+     * @param rcode The RCODE of the answer.
+     */
+    private void header(int id, int flags, boolean truncated, int rcode)
+    {
+        buffer.putShort((short) id);
+        buffer.put((byte) (Query.QR | (truncated ? TC : 0) |
+                           (flags & (Query.OPCODE_MASK | Query.RD))));
+        buffer.put((byte) (RA | (rcode & RCODE_MASK)));
+        buffer.position(Request.HEADER_LEN);
+    }
+
+    /**
+     * Writes the question as the client sent it, and notes where its name
+     * and each ending of it are, for the names after it to point to.
+     * @param question The question section of the query.
+     */
+    private void question(byte[] question)
+    {
+        int start = buffer.position();
+        buffer.putShort(Query.QDCOUNT_INDEX, (short) 1);
+        buffer.put(question);
+        DomainName name = DomainName.fromWire(question, 0, question.length -
+                                              Request.TYPE_CLASS_LEN);
+        int offset = start;
+        for (int i = 0; i < name.getLabelCount(); i++)
+        {
+            names.putIfAbsent(name.suffix(i), offset);
+            offset += 1 + name.getLabelLength(i);
+        }
+    }
+
+    /**
+     * Writes a section of records, and counts them in the header.
+     * @param countIndex Where the section's count sits in the header.
+     * @param records The records.
+     */
+    private void section(int countIndex, List<Record> records)
+    {
+        for (Record record : records)
+            record(record);
+        buffer.putShort(countIndex, (short) records.size());
+    }
+
+    /**
+     * Writes one record.
+     * @param record The record.
+     */
+    private void record(Record record)
+    {
+        Byte classCode = RecordType.reverseClassLookup(record.getClassType());
+        name(record.getDomainName());
+        buffer.putShort(record.getTypeCode());
+        buffer.putShort(classCode == null ? CacheKey.CLASS_IN : classCode);
+        buffer.putInt(record.getTtl());
+        buffer.position(buffer.position() + RDLENGTH_LEN);
+        int start = buffer.position();
+        rdata(record);
+        buffer.putShort(start - RDLENGTH_LEN,
+                        (short) (buffer.position() - start));
+    }
+
+    /**
+     * Writes the RDATA of a record, compressing any names in it.
+     * @param record The record.
+     */
+    private void rdata(Record record)
+    {
+        byte[] rdata = record.getRdata();
+        if (record instanceof OpaqueRecord)
+        {
+            buffer.put(rdata);
+            return;
+        }
+        switch (record.getType())
+        {
+            case CNAME:
+                name(((CNAMERecord) record).getTarget());
+                break;
+            case NS:
+                name(((NSRecord) record).getNameServer());
+                break;
+            case PTR:
+                name(((PTRRecord) record).getPointer());
+                break;
+            case MX:
+                buffer.put(rdata, 0, MXRecord.PRIORITY_SIZE);
+                name(((MXRecord) record).getExchange());
+                break;
+            case SOA:
+                SOARecord soa = (SOARecord) record;
+                name(soa.getPrimaryServer());
+                name(soa.getMailbox());
+                buffer.put(rdata, rdata.length - SOA_DATA, SOA_DATA);
+                break;
+            default:
+                buffer.put(rdata);
+        }
+    }
+
+    /**
+     * Writes an OPT record advertising the largest UDP payload this side
+     * can receive, with no options.
+     */
+    private void opt()
+    {
+        buffer.put((byte) 0);
+        buffer.put(RecordType.OPT.toByteArray());
+        buffer.putShort((short) Resolver.MAX_UDP_BUFF);
+        buffer.putInt(0);
+        buffer.putShort((short) 0);
+        buffer.putShort(Request.ARCOUNT_INDEX,
+                        (short) (buffer.getShort(Request.ARCOUNT_INDEX) + 1));
+    }
+
+    /**
+     * Writes a domain name, pointing back to where the rest of it was
+     * written before, if it has been.
+     * @param name The name.
+     */
+    private void name(DomainName name)
+    {
+        for (int i = 0; i < name.getLabelCount(); i++)
+        {
+            DomainName rest = name.suffix(i);
+            Integer earlier = names.get(rest);
+            if (earlier != null)
+            {
+                buffer.putShort((short) (POINTER | earlier));
+                return;
+            }
+            if (buffer.position() <= MAX_POINTER)
+                names.put(rest, buffer.position());
+            name.writeLabel(buffer, i);
+        }
+        buffer.put((byte) 0);
+    }
+}
@@ -0,0 +1,603 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.net.SocketTimeoutException;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metrics counts what a Resolver does: the queries it sends, by record type
+ * and by transport; the RCODEs they are answered with; truncated responses,
+ * timeouts, retries and other failures; and the latency of each query, in a
+ * LatencyHistogram for UDP and another for TCP. The cache's and the upstream
+ * servers' own counters are read alongside them. While queries are traced,
+ * the time spent in each QueryTrace.Phase is kept in a histogram of its
+ * own, in nanoseconds.
+ *
+ * Recording is lock-free: every counter is a LongAdder, and the maps of
+ * them are filled in up front, or only ever added to. The counts can be
+ * read in the Prometheus text format, as MetricsServer serves them, or
+ * through JMX, once registerMBean has been called.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class Metrics implements MetricsMBean
+{
+    /** The name the MBean is registered under. */
+    public static final String OBJECT_NAME =
+            "edu.wcu.cs.agora.allen.DnsResolver:type=Metrics";
+    /** The name of each RCODE, by value, from RFC 1035 and RFC 2136. */
+    public static final String[] RCODE_NAMES = {"NOERROR", "FORMERR",
+            "SERVFAIL", "NXDOMAIN", "NOTIMP", "REFUSED", "YXDOMAIN",
+            "YXRRSET", "NXRRSET", "NOTAUTH", "NOTZONE"};
+    /** The upper bounds of the latency buckets exposed to Prometheus, in
+     *  us. */
+    public static final long[] BUCKET_BOUNDS = {100, 250, 500, 1000, 2500,
+            5000, 10000, 25000, 50000, 100000, 250000, 500000, 1000000,
+            2500000, 5000000, 10000000};
+    /** The upper bounds of the phase buckets exposed to Prometheus, in
+     *  ns. */
+    public static final long[] PHASE_BUCKET_BOUNDS = {1000, 2500, 5000,
+            10000, 25000, 50000, 100000, 250000, 500000, 1000000, 10000000,
+            100000000, 1000000000};
+    /** The number of decimal places between us and seconds. */
+    public static final int MICROS_SCALE = 6;
+    /** The number of decimal places between ns and seconds. */
+    public static final int NANOS_SCALE  = 9;
+    /** The median, as a percentile. */
+    public static final double P50 = 50;
+    /** The 99th percentile. */
+    public static final double P99 = 99;
+    /** The 99.9th percentile. */
+    public static final double P999 = 99.9;
+    /** The transport label of UDP queries. */
+    public static final String UDP = "udp";
+    /** The transport label of TCP queries. */
+    public static final String TCP = "tcp";
+
+    /** The Resolver whose cache and upstream servers are read. */
+    private final Resolver resolver;
+    /** The number of queries, by the type of record asked for. */
+    private final Map<RecordType, LongAdder> queries;
+    /** The number of responses, by RCODE. */
+    private final ConcurrentHashMap<Integer, LongAdder> rcodes;
+    /** The number of queries over UDP. */
+    private final LongAdder udpQueries;
+    /** The number of queries over TCP. */
+    private final LongAdder tcpQueries;
+    /** The number of truncated UDP responses. */
+    private final LongAdder truncations;
+    /** The number of queries that timed out. */
+    private final LongAdder timeouts;
+    /** The number of queries retried. */
+    private final LongAdder retries;
+    /** The number of queries that failed in other ways. */
+    private final LongAdder errors;
+    /** The latency of each UDP query that got a response. */
+    private final LatencyHistogram udpLatency;
+    /** The latency of each TCP query that got a response. */
+    private final LatencyHistogram tcpLatency;
+    /** The time spent in each phase of the queries traced. */
+    private final Map<QueryTrace.Phase, LatencyHistogram> phases;
+
+    /**
+     * Creates metrics for a Resolver, all at zero.
+     * @param resolver The Resolver whose cache and upstream servers are
+     *                 read alongside them.
+     */
+    public Metrics(Resolver resolver)
+    {
+        Map<RecordType, LongAdder> byType = new EnumMap<>(RecordType.class);
+        for (RecordType type : RecordType.values())
+            byType.put(type, new LongAdder());
+        Map<QueryTrace.Phase, LatencyHistogram> byPhase =
+                new EnumMap<>(QueryTrace.Phase.class);
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values())
+            byPhase.put(phase, new LatencyHistogram(TimeUnit.NANOSECONDS));
+        this.resolver    = resolver;
+        this.queries     = Collections.unmodifiableMap(byType);
+        this.rcodes      = new ConcurrentHashMap<>();
+        this.udpQueries  = new LongAdder();
+        this.tcpQueries  = new LongAdder();
+        this.truncations = new LongAdder();
+        this.timeouts    = new LongAdder();
+        this.retries     = new LongAdder();
+        this.errors      = new LongAdder();
+        this.udpLatency  = new LatencyHistogram();
+        this.tcpLatency  = new LatencyHistogram();
+        this.phases      = Collections.unmodifiableMap(byPhase);
+    }
+
+    /**
+     * Counts a query as it is sent.
+     * @param request The query.
+     * @param tcp Whether it is sent over TCP.
+     */
+    public void recordQuery(Request request, boolean tcp)
+    {
+        if (request.getType() != null)
+            queries.get(request.getType()).increment();
+        (tcp ? tcpQueries : udpQueries).increment();
+    }
+
+    /**
+     * Counts the outcome of a query. A response, even one that is truncated
+     * or holds an error RCODE, is counted by its RCODE, and its latency is
+     * recorded; a timeout or any other failure is only counted.
+     * @param tcp Whether the query was sent over TCP.
+     * @param nanos The time from sending it to its outcome, in ns.
+     * @param failure Why it failed, or null if it succeeded.
+     */
+    public void recordResult(boolean tcp, long nanos, Throwable failure)
+    {
+        int rcode;
+        if (failure == null || failure instanceof TruncatedUdpPacketException)
+            rcode = Resolver.ResponseGenerator.NOERROR;
+        else if (failure instanceof NxDomainException)
+            rcode = Resolver.ResponseGenerator.NXDOMAIN;
+        else if (failure instanceof RcodeException)
+            rcode = ((RcodeException) failure).getRcode();
+        else
+        {
+            (failure instanceof SocketTimeoutException ? timeouts : errors)
+                    .increment();
+            return;
+        }
+        if (failure instanceof TruncatedUdpPacketException)
+            truncations.increment();
+        rcodes.computeIfAbsent(rcode, r -> new LongAdder()).increment();
+        (tcp ? tcpLatency : udpLatency).record(nanos);
+    }
+
+    /**
+     * Records how long each phase of a traced query took, up to parsing its
+     * response, and hands the trace to any Flight Recorder recording.
+     * @param trace The trace of the query.
+     */
+    public void recordTrace(QueryTrace trace)
+    {
+        for (QueryTrace.Phase phase : QueryTrace.Phase.values())
+            if (phase != QueryTrace.Phase.FORMAT)
+                phases.get(phase).record(trace.get(phase));
+        QueryEvent.emit(trace);
+    }
+
+    /**
+     * Records how long formatting a Response took, in the Response's trace
+     * if it has one, and in the histogram of formatting times if queries
+     * are being traced.
+     * @param response The Response that was formatted.
+     * @param nanos How long it took, in ns.
+     */
+    public void recordFormat(Resolver.Response response, long nanos)
+    {
+        QueryTrace trace = response.getTrace();
+        if (trace != null)
+            trace.formatted(nanos);
+        if (trace != null || QueryTrace.isEnabled())
+            phases.get(QueryTrace.Phase.FORMAT).record(nanos);
+    }
+
+    /**
+     * Counts a query retried after a timeout.
+     */
+    public void recordRetry()
+    {
+        retries.increment();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server, if they
+     * aren't already.
+     * @throws JMException If they can't be registered.
+     */
+    public void registerMBean() throws JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        synchronized (this)
+        {
+            if (!server.isRegistered(name))
+                server.registerMBean(this, name);
+        }
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     * @param out Where to write them.
+     */
+    public void writePrometheus(StringBuilder out)
+    {
+        header(out, "dns_queries_total", "counter",
+               "Queries sent to DNS servers, by record type.");
+        for (Map.Entry<RecordType, LongAdder> entry : queries.entrySet())
+            if (entry.getValue().sum() > 0)
+                sample(out, "dns_queries_total", "type", entry.getKey(),
+                       entry.getValue().sum());
+        header(out, "dns_transport_queries_total", "counter",
+               "Queries sent to DNS servers, by transport.");
+        sample(out, "dns_transport_queries_total", "transport", UDP,
+               udpQueries.sum());
+        sample(out, "dns_transport_queries_total", "transport", TCP,
+               tcpQueries.sum());
+        header(out, "dns_responses_total", "counter",
+               "Responses received, by RCODE.");
+        for (Map.Entry<Integer, LongAdder> entry :
+             new TreeMap<>(rcodes).entrySet())
+            sample(out, "dns_responses_total", "rcode",
+                   rcodeName(entry.getKey()), entry.getValue().sum());
+        counter(out, "dns_truncated_total",
+                "UDP responses truncated, each a fallback to TCP.",
+                truncations.sum());
+        counter(out, "dns_timeouts_total", "Queries that timed out.",
+                timeouts.sum());
+        counter(out, "dns_retries_total", "Queries retried after a timeout.",
+                retries.sum());
+        counter(out, "dns_errors_total",
+                "Queries that failed other than by timeout or RCODE.",
+                errors.sum());
+        ResponseCache cache = resolver.getCache();
+        counter(out, "dns_cache_hits_total", "Lookups answered from the " +
+                "cache.", cache.getHits());
+        counter(out, "dns_cache_negative_hits_total", "Cache hits that " +
+                "were negative answers.", cache.getNegativeHits());
+        counter(out, "dns_cache_misses_total", "Lookups the cache could " +
+                "not answer.", cache.getMisses());
+        counter(out, "dns_cache_evictions_total", "Live cache entries " +
+                "removed to make room.", cache.getEvictions());
+        header(out, "dns_cache_entries", "gauge", "Entries in the cache.");
+        out.append("dns_cache_entries ").append(cache.size()).append('\n');
+        if (cache instanceof OffHeapResponseCache)
+        {
+            header(out, "dns_cache_arena_bytes", "gauge", "Direct memory " +
+                   "taken by the off-heap cache.");
+            out.append("dns_cache_arena_bytes ")
+               .append(((OffHeapResponseCache) cache).getArenaBytes())
+               .append('\n');
+        }
+        CacheSnapshot snapshot = cache.getSnapshot();
+        if (snapshot != null)
+            counter(out, "dns_cache_restored_total", "Cache entries " +
+                    "restored from the snapshot of an earlier run.",
+                    snapshot.getRestored());
+        header(out, "dns_coalesced_total", "counter",
+               "Queries not sent, as the same question was in flight.");
+        sample(out, "dns_coalesced_total", "transport", UDP,
+               resolver.getFlights(false).getCoalesced());
+        sample(out, "dns_coalesced_total", "transport", TCP,
+               resolver.getFlights(true).getCoalesced());
+        counter(out, "dns_stale_answers_total", "Stale answers served when " +
+                "no fresh one came in time.", resolver.getStaleAnswers());
+        Prefetcher prefetcher = resolver.getPrefetcher();
+        if (prefetcher != null)
+        {
+            counter(out, "dns_prefetches_total", "Cache entries refreshed " +
+                    "before they expired.", prefetcher.getStarted());
+            counter(out, "dns_prefetch_failures_total", "Refreshes that " +
+                    "failed.", prefetcher.getFailed());
+            counter(out, "dns_prefetches_limited_total", "Refreshes put " +
+                    "off by the prefetch limits.", prefetcher.getLimited());
+        }
+        header(out, "dns_query_duration_seconds", "histogram",
+               "Time from sending a query to its response.");
+        histogram(out, "dns_query_duration_seconds", "transport", UDP,
+                  udpLatency, BUCKET_BOUNDS);
+        histogram(out, "dns_query_duration_seconds", "transport", TCP,
+                  tcpLatency, BUCKET_BOUNDS);
+        if (QueryTrace.isEnabled())
+        {
+            header(out, "dns_query_phase_seconds", "histogram",
+                   "Time spent in each phase of the queries traced.");
+            for (QueryTrace.Phase phase : QueryTrace.Phase.values())
+                histogram(out, "dns_query_phase_seconds", "phase",
+                          phase.name().toLowerCase(), phases.get(phase),
+                          PHASE_BUCKET_BOUNDS);
+        }
+        UpstreamPool upstreams = resolver.getUpstreams();
+        if (upstreams != null)
+            writeUpstreams(out, upstreams);
+    }
+
+    /**
+     * Writes the statistics of the upstream servers.
+     * @param out Where to write them.
+     * @param upstreams The upstream servers.
+     */
+    private static void writeUpstreams(StringBuilder out,
+                                       UpstreamPool upstreams)
+    {
+        counter(out, "dns_hedges_total", "Queries hedged to a second " +
+                "upstream server.", upstreams.getHedges());
+        header(out, "dns_upstream_srtt_seconds", "gauge",
+               "Smoothed round trip time of each upstream server.");
+        for (UpstreamPool.Upstream upstream : upstreams.getUpstreams())
+            sample(out, "dns_upstream_srtt_seconds", "server",
+                   server(upstream), seconds(upstream.getSrtt() / 1000,
+                                             MICROS_SCALE));
+        header(out, "dns_upstream_responses_total", "counter",
+               "Responses from each upstream server.");
+        for (UpstreamPool.Upstream upstream : upstreams.getUpstreams())
+            sample(out, "dns_upstream_responses_total", "server",
+                   server(upstream), upstream.getResponses());
+        header(out, "dns_upstream_failures_total", "counter",
+               "Queries to each upstream server that failed.");
+        for (UpstreamPool.Upstream upstream : upstreams.getUpstreams())
+            sample(out, "dns_upstream_failures_total", "server",
+                   server(upstream), upstream.getFailures());
+    }
+
+    /**
+     * Writes one histogram's buckets, sum and count.
+     * @param out Where to write them.
+     * @param name The name of the metric.
+     * @param label The name of the label that tells its histograms apart.
+     * @param labelValue The value of the label for this histogram.
+     * @param histogram The histogram.
+     * @param bounds The upper bounds of the buckets to write, in the
+     *               histogram's unit.
+     */
+    private static void histogram(StringBuilder out, String name,
+                                  String label, String labelValue,
+                                  LatencyHistogram histogram, long[] bounds)
+    {
+        int scale = histogram.getUnit() == TimeUnit.NANOSECONDS ?
+                    NANOS_SCALE : MICROS_SCALE;
+        String labels = label + "=\"" + labelValue + "\"";
+        long[] counts = histogram.snapshot();
+        long cumulative = 0;
+        int index = 0;
+        for (long bound : bounds)
+        {
+            // Whole buckets only, so a bound inside one counts the latencies
+            // below the bucket; it is off by at most the bucket's width.
+            while (index < counts.length &&
+                   LatencyHistogram.upperBound(index) <= bound + 1)
+                cumulative += counts[index++];
+            bucket(out, name, labels, seconds(bound, scale), cumulative);
+        }
+        while (index < counts.length)
+            cumulative += counts[index++];
+        bucket(out, name, labels, "+Inf", cumulative);
+        out.append(name).append("_sum{").append(labels).append("} ")
+           .append(seconds(histogram.getSum(), scale)).append('\n');
+        out.append(name).append("_count{").append(labels).append("} ")
+           .append(cumulative).append('\n');
+    }
+
+    /**
+     * Writes one histogram bucket.
+     * @param out Where to write it.
+     * @param name The name of the metric.
+     * @param labels The labels of its histogram, as name="value".
+     * @param le The bucket's upper bound, in seconds.
+     * @param count The number of latencies up to the bound.
+     */
+    private static void bucket(StringBuilder out, String name, String labels,
+                               String le, long count)
+    {
+        out.append(name).append("_bucket{").append(labels).append(",le=\"")
+           .append(le).append("\"} ").append(count).append('\n');
+    }
+
+    /**
+     * Writes a counter with no labels.
+     * @param out Where to write it.
+     * @param name The name of the counter.
+     * @param help What it counts.
+     * @param value Its value.
+     */
+    private static void counter(StringBuilder out, String name, String help,
+                                long value)
+    {
+        header(out, name, "counter", help);
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a metric.
+     * @param out Where to write them.
+     * @param name The name of the metric.
+     * @param type Its type.
+     * @param help What it measures.
+     */
+    private static void header(StringBuilder out, String name, String type,
+                               String help)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help)
+           .append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type)
+           .append('\n');
+    }
+
+    /**
+     * Writes a sample with one label.
+     * @param out Where to write it.
+     * @param name The name of the metric.
+     * @param label The name of the label.
+     * @param labelValue The value of the label.
+     * @param value The value of the sample.
+     */
+    private static void sample(StringBuilder out, String name, String label,
+                               Object labelValue, Object value)
+    {
+        out.append(name).append('{').append(label).append("=\"")
+           .append(labelValue).append("\"} ").append(value).append('\n');
+    }
+
+    /**
+     * Formats a number of microseconds or nanoseconds as seconds, without
+     * an exponent.
+     * @param amount The number of microseconds or nanoseconds.
+     * @param scale MICROS_SCALE or NANOS_SCALE, whichever amount is in.
+     * @return The number of seconds.
+     */
+    private static String seconds(long amount, int scale)
+    {
+        return BigDecimal.valueOf(amount, scale).stripTrailingZeros()
+                         .toPlainString();
+    }
+
+    /**
+     * Names an RCODE.
+     * @param rcode The RCODE.
+     * @return Its name, or its value if it has none here.
+     */
+    private static String rcodeName(int rcode)
+    {
+        return rcode < RCODE_NAMES.length ? RCODE_NAMES[rcode] :
+               Integer.toString(rcode);
+    }
+
+    /**
+     * Labels an upstream server.
+     * @param upstream The server.
+     * @return Its address and port.
+     */
+    private static String server(UpstreamPool.Upstream upstream)
+    {
+        return upstream.getAddress().getAddress().getHostAddress() + ":" +
+               upstream.getAddress().getPort();
+    }
+
+    @Override
+    public long getQueries()
+    {
+        return udpQueries.sum() + tcpQueries.sum();
+    }
+
+    @Override
+    public long getUdpQueries()
+    {
+        return udpQueries.sum();
+    }
+
+    @Override
+    public long getTcpQueries()
+    {
+        return tcpQueries.sum();
+    }
+
+    @Override
+    public long getTruncations()
+    {
+        return truncations.sum();
+    }
+
+    @Override
+    public long getTimeouts()
+    {
+        return timeouts.sum();
+    }
+
+    @Override
+    public long getRetries()
+    {
+        return retries.sum();
+    }
+
+    @Override
+    public long getErrors()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public long getCacheHits()
+    {
+        return resolver.getCache().getHits();
+    }
+
+    @Override
+    public long getCacheMisses()
+    {
+        return resolver.getCache().getMisses();
+    }
+
+    @Override
+    public long getStaleAnswers()
+    {
+        return resolver.getStaleAnswers();
+    }
+
+    @Override
+    public long getPrefetches()
+    {
+        Prefetcher prefetcher = resolver.getPrefetcher();
+        return prefetcher == null ? 0 : prefetcher.getStarted();
+    }
+
+    @Override
+    public long getCoalesced()
+    {
+        return resolver.getFlights(false).getCoalesced() +
+               resolver.getFlights(true).getCoalesced();
+    }
+
+    @Override
+    public long getUdpLatencyP50()
+    {
+        return udpLatency.percentile(P50);
+    }
+
+    @Override
+    public long getUdpLatencyP99()
+    {
+        return udpLatency.percentile(P99);
+    }
+
+    @Override
+    public long getUdpLatencyP999()
+    {
+        return udpLatency.percentile(P999);
+    }
+
+    @Override
+    public long getTcpLatencyP50()
+    {
+        return tcpLatency.percentile(P50);
+    }
+
+    @Override
+    public long getTcpLatencyP99()
+    {
+        return tcpLatency.percentile(P99);
+    }
+
+    /**
+     * Returns the histogram of UDP query latencies.
+     * @return The histogram.
+     */
+    public LatencyHistogram getUdpLatency()
+    {
+        return udpLatency;
+    }
+
+    /**
+     * Returns the histogram of TCP query latencies.
+     * @return The histogram.
+     */
+    public LatencyHistogram getTcpLatency()
+    {
+        return tcpLatency;
+    }
+
+    /**
+     * Returns the histogram of the time traced queries spent in a phase.
+     * @param phase The phase.
+     * @return The histogram, in ns.
+     */
+    public LatencyHistogram getPhase(QueryTrace.Phase phase)
+    {
+        return phases.get(phase);
+    }
+}
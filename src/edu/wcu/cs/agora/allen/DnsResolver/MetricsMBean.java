@@ -0,0 +1,118 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * The attributes Metrics shows through JMX, for jconsole, VisualVM and the
+ * like. Latencies are in microseconds.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public interface MetricsMBean
+{
+    /**
+     * The number of queries sent to DNS servers, over UDP and TCP.
+     * @return The number of queries.
+     */
+    long getQueries();
+
+    /**
+     * The number of queries sent over UDP.
+     * @return The number of queries.
+     */
+    long getUdpQueries();
+
+    /**
+     * The number of queries sent over TCP.
+     * @return The number of queries.
+     */
+    long getTcpQueries();
+
+    /**
+     * The number of UDP responses that were truncated, each a fallback to
+     * TCP.
+     * @return The number of truncated responses.
+     */
+    long getTruncations();
+
+    /**
+     * The number of queries that timed out.
+     * @return The number of timeouts.
+     */
+    long getTimeouts();
+
+    /**
+     * The number of queries retried after a timeout.
+     * @return The number of retries.
+     */
+    long getRetries();
+
+    /**
+     * The number of queries that failed other than by timing out or with
+     * an error RCODE, such as malformed responses.
+     * @return The number of errors.
+     */
+    long getErrors();
+
+    /**
+     * The number of lookups answered from the cache.
+     * @return The number of hits.
+     */
+    long getCacheHits();
+
+    /**
+     * The number of lookups the cache could not answer.
+     * @return The number of misses.
+     */
+    long getCacheMisses();
+
+    /**
+     * The number of queries not sent because the same question was already
+     * in flight, over either transport.
+     * @return The number coalesced.
+     */
+    long getCoalesced();
+
+    /**
+     * The number of cache entries refreshed before they expired.
+     * @return The number of refreshes started, or 0 if entries aren't
+     *         refreshed.
+     */
+    long getPrefetches();
+
+    /**
+     * The number of stale answers served because no fresh one could be had
+     * in time.
+     * @return The number served.
+     */
+    long getStaleAnswers();
+
+    /**
+     * The median latency of UDP queries.
+     * @return The latency, in us.
+     */
+    long getUdpLatencyP50();
+
+    /**
+     * The 99th percentile latency of UDP queries.
+     * @return The latency, in us.
+     */
+    long getUdpLatencyP99();
+
+    /**
+     * The 99.9th percentile latency of UDP queries.
+     * @return The latency, in us.
+     */
+    long getUdpLatencyP999();
+
+    /**
+     * The median latency of TCP queries.
+     * @return The latency, in us.
+     */
+    long getTcpLatencyP50();
+
+    /**
+     * The 99th percentile latency of TCP queries.
+     * @return The latency, in us.
+     */
+    long getTcpLatencyP99();
+}
@@ -0,0 +1,115 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A MetricsServer serves a Resolver's Metrics over HTTP, in the Prometheus
+ * text format, at /metrics. It listens on the loopback address only, and
+ * answers one scrape at a time on a single daemon thread, so it costs next
+ * to nothing when no one is looking.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class MetricsServer implements Closeable
+{
+    /** The path the metrics are served at. */
+    public static final String PATH         = "/metrics";
+    /** The content type of the Prometheus text format. */
+    public static final String CONTENT_TYPE =
+            "text/plain; version=0.0.4; charset=utf-8";
+    /** The HTTP status of a successful scrape. */
+    public static final int HTTP_OK         = 200;
+    /** The HTTP status of a request for anything but a GET. */
+    public static final int HTTP_BAD_METHOD = 405;
+    /** The length given for a response with no body. */
+    public static final int NO_BODY         = -1;
+    /** The number of connections that may wait to be accepted. */
+    public static final int BACKLOG         = 16;
+    /** The initial size of the buffer the metrics are written into. */
+    public static final int INITIAL_BUFF    = 8192;
+
+    /** The metrics served. */
+    private final Metrics metrics;
+    /** The HTTP server. */
+    private final HttpServer server;
+    /** The thread that answers scrapes. */
+    private final ExecutorService executor;
+
+    /**
+     * Starts serving metrics.
+     * @param metrics The metrics to serve.
+     * @param port The port to listen on, on the loopback address; 0 for any
+     *             free port.
+     * @throws IOException If the port can't be bound.
+     */
+    public MetricsServer(Metrics metrics, int port) throws IOException
+    {
+        this.metrics  = metrics;
+        this.server   = HttpServer.create(new InetSocketAddress(
+                InetAddress.getLoopbackAddress(), port), BACKLOG);
+        this.executor = Executors.newSingleThreadExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "dns-metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext(PATH, this::scrape);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Answers a scrape with every metric.
+     * @param exchange The HTTP request and response.
+     * @throws IOException If the response can't be written.
+     */
+    private void scrape(HttpExchange exchange) throws IOException
+    {
+        try (exchange)
+        {
+            if (!"GET".equals(exchange.getRequestMethod()))
+            {
+                exchange.sendResponseHeaders(HTTP_BAD_METHOD, NO_BODY);
+                return;
+            }
+            StringBuilder text = new StringBuilder(INITIAL_BUFF);
+            metrics.writePrometheus(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(HTTP_OK, body.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Returns the port the server listens on.
+     * @return The port.
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving metrics.
+     */
+    @Override
+    public void close()
+    {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
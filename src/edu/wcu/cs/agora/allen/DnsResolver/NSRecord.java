@@ -1,47 +1,44 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 /**
  * Created by tyler on 10/24/13.
  */
 public class NSRecord extends Record
 {
+    /** The name server for the zone this record's name is the top of. */
+    private final DomainName nameServer;
+
     /**
-     * Constructor simply calls super.
+     * Calls super, and reads the name server out of the RDATA.
      * @param name Associated with the name field in Record.
      * @param type Associated with the type field in Record.
      * @param classType Associated with the classType field in Record.
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected NSRecord(String name, RecordType type, String classType,
-                       int ttl, List<Byte> rdata)
+    protected NSRecord(DomainName name, RecordType type, String classType,
+                       int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
+        this.nameServer = DomainName.fromWire(rdata, 0);
     }
 
     /**
-     * Adds the rData for this record to super.toString().
-     * @return The newly created toString.
+     * Getter for nameServer.
+     * @return The name of a server for the zone.
      */
-    @Override
-    public String toString()
+    public DomainName getNameServer()
     {
-        return super.toString() + formatRData();
+        return nameServer;
     }
 
     /**
-     * Formats the RDATA in a readable format. Because this contains domain
-     * addresses, it is already formatted. We simply transform the bytes into
-     * String form.
-     * @return The string form of the RDATA.
+     * Adds the rData for this record to super.toString().
+     * @return The newly created toString.
      */
-    private String formatRData()
+    @Override
+    public String toString()
     {
-        return new String(Util.unboxBytes(getRdata()),
-                StandardCharsets.UTF_8);
+        return super.toString() + nameServer;
     }
-
 }
@@ -0,0 +1,48 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * This Exception is a more specific DNS exception. It is created when a DNS
+ * server answers that the name asked about does not exist (RCODE 3, or
+ * NXDOMAIN). The Response that said so is kept, as its authority section
+ * holds the SOA record that says how long the answer may be cached.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+
+public class NxDomainException extends DnsException
+{
+    /** The Response that said the name does not exist. */
+    private final transient Resolver.Response response;
+
+    /**
+     * Creates the exception for a Response.
+     * @param response The Response that said the name does not exist.
+     */
+    public NxDomainException(Resolver.Response response)
+    {
+        super(describe(response));
+        this.response = response;
+    }
+
+    /**
+     * Getter for response.
+     * @return The Response that said the name does not exist.
+     */
+    public Resolver.Response getResponse()
+    {
+        return response;
+    }
+
+    /**
+     * Builds the message for a Response.
+     * @param response The Response that said the name does not exist.
+     * @return The message, naming the domain if the Response has a query.
+     */
+    private static String describe(Resolver.Response response)
+    {
+        String name = response.getQueries().isEmpty() ? "The domain name" :
+                      "\"" + response.getQueries().get(0).getName() + "\"";
+        return name + " does not exist (NXDOMAIN).";
+    }
+}
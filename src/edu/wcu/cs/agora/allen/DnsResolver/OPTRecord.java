@@ -0,0 +1,115 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * The OPT pseudo-record of EDNS(0), from RFC 6891. It is not a record about
+ * the name it is attached to: its CLASS field holds the largest UDP payload
+ * the sender can receive, and its TTL field holds the upper bits of the
+ * RCODE, the EDNS version, and flags. It describes the message it arrives
+ * in, so it is kept apart from the additional section and never cached.
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class OPTRecord extends Record
+{
+    /** The smallest payload size a sender may advertise, from RFC 6891. */
+    public static final int MIN_PAYLOAD      = 512;
+    /** The number of bits the extended RCODE is shifted in the TTL. */
+    public static final int EXT_RCODE_SHIFT  = 24;
+    /** The number of bits the version is shifted in the TTL. */
+    public static final int VERSION_SHIFT    = 16;
+    /** The number of bits the extended RCODE sits above the header RCODE. */
+    public static final int RCODE_BITS       = 4;
+    /** Masks a byte out of the TTL. */
+    public static final int BYTE_MASK        = 0xFF;
+    /** The DNSSEC OK flag, in the TTL. */
+    public static final int DO_FLAG          = 0x8000;
+
+    /** The largest UDP payload the sender can receive. */
+    private int payloadSize;
+
+    /**
+     * Creates an OPT record.
+     * @param name Associated with the name field in Record. Always the root.
+     * @param type Associated with the type field in Record.
+     * @param payloadSize The CLASS field, which holds the UDP payload size.
+     * @param ttl The TTL field, which holds the extended RCODE and flags.
+     * @param rdata Associated with the RDATA field in Record. Holds any
+     *              options, which are kept as they are.
+     */
+    protected OPTRecord(DomainName name, RecordType type, short payloadSize,
+                        int ttl, byte[] rdata)
+    {
+        super(name, type, null, ttl, rdata);
+        this.payloadSize = Math.max(MIN_PAYLOAD,
+                                    Util.unsignShortToInt(payloadSize));
+    }
+
+    /**
+     * The largest UDP payload the sender can receive. Values under 512 are
+     * treated as 512, as RFC 6891 says they must be.
+     * @return The payload size, in bytes.
+     */
+    public int getPayloadSize()
+    {
+        return payloadSize;
+    }
+
+    /**
+     * The upper 8 bits of the RCODE, which sit above the 4 in the header.
+     * @return The extended RCODE bits, not yet shifted.
+     */
+    public int getExtendedRcode()
+    {
+        return (getTtl() >>> EXT_RCODE_SHIFT) & BYTE_MASK;
+    }
+
+    /**
+     * Combines the header's RCODE with the extended bits in this record.
+     * @param rcode The RCODE from the header.
+     * @return The full 12 bit RCODE.
+     */
+    public int getFullRcode(int rcode)
+    {
+        return (getExtendedRcode() << RCODE_BITS) | rcode;
+    }
+
+    /**
+     * The EDNS version the sender implements.
+     * @return The version, 0 for EDNS(0).
+     */
+    public int getVersion()
+    {
+        return (getTtl() >>> VERSION_SHIFT) & BYTE_MASK;
+    }
+
+    /**
+     * Whether the sender set the DNSSEC OK flag.
+     * @return True if the DO flag is set.
+     */
+    public boolean isDnssecOk()
+    {
+        return (getTtl() & DO_FLAG) != 0;
+    }
+
+    /**
+     * An OPT record has no TTL to count down, so it is never copied.
+     * @param newTtl Ignored.
+     * @return This record.
+     */
+    @Override
+    public Record withTtl(int newTtl)
+    {
+        return this;
+    }
+
+    /**
+     * Formats the record the way dig shows its OPT pseudo-section.
+     * @return The version, flags and payload size.
+     */
+    @Override
+    public String toString()
+    {
+        return "EDNS: version: " + getVersion() + ", flags:" +
+               (isDnssecOk() ? " do" : "") + "; udp: " + payloadSize;
+    }
+}
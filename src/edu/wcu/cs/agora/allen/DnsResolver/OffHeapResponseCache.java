@@ -0,0 +1,946 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A ResponseCache that keeps its entries off the heap, so that it can hold
+ * millions of them without the garbage collector having to look at any.
+ * An entry is stored as a block of bytes: its question, its RCODE, and the
+ * name, type, class, TTL and RDATA of each of its records, much as they are
+ * laid out in a DNS message, but with every name written out in full. The
+ * question's name is stored in lower case, so it can be matched byte for
+ * byte. The Records of a Response are only built when it is looked up.
+ *
+ * The cache is split into SEGMENTS segments by the hash of the question,
+ * each with its own lock. A segment finds entries through an index of two
+ * primitive arrays, the hashes of the questions and the addresses of their
+ * blocks, probed linearly. Its blocks are cut from slabs of SLAB_SIZE bytes
+ * of direct memory, allocated as they are needed up to the segment's share
+ * of the arena. Each block is a power of two bytes, from MIN_BLOCK to
+ * MAX_BLOCK, and a removed entry's block goes on a free list for the next
+ * entry of its size. When there is no block free and no slab left to cut
+ * one from, an entry of the same size is evicted, the one closest to
+ * expiring of those found in a short scan of the index. A Response too
+ * large for MAX_BLOCK, or with no entry of its size to evict, is not cached.
+ *
+ * Lookups take the segment's lock for as long as it takes to copy a block
+ * onto the heap; the Records are built from the copy after it is released.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class OffHeapResponseCache extends ResponseCache
+{
+    /** The number of entries an off-heap cache holds by default. */
+    public static final int  DEFAULT_MAX_ENTRIES = 1_000_000;
+    /** The direct memory a cache may use by default, in bytes. */
+    public static final long DEFAULT_ARENA_BYTES = 256L << 20;
+    /** The number of segments, each locked on its own. A power of two. */
+    public static final int  SEGMENTS            = 16;
+    /** The size of each slab of direct memory, in bytes. */
+    public static final int  SLAB_SIZE           = 1 << 20;
+    /** The smallest block an entry is stored in, in bytes. */
+    public static final int  MIN_BLOCK           = 64;
+    /** The largest block an entry is stored in, in bytes. */
+    public static final int  MAX_BLOCK           = 1 << 16;
+    /** The number of slots in a segment's index when it is created. */
+    public static final int  INITIAL_SLOTS       = 256;
+    /** The most slots of the index examined to choose an entry to evict. */
+    public static final int  EVICTION_SCAN       = 1024;
+
+    /** The number of bits an address's slab is shifted by. */
+    private static final int  SLAB_SHIFT  = 20;
+    /** The number of block sizes, MIN_BLOCK to MAX_BLOCK. */
+    private static final int  CLASSES     = 11;
+    /** The number of bits a hash is shifted by to choose its segment. */
+    private static final int  SEGMENT_SHIFT = 28;
+    /** Marks a slot of the index with no entry. */
+    private static final long EMPTY       = -1;
+    /** The RDATA length of a record with none, such as a question. */
+    private static final int  NO_RDATA    = -1;
+    /** The sections of a stored Response: the queries, answers, authority,
+     *  additional records and OPT record. */
+    private static final int  SECTIONS    = 5;
+    /** The section holding the OPT record. */
+    private static final int  OPT_SECTION = 4;
+
+    // The layout of a block's header. The sizes of the sections follow
+    // SECTION_SIZES, then the question's name and the records.
+    /** When the entry expires, in System.nanoTime() terms. A long. */
+    private static final int EXPIRES       = 0;
+    /** When the entry was cached, in System.nanoTime() terms. A long. */
+    private static final int STORED        = 8;
+    /** The number of lookups the entry has answered. An int. */
+    private static final int HITS          = 16;
+    /** NEGATIVE and REFRESHING. A byte. */
+    private static final int FLAGS         = 20;
+    /** Which block size the block is. A byte. */
+    private static final int SIZE_CLASS    = 21;
+    /** The RCODE of the Response. A short. */
+    private static final int RCODE         = 22;
+    /** The type of the question. A short. */
+    private static final int KEY_TYPE      = 24;
+    /** The class of the question. A short. */
+    private static final int KEY_CLASS     = 26;
+    /** The length of the question's name. A short. */
+    private static final int KEY_LENGTH    = 28;
+    /** The length of the block in use. An int. */
+    private static final int LENGTH        = 30;
+    /** The number of records in each section, one short apiece. */
+    private static final int SECTION_SIZES = 34;
+    /** The length of the header. */
+    static final int HEADER                = SECTION_SIZES + 2 * SECTIONS;
+
+    /** The flag set if the Response is NXDOMAIN or NODATA. */
+    private static final byte NEGATIVE   = 1;
+    /** The flag set once the entry's question is handed to the Refresher. */
+    private static final byte REFRESHING = 2;
+
+    /** The segments, chosen among by the top bits of a question's hash. */
+    private final Segment[] segments;
+    /** The most slabs each segment allocates. */
+    private final int maxSlabs;
+
+    /**
+     * Creates an empty cache with the default bounds.
+     */
+    public OffHeapResponseCache()
+    {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_ARENA_BYTES);
+    }
+
+    /**
+     * Creates an empty cache. No direct memory is allocated until entries
+     * are put.
+     * @param maxEntries The most entries this cache holds, split evenly
+     *                   among the segments.
+     * @param arenaBytes The most direct memory it uses for them, in bytes.
+     *                   At least a slab is allocated for each segment.
+     */
+    public OffHeapResponseCache(int maxEntries, long arenaBytes)
+    {
+        super(maxEntries);
+        this.maxSlabs = (int) Math.max(1,
+                Math.min(Integer.MAX_VALUE, arenaBytes / SEGMENTS / SLAB_SIZE));
+        int perSegment = (maxEntries + SEGMENTS - 1) / SEGMENTS;
+        this.segments = new Segment[SEGMENTS];
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment(perSegment);
+    }
+
+    @Override
+    public Resolver.Response get(CacheKey key)
+    {
+        byte[] name = key.getName().toCanonicalWire();
+        int hash = spread(key.hashCode());
+        Segment segment = segmentFor(hash);
+        long now = System.nanoTime();
+        byte[] block = null;
+        boolean refresh = false;
+        segment.lock.lock();
+        try
+        {
+            int slot = segment.find(hash, key, name);
+            if (slot >= 0)
+            {
+                ByteBuffer slab = segment.slab(segment.blocks[slot]);
+                int at = offset(segment.blocks[slot]);
+                long expires = slab.getLong(at + EXPIRES);
+                if (now - expires < 0)
+                {
+                    int hits = slab.getInt(at + HITS) + 1;
+                    slab.putInt(at + HITS, hits);
+                    byte flags = slab.get(at + FLAGS);
+                    if ((flags & REFRESHING) == 0 &&
+                        isDueForRefresh(now, slab.getLong(at + STORED),
+                                        expires, hits))
+                    {
+                        slab.put(at + FLAGS, (byte) (flags | REFRESHING));
+                        refresh = true;
+                    }
+                    block = copy(slab, at);
+                }
+                // A stale entry is kept for getStale.
+                else if (now - expires >= getStaleWindow())
+                {
+                    segment.remove(slot);
+                    countRemoval(true);
+                }
+            }
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+        if (block == null)
+            return restore(key);
+        ByteBuffer in = ByteBuffer.wrap(block);
+        countHit((in.get(FLAGS) & NEGATIVE) != 0);
+        if (refresh && !refresh(key))
+            // Let a later hit try again.
+            segment.clearRefreshing(hash, key, name);
+        int elapsed = (int) TimeUnit.NANOSECONDS.toSeconds(
+                now - in.getLong(STORED));
+        return decode(in, elapsed, false);
+    }
+
+    @Override
+    public void refreshFailed(CacheKey key)
+    {
+        int hash = spread(key.hashCode());
+        segmentFor(hash).clearRefreshing(hash, key,
+                                         key.getName().toCanonicalWire());
+    }
+
+    @Override
+    public Resolver.Response getStale(CacheKey key)
+    {
+        byte[] name = key.getName().toCanonicalWire();
+        int hash = spread(key.hashCode());
+        Segment segment = segmentFor(hash);
+        long now = System.nanoTime();
+        byte[] block = null;
+        segment.lock.lock();
+        try
+        {
+            int slot = segment.find(hash, key, name);
+            if (slot >= 0)
+            {
+                ByteBuffer slab = segment.slab(segment.blocks[slot]);
+                int at = offset(segment.blocks[slot]);
+                long expires = slab.getLong(at + EXPIRES);
+                if (now - expires >= 0 && now - expires < getStaleWindow())
+                    block = copy(slab, at);
+            }
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+        if (block == null)
+            return null;
+        countStaleHit();
+        return decode(ByteBuffer.wrap(block), 0, true);
+    }
+
+    /**
+     * Caches the Response to a question, unless it is too large for a
+     * block, or there is no room for its block.
+     * @param key The question that was answered.
+     * @param response The Response to it, with the TTLs it arrived with.
+     * @param stored When it was cached, in System.nanoTime() terms.
+     * @param expires When it expires, in System.nanoTime() terms.
+     */
+    @Override
+    protected void putEntry(CacheKey key, Resolver.Response response,
+                            long stored, long expires)
+    {
+        if (getMaxEntries() <= 0)
+            return;
+        byte[] name = key.getName().toCanonicalWire();
+        byte[] block = encode(key, name, response, stored, expires);
+        if (block == null)
+            return;
+        int hash = spread(key.hashCode());
+        segmentFor(hash).put(hash, key, name, block);
+    }
+
+    @Override
+    protected boolean contains(CacheKey key)
+    {
+        byte[] name = key.getName().toCanonicalWire();
+        int hash = spread(key.hashCode());
+        Segment segment = segmentFor(hash);
+        segment.lock.lock();
+        try
+        {
+            int slot = segment.find(hash, key, name);
+            return slot >= 0 && System.nanoTime() - segment.slab(
+                    segment.blocks[slot]).getLong(offset(
+                    segment.blocks[slot]) + EXPIRES) < 0;
+        }
+        finally
+        {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(Visitor visitor)
+    {
+        for (Segment segment : segments)
+            for (byte[] block : segment.copyLive(System.nanoTime()))
+            {
+                ByteBuffer in = ByteBuffer.wrap(block);
+                visitor.visit(decodeKey(in), decode(in, 0, false),
+                              storedOf(in), expiresOf(in));
+            }
+    }
+
+    @Override
+    public void clear()
+    {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    @Override
+    public int size()
+    {
+        int size = 0;
+        for (Segment segment : segments)
+            size += segment.size();
+        return size;
+    }
+
+    /**
+     * Returns the direct memory taken by the slabs allocated so far.
+     * @return The number of bytes.
+     */
+    public long getArenaBytes()
+    {
+        long slabs = 0;
+        for (Segment segment : segments)
+            slabs += segment.slabCount();
+        return slabs * SLAB_SIZE;
+    }
+
+    /**
+     * Spreads the bits of a question's hash, so that questions whose hashes
+     * differ only in their high bits use different slots of the index.
+     * @param hash The hash of the question.
+     * @return The spread hash.
+     */
+    private static int spread(int hash)
+    {
+        return (hash ^ (hash >>> 16)) * 0x9E3779B9;
+    }
+
+    /**
+     * Chooses the segment a question belongs to.
+     * @param hash The spread hash of the question.
+     * @return The segment.
+     */
+    private Segment segmentFor(int hash)
+    {
+        return segments[(hash >>> SEGMENT_SHIFT) & (SEGMENTS - 1)];
+    }
+
+    /**
+     * Finds where in its slab a block starts.
+     * @param address The address of the block.
+     * @return Its offset in the slab.
+     */
+    private static int offset(long address)
+    {
+        return (int) (address & (SLAB_SIZE - 1));
+    }
+
+    /**
+     * Chooses the smallest block size a block of a given length fits in.
+     * @param length The length of the block.
+     * @return The block size, as an index into the sizes from MIN_BLOCK up.
+     */
+    private static int sizeClass(int length)
+    {
+        int sizeClass = 0;
+        while (MIN_BLOCK << sizeClass < length)
+            sizeClass++;
+        return sizeClass;
+    }
+
+    /**
+     * Copies a block onto the heap.
+     * @param slab The slab holding the block.
+     * @param at Where the block starts.
+     * @return The part of the block in use.
+     */
+    private static byte[] copy(ByteBuffer slab, int at)
+    {
+        byte[] block = new byte[lengthOf(slab, at)];
+        slab.get(at, block);
+        return block;
+    }
+
+    /**
+     * Lays out a Response as a block. The times are stored as they are
+     * given, so a CacheSnapshot can store wall clock times instead.
+     * @param key The question it answers.
+     * @param name The question's name, in canonical wire format.
+     * @param response The Response, with the TTLs it arrived with.
+     * @param stored When it was cached.
+     * @param expires When it expires.
+     * @return The block, or null if it would be larger than MAX_BLOCK.
+     */
+    static byte[] encode(CacheKey key, byte[] name,
+                         Resolver.Response response, long stored,
+                         long expires)
+    {
+        List<List<Record>> sections = List.of(response.getQueries(),
+                response.getAnswers(), response.getAuthority(),
+                response.getAdditional(), response.getOpt() == null ?
+                List.<Record>of() : List.<Record>of(response.getOpt()));
+        List<byte[]> owners = new ArrayList<>();
+        int length = HEADER + name.length;
+        for (List<Record> section : sections)
+            for (Record record : section)
+            {
+                byte[] owner = record.getDomainName().toWire();
+                owners.add(owner);
+                length += 2 + owner.length + 2 + 2 + 4 + 4 +
+                          (record.getRdata() == null ? 0 :
+                           record.getRdata().length);
+            }
+        if (length > MAX_BLOCK)
+            return null;
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putLong(EXPIRES, expires);
+        out.putLong(STORED, stored);
+        out.put(FLAGS, isNegative(response) ? NEGATIVE : 0);
+        out.put(SIZE_CLASS, (byte) sizeClass(length));
+        out.putShort(RCODE, (short) response.getRcode());
+        out.putShort(KEY_TYPE, key.getTypeCode());
+        out.putShort(KEY_CLASS, key.getClassType());
+        out.putShort(KEY_LENGTH, (short) name.length);
+        out.putInt(LENGTH, length);
+        out.position(HEADER);
+        out.put(name);
+        int i = 0;
+        for (int s = 0; s < SECTIONS; s++)
+        {
+            out.putShort(SECTION_SIZES + 2 * s,
+                         (short) sections.get(s).size());
+            for (Record record : sections.get(s))
+            {
+                byte[] owner = owners.get(i++);
+                out.putShort((short) owner.length);
+                out.put(owner);
+                out.putShort(record.getTypeCode());
+                out.putShort(classCode(record));
+                out.putInt(record.getTtl());
+                if (record.getRdata() == null)
+                    out.putInt(NO_RDATA);
+                else
+                {
+                    out.putInt(record.getRdata().length);
+                    out.put(record.getRdata());
+                }
+            }
+        }
+        return out.array();
+    }
+
+    /**
+     * Finds the code to store for a record's class.
+     * @param record The record.
+     * @return Its class code, or, for an OPT record, its payload size.
+     */
+    private static short classCode(Record record)
+    {
+        if (record instanceof OPTRecord)
+            return (short) ((OPTRecord) record).getPayloadSize();
+        Byte code = RecordType.reverseClassLookup(record.getClassType());
+        return code == null ? 0 : code;
+    }
+
+    /**
+     * Reads when the entry a block holds was cached.
+     * @param block The block.
+     * @return The time, as it was given to encode.
+     */
+    static long storedOf(ByteBuffer block)
+    {
+        return block.getLong(STORED);
+    }
+
+    /**
+     * Reads when the entry a block holds expires.
+     * @param block The block.
+     * @return The time, as it was given to encode.
+     */
+    static long expiresOf(ByteBuffer block)
+    {
+        return block.getLong(EXPIRES);
+    }
+
+    /**
+     * Reads the length of a block in use.
+     * @param buffer The buffer holding the block.
+     * @param at Where the block starts.
+     * @return The length, in bytes.
+     */
+    static int lengthOf(ByteBuffer buffer, int at)
+    {
+        return buffer.getInt(at + LENGTH);
+    }
+
+    /**
+     * Builds the question a block answers.
+     * @param block The block.
+     * @return The question.
+     */
+    static CacheKey decodeKey(ByteBuffer block)
+    {
+        byte[] name = new byte[block.getShort(KEY_LENGTH)];
+        block.get(HEADER, name);
+        return new CacheKey(DomainName.fromWire(name, 0, name.length),
+                            block.getShort(KEY_TYPE),
+                            block.getShort(KEY_CLASS));
+    }
+
+    /**
+     * Checks if a block holds the answer to a question.
+     * @param buffer The buffer holding the block.
+     * @param at Where the block starts.
+     * @param key The question.
+     * @param name The question's name, in canonical wire format.
+     * @return True if it does.
+     */
+    static boolean matches(ByteBuffer buffer, int at, CacheKey key,
+                           byte[] name)
+    {
+        if (buffer.getShort(at + KEY_TYPE) != key.getTypeCode() ||
+            buffer.getShort(at + KEY_CLASS) != key.getClassType() ||
+            buffer.getShort(at + KEY_LENGTH) != name.length)
+            return false;
+        for (int i = 0; i < name.length; i++)
+            if (buffer.get(at + HEADER + i) != name[i])
+                return false;
+        return true;
+    }
+
+    /**
+     * Builds the Response a block holds.
+     * @param in The block.
+     * @param elapsed The number of seconds it has been cached, taken off
+     *                the TTL of each record.
+     * @param stale Whether to set the TTL of each record to STALE_TTL
+     *              instead.
+     * @return The Response.
+     */
+    static Resolver.Response decode(ByteBuffer in, int elapsed,
+                                    boolean stale)
+    {
+        in.position(HEADER + in.getShort(KEY_LENGTH));
+        List<List<Record>> sections = new ArrayList<>(SECTIONS);
+        for (int s = 0; s < SECTIONS; s++)
+        {
+            int count = Util.unsignShortToInt(
+                    in.getShort(SECTION_SIZES + 2 * s));
+            // The queries and OPT record carry no TTL worth counting down.
+            boolean age = s != 0 && s != OPT_SECTION;
+            List<Record> section = new ArrayList<>(count);
+            for (int i = 0; i < count; i++)
+                section.add(decodeRecord(in, age ? elapsed : 0,
+                                         age && stale));
+            sections.add(section);
+        }
+        List<Record> opt = sections.get(OPT_SECTION);
+        return new Resolver.Response(sections.get(0), sections.get(1),
+                                     sections.get(2), sections.get(3),
+                                     in.getShort(RCODE),
+                                     opt.isEmpty() ? null :
+                                     (OPTRecord) opt.get(0));
+    }
+
+    /**
+     * Builds the next record in a block.
+     * @param in The block, positioned at the record.
+     * @param elapsed The number of seconds to take off its TTL.
+     * @param stale Whether to set its TTL to STALE_TTL instead.
+     * @return The record.
+     */
+    private static Record decodeRecord(ByteBuffer in, int elapsed,
+                                       boolean stale)
+    {
+        byte[] owner = new byte[in.getShort()];
+        in.get(owner);
+        short type = in.getShort();
+        short classCode = in.getShort();
+        int ttl = in.getInt();
+        int rdlength = in.getInt();
+        byte[] rdata = null;
+        if (rdlength != NO_RDATA)
+        {
+            rdata = new byte[rdlength];
+            in.get(rdata);
+        }
+        if (stale)
+            ttl = STALE_TTL;
+        else if (elapsed > 0)
+            ttl = Math.max(ttl - elapsed, 0);
+        return Record.recordFactory(DomainName.fromWire(owner, 0,
+                                                        owner.length),
+                                    type, classCode, ttl, rdata);
+    }
+
+    /**
+     * A share of the cache, with its own lock, index and slabs. Everything
+     * in it is guarded by the lock.
+     */
+    private class Segment
+    {
+        /** Guards the segment. */
+        private final ReentrantLock lock;
+        /** The most entries the segment holds. */
+        private final int maxEntries;
+        /** The spread hash of the question in each slot of the index. */
+        private int[] hashes;
+        /** The address of the block in each slot, or EMPTY. */
+        private long[] blocks;
+        /** The number of entries in the index. */
+        private int size;
+        /** The slabs blocks are cut from. */
+        private List<ByteBuffer> slabs;
+        /** Where the next block is cut from the last slab. */
+        private int top;
+        /** The addresses of the blocks free, by block size. */
+        private long[][] free;
+        /** The number of blocks free, by block size. */
+        private int[] freeCount;
+        /** Where the next scan for an entry to evict starts. */
+        private int cursor;
+
+        /**
+         * Creates an empty segment.
+         * @param maxEntries The most entries it holds.
+         */
+        private Segment(int maxEntries)
+        {
+            this.lock       = new ReentrantLock();
+            this.maxEntries = maxEntries;
+            reset();
+        }
+
+        /**
+         * Empties the segment, dropping its slabs.
+         */
+        private void reset()
+        {
+            this.hashes    = new int[INITIAL_SLOTS];
+            this.blocks    = new long[INITIAL_SLOTS];
+            Arrays.fill(blocks, EMPTY);
+            this.size      = 0;
+            this.slabs     = new ArrayList<>();
+            this.top       = SLAB_SIZE;
+            this.free      = new long[CLASSES][];
+            this.freeCount = new int[CLASSES];
+            this.cursor    = 0;
+        }
+
+        /**
+         * Finds the slab a block is in.
+         * @param address The address of the block.
+         * @return The slab.
+         */
+        private ByteBuffer slab(long address)
+        {
+            return slabs.get((int) (address >>> SLAB_SHIFT));
+        }
+
+        /**
+         * Finds the slot of a question in the index.
+         * @param hash The spread hash of the question.
+         * @param key The question.
+         * @param name The question's name, in canonical wire format.
+         * @return The slot, or -1 if the question has no entry.
+         */
+        private int find(int hash, CacheKey key, byte[] name)
+        {
+            int mask = blocks.length - 1;
+            for (int i = hash & mask; blocks[i] != EMPTY; i = (i + 1) & mask)
+                if (hashes[i] == hash && matches(slab(blocks[i]),
+                                                 offset(blocks[i]), key, name))
+                    return i;
+            return -1;
+        }
+
+        /**
+         * Stores a block as the entry for a question, replacing any entry
+         * it had, and evicting others as needed to make room.
+         * @param hash The spread hash of the question.
+         * @param key The question.
+         * @param name The question's name, in canonical wire format.
+         * @param block The block.
+         */
+        private void put(int hash, CacheKey key, byte[] name, byte[] block)
+        {
+            int sizeClass = sizeClass(block.length);
+            lock.lock();
+            try
+            {
+                int slot = find(hash, key, name);
+                if (slot >= 0)
+                    remove(slot);
+                long now = System.nanoTime();
+                long address = allocate(sizeClass);
+                while (address == EMPTY && evict(sizeClass, now))
+                    address = allocate(sizeClass);
+                if (address == EMPTY)
+                    return;
+                slab(address).put(offset(address), block);
+                if (2 * (size + 1) > blocks.length)
+                    grow();
+                int mask = blocks.length - 1;
+                int i = hash & mask;
+                while (blocks[i] != EMPTY)
+                    i = (i + 1) & mask;
+                hashes[i] = hash;
+                blocks[i] = address;
+                size++;
+                while (size > maxEntries && evict(-1, now))
+                {
+                    // Evict until the segment is back within its bound.
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Doubles the slots of the index, so it stays at most half full.
+         */
+        private void grow()
+        {
+            int[] oldHashes = hashes;
+            long[] oldBlocks = blocks;
+            hashes = new int[oldBlocks.length * 2];
+            blocks = new long[oldBlocks.length * 2];
+            Arrays.fill(blocks, EMPTY);
+            int mask = blocks.length - 1;
+            for (int j = 0; j < oldBlocks.length; j++)
+                if (oldBlocks[j] != EMPTY)
+                {
+                    int i = oldHashes[j] & mask;
+                    while (blocks[i] != EMPTY)
+                        i = (i + 1) & mask;
+                    hashes[i] = oldHashes[j];
+                    blocks[i] = oldBlocks[j];
+                }
+        }
+
+        /**
+         * Removes the entry in a slot, freeing its block, and moves back
+         * the entries probed past it, so that no lookup stops short at the
+         * empty slot it leaves.
+         * @param slot The slot.
+         */
+        private void remove(int slot)
+        {
+            long address = blocks[slot];
+            release(address, slab(address).get(offset(address) + SIZE_CLASS));
+            int mask = blocks.length - 1;
+            int hole = slot;
+            for (int i = (hole + 1) & mask; blocks[i] != EMPTY;
+                 i = (i + 1) & mask)
+            {
+                int home = hashes[i] & mask;
+                // An entry moves back unless its home is after the hole.
+                if (((i - home) & mask) >= ((i - hole) & mask))
+                {
+                    hashes[hole] = hashes[i];
+                    blocks[hole] = blocks[i];
+                    hole = i;
+                }
+            }
+            blocks[hole] = EMPTY;
+            size--;
+        }
+
+        /**
+         * Evicts the entry closest to expiring among those found in a scan
+         * of the index, starting where the last scan stopped.
+         * @param sizeClass The block size the entry must have, or -1 for
+         *                  any.
+         * @param now The current System.nanoTime().
+         * @return True if an entry was evicted.
+         */
+        private boolean evict(int sizeClass, long now)
+        {
+            int mask = blocks.length - 1;
+            int victim = -1;
+            long victimExpires = 0;
+            int found = 0;
+            for (int scanned = 0; scanned < Math.min(EVICTION_SCAN,
+                                                     blocks.length) &&
+                 found < EVICTION_SAMPLE; scanned++)
+            {
+                int i = cursor;
+                cursor = (cursor + 1) & mask;
+                if (blocks[i] == EMPTY)
+                    continue;
+                ByteBuffer slab = slab(blocks[i]);
+                int at = offset(blocks[i]);
+                if (sizeClass >= 0 && slab.get(at + SIZE_CLASS) != sizeClass)
+                    continue;
+                found++;
+                long expires = slab.getLong(at + EXPIRES);
+                if (victim < 0 || expires - victimExpires < 0)
+                {
+                    victim = i;
+                    victimExpires = expires;
+                }
+            }
+            if (victim < 0)
+                return false;
+            remove(victim);
+            countRemoval(now - victimExpires >= 0);
+            return true;
+        }
+
+        /**
+         * Takes a block of a given size: a free one if there is one, or
+         * else one cut from the last slab, or from a new slab if the
+         * segment may allocate another.
+         * @param sizeClass The block size.
+         * @return The address of the block, or EMPTY if there is no room.
+         */
+        private long allocate(int sizeClass)
+        {
+            if (freeCount[sizeClass] > 0)
+                return free[sizeClass][--freeCount[sizeClass]];
+            int length = MIN_BLOCK << sizeClass;
+            if (top + length > SLAB_SIZE)
+            {
+                if (slabs.size() >= maxSlabs)
+                    return EMPTY;
+                // Whatever is left of the last slab is kept as smaller
+                // blocks.
+                while (!slabs.isEmpty() && SLAB_SIZE - top >= MIN_BLOCK)
+                {
+                    int fit = sizeClass(SLAB_SIZE - top + 1) - 1;
+                    release(((long) (slabs.size() - 1) << SLAB_SHIFT) | top,
+                            fit);
+                    top += MIN_BLOCK << fit;
+                }
+                slabs.add(ByteBuffer.allocateDirect(SLAB_SIZE));
+                top = 0;
+            }
+            long address = ((long) (slabs.size() - 1) << SLAB_SHIFT) | top;
+            top += length;
+            return address;
+        }
+
+        /**
+         * Puts a block on the free list of its size.
+         * @param address The address of the block.
+         * @param sizeClass The block size.
+         */
+        private void release(long address, int sizeClass)
+        {
+            if (free[sizeClass] == null)
+                free[sizeClass] = new long[INITIAL_SLOTS];
+            else if (freeCount[sizeClass] == free[sizeClass].length)
+                free[sizeClass] = Arrays.copyOf(free[sizeClass],
+                                                freeCount[sizeClass] * 2);
+            free[sizeClass][freeCount[sizeClass]++] = address;
+        }
+
+        /**
+         * Clears the REFRESHING flag of a question's entry, if it is still
+         * cached, so a later hit can hand it to the Refresher again.
+         * @param hash The spread hash of the question.
+         * @param key The question.
+         * @param name The question's name, in canonical wire format.
+         */
+        private void clearRefreshing(int hash, CacheKey key, byte[] name)
+        {
+            lock.lock();
+            try
+            {
+                int slot = find(hash, key, name);
+                if (slot < 0)
+                    return;
+                ByteBuffer slab = slab(blocks[slot]);
+                int at = offset(blocks[slot]);
+                slab.put(at + FLAGS, (byte) (slab.get(at + FLAGS) &
+                                             ~REFRESHING));
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Copies the blocks of the entries that have not expired onto the
+         * heap.
+         * @param now The current System.nanoTime().
+         * @return The parts of the blocks in use.
+         */
+        private List<byte[]> copyLive(long now)
+        {
+            lock.lock();
+            try
+            {
+                List<byte[]> live = new ArrayList<>(size);
+                for (long address : blocks)
+                    if (address != EMPTY && now - slab(address).getLong(
+                            offset(address) + EXPIRES) < 0)
+                        live.add(copy(slab(address), offset(address)));
+                return live;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Empties the segment.
+         */
+        private void clear()
+        {
+            lock.lock();
+            try
+            {
+                reset();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the number of entries in the segment.
+         * @return The number of entries.
+         */
+        private int size()
+        {
+            lock.lock();
+            try
+            {
+                return size;
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the number of slabs the segment has allocated.
+         * @return The number of slabs.
+         */
+        private int slabCount()
+        {
+            lock.lock();
+            try
+            {
+                return slabs.size();
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+    }
+}
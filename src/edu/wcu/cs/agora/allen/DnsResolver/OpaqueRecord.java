@@ -0,0 +1,66 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * A record whose RDATA is not interpreted: that of a type RecordType doesn't
+ * name, or one such as AAAA that is kept only to be passed on. The RDATA is
+ * kept exactly as it was received, and written out the same way, as RFC
+ * 3597 has a server handle types it doesn't know. Such RDATA never holds
+ * compressed names, so it means the same in any message.
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class OpaqueRecord extends Record
+{
+    /** Starts RDATA in the generic text form of RFC 3597. */
+    public static final String GENERIC_RDATA = "\\# ";
+    /** The digits of a byte, in hexadecimal. */
+    public static final String HEX_DIGITS    = "0123456789ABCDEF";
+    /** The number of bits in a hexadecimal digit. */
+    public static final int    NIBBLE        = 4;
+    /** Masks the low hexadecimal digit out of a byte. */
+    public static final int    NIBBLE_MASK   = 0x0F;
+
+    /**
+     * Constructor simply calls super.
+     * @param name Associated with the name field in Record.
+     * @param typeCode Associated with the typeCode field in Record.
+     * @param classType Associated with the classType field in Record.
+     * @param ttl Associated with the ttl field in Record.
+     * @param rdata Associated with the RDATA field in Record.
+     */
+    protected OpaqueRecord(DomainName name, short typeCode, String classType,
+                           int ttl, byte[] rdata)
+    {
+        super(name, typeCode, classType, ttl, rdata);
+    }
+
+    /**
+     * Adds the rData for this record to super.toString().
+     * @return The newly created toString.
+     */
+    @Override
+    public String toString()
+    {
+        return super.toString() + formatRData();
+    }
+
+    /**
+     * Formats the RDATA in the generic form of RFC 3597: "\#", its length,
+     * then its bytes in hexadecimal.
+     * @return The string form of the RDATA.
+     */
+    private String formatRData()
+    {
+        byte[] rdata = getRdata();
+        StringBuilder ret = new StringBuilder(GENERIC_RDATA);
+        ret.append(rdata.length);
+        if (rdata.length > 0)
+            ret.append(' ');
+        for (byte bite : rdata)
+        {
+            ret.append(HEX_DIGITS.charAt((bite >> NIBBLE) & NIBBLE_MASK))
+               .append(HEX_DIGITS.charAt(bite & NIBBLE_MASK));
+        }
+        return ret.toString();
+    }
+}
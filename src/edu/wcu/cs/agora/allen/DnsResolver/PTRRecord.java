@@ -1,8 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 /**
  * Record for the CNAME Record type.
  * @author Tyler Allen
@@ -11,39 +8,40 @@ import java.util.List;
 
 public class PTRRecord extends Record
 {
+    /** The name this record's name points to. */
+    private final DomainName pointer;
+
     /**
-     * Constructor simply calls super.
+     * Calls super, and reads the name pointed to out of the RDATA.
      * @param name Associated with the name field in Record.
      * @param type Associated with the type field in Record.
      * @param classType Associated with the classType field in Record.
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected PTRRecord(String name, RecordType type, String classType,
-                        int ttl, List<Byte> rdata)
+    protected PTRRecord(DomainName name, RecordType type, String classType,
+                        int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
+        this.pointer = DomainName.fromWire(rdata, 0);
     }
 
     /**
-     * Adds the rData for this record to super.toString().
-     * @return The newly created toString.
+     * Getter for pointer.
+     * @return The name this record points to.
      */
-    @Override
-    public String toString()
+    public DomainName getPointer()
     {
-        return super.toString() + formatRData();
+        return pointer;
     }
 
     /**
-     * Formats the RDATA in a readable format. Because this contains domain
-     * addresses, it is already formatted. We simply transform the bytes into
-     * String form.
-     * @return The string form of the RDATA.
+     * Adds the rData for this record to super.toString().
+     * @return The newly created toString.
      */
-    private String formatRData()
+    @Override
+    public String toString()
     {
-        return new String(Util.unboxBytes(getRdata()),
-                          StandardCharsets.UTF_8);
+        return super.toString() + pointer;
     }
 }
@@ -0,0 +1,171 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A Prefetcher refreshes popular entries of the Resolver's ResponseCache
+ * before they expire, so the callers that ask for them never wait on an
+ * upstream server. The cache decides which entries are due; the Prefetcher
+ * asks their questions again through Resolver.prefetch, in the background,
+ * and the answers replace the entries as they arrive.
+ *
+ * Prefetching is bounded two ways: at most maxInFlight questions are asked
+ * at once, and at most maxPerSecond are started each second, with bursts of
+ * up to a second's worth. An entry that can't be refreshed when it comes
+ * due is tried again on its next hit, and so is one whose refresh fails,
+ * as the Prefetcher tells the cache so. Entries whose answers are
+ * truncated are left to expire, as refreshing goes over UDP alone.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class Prefetcher implements ResponseCache.Refresher
+{
+    /** The most questions refreshed at once by default. */
+    public static final int DEFAULT_MAX_IN_FLIGHT  = 32;
+    /** The most questions refreshed each second by default. */
+    public static final int DEFAULT_MAX_PER_SECOND = 200;
+
+    /** The Resolver questions are asked again through. */
+    private final Resolver resolver;
+    /** Bounds the number of questions being refreshed. */
+    private final Semaphore inFlight;
+    /** The time between refreshes at the most that may be started, in ns. */
+    private final long interval;
+    /** How far ahead of now the next refresh may be booked, in ns. */
+    private final long burst;
+    /** When the next refresh is booked for, in System.nanoTime() terms. */
+    private final AtomicLong next;
+    /** The number of refreshes started. */
+    private final LongAdder started;
+    /** The number of refreshes that failed. */
+    private final LongAdder failed;
+    /** The number of refreshes put off by the limits. */
+    private final LongAdder limited;
+
+    /**
+     * Creates a Prefetcher with the default limits.
+     * @param resolver The Resolver to ask questions again through.
+     */
+    public Prefetcher(Resolver resolver)
+    {
+        this(resolver, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_PER_SECOND);
+    }
+
+    /**
+     * Creates a Prefetcher.
+     * @param resolver The Resolver to ask questions again through.
+     * @param maxInFlight The most questions to refresh at once.
+     * @param maxPerSecond The most questions to refresh each second.
+     */
+    public Prefetcher(Resolver resolver, int maxInFlight, int maxPerSecond)
+    {
+        this.resolver = resolver;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.interval = TimeUnit.SECONDS.toNanos(1) / maxPerSecond;
+        this.burst    = TimeUnit.SECONDS.toNanos(1);
+        this.next     = new AtomicLong(System.nanoTime());
+        this.started  = new LongAdder();
+        this.failed   = new LongAdder();
+        this.limited  = new LongAdder();
+    }
+
+    /**
+     * Asks a question again, if the limits allow. Never blocks, as it is
+     * called by whichever caller's lookup found the entry due.
+     * @param key The question.
+     * @return True if it is being asked.
+     */
+    @Override
+    public boolean refresh(CacheKey key)
+    {
+        if (!inFlight.tryAcquire())
+        {
+            limited.increment();
+            return false;
+        }
+        if (!book())
+        {
+            inFlight.release();
+            limited.increment();
+            return false;
+        }
+        started.increment();
+        resolver.prefetch(key).whenComplete((response, e) ->
+        {
+            Throwable cause = e == null ? null : unwrap(e);
+            if (cause != null && !(cause instanceof NxDomainException))
+            {
+                failed.increment();
+                if (!(cause instanceof TruncatedUdpPacketException))
+                    resolver.getCache().refreshFailed(key);
+            }
+            inFlight.release();
+        });
+        return true;
+    }
+
+    /**
+     * Books a slot for a refresh to start now, if the rate allows: each
+     * refresh books the next slot interval ns after the last, and a slot
+     * more than burst ns ahead of now can't be booked.
+     * @return True if a slot was booked.
+     */
+    private boolean book()
+    {
+        long now = System.nanoTime();
+        while (true)
+        {
+            long last = next.get();
+            long slot = (now - last > 0 ? now : last) + interval;
+            if (slot - now > burst)
+                return false;
+            if (next.compareAndSet(last, slot))
+                return true;
+        }
+    }
+
+    /**
+     * Removes the CompletionException futures wrap their failures in.
+     * @param e The failure.
+     * @return The failure that caused it.
+     */
+    private static Throwable unwrap(Throwable e)
+    {
+        while (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+
+    /**
+     * Getter for started.
+     * @return The number of refreshes started.
+     */
+    public long getStarted()
+    {
+        return started.sum();
+    }
+
+    /**
+     * Getter for failed.
+     * @return The number of refreshes that failed, not counting answers
+     *         that the name does not exist.
+     */
+    public long getFailed()
+    {
+        return failed.sum();
+    }
+
+    /**
+     * Getter for limited.
+     * @return The number of refreshes put off by the limits.
+     */
+    public long getLimited()
+    {
+        return limited.sum();
+    }
+}
@@ -0,0 +1,258 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.Arrays;
+
+/**
+ * A Query is a question a client sent to the ForwardingServer: the header,
+ * the one question, and the UDP payload size from the OPT record, if there
+ * is one. Compression pointers are not followed in the question, as no
+ * client sends one there.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class Query
+{
+    /** The QR bit, set in responses. */
+    public static final int QR            = 0x80;
+    /** The bits of the Opcode, in the third byte of the header. */
+    public static final int OPCODE_MASK   = 0x78;
+    /** The RD bit, in the third byte of the header. */
+    public static final int RD            = 0x01;
+    /** Where QDCOUNT sits in the header. */
+    public static final int QDCOUNT_INDEX = 4;
+    /** Where ANCOUNT sits in the header. */
+    public static final int ANCOUNT_INDEX = 6;
+    /** Where NSCOUNT sits in the header. */
+    public static final int NSCOUNT_INDEX = 8;
+    /** The most bytes in a label. */
+    public static final int MAX_LABEL     = DomainName.MAX_LABEL;
+    /** The length of a resource record after its owner name. */
+    public static final int RR_FIXED_LEN  = 10;
+    /** The smallest UDP payload every client can receive (RFC 1035). */
+    public static final int MIN_PAYLOAD   = OPTRecord.MIN_PAYLOAD;
+    /** The mask that makes a byte unsigned. */
+    public static final int BYTE_MASK     = 0xFF;
+    /** The mask that makes a short unsigned. */
+    public static final int SHORT_MASK    = 0xFFFF;
+    /** The first of the meta-types and QTYPEs, such as AXFR (RFC 6895). */
+    public static final int META_FIRST    = 128;
+    /** The last of the meta-types and QTYPEs, ANY. */
+    public static final int META_LAST     = 255;
+
+    /** The identifier, which the answer must carry. */
+    private final int id;
+    /** The third byte of the header: QR, Opcode, AA, TC and RD. */
+    private final int flags;
+    /** The name asked about. */
+    private final DomainName name;
+    /** The type code asked for. */
+    private final int typeCode;
+    /** The class code asked for. */
+    private final int classCode;
+    /** The question section, as the client sent it. */
+    private final byte[] question;
+    /** The UDP payload size of the client's OPT record, or 0 for none. */
+    private final int payloadSize;
+
+    /**
+     * Creates a Query. Use parse.
+     * @param id The identifier.
+     * @param flags The third byte of the header.
+     * @param name The name asked about.
+     * @param typeCode The type code asked for.
+     * @param classCode The class code asked for.
+     * @param question The question section, as sent.
+     * @param payloadSize The UDP payload size, or 0 for none.
+     */
+    private Query(int id, int flags, DomainName name, int typeCode,
+                  int classCode, byte[] question, int payloadSize)
+    {
+        this.id          = id;
+        this.flags       = flags;
+        this.name        = name;
+        this.typeCode    = typeCode;
+        this.classCode   = classCode;
+        this.question    = question;
+        this.payloadSize = payloadSize;
+    }
+
+    /**
+     * Parses a query.
+     * @param buffer The buffer holding it.
+     * @param length The length of the query.
+     * @return The Query.
+     * @throws DnsException If the query is malformed, or does not hold
+     *                      exactly one question.
+     */
+    public static Query parse(byte[] buffer, int length) throws DnsException
+    {
+        require(0, Request.HEADER_LEN, length);
+        if (count(buffer, QDCOUNT_INDEX) != 1)
+            throw new DnsException("Query does not hold one question.");
+        int offset = Request.HEADER_LEN;
+        require(offset, 1, length);
+        while (buffer[offset] != 0)
+        {
+            int size = buffer[offset] & BYTE_MASK;
+            if (size > MAX_LABEL)
+                throw new DnsException("Unsupported label type in query.");
+            require(offset + 1, size + 1, length);
+            offset += 1 + size;
+        }
+        offset++;
+        if (offset - Request.HEADER_LEN > DomainName.MAX_LENGTH)
+            throw new DnsException("Name in query is too long.");
+        DomainName name = DomainName.fromWire(buffer, Request.HEADER_LEN,
+                                              offset);
+        require(offset, Request.TYPE_CLASS_LEN, length);
+        int typeCode  = count(buffer, offset);
+        int classCode = count(buffer, offset + 2);
+        offset += Request.TYPE_CLASS_LEN;
+        byte[] question = Arrays.copyOfRange(buffer, Request.HEADER_LEN,
+                                             offset);
+        return new Query(count(buffer, 0), buffer[2] & BYTE_MASK,
+                         name, typeCode, classCode, question,
+                         findPayloadSize(buffer, offset, length));
+    }
+
+    /**
+     * Looks for an OPT record in the additional section, which is all a
+     * query has after its question.
+     * @param buffer The buffer holding the query.
+     * @param offset Where the question ends.
+     * @param length The length of the query.
+     * @return The UDP payload size the OPT record gives, or 0 if there is
+     *         none.
+     * @throws DnsException If the record runs past the end of the query.
+     */
+    private static int findPayloadSize(byte[] buffer, int offset, int length)
+                                       throws DnsException
+    {
+        int records = count(buffer, Request.ARCOUNT_INDEX);
+        if (records == 0 || count(buffer, ANCOUNT_INDEX) != 0 ||
+            count(buffer, NSCOUNT_INDEX) != 0)
+            return 0;
+        // An OPT record belongs to the root, so its name is a single 0.
+        require(offset, 1 + RR_FIXED_LEN, length);
+        if (buffer[offset] != 0 ||
+            count(buffer, offset + 1) != RecordType.OPT.toShort())
+            return 0;
+        return Math.max(count(buffer, offset + 1 + 2), MIN_PAYLOAD);
+    }
+
+    /**
+     * Reads a 16 bit count or code.
+     * @param buffer The buffer to read from.
+     * @param index Where the value is.
+     * @return The value, unsigned.
+     */
+    private static int count(byte[] buffer, int index)
+    {
+        return Util.bytesToShort(buffer[index], buffer[index + 1]) &
+               SHORT_MASK;
+    }
+
+    /**
+     * Makes sure that len bytes starting at pos are part of the query.
+     * @param pos The first byte that is about to be read.
+     * @param len The number of bytes about to be read.
+     * @param length The length of the query.
+     * @throws DnsException If the query ends before pos + len.
+     */
+    private static void require(int pos, int len, int length)
+                                throws DnsException
+    {
+        if (pos + len > length)
+            throw new DnsException("Malformed query: packet ends " +
+                                   "unexpectedly.");
+    }
+
+    /**
+     * Getter for id.
+     * @return The identifier of the query.
+     */
+    public int getId()
+    {
+        return id;
+    }
+
+    /**
+     * Getter for flags.
+     * @return The third byte of the header.
+     */
+    public int getFlags()
+    {
+        return flags;
+    }
+
+    /**
+     * Whether this is a standard query, the only kind answered.
+     * @return True if the Opcode is QUERY.
+     */
+    public boolean isStandardQuery()
+    {
+        return (flags & OPCODE_MASK) == 0;
+    }
+
+    /**
+     * Getter for name.
+     * @return The name asked about.
+     */
+    public DomainName getName()
+    {
+        return name;
+    }
+
+    /**
+     * Getter for typeCode.
+     * @return The type code asked for.
+     */
+    public int getTypeCode()
+    {
+        return typeCode;
+    }
+
+    /**
+     * Whether the type asked for is one of data, which can be looked up
+     * like any other whether or not RecordType names it. OPT is only ever
+     * a pseudo-record, 0 is reserved, and the meta-types and QTYPEs ask for
+     * more than one type or for zone transfers, none of which are
+     * forwarded.
+     * @return True if the type is a data type.
+     */
+    public boolean isDataType()
+    {
+        return typeCode != 0 && typeCode != RecordType.OPT.toShort() &&
+               (typeCode < META_FIRST || typeCode > META_LAST);
+    }
+
+    /**
+     * Getter for classCode.
+     * @return The class code asked for.
+     */
+    public int getClassCode()
+    {
+        return classCode;
+    }
+
+    /**
+     * Getter for question. The array is shared, so callers must not modify
+     * it.
+     * @return The question section, as the client sent it.
+     */
+    public byte[] getQuestion()
+    {
+        return question;
+    }
+
+    /**
+     * Getter for payloadSize.
+     * @return The UDP payload size of the client's OPT record, or 0 if it
+     *         sent none.
+     */
+    public int getPayloadSize()
+    {
+        return payloadSize;
+    }
+}
@@ -0,0 +1,88 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A QueryEvent is a JDK Flight Recorder event for one traced query, with
+ * how long each phase of it took. Events are only committed while queries
+ * are traced and a recording has the event enabled, as with
+ *
+ *     java -XX:StartFlightRecording:filename=dns.jfr ...
+ *
+ * Formatting happens after the event is committed, so it is not included.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+@Name("edu.wcu.cs.agora.allen.DnsResolver.Query")
+@Label("DNS Query")
+@Category("DNS Resolver")
+@Description("A query sent to a DNS server, timed by phase.")
+@StackTrace(false)
+public class QueryEvent extends Event
+{
+    /** The name looked up. */
+    @Label("Name")
+    String name;
+
+    /** The type of record asked for. */
+    @Label("Type")
+    String type;
+
+    /** The server asked, as address:port. */
+    @Label("Server")
+    String server;
+
+    /** Whether the query went over TCP. */
+    @Label("TCP")
+    boolean tcp;
+
+    /** How long encoding took. */
+    @Label("Encode")
+    @Timespan(Timespan.NANOSECONDS)
+    long encode;
+
+    /** How long sending took. */
+    @Label("Send")
+    @Timespan(Timespan.NANOSECONDS)
+    long send;
+
+    /** How long waiting for the reply took. */
+    @Label("Wait")
+    @Timespan(Timespan.NANOSECONDS)
+    long wait;
+
+    /** How long parsing took. */
+    @Label("Parse")
+    @Timespan(Timespan.NANOSECONDS)
+    long parse;
+
+    /**
+     * Commits an event for a traced query, if a recording wants it.
+     * @param trace The trace of the query, once it has been parsed.
+     */
+    public static void emit(QueryTrace trace)
+    {
+        QueryEvent event = new QueryEvent();
+        if (!event.shouldCommit())
+            return;
+        Request request = trace.getRequest();
+        event.name   = request.getLookupAddr();
+        event.type   = RecordType.nameLookup(request.getTypeCode());
+        event.server = request.getServerAddress().getAddress()
+                              .getHostAddress() + ":" +
+                       request.getServerAddress().getPort();
+        event.tcp    = trace.isTcp();
+        event.encode = trace.get(QueryTrace.Phase.ENCODE);
+        event.send   = trace.get(QueryTrace.Phase.SEND);
+        event.wait   = trace.get(QueryTrace.Phase.WAIT);
+        event.parse  = trace.get(QueryTrace.Phase.PARSE);
+        event.commit();
+    }
+}
@@ -0,0 +1,244 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A QueryExecutor runs each query it is given on a thread of its own, so the
+ * query can make the Resolver's blocking calls, such as makeUdpRequest,
+ * without tying up a thread another query needs. Where the JVM has virtual
+ * threads, each query gets a virtual thread, which costs little more than
+ * the query itself; otherwise it gets a platform thread, from a pool that
+ * grows and shrinks with the number of queries running.
+ *
+ * Virtual threads are looked up by reflection, as the code is built for a
+ * JVM that may not have them. The blocking calls they make park rather than
+ * pin their carrier thread: sockets are waited on outside any synchronized
+ * block, and the locks held around socket writes are ReentrantLocks.
+ *
+ * However cheap the threads, each query in flight holds a socket, so the
+ * number of queries running at once is bounded by a limit. Platform threads
+ * are bounded by PLATFORM_LIMIT as well, whatever limit is asked for.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class QueryExecutor implements Executor, Closeable
+{
+    /** The most queries running at once by default. */
+    public static final int DEFAULT_LIMIT  = 10_000;
+    /** The most queries running at once on platform threads. */
+    public static final int PLATFORM_LIMIT = 512;
+    /** The Thread method that returns a builder of virtual threads. */
+    public static final String OF_VIRTUAL  = "ofVirtual";
+    /** The interface of builders of threads. */
+    public static final String BUILDER     = "java.lang.Thread$Builder";
+    /** The Executors method that starts a thread for each task. */
+    public static final String PER_TASK    = "newThreadPerTaskExecutor";
+
+    /** Runs each query on a new thread. */
+    private final ExecutorService threads;
+    /** Whether the threads are virtual. */
+    private final boolean virtual;
+    /** Bounds the number of queries running at once. */
+    private final Semaphore permits;
+    /** The most queries running at once. */
+    private final int limit;
+
+    /**
+     * Creates a QueryExecutor.
+     * @param name The name of its threads, which are numbered after it.
+     * @param limit The most queries to run at once.
+     */
+    public QueryExecutor(String name, int limit)
+    {
+        ExecutorService perTask = virtualThreads(name);
+        this.virtual = perTask != null;
+        if (virtual)
+        {
+            this.threads = perTask;
+            this.limit   = limit;
+        }
+        else
+        {
+            this.threads = Executors.newCachedThreadPool(daemon(name));
+            this.limit   = Math.min(limit, PLATFORM_LIMIT);
+        }
+        this.permits = new Semaphore(this.limit);
+    }
+
+    /**
+     * Creates an executor that starts a virtual thread for each task, if the
+     * JVM has virtual threads. It does not have them before Java 21, except
+     * as a preview feature.
+     * @param name The name of the threads.
+     * @return The executor, or null if there are no virtual threads.
+     */
+    private static ExecutorService virtualThreads(String name)
+    {
+        try
+        {
+            // The builder's own class isn't public, so its methods are found
+            // through the interface it implements.
+            Class<?> type = Class.forName(BUILDER);
+            Object builder = Thread.class.getMethod(OF_VIRTUAL).invoke(null);
+            builder = type.getMethod("name", String.class, long.class)
+                          .invoke(builder, name + "-", 0L);
+            Object factory = type.getMethod("factory").invoke(builder);
+            return (ExecutorService) Executors.class
+                    .getMethod(PER_TASK, ThreadFactory.class)
+                    .invoke(null, factory);
+        }
+        catch (ReflectiveOperationException | RuntimeException e)
+        {
+            // No virtual threads here, or only as a preview not enabled.
+            return null;
+        }
+    }
+
+    /**
+     * Creates a factory for daemon platform threads.
+     * @param name The name of the threads.
+     * @return The factory.
+     */
+    private static ThreadFactory daemon(String name)
+    {
+        return runnable ->
+        {
+            Thread thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Runs a query on a thread of its own, first waiting until fewer than
+     * the limit are running. Waiting holds back whoever hands out queries,
+     * such as a thread reading them from a socket or a file.
+     * @param query The query.
+     * @throws RejectedExecutionException If the executor has been closed.
+     */
+    @Override
+    public void execute(Runnable query)
+    {
+        permits.acquireUninterruptibly();
+        start(query);
+    }
+
+    /**
+     * Runs a query on a thread of its own, if fewer than the limit are
+     * running.
+     * @param query The query.
+     * @return True if it was started, false if the limit has been reached.
+     * @throws RejectedExecutionException If the executor has been closed.
+     */
+    public boolean tryExecute(Runnable query)
+    {
+        if (!permits.tryAcquire())
+            return false;
+        start(query);
+        return true;
+    }
+
+    /**
+     * Starts a query that holds a permit, which it gives back when it is
+     * done.
+     * @param query The query.
+     */
+    private void start(Runnable query)
+    {
+        try
+        {
+            threads.execute(() ->
+            {
+                try
+                {
+                    query.run();
+                }
+                finally
+                {
+                    permits.release();
+                }
+            });
+        }
+        catch (RejectedExecutionException ree)
+        {
+            permits.release();
+            throw ree;
+        }
+    }
+
+    /**
+     * Waits until every query started has finished.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public void awaitIdle() throws InterruptedException
+    {
+        permits.acquire(limit);
+        permits.release(limit);
+    }
+
+    /**
+     * Whether queries run on virtual threads.
+     * @return True if they do, false if they run on platform threads.
+     */
+    public boolean isVirtual()
+    {
+        return virtual;
+    }
+
+    /**
+     * Getter for limit.
+     * @return The most queries that run at once.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Returns the number of queries running.
+     * @return The number running now.
+     */
+    public int getActive()
+    {
+        return limit - permits.availablePermits();
+    }
+
+    /**
+     * Stops taking queries, and interrupts those running if now is set.
+     * @param now Whether to interrupt the queries running.
+     */
+    public void close(boolean now)
+    {
+        if (now)
+            threads.shutdownNow();
+        else
+            threads.shutdown();
+    }
+
+    /**
+     * Stops taking queries. Those running finish on their own.
+     */
+    @Override
+    public void close()
+    {
+        close(false);
+    }
+
+    /**
+     * Describes the threads queries run on.
+     * @return The kind of thread, and the limit.
+     */
+    @Override
+    public String toString()
+    {
+        return (virtual ? "virtual" : "platform") + " threads, up to " +
+               limit + " at once";
+    }
+}
@@ -1,6 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.util.List;
 
 /**
  * Created by tyler on 10/24/13.
@@ -18,8 +17,8 @@ public class QueryRecord extends Record
      * @param ttl       Value to be put in this.TTL
      * @param rdata     Value to be put in this.rdata
      */
-    protected QueryRecord(String name, RecordType type, String classType,
-                          int ttl, List<Byte> rdata)
+    protected QueryRecord(DomainName name, RecordType type, String classType,
+                          int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
     }
@@ -29,18 +28,18 @@ public class QueryRecord extends Record
      * linked list is passed in to avoid a null pointer exception in generating
      * the toString.
      * @param name
-     * @param type
+     * @param typeCode
      * @param classType
      */
-    protected QueryRecord(String name, RecordType type, String classType)
+    protected QueryRecord(DomainName name, short typeCode, String classType)
     {
-        super(name, type, classType, (short) -1, null);
+        super(name, typeCode, classType, (short) -1, null);
     }
 
     @Override
     public String toString()
     {
-        return String.format("%-30s\t%6S\t%-2S", getName(), getType(),
+        return String.format("%-30s\t%6S\t%-2S", getName(), getTypeName(),
                              getClassType());
     }
 }
@@ -0,0 +1,191 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A QueryTrace times the phases of one query: encoding the Request, sending
+ * it (including opening a socket or connection), waiting for the reply,
+ * parsing it, and formatting its records for output. Tracing is off unless
+ * turned on with setEnabled, and costs a few calls to System.nanoTime per
+ * query when it is on.
+ *
+ * Sending, waiting and parsing are timed by when each ends, so they may be
+ * marked by different threads, such as the caller and a reader thread. Each
+ * is marked once, before the Response is handed back, so reading a trace
+ * once its query is done needs no locking. Encoding happens before the
+ * trace starts, when the Request is created, and formatting after the
+ * Response is returned, so those two are given as lengths of time
+ * instead.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class QueryTrace
+{
+    /**
+     * The phases of a query, in the order they happen.
+     */
+    public enum Phase
+    {
+        /** Encoding the Request into a packet. */
+        ENCODE,
+        /** Opening a socket or connection and writing the packet to it. */
+        SEND,
+        /** Waiting for the reply. */
+        WAIT,
+        /** Parsing the reply into a Response. */
+        PARSE,
+        /** Formatting the Response's records for output. */
+        FORMAT
+    }
+
+    /** Whether queries are traced. */
+    private static volatile boolean enabled = false;
+
+    /** The query being traced. */
+    private final Request request;
+    /** Whether the query went over TCP. */
+    private final boolean tcp;
+    /** When the trace started, in System.nanoTime() terms. */
+    private final long start;
+    /** When each phase ended, in System.nanoTime() terms, or 0. */
+    private final long[] ends;
+    /** How long encoding took, in ns. */
+    private final long encode;
+    /** How long formatting took, in ns, or 0 if it hasn't happened. */
+    private volatile long format;
+
+    /**
+     * Starts a trace, just before a query is sent.
+     * @param request The query.
+     * @param tcp Whether it is sent over TCP.
+     */
+    private QueryTrace(Request request, boolean tcp)
+    {
+        this.request = request;
+        this.tcp     = tcp;
+        this.ends    = new long[Phase.values().length];
+        this.encode  = request.getEncodeNanos();
+        this.start   = System.nanoTime();
+    }
+
+    /**
+     * Starts a trace of a query, if tracing is on.
+     * @param request The query, about to be sent.
+     * @param tcp Whether it is sent over TCP.
+     * @return The trace, or null if tracing is off.
+     */
+    public static QueryTrace start(Request request, boolean tcp)
+    {
+        return enabled ? new QueryTrace(request, tcp) : null;
+    }
+
+    /**
+     * Turns tracing on or off, for queries sent from now on.
+     * @param on Whether to trace queries.
+     */
+    public static void setEnabled(boolean on)
+    {
+        enabled = on;
+    }
+
+    /**
+     * Whether queries are traced.
+     * @return True if they are.
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Marks the end of sending, waiting or parsing. Only the first mark of
+     * each phase counts.
+     * @param phase The phase that has ended.
+     */
+    public void end(Phase phase)
+    {
+        if (ends[phase.ordinal()] == 0)
+            ends[phase.ordinal()] = System.nanoTime();
+    }
+
+    /**
+     * Records how long formatting the Response took.
+     * @param nanos The time it took, in ns.
+     */
+    public void formatted(long nanos)
+    {
+        format = nanos;
+    }
+
+    /**
+     * Returns how long a phase took. A phase that was never marked took no
+     * time, and the one after it is counted from the last phase that was.
+     * @param phase The phase.
+     * @return The time it took, in ns.
+     */
+    public long get(Phase phase)
+    {
+        if (phase == Phase.ENCODE)
+            return encode;
+        if (phase == Phase.FORMAT)
+            return format;
+        int index = phase.ordinal();
+        if (ends[index] == 0)
+            return 0;
+        long from = start;
+        for (int i = Phase.SEND.ordinal(); i < index; i++)
+            if (ends[i] != 0)
+                from = ends[i];
+        return Math.max(ends[index] - from, 0);
+    }
+
+    /**
+     * Returns how long every phase took, together.
+     * @return The total time, in ns.
+     */
+    public long getTotal()
+    {
+        long total = 0;
+        for (Phase phase : Phase.values())
+            total += get(phase);
+        return total;
+    }
+
+    /**
+     * Getter for request.
+     * @return The query traced.
+     */
+    public Request getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Whether the query went over TCP.
+     * @return True for TCP, false for UDP.
+     */
+    public boolean isTcp()
+    {
+        return tcp;
+    }
+
+    /**
+     * Lists how long each phase took, in us.
+     * @return The phases, as "encode 3 us, send 41 us, ...".
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder out = new StringBuilder();
+        for (Phase phase : Phase.values())
+        {
+            if (out.length() > 0)
+                out.append(", ");
+            out.append(phase.name().toLowerCase()).append(' ')
+               .append(TimeUnit.NANOSECONDS.toMicros(get(phase)))
+               .append(" us");
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,36 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+/**
+ * This Exception is a more specific DNS exception. It is created when a DNS
+ * server answers with an RCODE reporting an error, such as SERVFAIL or
+ * REFUSED, and keeps the RCODE so it can be told apart from others.
+ * NXDOMAIN is not an error of this kind; see NxDomainException.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+
+public class RcodeException extends DnsException
+{
+    /** The RCODE the server answered with, including any extended bits. */
+    private final int rcode;
+
+    /**
+     * Creates the exception for an RCODE.
+     * @param rcode The RCODE the server answered with.
+     */
+    public RcodeException(int rcode)
+    {
+        super("Error in Response from DNS Server: RCODE " + rcode);
+        this.rcode = rcode;
+    }
+
+    /**
+     * Getter for rcode.
+     * @return The RCODE the server answered with.
+     */
+    public int getRcode()
+    {
+        return rcode;
+    }
+}
@@ -1,7 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.util.List;
-
 /**
  * @author Tyler Allen
  * @version 10/07/2013
@@ -12,15 +10,18 @@ public abstract class Record
     public final static short QUERY_TTL = -1;
 
     /** The domain name of this record. */
-    private String name;
-    /** The type of this record. */
+    private DomainName name;
+    /** The type of this record, or null if it is not one RecordType
+     *  names. */
     private RecordType type;
+    /** The code of this record's type, which every record has. */
+    private short typeCode;
     /** The class of this record/*/
     private String classType;
     /** The time this record had to live when requested. */
     private int ttl;
     /** The variable RDATA field containing the lookup information. */
-    private List<Byte> rdata;
+    private byte[] rdata;
 
     /**
      * Protected, as these should be created using hte Factory method.
@@ -30,21 +31,46 @@ public abstract class Record
      * @param ttl Value to be put in this.TTL
      * @param rdata Value to be put in this.rdata
      */
-    protected Record(String name, RecordType type, String classType, int ttl,
-                     List<Byte> rdata)
+    protected Record(DomainName name, RecordType type, String classType,
+                     int ttl, byte[] rdata)
+    {
+        this(name, type.toShort(), classType, ttl, rdata);
+    }
+
+    /**
+     * Protected, as these should be created using the Factory method. This
+     * is how records of a type RecordType doesn't name are created.
+     * @param name Value to be put in this.name
+     * @param typeCode Value to be put in this.typeCode
+     * @param classType Value to be put in this.classType
+     * @param ttl Value to be put in this.TTL
+     * @param rdata Value to be put in this.rdata
+     */
+    protected Record(DomainName name, short typeCode, String classType,
+                     int ttl, byte[] rdata)
     {
         this.name = name;
-        this.type = type;
+        this.type = RecordType.reverseTypeLookup(typeCode);
+        this.typeCode = typeCode;
         this.classType = classType;
         this.ttl = ttl;
         this.rdata = rdata;
     }
 
+    /**
+     * Returns the domain name of this record as text.
+     * @return The name, with '.' between labels and none after the last.
+     */
+    public String getName()
+    {
+        return name.toString();
+    }
+
     /**
      * Getter for name.
      * @return The name field
      */
-    public String getName()
+    public DomainName getDomainName()
     {
         return name;
     }
@@ -58,6 +84,25 @@ public abstract class Record
         return type;
     }
 
+    /**
+     * Getter for typeCode.
+     * @return The code of this record's type, whether or not RecordType
+     *         names it.
+     */
+    public short getTypeCode()
+    {
+        return typeCode;
+    }
+
+    /**
+     * Returns the String form of this record's type.
+     * @return The type's name, or its generic form, such as "TYPE65".
+     */
+    public String getTypeName()
+    {
+        return RecordType.nameLookup(typeCode);
+    }
+
     /**
      * Getter for the class.
      * @return The class field.
@@ -77,14 +122,30 @@ public abstract class Record
     }
 
     /**
-     * Getter for the rdata.
+     * Getter for the rdata. The array is shared with this record rather than
+     * copied, so callers must not modify it.
      * @return The rdata field.
      */
-    public List<Byte> getRdata()
+    public byte[] getRdata()
     {
         return rdata;
     }
 
+    /**
+     * Creates a copy of this record with a different TTL, such as the time
+     * a cached record has left to live.
+     * @param newTtl The TTL of the copy.
+     * @return The copy, or this record if it is a query.
+     */
+    public Record withTtl(int newTtl)
+    {
+        if (rdata == null)
+            return this;
+        Byte classCode = RecordType.reverseClassLookup(classType);
+        return recordFactory(name, typeCode, classCode == null ? 0 : classCode,
+                             newTtl, rdata);
+    }
+
     /**
      * Factory method for creation of records. This is how records should be
      * created. It is protected because outside classes could not create this
@@ -96,13 +157,12 @@ public abstract class Record
      * @param ttl The ttl associated with the TTL field.
      * @param rdata The rdata associated with the rdata field. May be
      *              uncompressed before a Record object is created.
-     * @return The newly created record. Null will be returned and error message
-     *         will be printed in the event that the record type is not
-     *         supported.
+     * @return The newly created record. A type with no class of its own
+     *         gets an OpaqueRecord, which keeps the RDATA as it is.
      */
-    protected static Record recordFactory(String name, RecordType type,
+    protected static Record recordFactory(DomainName name, RecordType type,
                                           short classType, int ttl,
-                                          List<Byte> rdata)
+                                          byte[] rdata)
     {
         Record record = null;
         String classT = RecordType.classLookup((byte) classType);
@@ -129,16 +189,46 @@ public abstract class Record
                 case SOA:
                     record = new SOARecord(name, type, classT, ttl, rdata);
                     break;
+                case OPT:
+                    // The class of an OPT record is a payload size.
+                    record = new OPTRecord(name, type, classType, ttl, rdata);
+                    break;
                 default :
-                    System.err.println("Record type \"" + type + "\" is not " +
-                            "supported. This record will be ignored.\n" +
-                            "Record Type: " + type.toShort());
+                    record = new OpaqueRecord(name, type.toShort(), classT,
+                                              ttl, rdata);
             }
         else
-            record = new QueryRecord(name, type, classT);
+            record = new QueryRecord(name, type.toShort(), classT);
         return record;
     }
 
+    /**
+     * Factory method for records of any type, by its code. Types RecordType
+     * names are created as the other recordFactory creates them; any other
+     * type gets an OpaqueRecord, so a record of a type this resolver knows
+     * nothing about is still carried, and can be passed on, as it was
+     * received (RFC 3597).
+     * @param name The name associated with the name field.
+     * @param typeCode The code of the record's type.
+     * @param classType The classType associated with the classType field.
+     * @param ttl The ttl associated with the TTL field.
+     * @param rdata The rdata associated with the rdata field, or null for a
+     *              question.
+     * @return The newly created record.
+     */
+    protected static Record recordFactory(DomainName name, short typeCode,
+                                          short classType, int ttl,
+                                          byte[] rdata)
+    {
+        RecordType type = RecordType.reverseTypeLookup(typeCode);
+        if (type != null)
+            return recordFactory(name, type, classType, ttl, rdata);
+        String classT = RecordType.classLookup((byte) classType);
+        if (rdata == null)
+            return new QueryRecord(name, typeCode, classT);
+        return new OpaqueRecord(name, typeCode, classT, ttl, rdata);
+    }
+
     /**
      * ToString for this record. All children should add their own RDATA
      * section.
@@ -147,7 +237,8 @@ public abstract class Record
     @Override
     public String toString()
     {
-        return String.format("%-30s\t%6S\t%-2S\t%-40s", getName(), getType(),
-                             getClassType(), Util.readableTime(getTtl()));
+        return String.format("%-30s\t%6S\t%-2S\t%-40s", getName(),
+                             getTypeName(), getClassType(),
+                             Util.readableTime(getTtl()));
     }
 }
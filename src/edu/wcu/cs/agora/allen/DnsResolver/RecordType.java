@@ -7,6 +7,9 @@ import java.util.HashMap;
  * various forms that the "Record Type" literal appears in a DNS packet. It
  * also contains information on if that Record Type has R data that is
  * expandable, so that the Resolver can expand it if necessary.
+ *
+ * Types without a constant here are still carried, by their code, and
+ * named in the generic form of RFC 3597, such as "TYPE65".
  * @author Tyler Allen
  * @version 10/23/13
  */
@@ -29,7 +32,22 @@ public enum RecordType
     PTR("PTR", (short) 0b00001100, true, (byte) 0b00000000, (byte) 0b00001100),
 
     /** The SOA type record. */
-    SOA("SOA", (short) 6, true, (byte) 0b00000000, (byte) 0b00000110);
+    SOA("SOA", (short) 6, true, (byte) 0b00000000, (byte) 0b00000110),
+
+    /** The TXT type record. Its RDATA is kept as it is received. */
+    TXT("TXT", (short) 16, false, (byte) 0b00000000, (byte) 0b00010000),
+
+    /** The AAAA type record, of RFC 3596. Its RDATA is kept as it is
+     *  received. */
+    AAAA("AAAA", (short) 28, false, (byte) 0b00000000, (byte) 0b00011100),
+
+    /** The SRV type record, of RFC 2782. Its RDATA is kept as it is
+     *  received, as the name in it is never compressed. */
+    SRV("SRV", (short) 33, false, (byte) 0b00000000, (byte) 0b00100001),
+
+    /** The OPT pseudo-record type of EDNS(0). It can't be looked up, so it is
+     *  left out of tTable. */
+    OPT("OPT", (short) 41, false, (byte) 0b00000000, (byte) 0b00101001);
 
     /** The String version of the A record type. */
     public static final String A_STR     = "A";
@@ -43,6 +61,19 @@ public enum RecordType
     public static final String PTR_STR   = "PTR";
     /** The String version of the NS record type. */
     public static final String SOA_STR    = "SOA";
+    /** The String version of the TXT record type. */
+    public static final String TXT_STR   = "TXT";
+    /** The String version of the AAAA record type. */
+    public static final String AAAA_STR  = "AAAA";
+    /** The String version of the SRV record type. */
+    public static final String SRV_STR   = "SRV";
+    /** Starts the generic name of a type, of RFC 3597, which is followed
+     *  by its code. */
+    public static final String GENERIC_PREFIX = "TYPE";
+    /** Matches the code after GENERIC_PREFIX. */
+    public static final String GENERIC_CODE   = "[0-9]{1,5}";
+    /** The largest type code. */
+    public static final int    MAX_CODE       = 0xFFFF;
 
     /** The String version of the IN record class. */
     public final static String IN_STR = "IN";
@@ -65,6 +96,10 @@ public enum RecordType
     /** A table that takes the byte representation of the record class, and
      *  returns the enum representation. */
     private static final HashMap<Byte, String> classTable = new HashMap<>();
+    /** A table that takes the String representation of the record class,
+     *  and returns the byte representation. */
+    private static final HashMap<String, Byte> reverseClassTable =
+                                                                new HashMap<>();
 
     /** Fill up our lookup HashTables. */
     static
@@ -107,6 +142,9 @@ public enum RecordType
         tTable.put(NS_STR, NS);
         tTable.put(PTR_STR, PTR);
         tTable.put(SOA_STR, SOA);
+        tTable.put(TXT_STR, TXT);
+        tTable.put(AAAA_STR, AAAA);
+        tTable.put(SRV_STR, SRV);
 
         /** Filles the reverse lookup table. */
         reverseTTable.put(A_SHORT, A);
@@ -115,6 +153,10 @@ public enum RecordType
         reverseTTable.put(NS_SHORT, NS);
         reverseTTable.put(PTR_SHORT, PTR);
         reverseTTable.put(SOA_SHORT, SOA);
+        reverseTTable.put(OPT.toShort(), OPT);
+        reverseTTable.put(TXT.toShort(), TXT);
+        reverseTTable.put(AAAA.toShort(), AAAA);
+        reverseTTable.put(SRV.toShort(), SRV);
 
         /** The values for these class types.*/
         final byte IN = (byte) 0b00000001;
@@ -127,6 +169,12 @@ public enum RecordType
         classTable.put(CS, CS_STR);
         classTable.put(CH, CH_STR);
         classTable.put(HS, HS_STR);
+
+        /** Fills the reverse class table.*/
+        reverseClassTable.put(IN_STR, IN);
+        reverseClassTable.put(CS_STR, CS);
+        reverseClassTable.put(CH_STR, CH);
+        reverseClassTable.put(HS_STR, HS);
     }
 
     /** The String representation of this RecordType. */
@@ -195,6 +243,16 @@ public enum RecordType
         return classTable.get(key);
     }
 
+    /**
+     * Does a lookup for String-Binary classes, the reverse of classLookup.
+     * @param key The class in String form.
+     * @return The byte form of the DNS class, or null if it is unknown.
+     */
+    public static Byte reverseClassLookup(String key)
+    {
+        return reverseClassTable.get(key);
+    }
+
     /**
      * Does a lookup for Binary-String DNS types.
      * @param key The type, in short form.
@@ -214,4 +272,38 @@ public enum RecordType
     {
         return tTable.get(key.toUpperCase());
     }
+
+    /**
+     * Looks up the code of a type by its String form, or by the generic
+     * form RFC 3597 gives every type, such as "TYPE65".
+     * @param key The String form of the type.
+     * @return The type code, or null if key names no type.
+     */
+    public static Short codeLookup(String key)
+    {
+        RecordType type = typeLookup(key);
+        if (type != null)
+            return type.toShort();
+        String upper = key.toUpperCase();
+        if (!upper.startsWith(GENERIC_PREFIX))
+            return null;
+        String digits = upper.substring(GENERIC_PREFIX.length());
+        if (!digits.matches(GENERIC_CODE))
+            return null;
+        int code = Integer.parseInt(digits);
+        return code > MAX_CODE ? null : (short) code;
+    }
+
+    /**
+     * Returns the String form of a type code, the reverse of codeLookup.
+     * @param code The type code.
+     * @return The String form of its RecordType, or the generic form of RFC
+     *         3597 if it has none.
+     */
+    public static String nameLookup(short code)
+    {
+        RecordType type = reverseTypeLookup(code);
+        return type != null ? type.toString() :
+               GENERIC_PREFIX + Util.unsignShortToInt(code);
+    }
 }
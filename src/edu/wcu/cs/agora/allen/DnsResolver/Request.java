@@ -3,18 +3,24 @@ package edu.wcu.cs.agora.allen.DnsResolver;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.regex.Pattern;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A Request object contains the information to be send to the DNS server. It
  * can produce the request in a raw format, a TCP format, and a UDP datagram.
+ * The packet is encoded once, when the Request is created, into a single
+ * array that leaves room for the TCP length prefix in front of it, so every
+ * one of these formats (and every retransmission) shares the same bytes.
+ * Unless told otherwise, a Request carries an EDNS(0) OPT record (RFC 6891)
+ * advertising that responses of up to UDP_PAYLOAD bytes can be received over
+ * UDP, so large answers don't have to be asked for again over TCP.
  * @author Tyler Allen
  * @version 10/07/13
  */
@@ -23,17 +29,39 @@ public class Request
     /** Regex later must escape period, but for now we must escape backslash.
      *  Used to delimit the parts of a domain name. */
     public static String NAME_DELIMITER = "\\.";
+    /** The character NAME_DELIMITER matches, for scanning names by hand. */
+    public static final char LABEL_SEPARATOR = '.';
     /** The character set we are using to encode/decode. */
     public static Charset CHARSET       = StandardCharsets.UTF_8;
     /** The QCLASS field of the DNS packet will always be the same.*/
     public static byte[] QCLASS         = {0x0000, 0x0001}; //IN
-    /** The default well-known DNS port. */
+    /** The port requests are sent to, unless given another. */
     public static int DNS_PORT          = 53;
 
     /** This is actually the length of this field as a constant.*/
     public static final int DNS_ID_LEN     = 2;
     /** The size of a byte. */
     public final static int BYTE_SIZE = 8;
+    /** The length of the prefix RFC 1035 puts in front of TCP messages. */
+    public static final int TCP_LEN_SIZE   = 2;
+    /** The length of a DNS header. */
+    public static final int HEADER_LEN     = 12;
+    /** The length of QTYPE and QCLASS, which follow the QNAME. */
+    public static final int TYPE_CLASS_LEN = 4;
+    /** The difference between an upper and lower case ASCII letter. */
+    public static final int CASE_BIT       = 0x20;
+    /** Where the QR, Opcode, AA, TC and RD bits sit in the header. */
+    public static final int FLAGS_INDEX    = 2;
+    /** Where ARCOUNT sits in the header. */
+    public static final int ARCOUNT_INDEX  = 10;
+    /** The length of an OPT record with no options. */
+    public static final int OPT_LEN        = 11;
+    /** The payload size advertised by default. 1232 bytes fits in an IPv6
+     *  packet on a 1280 byte link without fragmenting. */
+    public static final int OPT_DEFAULT_PAYLOAD = 1232;
+    /** The UDP payload size requests advertise, unless given another. 0
+     *  leaves the OPT record off. */
+    public static int UDP_PAYLOAD            = OPT_DEFAULT_PAYLOAD;
 
     /** Values of these areas of the header.*/
     /** The default value for the QR_RD byte in the header. */
@@ -50,38 +78,218 @@ public class Request
     /** Two byte couple for AR count. We are sending zero additional records. */
     public static final byte[] ARCOUNT = {0b00000000, 0b00000000};
 
+    /** The header every request starts from. Only the ID differs. */
+    private static final byte[] HEADER_TEMPLATE = makeHeader();
+
     /** The dns address for this request. */
     private String dnsAddr;
-    /** The address we are to lookup. */
+    /** The address we are to lookup, as it was given. */
     private String lookupAddr;
+    /** The name we are to lookup. */
+    private DomainName name;
     /** The type of lookup we are performing. */
     private String lookupType;
+    /** The record type that lookupType names, or null if RecordType has
+     *  none by that name. */
+    private RecordType type;
+    /** The code of the type lookupType names. */
+    private short typeCode;
     /** The INetAddress of the dns server. This lets us take in hostnames for
      *  DNS addresses.*/
     private InetAddress dnsInetAddr;
+    /** The port of the dns server. */
+    private int dnsPort;
 
     /** The randomly generated identifier that we are sending to identify the
      *  packet being returned to us.
      */
     private byte[] identifier;
-    private List<Byte> qname;
-    private List<Byte> header;
+    /** The encoded request, preceded by its TCP length prefix. */
+    private byte[] packet;
+    /** The UDP payload size advertised in the OPT record, or 0 for none. */
+    private int udpPayloadSize;
+    /** The length of the question section. */
+    private int questionLen;
+    /** Whether the RD bit is set, asking the server to recurse for us. */
+    private boolean recursionDesired;
+    /** How long encoding took, in ns, if queries are being traced. */
+    private long encodeNanos;
 
     public Request(String dnsAddr, String lookupAddr, String lookupType)
                    throws UnknownHostException
     {
+        this(dnsAddr, lookupAddr, lookupType, UDP_PAYLOAD);
+    }
+
+    /**
+     * Creates a Request that advertises a given UDP payload size.
+     * @param dnsAddr The DNS server to send the request to.
+     * @param lookupAddr The name to look up.
+     * @param lookupType The type of record to look up.
+     * @param udpPayloadSize The largest UDP response we can receive. Sizes
+     *                       under 512 are raised to 512, and 0 leaves the OPT
+     *                       record off altogether.
+     * @throws UnknownHostException If the DNS server can't be found.
+     */
+    public Request(String dnsAddr, String lookupAddr, String lookupType,
+                   int udpPayloadSize) throws UnknownHostException
+    {
+        this(dnsAddr, DNS_PORT, lookupAddr, lookupType, udpPayloadSize);
+    }
+
+    /**
+     * Creates a Request for a DNS server listening on a port other than
+     * DNS_PORT, such as a stub server on the loopback address.
+     * @param dnsAddr The DNS server to send the request to.
+     * @param dnsPort The port the DNS server listens on.
+     * @param lookupAddr The name to look up.
+     * @param lookupType The type of record to look up.
+     * @param udpPayloadSize The largest UDP response we can receive, or 0 to
+     *                       leave the OPT record off.
+     * @throws UnknownHostException If the DNS server can't be found.
+     */
+    public Request(String dnsAddr, int dnsPort, String lookupAddr,
+                   String lookupType, int udpPayloadSize)
+                   throws UnknownHostException
+    {
+        this(dnsAddr, dnsPort, lookupAddr, lookupType, udpPayloadSize, true);
+    }
+
+    /**
+     * Creates a Request that may leave recursion desired unset, as the
+     * queries of iterative resolution do, so the server answers from its own
+     * data or refers us elsewhere rather than looking the name up for us.
+     * @param dnsAddr The DNS server to send the request to.
+     * @param dnsPort The port the DNS server listens on.
+     * @param lookupAddr The name to look up.
+     * @param lookupType The type of record to look up.
+     * @param udpPayloadSize The largest UDP response we can receive, or 0 to
+     *                       leave the OPT record off.
+     * @param recursionDesired Whether to set the RD bit.
+     * @throws UnknownHostException If the DNS server can't be found, or
+     *                              the name can't be looked up.
+     */
+    public Request(String dnsAddr, int dnsPort, String lookupAddr,
+                   String lookupType, int udpPayloadSize,
+                   boolean recursionDesired) throws UnknownHostException
+    {
+        this(dnsAddr, dnsPort, nameOf(lookupAddr), lookupAddr, lookupType,
+             udpPayloadSize, recursionDesired);
+    }
+
+    /**
+     * Creates a Request for a name that has already been read.
+     * @param dnsAddr The DNS server to send the request to.
+     * @param dnsPort The port the DNS server listens on.
+     * @param name The name to look up.
+     * @param lookupType The type of record to look up.
+     * @param udpPayloadSize The largest UDP response we can receive, or 0 to
+     *                       leave the OPT record off.
+     * @param recursionDesired Whether to set the RD bit.
+     * @throws UnknownHostException If the DNS server can't be found.
+     */
+    public Request(String dnsAddr, int dnsPort, DomainName name,
+                   String lookupType, int udpPayloadSize,
+                   boolean recursionDesired) throws UnknownHostException
+    {
+        this(dnsAddr, dnsPort, name, name.toString(), lookupType,
+             udpPayloadSize, recursionDesired);
+    }
+
+    /**
+     * Creates a Request. Every other constructor ends up here.
+     * @param dnsAddr The DNS server to send the request to.
+     * @param dnsPort The port the DNS server listens on.
+     * @param name The name to look up.
+     * @param lookupAddr The name to look up, as it was given.
+     * @param lookupType The type of record to look up, by name, or in the
+     *                   generic form of RFC 3597, such as "TYPE65".
+     * @param udpPayloadSize The largest UDP response we can receive, or 0 to
+     *                       leave the OPT record off.
+     * @param recursionDesired Whether to set the RD bit.
+     * @throws UnknownHostException If the DNS server can't be found.
+     * @throws IllegalArgumentException If lookupType names no type.
+     */
+    private Request(String dnsAddr, int dnsPort, DomainName name,
+                    String lookupAddr, String lookupType, int udpPayloadSize,
+                    boolean recursionDesired) throws UnknownHostException
+    {
+        this.recursionDesired = recursionDesired;
+        this.dnsPort     = dnsPort;
+        this.udpPayloadSize = udpPayloadSize <= 0 ? 0 :
+                Math.min(Math.max(udpPayloadSize, OPTRecord.MIN_PAYLOAD),
+                         Resolver.MAX_UDP_BUFF);
         this.dnsAddr     = dnsAddr;
         this.lookupAddr  = lookupAddr;
+        this.name        = name;
         this.lookupType  = lookupType;
+        Short code       = RecordType.codeLookup(lookupType);
+        if (code == null)
+            throw new IllegalArgumentException("Unknown record type: " +
+                                               lookupType);
+        this.typeCode    = code;
+        this.type        = RecordType.reverseTypeLookup(code);
         this.dnsInetAddr = InetAddress.getByName(dnsAddr);
 
         /* Must happen in this order.*/
+        long start = QueryTrace.isEnabled() ? System.nanoTime() : 0;
         identifier = new byte[DNS_ID_LEN]; //Value of ID
-        Random random = new Random();
-        random.nextBytes(identifier);
+        ThreadLocalRandom.current().nextBytes(identifier);
+
+        questionLen = name.getWireLength() + TYPE_CLASS_LEN;
+        packet = new byte[TCP_LEN_SIZE + getEncodedLength()];
+        encode(ByteBuffer.wrap(packet));
+        if (start != 0)
+            encodeNanos = System.nanoTime() - start;
+    }
 
-        qname = makeQname();
-        header = makeHeader();
+    /**
+     * Reads a name to look up from text.
+     * @param lookupAddr The name, with '.' between labels.
+     * @return The name.
+     * @throws UnknownHostException If the name is too long to look up.
+     */
+    public static DomainName nameOf(String lookupAddr)
+                                    throws UnknownHostException
+    {
+        try
+        {
+            return DomainName.of(lookupAddr);
+        }
+        catch (IllegalArgumentException iae)
+        {
+            throw new UnknownHostException(iae.getMessage());
+        }
+    }
+
+    /**
+     * Creates a Request like this one, to the same server with the same
+     * options, but for another name, such as the target of a CNAME record.
+     * It has an identifier of its own.
+     * @param name The name to look up.
+     * @return The new Request.
+     * @throws UnknownHostException Never, as the server was already found.
+     */
+    public Request forName(DomainName name) throws UnknownHostException
+    {
+        return new Request(dnsAddr, dnsPort, name, lookupType, udpPayloadSize,
+                           recursionDesired);
+    }
+
+    /**
+     * Creates a Request like this one, for the same name with the same
+     * options, but to another server, such as a second upstream server a
+     * slow request is hedged to. It has an identifier of its own.
+     * @param server The address and port of the server.
+     * @return The new Request.
+     * @throws UnknownHostException Never, as the address is already known.
+     */
+    public Request forServer(InetSocketAddress server)
+                             throws UnknownHostException
+    {
+        return new Request(server.getAddress().getHostAddress(),
+                           server.getPort(), name, lookupAddr, lookupType,
+                           udpPayloadSize, recursionDesired);
     }
 
     /**
@@ -93,6 +301,89 @@ public class Request
         return Util.byteArrayCopy(identifier);
     }
 
+    /**
+     * Returns the domain name this request looks up.
+     * @return The name being looked up.
+     */
+    public String getLookupAddr()
+    {
+        return lookupAddr;
+    }
+
+    /**
+     * Returns the domain name this request looks up.
+     * @return The name being looked up.
+     */
+    public DomainName getName()
+    {
+        return name;
+    }
+
+    /**
+     * Returns the type of record this request asks for.
+     * @return The record type being looked up, or null if it is a type
+     *         RecordType doesn't name.
+     */
+    public RecordType getType()
+    {
+        return type;
+    }
+
+    /**
+     * Getter for typeCode.
+     * @return The code of the type being looked up.
+     */
+    public short getTypeCode()
+    {
+        return typeCode;
+    }
+
+    /**
+     * Returns the UDP payload size this request advertises.
+     * @return The payload size, or 0 if the request has no OPT record.
+     */
+    public int getUdpPayloadSize()
+    {
+        return udpPayloadSize;
+    }
+
+    /**
+     * Returns whether this request asks the server to recurse.
+     * @return True if the RD bit is set.
+     */
+    public boolean isRecursionDesired()
+    {
+        return recursionDesired;
+    }
+
+    /**
+     * Returns the address and port of the DNS server this request is for.
+     * @return The DNS server's socket address.
+     */
+    public InetSocketAddress getServerAddress()
+    {
+        return new InetSocketAddress(dnsInetAddr, dnsPort);
+    }
+
+    /**
+     * Returns the identifier as an unsigned number, for use as a key.
+     * @return The identifier for this request, from 0 to 65535.
+     */
+    public int getId()
+    {
+        return Util.unsignShortToInt(Util.bytesToShort(identifier[0],
+                                                       identifier[1]));
+    }
+
+    /**
+     * Returns how long encoding this request took.
+     * @return The time, in ns, or 0 if queries weren't being traced.
+     */
+    public long getEncodeNanos()
+    {
+        return encodeNanos;
+    }
+
     /**
      * Returns a TCP socket based on this request.
      * @return The TCP socket based on this request.
@@ -101,7 +392,7 @@ public class Request
      */
     public Socket getTcpSocket() throws IOException
     {
-        return new Socket(dnsAddr, DNS_PORT);
+        return new Socket(dnsInetAddr, dnsPort);
     }
 
     /**
@@ -110,38 +401,105 @@ public class Request
      */
     public byte[] getRawRequest()
     {
-        List<Byte> packetList = this.header;
-        packetList.addAll(this.qname);
-        Util.addBytesToList(packetList,
-                            RecordType.typeLookup(lookupType).toByteArray());
-        Util.addBytesToList(packetList, QCLASS);
-        return Util.unboxBytes(packetList);
+        return Arrays.copyOfRange(packet, TCP_LEN_SIZE, packet.length);
     }
 
     /**
-     * The raw request with a 2 byte length appended to the front.
-     * @return The newly generated TCP request.
+     * The raw request with a 2 byte length appended to the front. The array
+     * is the one this Request keeps, so callers must not modify it.
+     * @return The TCP request.
      */
     public byte[] getRawTcpRequest()
     {
-        byte[] rawRequest = getRawRequest();
-        /* Append a header to the RawRequest specifying the length, as
-         * requested in RFC 1035. */
-        byte[] rawRequestLen = {(byte) (rawRequest.length >> BYTE_SIZE),
-                                (byte) rawRequest.length};
-        return Util.combineByteArray(rawRequestLen, rawRequest);
+        return packet;
     }
 
     /**
      * Returns a datagram packet constructed based on this request. It can be
-     * sent straight to the DNS server in this form.
+     * sent straight to the DNS server in this form, as many times as needed.
      * @return The generated UDP packet.
      */
     public DatagramPacket getRequestPacket()
     {
-        byte[] rawRequest = getRawRequest();
-        return new DatagramPacket(rawRequest, rawRequest.length, dnsInetAddr,
-                                 DNS_PORT);
+        return new DatagramPacket(packet, TCP_LEN_SIZE,
+                                  packet.length - TCP_LEN_SIZE, dnsInetAddr,
+                                  dnsPort);
+    }
+
+    /**
+     * Checks that a reply carries this request's identifier and question.
+     * The name is compared without regard to case, as servers may change it.
+     * @param reply The reply, starting with its DNS header.
+     * @param length The length of the reply.
+     * @return True if the reply is an answer to this request.
+     */
+    public boolean matchesQuestion(byte[] reply, int length)
+    {
+        int start = TCP_LEN_SIZE + HEADER_LEN;
+        if (HEADER_LEN + questionLen > length ||
+            reply[0] != identifier[0] || reply[1] != identifier[1])
+            return false;
+        int nameLen = questionLen - TYPE_CLASS_LEN;
+        for (int i = 0; i < questionLen; i++)
+        {
+            int sent = packet[start + i];
+            int got = reply[HEADER_LEN + i];
+            if (i < nameLen)
+            {
+                sent = toLower(sent);
+                got = toLower(got);
+            }
+            if (sent != got)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Lower cases an ASCII letter, leaving any other byte alone.
+     * @param b The byte to lower case.
+     * @return The lower case byte.
+     */
+    private static int toLower(int b)
+    {
+        return (b >= 'A' && b <= 'Z') ? b | CASE_BIT : b;
+    }
+
+    /**
+     * The length of the encoded request, not counting the TCP length prefix.
+     * @return The number of bytes in the raw request.
+     */
+    public int getEncodedLength()
+    {
+        return HEADER_LEN + questionLen + (udpPayloadSize > 0 ? OPT_LEN : 0);
+    }
+
+    /**
+     * Encodes this request into buffer, starting at its position. Two bytes
+     * are reserved up front for the TCP length prefix, and filled in once the
+     * rest of the packet has been written, so the same bytes can be sent over
+     * TCP as they are, or over UDP by skipping the first two. An OPT record,
+     * if there is one, follows the question. The buffer must
+     * have room for getEncodedLength() + TCP_LEN_SIZE bytes.
+     * @param buffer The buffer to write the request into.
+     * @return The buffer, positioned after the request.
+     */
+    public ByteBuffer encode(ByteBuffer buffer)
+    {
+        int start = buffer.position();
+        buffer.position(start + TCP_LEN_SIZE);
+        buffer.put(identifier);
+        buffer.put(HEADER_TEMPLATE, DNS_ID_LEN, HEADER_LEN - DNS_ID_LEN);
+        if (!recursionDesired)
+            buffer.put(start + TCP_LEN_SIZE + FLAGS_INDEX, (byte) 0b00000000);
+        name.writeTo(buffer);
+        buffer.putShort(typeCode);
+        buffer.put(QCLASS);
+        if (udpPayloadSize > 0)
+            putOpt(buffer, start + TCP_LEN_SIZE);
+        buffer.putShort(start,
+                        (short) (buffer.position() - start - TCP_LEN_SIZE));
+        return buffer;
     }
 
     /**
@@ -177,36 +535,37 @@ public class Request
      * NSCOUNT: Number of Authority Records. Combined Bytes Set to 0.
      * ARCOUNT: Number of Additional Records. Combined Bytes set to 0.
      *
-     * @return A list of Bytes containing the header.
+     * The ID is left as zero here, and written by encode() for each request.
+     *
+     * @return An array containing the header.
      */
-    private List<Byte> makeHeader()
+    private static byte[] makeHeader()
     {
-        ArrayList<Byte> header = new ArrayList<>();
-        Util.addBytesToList(header, identifier); //ID
-        header.add(QR_RD); //Value of QR-RD.
-        header.add(Z_RCODE); //value of Z-RCODE
-        Util.addBytesToList(header, QDCOUNT); //Value of QDCOUNT
-        Util.addBytesToList(header, ANCOUNT); //Value of QDCOUNT
-        Util.addBytesToList(header, NSCOUNT); // value of NS Count
-        Util.addBytesToList(header, ARCOUNT); //Value of AR Count
-        return header;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LEN);
+        header.position(DNS_ID_LEN); //ID
+        header.put(QR_RD); //Value of QR-RD.
+        header.put(Z_RCODE); //value of Z-RCODE
+        header.put(QDCOUNT); //Value of QDCOUNT
+        header.put(ANCOUNT); //Value of QDCOUNT
+        header.put(NSCOUNT); // value of NS Count
+        header.put(ARCOUNT); //Value of AR Count
+        return header.array();
     }
 
     /**
-     * The QNAME section of the DNS request is generated by this method. We
-     * split up the domain by periods and substitute the length of the parts.
-     * @return The generated QNAME.
+     * Writes an OPT record with no options into the additional section, and
+     * counts it in the header. Its owner is the root, its CLASS is the
+     * payload size, and its TTL (extended RCODE, version and flags) is 0.
+     * @param buffer The buffer to write the record into.
+     * @param header Where the header starts in buffer.
      */
-    private List<Byte> makeQname()
+    private void putOpt(ByteBuffer buffer, int header)
     {
-        String[] sets = Pattern.compile(NAME_DELIMITER).split(lookupAddr);
-        List<Byte> qname = new ArrayList<>();
-        for(String section : sets)
-        {
-            qname.add((byte) section.length());
-            Util.addBytesToList(qname, section.getBytes(CHARSET));
-        }
-        qname.add((byte) 0b00000000);
-        return qname;
+        buffer.putShort(header + ARCOUNT_INDEX, (short) 1);
+        buffer.put((byte) 0b00000000);
+        buffer.put(RecordType.OPT.toByteArray());
+        buffer.putShort((short) udpPayloadSize);
+        buffer.putInt(0);
+        buffer.putShort((short) 0);
     }
 }
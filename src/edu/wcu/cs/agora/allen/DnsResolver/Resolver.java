@@ -3,43 +3,109 @@ package edu.wcu.cs.agora.allen.DnsResolver;
 /**
  * Resolver is a Singleton used for resolving domain addresses of certain types,
  * similar to the program DiG. It is a Singleton because the Resolver object
- * itself is stateless.
+ * holds no per-request state. What it does keep, the ResponseCache, the
+ * TcpConnectionPool, the UdpMultiplexer behind resolveAsync, the
+ * SingleFlight tables of questions in flight and the UpstreamPool of
+ * servers to send requests to, is shared by every caller.
  *
  * @author Tyler Allen
  * @version 10/07/2013
  */
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
-import java.net.Socket;
-import java.nio.charset.StandardCharsets;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
 
 public class Resolver
 {
     /** The maximum size of a UDP response message, in bytes, from RFC 1035*/
     public final static int UDP_BUFF = 1024;
+    /** The largest UDP message there can be. The multiplexer receives into a
+     *  buffer this size, as it serves requests advertising any size. */
+    public final static int MAX_UDP_BUFF = 65535;
     /** The timeout waiting for TCP and UDP responses. */
     public final static int TIMEOUT  = 3000;
     /** The value assigned to the made up "Query" record type. */
     public final static int QUERY_TTL = Record.QUERY_TTL;
+    /** The number of channels the UdpMultiplexer spreads requests over. */
+    public final static int UDP_CHANNELS = UdpMultiplexer.DEFAULT_CHANNELS;
+    /** How long resolve waits for a fresh answer before serving a stale
+     *  one, by default, in ms: RFC 8767's client response timer. */
+    public final static int STALE_TIMEOUT = 1800;
+    /** The most CNAME records Main and BatchResolver follow for a lookup;
+     *  0 leaves CNAME records for the caller to follow. */
+    public static int CNAME_DEPTH = CnameChain.DEFAULT_MAX_DEPTH;
 
 
     /** This field holds the only instance of the resolver class.*/
     private static Resolver resolver = null;
 
+    /** Answers requests that have been answered before, until their TTLs
+     *  run out. Consulted before any request goes to the network. */
+    private volatile ResponseCache cache =
+            new ResponseCache(ResponseCache.DEFAULT_MAX_ENTRIES);
+
+    /** Holds the TCP connections makeTcpRequest sends requests over. */
+    private final TcpConnectionPool tcpPool =
+            new TcpConnectionPool(TIMEOUT,
+                                  TcpConnectionPool.DEFAULT_MAX_CONNECTIONS,
+                                  TcpConnectionPool.DEFAULT_MAX_PIPELINE,
+                                  TcpConnectionPool.DEFAULT_IDLE_TIMEOUT);
+
+    /** The questions being asked over UDP, by makeUdpRequest and
+     *  resolveAsync alike, so the same one isn't sent twice at once. */
+    private final SingleFlight udpFlights = new SingleFlight();
+
+    /** The questions being asked over TCP. Kept apart from those over UDP,
+     *  whose answers may be truncated. */
+    private final SingleFlight tcpFlights = new SingleFlight();
+
+    /** Counts the queries sent to DNS servers and how they went. */
+    private final Metrics metrics = new Metrics(this);
+
+    /** Sends the requests made through resolveAsync. Opened when first
+     *  needed. */
+    private UdpMultiplexer multiplexer = null;
+
+    /** Sends the second request of each hedged request. Started when
+     *  first needed. */
+    private ScheduledThreadPoolExecutor hedgeTimer = null;
+
+    /** How long resolve waits for a fresh answer before serving a stale
+     *  one, in ms, or 0 if stale answers aren't served. */
+    private volatile int staleTimeout = 0;
+
+    /** The number of stale answers resolve has served. */
+    private final LongAdder staleAnswers = new LongAdder();
+
+    /** Refreshes popular cache entries before they expire, or null. */
+    private volatile Prefetcher prefetcher = null;
+
+    /** The servers newRequest chooses among, whose statistics every UDP
+     *  exchange with them updates. Null until set. */
+    private volatile UpstreamPool upstreams = null;
+
     /**
      * This method is the only way to get an instance of this class. No
      * instances of this class exist until this method has been called for the
      * first time. Otherwise, this method always returns the same object.
      * @return The only instance of this object available.
      */
-    public static Resolver getInstance()
+    public static synchronized Resolver getInstance()
     {
         if (null == resolver)
             resolver = new Resolver();
@@ -55,6 +121,15 @@ public class Resolver
     /**
      * This method sends a UDP packet to the requested DNS server.  If a
      * response is received, a Response object is generated and returned.
+     * A server in the UpstreamPool is waited for no longer than its RTO.
+     *
+     * Packets that aren't from the server, or don't carry the request's
+     * identifier, are ignored. A socket may be given the port of one closed
+     * a moment ago, and so the late reply to some other request; with many
+     * requests on threads of their own, that is not rare.
+     *
+     * A recursive request for a question already being asked over UDP is
+     * not sent; it waits for that answer instead.
      * @param request The request to make to the DNS server.
      * @return The Response received from the DNS server.
      * @throws IOException Exceptions generated by UDP sockets such as timeout,
@@ -62,29 +137,312 @@ public class Resolver
      */
     public Response makeUdpRequest(Request request) throws IOException
     {
-        /* This list will contain our response from the DNS server.*/
-        List<Byte> list = getPrefList();
+        Response cached = fromCache(request);
+        if (cached != null)
+            return cached;
+        if (!request.isRecursionDesired())
+            return sendUdp(request);
+        return udpFlights.call(CacheKey.of(request), () -> sendUdp(request));
+    }
+
+    /**
+     * Sends a UDP request and waits for the response, as makeUdpRequest
+     * describes.
+     * @param request The request to make to the DNS server.
+     * @return The Response received from the DNS server.
+     * @throws IOException As makeUdpRequest.
+     */
+    private Response sendUdp(Request request) throws IOException
+    {
+        /* This buffer will contain our response from the DNS server.*/
+        int bufferSize = Math.max(UDP_BUFF, request.getUdpPayloadSize());
+        byte[] inputBuffer = new byte[bufferSize];
+        DatagramPacket responsePacket;
+        QueryTrace trace = QueryTrace.start(request, false);
+        long start = System.nanoTime();
+        long rtt;
         try (DatagramSocket socket = new DatagramSocket())
         {
-            socket.setSoTimeout(TIMEOUT);
+            int timeout = timeoutFor(request);
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+            socket.setSoTimeout(timeout);
             /* Get a UDP Request Packet from Request. */
             socket.send(request.getRequestPacket());
+            if (trace != null)
+                trace.end(QueryTrace.Phase.SEND);
 
             /* Create packet to await response.*/
-            byte[] inputBuffer = new byte[UDP_BUFF];
-            DatagramPacket responsePacket = new DatagramPacket(inputBuffer,
-                                                               UDP_BUFF);
+            responsePacket = new DatagramPacket(inputBuffer, bufferSize);
             socket.receive(responsePacket);
-            /* Convert response to list. */
-            list = Util.byteArrayToList(inputBuffer, list);
+            while (!isReplyTo(request, responsePacket))
+            {
+                long left = TimeUnit.NANOSECONDS.toMillis(
+                        deadline - System.nanoTime());
+                if (left <= 0)
+                    throw new SocketTimeoutException("Receive timed out");
+                socket.setSoTimeout((int) left);
+                responsePacket.setLength(bufferSize);
+                socket.receive(responsePacket);
+            }
+            /* The round trip ends here, before parsing and caching. */
+            rtt = System.nanoTime() - start;
+            if (trace != null)
+                trace.end(QueryTrace.Phase.WAIT);
+        }
+        catch (IOException ioe)
+        {
+            measure(request, System.nanoTime() - start, ioe);
+            throw ioe;
+        }
+        /* The response is parsed straight out of the receive buffer. */
+        try
+        {
+            Response response = parse(request, inputBuffer,
+                                      responsePacket.getLength(), trace);
+            measure(request, rtt, null);
+            return response;
+        }
+        catch (IOException ioe)
+        {
+            measure(request, rtt, ioe);
+            throw ioe;
+        }
+    }
+
+    /**
+     * Whether a packet could be the reply to a request: it comes from the
+     * request's server, and carries its identifier.
+     * @param request The request.
+     * @param packet The packet received.
+     * @return True if it could be the reply.
+     */
+    private static boolean isReplyTo(Request request, DatagramPacket packet)
+    {
+        byte[] id = request.getIdentifier();
+        byte[] data = packet.getData();
+        return packet.getSocketAddress().equals(request.getServerAddress()) &&
+               packet.getLength() >= id.length &&
+               data[packet.getOffset()] == id[0] &&
+               data[packet.getOffset() + 1] == id[1];
+    }
+
+    /**
+     * Sends a UDP request without waiting for the response. Any number of
+     * these may be outstanding at once; they all share a few long-lived
+     * channels and a single selector thread. The future is completed on that
+     * thread, with the same exceptions makeUdpRequest would throw.
+     *
+     * A server in the UpstreamPool is waited for no longer than its RTO. If
+     * the pool hedges, a request to it still unanswered after its 95th
+     * percentile round trip time is sent to a second server as well, and the
+     * first answer from either is used.
+     *
+     * As with makeUdpRequest, a recursive request for a question already
+     * being asked over UDP is not sent, but completes with that answer.
+     * @param request The request to make to the DNS server.
+     * @return A future that completes with the Response from the DNS server.
+     */
+    public CompletableFuture<Response> resolveAsync(Request request)
+    {
+        Response cached;
+        try
+        {
+            cached = fromCache(request);
+        }
+        catch (NxDomainException nxe)
+        {
+            return CompletableFuture.failedFuture(nxe);
+        }
+        if (cached != null)
+            return CompletableFuture.completedFuture(cached);
+        if (!request.isRecursionDesired())
+            return sendAsync(request);
+        return udpFlights.callAsync(CacheKey.of(request),
+                                    () -> sendAsync(request));
+    }
+
+    /**
+     * Asks a question again over UDP without looking in the cache, so that
+     * the answer replaces the one cached, as the Prefetcher does. The
+     * question goes to the upstream server that is fastest at the time.
+     * @param key The question.
+     * @return A future that completes with the Response.
+     */
+    public CompletableFuture<Response> prefetch(CacheKey key)
+    {
+        Request request;
+        try
+        {
+            request = newRequest(key.getName(),
+                                 RecordType.nameLookup(key.getTypeCode()));
+        }
+        catch (UnknownHostException | IllegalStateException e)
+        {
+            return CompletableFuture.failedFuture(e);
+        }
+        return udpFlights.callAsync(key, () -> sendAsync(request));
+    }
+
+    /**
+     * Sends a UDP request through the multiplexer, hedging it if the pool
+     * does, as resolveAsync describes.
+     * @param request The request to make to the DNS server.
+     * @return A future that completes with the Response from the DNS server.
+     */
+    private CompletableFuture<Response> sendAsync(Request request)
+    {
+        try
+        {
+            UpstreamPool pool = upstreams;
+            UpstreamPool.Upstream upstream = pool == null ? null :
+                    pool.find(request.getServerAddress());
+            if (upstream == null)
+                return exchange(request, TIMEOUT);
+            pool.countRequest();
+            CompletableFuture<Response> first = exchange(request,
+                                                         upstream.getRto());
+            long delay = upstream.getHedgeDelay();
+            if (!pool.isHedging() || delay == 0)
+                return first;
+            return hedge(pool, upstream, request, first, delay);
+        }
+        catch (IOException ioe)
+        {
+            return CompletableFuture.failedFuture(ioe);
+        }
+    }
+
+    /**
+     * Sends a UDP request through the multiplexer, measuring and caching
+     * what comes back.
+     * @param request The request to make to the DNS server.
+     * @param timeout How long to wait for the response, in ms.
+     * @return A future that completes with the Response.
+     * @throws IOException If the multiplexer's channels can't be opened.
+     */
+    private CompletableFuture<Response> exchange(Request request, int timeout)
+                                                 throws IOException
+    {
+        QueryTrace trace = QueryTrace.start(request, false);
+        long start = System.nanoTime();
+        return getMultiplexer().send(request, timeout, trace).whenComplete(
+                (response, e) ->
+        {
+            measure(request, System.nanoTime() - start, e);
+            if (response != null)
+                store(request, traced(response, trace));
+            else if (e instanceof NxDomainException)
+                store(request, traced(((NxDomainException) e)
+                                      .getResponse(), trace));
+        });
+    }
+
+    /**
+     * Sends a request to a second upstream server if the first hasn't
+     * answered after a delay, and completes with whichever answers first.
+     * A response saying the name does not exist, or that is truncated, is
+     * an answer too. The request fails only once every server it went to
+     * has failed.
+     * @param pool The upstream servers.
+     * @param upstream The server the request went to first.
+     * @param request The request.
+     * @param first The future of the request to the first server.
+     * @param delay How long to wait before hedging, in ns.
+     * @return A future that completes with the first answer.
+     */
+    private CompletableFuture<Response> hedge(UpstreamPool pool,
+            UpstreamPool.Upstream upstream, Request request,
+            CompletableFuture<Response> first, long delay)
+    {
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        BiConsumer<Response, Throwable> settle = (response, e) ->
+        {
+            if (response != null)
+                result.complete(response);
+            else if (e instanceof NxDomainException ||
+                     e instanceof TruncatedUdpPacketException ||
+                     outstanding.decrementAndGet() == 0)
+                result.completeExceptionally(e);
+        };
+        ScheduledFuture<?> timer = getHedgeTimer().schedule(() ->
+        {
+            UpstreamPool.Upstream other = pool.chooseOther(upstream);
+            if (result.isDone() || other == null || !pool.tryHedge())
+                return;
+            outstanding.incrementAndGet();
+            try
+            {
+                exchange(request.forServer(other.getAddress()),
+                         other.getRto()).whenComplete(settle);
+            }
+            catch (IOException ioe)
+            {
+                settle.accept(null, ioe);
+            }
+        }, delay, TimeUnit.NANOSECONDS);
+        first.whenComplete(settle);
+        result.whenComplete((response, e) -> timer.cancel(false));
+        return result;
+    }
+
+    /**
+     * Returns the thread that hedges slow requests, starting it first if
+     * this is the first request to be hedged. Hedging only hands a request
+     * to the multiplexer, which never blocks, so one thread is plenty.
+     * @return The timer.
+     */
+    private synchronized ScheduledThreadPoolExecutor getHedgeTimer()
+    {
+        if (null == hedgeTimer)
+        {
+            hedgeTimer = new ScheduledThreadPoolExecutor(1, runnable ->
+            {
+                Thread thread = new Thread(runnable, "dns-hedge-timer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            // Most timers are cancelled, as most requests are answered in
+            // time; they shouldn't pile up in the queue until they expire.
+            hedgeTimer.setRemoveOnCancelPolicy(true);
         }
-        return new ResponseGenerator(list,
-                                     request.getIdentifier()).getResponse();
+        return hedgeTimer;
+    }
+
+    /**
+     * Works out how long to wait for the response to a request.
+     * @param request The request.
+     * @return The RTO of its server if that is in the UpstreamPool, or
+     *         TIMEOUT, in ms.
+     */
+    private int timeoutFor(Request request)
+    {
+        UpstreamPool pool = upstreams;
+        UpstreamPool.Upstream upstream = pool == null ? null :
+                pool.find(request.getServerAddress());
+        return upstream == null ? TIMEOUT : upstream.getRto();
     }
 
     /**
-     * Attempts to make a TCP connection and send a TCP DNS request to the
-     * server specified in the parameter Request.
+     * Returns the UdpMultiplexer behind resolveAsync, opening it first if
+     * this is the first asynchronous request.
+     * @return The UdpMultiplexer.
+     * @throws IOException If the multiplexer's channels can't be opened.
+     */
+    private synchronized UdpMultiplexer getMultiplexer() throws IOException
+    {
+        if (null == multiplexer)
+            multiplexer = new UdpMultiplexer(UDP_CHANNELS, TIMEOUT,
+                                             MAX_UDP_BUFF);
+        return multiplexer;
+    }
+
+    /**
+     * Sends a TCP DNS request to the server specified in the parameter
+     * Request. Connections are pooled: they are kept open between requests,
+     * and shared by requests made at the same time. A recursive request for
+     * a question already being asked over TCP waits for that answer instead
+     * of being sent.
      * @param request The request to send to the DNS server.
      * @return The Response object generated from a successful DNS request.
      * @throws IOException Socket and Socket Timeout exceptions, as well as
@@ -93,40 +451,463 @@ public class Resolver
      */
     public Response makeTcpRequest (Request request) throws IOException
     {
-        List<Byte> list;
-        try (Socket socket = request.getTcpSocket();
-             InputStream in = socket.getInputStream();
-             OutputStream out = socket.getOutputStream())
+        Response cached = fromCache(request);
+        if (cached != null)
+            return cached;
+        if (!request.isRecursionDesired())
+            return sendTcp(request);
+        return tcpFlights.call(CacheKey.of(request), () -> sendTcp(request));
+    }
+
+    /**
+     * Sends a TCP request over a pooled connection and waits for the
+     * response, as makeTcpRequest describes.
+     * @param request The request to send to the DNS server.
+     * @return The Response from the DNS server.
+     * @throws IOException As makeTcpRequest.
+     */
+    private Response sendTcp(Request request) throws IOException
+    {
+        Response response;
+        metrics.recordQuery(request, true);
+        QueryTrace trace = QueryTrace.start(request, true);
+        long start = System.nanoTime();
+        try
+        {
+            response = traced(tcpPool.exchange(request, trace), trace);
+        }
+        catch (NxDomainException nxe)
+        {
+            metrics.recordResult(true, System.nanoTime() - start, nxe);
+            store(request, traced(nxe.getResponse(), trace));
+            throw nxe;
+        }
+        catch (IOException ioe)
+        {
+            metrics.recordResult(true, System.nanoTime() - start, ioe);
+            throw ioe;
+        }
+        metrics.recordResult(true, System.nanoTime() - start, null);
+        store(request, response);
+        return response;
+    }
+
+    /**
+     * Follows the CNAME records of a Response to the records that were asked
+     * for, asking the same server about each target the Response stops at.
+     * Each hop is made over UDP, falling back to TCP if truncated, and is
+     * cached under its own name.
+     * @param request The request that was answered.
+     * @param response The Response to it.
+     * @param maxDepth The most CNAME records to follow; 0 follows none.
+     * @return The Response, with the answers of every hop joined onto it.
+     * @throws IOException NxDomainException if a target does not exist,
+     *                     holding the chain that led there; DnsException if
+     *                     the chain loops or is too long; and the exceptions
+     *                     of each hop.
+     */
+    public Response followCnames(Request request, Response response,
+                                 int maxDepth) throws IOException
+    {
+        CnameChain chain = new CnameChain(request.getName(),
+                                          request.getTypeCode(), maxDepth);
+        DomainName next = chain.add(response);
+        while (next != null)
+        {
+            Request hop = request.forName(next);
+            try
+            {
+                try
+                {
+                    next = chain.add(makeUdpRequest(hop));
+                }
+                catch (TruncatedUdpPacketException tupe)
+                {
+                    next = chain.add(makeTcpRequest(hop));
+                }
+            }
+            catch (NxDomainException nxe)
+            {
+                throw chain.end(nxe);
+            }
+        }
+        return chain.getResponse();
+    }
+
+    /**
+     * Resolves a request, blocking until it is answered: over UDP, asking
+     * again of whichever upstream server is fastest by then each time it
+     * times out, and over TCP if the answer is truncated. This is the way to
+     * resolve a request from a thread of its own, such as one a
+     * QueryExecutor runs it on.
+     *
+     * If stale answers are served, and the cache holds a stale answer to
+     * the request, the request is sent once, asynchronously, and waited on
+     * for no longer than the stale timeout. If no answer comes by then, or
+     * the upstream server fails, the stale answer is returned instead, and
+     * the request goes on in the background for up to TIMEOUT ms, to
+     * replace the stale answer in the cache when it is answered.
+     * @param request The request to resolve.
+     * @param attempts The most times to send it over UDP.
+     * @return The Response.
+     * @throws IOException SocketTimeoutException if every attempt timed out,
+     *                     and the exceptions of makeUdpRequest and
+     *                     makeTcpRequest.
+     */
+    public Response resolve(Request request, int attempts) throws IOException
+    {
+        int timeout = staleTimeout;
+        Response stale = timeout == 0 || !request.isRecursionDesired() ?
+                         null : cache.getStale(CacheKey.of(request));
+        if (stale != null)
+            return resolveOrStale(request, stale, timeout);
+        for (int attempt = 1; ; attempt++)
+        {
+            try
+            {
+                return makeUdpRequest(request);
+            }
+            catch (TruncatedUdpPacketException tue)
+            {
+                return makeTcpRequest(request);
+            }
+            catch (SocketTimeoutException ste)
+            {
+                if (attempt >= attempts)
+                    throw ste;
+                metrics.recordRetry();
+                request = newRequest(request.getName(),
+                        RecordType.nameLookup(request.getTypeCode()));
+            }
+        }
+    }
+
+    /**
+     * Resolves a request that has a stale answer in the cache, falling back
+     * to that answer if the request isn't answered in time, or fails.
+     * @param request The request to resolve.
+     * @param stale The stale answer.
+     * @param timeout How long to wait for a fresh answer, in ms.
+     * @return The fresh Response, or the stale one.
+     * @throws IOException NxDomainException if the name no longer exists.
+     */
+    private Response resolveOrStale(Request request, Response stale,
+                                    int timeout) throws IOException
+    {
+        long deadline = System.nanoTime() +
+                        TimeUnit.MILLISECONDS.toNanos(timeout);
+        // The server gets the full TIMEOUT, not its RTO, as the request is
+        // left to finish in the background if it is slow.
+        CompletableFuture<Response> fresh = udpFlights.callAsync(
+                CacheKey.of(request), () ->
+        {
+            try
+            {
+                return exchange(request, TIMEOUT);
+            }
+            catch (IOException ioe)
+            {
+                return CompletableFuture.failedFuture(ioe);
+            }
+        });
+        try
+        {
+            return fresh.get(timeout, TimeUnit.MILLISECONDS);
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+            if (cause instanceof NxDomainException)
+                throw (NxDomainException) cause;
+            if (cause instanceof TruncatedUdpPacketException &&
+                deadline - System.nanoTime() > 0)
+            {
+                try
+                {
+                    return makeTcpRequest(request);
+                }
+                catch (NxDomainException nxe)
+                {
+                    throw nxe;
+                }
+                catch (IOException ioe)
+                {
+                    // Served stale, like any other failure.
+                }
+            }
+        }
+        catch (TimeoutException te)
+        {
+            // The request goes on, and is cached when it is answered.
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+        staleAnswers.increment();
+        return stale;
+    }
+
+    /**
+     * Turns on serving stale answers, when upstream servers are slow or
+     * failing, from the cache entries kept past their TTLs (RFC 8767).
+     * Only resolve serves them.
+     * @param window How long past its TTL an entry may be served, in
+     *               seconds, or 0 to turn stale answers off.
+     * @param timeout How long resolve waits for a fresh answer before
+     *                serving a stale one, in ms.
+     */
+    public void setServeStale(int window, int timeout)
+    {
+        cache.setStaleWindow(window);
+        this.staleTimeout = window > 0 ? Math.max(timeout, 1) : 0;
+    }
+
+    /**
+     * Returns the number of stale answers resolve has served.
+     * @return The number served.
+     */
+    public long getStaleAnswers()
+    {
+        return staleAnswers.sum();
+    }
+
+    /**
+     * Sets the servers newRequest chooses among.
+     * @param upstreams The servers, or null for none.
+     */
+    public void setUpstreams(UpstreamPool upstreams)
+    {
+        this.upstreams = upstreams;
+    }
+
+    /**
+     * Returns the servers newRequest chooses among, whose statistics can be
+     * read.
+     * @return The UpstreamPool, or null if none has been set.
+     */
+    public UpstreamPool getUpstreams()
+    {
+        return upstreams;
+    }
+
+    /**
+     * Creates a Request for the server in the UpstreamPool that is currently
+     * fastest. Each attempt at a lookup should have a Request of its own, so
+     * that a retry after a timeout goes to another server.
+     * @param name The name to look up.
+     * @param type The type of record to look up.
+     * @return The Request.
+     * @throws UnknownHostException If the name is too long to look up.
+     * @throws IllegalStateException If no UpstreamPool has been set.
+     */
+    public Request newRequest(String name, String type)
+                              throws UnknownHostException
+    {
+        return newRequest(Request.nameOf(name), type);
+    }
+
+    /**
+     * Creates a Request for a name that has already been read, for the
+     * server in the UpstreamPool that is currently fastest.
+     * @param name The name to look up.
+     * @param type The type of record to look up.
+     * @return The Request.
+     * @throws UnknownHostException Never, as the servers were already found.
+     * @throws IllegalStateException If no UpstreamPool has been set.
+     */
+    public Request newRequest(DomainName name, String type)
+                              throws UnknownHostException
+    {
+        UpstreamPool pool = upstreams;
+        if (pool == null)
+            throw new IllegalStateException("No upstream servers set");
+        return pool.choose().request(name, type);
+    }
+
+    /**
+     * Records a UDP exchange in the Metrics, and updates the statistics of
+     * the upstream server it went to, if it is in the UpstreamPool. A
+     * response counts towards its round trip time even if it says the name
+     * does not exist, or is truncated; anything else is a failure. TCP
+     * exchanges don't update the pool, as they may include opening a
+     * connection.
+     * @param request The request.
+     * @param rtt The time from sending it to receiving the response, or to
+     *            giving up, in ns.
+     * @param failure Why it failed, or null if it succeeded.
+     */
+    private void measure(Request request, long rtt, Throwable failure)
+    {
+        metrics.recordQuery(request, false);
+        metrics.recordResult(false, rtt, failure);
+        UpstreamPool pool = upstreams;
+        UpstreamPool.Upstream upstream = pool == null ? null :
+                pool.find(request.getServerAddress());
+        if (upstream == null)
+            return;
+        if (failure == null || failure instanceof NxDomainException ||
+            failure instanceof TruncatedUdpPacketException)
+            upstream.success(rtt);
+        else
+            upstream.failure(rtt);
+    }
+
+    /**
+     * Returns the counters and latency histograms of every query this
+     * Resolver has sent.
+     * @return The Metrics.
+     */
+    public Metrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Returns the pool of TCP connections behind makeTcpRequest.
+     * @return The TcpConnectionPool.
+     */
+    public TcpConnectionPool getTcpPool()
+    {
+        return tcpPool;
+    }
+
+    /**
+     * Looks a request up in the cache. A cached answer saying that the name
+     * does not exist is thrown again, just as it was when first received.
+     *
+     * The cache holds what servers said when asked to recurse. A request
+     * without recursion desired asks what one server holds itself, which
+     * may be only a referral, so it is never answered from the cache.
+     * @param request The request to look up.
+     * @return The cached Response, or null if there isn't one.
+     * @throws NxDomainException If the cache knows the name does not exist.
+     */
+    private Response fromCache(Request request) throws NxDomainException
+    {
+        if (!request.isRecursionDesired())
+            return null;
+        Response cached = cache.get(request);
+        if (cached != null && cached.getRcode() == ResponseGenerator.NXDOMAIN)
+            throw new NxDomainException(cached);
+        return cached;
+    }
+
+    /**
+     * Parses a response to a request and caches it, whether it is an answer
+     * or a statement that the name does not exist.
+     * @param request The request that was answered.
+     * @param buffer The buffer holding the response.
+     * @param length The length of the response.
+     * @param trace The trace of the request, or null.
+     * @return The parsed Response.
+     * @throws IOException DnsExceptions for malformed or failed responses.
+     */
+    private Response parse(Request request, byte[] buffer, int length,
+                           QueryTrace trace) throws IOException
+    {
+        Response response;
+        try
+        {
+            response = new ResponseGenerator(buffer, length,
+                                              request.getIdentifier(),
+                                              request.isRecursionDesired())
+                                              .getResponse();
+        }
+        catch (NxDomainException nxe)
+        {
+            store(request, traced(nxe.getResponse(), trace));
+            throw nxe;
+        }
+        store(request, traced(response, trace));
+        return response;
+    }
+
+    /**
+     * Caches the Response to a request, unless recursion was not desired,
+     * for the reason fromCache gives.
+     * @param request The request that was answered.
+     * @param response The Response to it.
+     */
+    private void store(Request request, Response response)
+    {
+        if (request.isRecursionDesired())
+            cache.put(request, response);
+    }
+
+    /**
+     * Finishes the trace of a request once its response has been parsed,
+     * attaching it to the Response and recording it in the Metrics.
+     * @param response The parsed Response.
+     * @param trace The trace of the request, or null if it wasn't traced.
+     * @return The Response.
+     */
+    private Response traced(Response response, QueryTrace trace)
+    {
+        if (trace != null)
         {
-            socket.setSoTimeout(TIMEOUT);
-            list = getPrefList();
-            /* Get the RawRequest from Response. */
-            byte[] tcpRequest = request.getRawTcpRequest();
-            /* Make sure that the output stream is flushed. */
-            out.write(tcpRequest);
-            out.flush();
-            socket.shutdownOutput();
-            int count;
-            /* Read bytes from output stream until none are left.*/
-            while((count = in.read())> 0)
-                list.add((byte) count);
-            /* In the event no bytes are read, we throw a new DNS exception
-            *  due to the lack of response. This indicates that TCP DNS requests
-            *  are not available on that server. */
-            if (list.size() == 0)
-                throw new DnsException("TCP Port 83 appears to be" +
-                                       " unresponsive.");
+            trace.end(QueryTrace.Phase.PARSE);
+            response.setTrace(trace);
+            metrics.recordTrace(trace);
         }
-        return new ResponseGenerator(list, request.getIdentifier()).getResponse();
+        return response;
+    }
+
+    /**
+     * Returns the cache consulted before requests go to the network, so its
+     * counters can be read or its contents cleared.
+     * @return The ResponseCache.
+     */
+    public ResponseCache getCache()
+    {
+        return cache;
+    }
+
+    /**
+     * Replaces the cache, as with an OffHeapResponseCache to hold more
+     * entries than the heap comfortably would. The new cache starts empty,
+     * and takes on the old one's Prefetcher and stale window.
+     * @param cache The new cache.
+     */
+    public void setCache(ResponseCache cache)
+    {
+        cache.copySettings(this.cache);
+        this.cache = cache;
     }
 
     /**
-     * Returns the optimal list for sending in to a RequestGenerator.
-     * @return An empty list.
+     * Sets what refreshes popular cache entries before they expire.
+     * @param prefetcher The Prefetcher, or null to stop refreshing entries.
+     * @param refreshAt The share of its TTL, between 0 and 1, an entry uses
+     *                  up before it is refreshed.
+     * @param refreshHits The hits an entry needs before it is refreshed.
      */
-    private List<Byte> getPrefList()
+    public void setPrefetcher(Prefetcher prefetcher, double refreshAt,
+                              int refreshHits)
     {
-        return new ArrayList<>();
+        cache.setRefresher(prefetcher, refreshAt, refreshHits);
+        this.prefetcher = prefetcher;
+    }
+
+    /**
+     * Returns what refreshes popular cache entries, so its counters can be
+     * read.
+     * @return The Prefetcher, or null if entries aren't refreshed.
+     */
+    public Prefetcher getPrefetcher()
+    {
+        return prefetcher;
+    }
+
+    /**
+     * Returns the questions being asked over one transport, so the number
+     * that were coalesced can be read.
+     * @param tcp True for TCP, false for UDP.
+     * @return The SingleFlight table of the transport.
+     */
+    public SingleFlight getFlights(boolean tcp)
+    {
+        return tcp ? tcpFlights : udpFlights;
     }
 
     /**
@@ -149,7 +930,7 @@ public class Resolver
      * ResponseGenerator. This class may be improved later to include other
      * parts of the DNS packet.
      */
-    public class Response
+    public static class Response
     {
         /** List of Queries from the "Query" section of the DNS packet. */
         private List<Record> queries;
@@ -159,18 +940,95 @@ public class Resolver
         private List<Record> authority;
         /** List of Records from the "Additional" section of a DNS packet. */
         private List<Record> additional;
+        /** The RCODE from the header of the DNS packet. */
+        private int rcode;
+        /** The OPT pseudo-record the server sent, or null. */
+        private OPTRecord opt;
+        /** How long each phase of the request took, if it was traced. */
+        private QueryTrace trace;
+
+        /**
+         * Protected constructor. Only ResponseGenerator, the cache and
+         * CnameChain should call this.
+         * @param answers The List from the "Answers" section of the DNS packet.
+         * @param rcode The RCODE from the header of the DNS packet.
+         */
+        protected Response(List<Record> queries, List<Record> answers,
+                           List<Record> authority, List<Record> additional,
+                           int rcode)
+        {
+            this(queries, answers, authority, additional, rcode, null);
+        }
 
         /**
-         * Protected constructor. Only ResponseGenerator should call this.
+         * Protected constructor for Responses to requests that used EDNS(0).
          * @param answers The List from the "Answers" section of the DNS packet.
+         * @param rcode The RCODE from the header of the DNS packet.
+         * @param opt The OPT pseudo-record the server sent, or null.
          */
         protected Response(List<Record> queries, List<Record> answers,
-                           List<Record> authority, List<Record> additional)
+                           List<Record> authority, List<Record> additional,
+                           int rcode, OPTRecord opt)
         {
             this.queries   = queries;
             this.answers   = answers;
             this.authority = authority;
             this.additional = additional;
+            this.rcode     = rcode;
+            this.opt       = opt;
+        }
+
+        /**
+         * Returns how long each phase of the request took, from encoding it
+         * to parsing this Response, and formatting it if that has been
+         * done. Responses from the cache have none.
+         * @return The trace, or null if the request wasn't traced.
+         */
+        public QueryTrace getTrace()
+        {
+            return trace;
+        }
+
+        /**
+         * Attaches the trace of the request this Response answers.
+         * @param trace The trace.
+         */
+        protected void setTrace(QueryTrace trace)
+        {
+            this.trace = trace;
+        }
+
+        /**
+         * Returns this Response without its trace, for handing to callers
+         * other than the one whose request was traced.
+         * @return This Response if it has no trace, or else a copy without.
+         */
+        protected Response withoutTrace()
+        {
+            if (trace == null)
+                return this;
+            return new Response(queries, answers, authority, additional,
+                                rcode, opt);
+        }
+
+        /**
+         * Returns the OPT pseudo-record the server sent, which says how large
+         * a UDP payload it will accept.
+         * @return The OPT record, or null if the server didn't send one.
+         */
+        public OPTRecord getOpt()
+        {
+            return opt;
+        }
+
+        /**
+         * Returns the RCODE of this Response. Only NOERROR and NXDOMAIN
+         * Responses are ever created.
+         * @return The RCODE.
+         */
+        public int getRcode()
+        {
+            return rcode;
         }
 
         /**
@@ -200,9 +1058,11 @@ public class Resolver
 
     /**
      * Creates an intermediate object that makes a single Response out of a
-     * response from a DNS request.
+     * response from a DNS request. The packet is decoded in place from the
+     * byte array it was received into, using offset as a cursor, so the only
+     * objects created are the Records themselves and their lists.
      */
-    protected class ResponseGenerator
+    protected static class ResponseGenerator
     {
         /** The length of a DNS header. */
         public final static int HEADER_LEN         = 12;
@@ -216,6 +1076,8 @@ public class Resolver
         public final static int FOUR_BYTES         = 4;
         /** The size of the extra data after a SOA Record. */
         public final static int SOA_DATA           = 20;
+        /** The longest domain name, in bytes, allowed by RFC 1035. */
+        public final static int MAX_NAME_LEN       = 255;
 
         /** The location, in a DNS packet array, of the RA, TA, and QR fields.*/
         public final static int RA_TA_QR_INDEX     = 2;
@@ -245,11 +1107,17 @@ public class Resolver
         /** Acceptable byte configuration of the QR_and_RR field. This is
          * both the mask, and the configuration.*/
         public final static byte QR_AND_RR         = (byte) 0b10000001;
-        /** This is the mask for the RA and RCODE fields. This must be applied
-         *  before compared to the optimal configuration. */
-        public final static byte RA_AND_RCODE_MASK = (byte) 0b10001111;
-        /** Acceptable configuration of RA and RCODE. */
-        public final static byte RA_AND_RCODE      = (byte) 0b10000000;
+        /** Mask/Configuration for the QR bit alone, which is all a response
+         *  to a request without recursion desired must have set. */
+        public final static byte QR                = (byte) 0b10000000;
+        /** Mask/Configuration for the recursion available bit. */
+        public final static byte RA                = (byte) 0b10000000;
+        /** This is the mask for the RCODE field. */
+        public final static byte RCODE_MASK        = (byte) 0b00001111;
+        /** The RCODE of a response without errors. */
+        public final static int NOERROR            = 0;
+        /** The RCODE of a response saying the domain name does not exist. */
+        public final static int NXDOMAIN           = 3;
         /** Mask/Configuration for the truncaiton bit. We will throw a
          * truncated packet exception if this is set. */
         public final static byte TA                = (byte) 0b00000010;
@@ -263,17 +1131,24 @@ public class Resolver
          *  packet.*/
         private int offset;
         /** The buffer containing the DNS information. */
-        private List<Byte> buff;
+        private byte[] buff;
+        /** The number of bytes in buff that belong to the DNS packet. */
+        private int length;
+        /** Scratch space that names are gathered into. */
+        private byte[] nameBuff;
         /** The response we are generating. */
         private Response response;
+        /** The OPT pseudo-record from the additional section, if any. */
+        private OPTRecord opt;
 
         /**
          * ResponseGenerators should only be created by DNSResolver. This
          * constructor does some small error checking to ensure that the DNS
          * packet received is acceptable for parsing, and then parses through
-         * it to build a Response. If an invalid buffer is sent in, the results
-         * would be undefined.
+         * it to build a Response. Malformed packets that would run past the
+         * end of the buffer result in a DnsException.
          * @param buffer The Buffer from a DNS Packet.
+         * @param length The number of bytes in buffer belonging to the packet.
          * @param identifier The identifier from the request. This is used for
          *                   error checking, to verify this response has the
          *                   same ID as the one we sent in.
@@ -281,52 +1156,97 @@ public class Resolver
          *                     could be thrown due to malformed response
          *                     packets.
          */
-        private ResponseGenerator (List<Byte> buffer, byte[] identifier)
-                                   throws IOException
+        protected ResponseGenerator (byte[] buffer, int length,
+                                     byte[] identifier) throws IOException
+        {
+            this(buffer, length, identifier, true);
+        }
+
+        /**
+         * Parses the response to a request that may not have asked for
+         * recursion. Servers answering such requests, such as the
+         * authoritative servers an IterativeResolver asks, needn't set RD or
+         * RA, so only QR is required of them.
+         * @param buffer The Buffer from a DNS Packet.
+         * @param length The number of bytes in buffer belonging to the packet.
+         * @param identifier The identifier from the request.
+         * @param recursive Whether the request had recursion desired set.
+         * @throws IOException DnsExceptions and TruncatedPacketExceptions that
+         *                     could be thrown due to malformed response
+         *                     packets.
+         */
+        protected ResponseGenerator (byte[] buffer, int length,
+                                     byte[] identifier, boolean recursive)
+                                     throws IOException
         {
             this.buff = buffer;
-            List<Byte> id = buffer.subList(0, TWO_BYTES);
-            int qrOpAaTcRd = buffer.get(RA_TA_QR_INDEX);
-            int raZRcode = buffer.get(RCODE_INDEX);
+            this.length = length;
+            this.nameBuff = new byte[MAX_NAME_LEN];
+            require(0, HEADER_LEN);
+            int qrOpAaTcRd = buffer[RA_TA_QR_INDEX];
+            int raZRcode = buffer[RCODE_INDEX];
             // Extract the values from these fields and converting them into
             // valid numbers.
 
             //The number of question fields.
-            int qdCount = Util.bytesToShort(buffer.get(QDCODE_INDEX1),
-                                            buffer.get(QDCODE_INDEX2));
+            int qdCount = extractCount(QDCODE_INDEX1, QDCODE_INDEX2);
             // The number of Answer fields.
-            int anCount = Util.bytesToShort(buffer.get(ANCOUNT_INDEX1),
-                                            buffer.get(ANCOUNT_INDEX2));
-            int atCount = Util.bytesToShort(buffer.get(ATCOUNT_INDEX1),
-                                            buffer.get(ATCOUNT_INDEX2));
-            int adCount = Util.bytesToShort(buffer.get(ADCOUNT_INDEX1),
-                                            buffer.get(ADCOUNT_INDEX2));
-
-            verifyInput(id, identifier, qrOpAaTcRd, raZRcode);
+            int anCount = extractCount(ANCOUNT_INDEX1, ANCOUNT_INDEX2);
+            int atCount = extractCount(ATCOUNT_INDEX1, ATCOUNT_INDEX2);
+            int adCount = extractCount(ADCOUNT_INDEX1, ADCOUNT_INDEX2);
+
+            int rcode = raZRcode & RCODE_MASK;
+
+            verifyInput(identifier, qrOpAaTcRd, raZRcode, rcode, recursive);
             // Skip over the first 12 indexes as they are part of the header.
             offset = HEADER_LEN;
-            response = new Response(getQueries(qdCount), makeAnswers(anCount),
-                                    makeAuthority(atCount),
-                                    makeAdditional(adCount));
+            List<Record> queries = getQueries(qdCount);
+            List<Record> answers = makeAnswers(anCount);
+            List<Record> authority = makeAuthority(atCount);
+            List<Record> additional = makeAdditional(adCount);
+            if (opt != null && opt.getExtendedRcode() != 0)
+            {
+                throw new RcodeException(opt.getFullRcode(rcode));
+            }
+            response = new Response(queries, answers, authority, additional,
+                                    rcode, opt);
+            // The rest of an NXDOMAIN response is still read, as it holds the
+            // SOA that says how long the answer may be cached for.
+            if (rcode == NXDOMAIN)
+                throw new NxDomainException(response);
         }
 
-        private List<Record> makeAdditional(int adCount)
+        private List<Record> makeAdditional(int adCount) throws DnsException
         {
             return makeAnswers(adCount);
         }
 
         /**
-         * This section calculates the offset increase we need to make to
-         * skip over the "Question" Section of the response packet.
-         * @param qdCount The number of questions to skip over.
+         * Reads one of the unsigned two-byte section counts from the header.
+         * @param index1 The index of the high byte.
+         * @param index2 The index of the low byte.
+         * @return The count, as a non-negative int.
          */
-        private List<Record> getQueries(int qdCount)
+        private int extractCount(int index1, int index2)
         {
-            List<Record> queries = new LinkedList<>();
+            return Util.unsignShortToInt(Util.bytesToShort(buff[index1],
+                                                           buff[index2]));
+        }
+
+        /**
+         * This section builds the Query records from the "Question" section
+         * of the response packet, moving the offset past it.
+         * @param qdCount The number of questions to read.
+         * @return The list of Query records.
+         * @throws DnsException If the section runs past the end of the packet.
+         */
+        private List<Record> getQueries(int qdCount) throws DnsException
+        {
+            List<Record> queries = new ArrayList<>(qdCount);
             for (int i = 0; i < qdCount; i++)
             {
-                String name = formatDomainName(extractDomainField(offset));
-                RecordType type = extractRecordType();
+                DomainName name = extractDomainName();
+                short type = extractTypeCode();
                 short classType = extractClassType();
                 queries.add(Record.recordFactory(name, type, classType,
                                                  (short) QUERY_TTL, null));
@@ -335,15 +1255,16 @@ public class Resolver
         }
 
         /**
-         * Extracts and the next two bytes and performs a type lookup.
-         * They should be the RD length if this is being called.
-         * @return The RDlength for the current record.
+         * Extracts and returns the next two bytes. They should be the record
+         * type if this is being called.
+         * @return The type code of the current record.
+         * @throws DnsException If the field runs past the end of the packet.
          */
-        private RecordType extractRecordType()
+        private short extractTypeCode() throws DnsException
         {
-            RecordType type = RecordType.reverseTypeLookup(
-                              Util.bytesToShort(buff.get(offset),
-                              buff.get(offset + ONE_BYTE)));
+            require(offset, TWO_BYTES);
+            short type = Util.bytesToShort(buff[offset],
+                                           buff[offset + ONE_BYTE]);
             offset += TWO_BYTES;
             return type;
         }
@@ -352,37 +1273,30 @@ public class Resolver
          * Extracts and returns the next two bytes. They should be the class
          * type if this is being called.
          * @return The class type for the current record.
+         * @throws DnsException If the field runs past the end of the packet.
          */
-        private short extractClassType()
+        private short extractClassType() throws DnsException
         {
-            short classType = Util.bytesToShort(buff.get(offset),
-                                                buff.get(offset + ONE_BYTE));
+            require(offset, TWO_BYTES);
+            short classType = Util.bytesToShort(buff[offset],
+                                                buff[offset + ONE_BYTE]);
             offset += TWO_BYTES;
             return classType;
         }
 
-        /**
-         * Converts the bytes in the list into a domain name.
-         * @param bytes The domain name in a list of bytes.
-         * @return The string form of the domain name.
-         */
-        private String formatDomainName(List<Byte> bytes)
-        {
-            return new String(Util.unboxBytes(bytes),
-                             StandardCharsets.UTF_8);
-        }
-
         /**
          * Extracts and returns the next four bytes. They should be the TTL
          * if this is being called.
          * @return The TTL for the current record.
+         * @throws DnsException If the field runs past the end of the packet.
          */
-        private int extractTtl()
+        private int extractTtl() throws DnsException
         {
-            int ttl = Util.bytesToInt(buff.get(offset),
-                                      buff.get(offset + ONE_BYTE),
-                                      buff.get(offset + TWO_BYTES),
-                                      buff.get(offset + THREE_BYTES));
+            require(offset, FOUR_BYTES);
+            int ttl = Util.bytesToInt(buff[offset],
+                                      buff[offset + ONE_BYTE],
+                                      buff[offset + TWO_BYTES],
+                                      buff[offset + THREE_BYTES]);
             offset += FOUR_BYTES;
             return ttl;
         }
@@ -391,11 +1305,14 @@ public class Resolver
          * Extracts and returns the next two bytes. They should be the RD
          * length if this is being called.
          * @return The RDlength for the current record.
+         * @throws DnsException If the field runs past the end of the packet.
          */
-        private short extractRdLength()
+        private int extractRdLength() throws DnsException
         {
-            short rdLen = Util.bytesToShort(buff.get(offset),
-                                            buff.get(offset + ONE_BYTE));
+            require(offset, TWO_BYTES);
+            int rdLen = Util.unsignShortToInt(
+                        Util.bytesToShort(buff[offset],
+                                          buff[offset + ONE_BYTE]));
             offset += TWO_BYTES;
             return rdLen;
         }
@@ -414,28 +1331,37 @@ public class Resolver
         /**
          * This method checks over the header information and tries to verify
          * that we know how to understand it.
-         * @param id The identifier that the DNS packet is expected to have.
-         * @param identifier The actual identifier from the header.
+         * @param identifier The identifier the DNS packet is expected to have.
          * @param qrOpAaTcRd The value of the qr opcode, AA, Truncated, and
          *                   Recursion Desired fields from the DNS packet.
          * @param raZRcode The recursion available, Z, and Rcode fields from
          *                 the DNS packet.
+         * @param rcode The Rcode field from the DNS packet. NXDOMAIN is
+         *              accepted here, so that the rest of the packet is read.
+         * @param recursive Whether the request asked for recursion, in which
+         *                  case RD and RA must be set as well as QR.
          * @throws IOException Could throw a DNSException if the packet is
-         *                     malformed or we can not handle it.
+         *                     malformed or we can not handle it, or an
+         *                     RcodeException if its RCODE is an error.
          *                     TruncatedPacketException will be thrown if the
          *                     packet is Truncated.
          */
-        private void verifyInput(List<Byte> id, byte[] identifier,
-                                 int qrOpAaTcRd, int raZRcode)
-                throws IOException
-        {
-            if (!(id.get(0).equals(identifier[0]) &&
-                  id.get(1).equals(identifier[1]) &&
-                  ((qrOpAaTcRd & QR_AND_RR) == QR_AND_RR) &&
-                  ((raZRcode & RA_AND_RCODE_MASK) == RA_AND_RCODE)))
+        private void verifyInput(byte[] identifier, int qrOpAaTcRd,
+                                 int raZRcode, int rcode, boolean recursive)
+                                 throws IOException
+        {
+            byte flags = recursive ? QR_AND_RR : QR;
+            if (!(buff[0] == identifier[0] &&
+                  buff[1] == identifier[1] &&
+                  ((qrOpAaTcRd & flags) == flags) &&
+                  (!recursive || (raZRcode & RA) == RA)))
             {
                 throw new DnsException("Error in Response from DNS Server");
             }
+            if (rcode != NOERROR && rcode != NXDOMAIN)
+            {
+                throw new RcodeException(rcode);
+            }
             if ((qrOpAaTcRd & TA) == TA)
             {
                 throw new TruncatedUdpPacketException("Packet response from" +
@@ -444,195 +1370,239 @@ public class Resolver
             }
         }
 
+        /**
+         * Sets aside the OPT pseudo-record, which describes the message
+         * rather than any name in it, so it stays out of the additional
+         * section.
+         * @param record The OPT record.
+         * @throws DnsException If the message holds more than one.
+         */
+        private void takeOpt(OPTRecord record) throws DnsException
+        {
+            if (opt != null)
+            {
+                throw new DnsException("Error in Response from DNS Server: " +
+                                       "more than one OPT record");
+            }
+            opt = record;
+        }
+
         /**
          * Abstracted method that currently uses the same solution as
          * makeAnswers.
          * @param atCount The number of authority records to search for.
          * @return The List of authority records.
+         * @throws DnsException If the section runs past the end of the packet.
          */
-        private List<Record> makeAuthority(int atCount)
+        private List<Record> makeAuthority(int atCount) throws DnsException
         {
             return this.makeAnswers(atCount);
         }
 
         /**
-         * This method pulls the "Answer" section from the DNS packet. It will
-         * also generate a response, as currently the Answers section is the
-         * only section we include.
+         * This method pulls a section of resource records from the DNS
+         * packet. Records of types RecordType doesn't name are kept, with
+         * their RDATA as it is, so they can be passed on.
          * @param anCount The number of answers to search for.
          * @return The list of answer records generated by this object.
+         * @throws DnsException If the section runs past the end of the packet.
          */
-        private List<Record> makeAnswers(int anCount)
+        private List<Record> makeAnswers(int anCount) throws DnsException
         {
-            List<Record> list = new LinkedList<>();
+            List<Record> list = new ArrayList<>(anCount);
             for (int i = 0; i < anCount; i++)
             {
-                boolean valid = true;
-                List<Byte> temp = extractDomainField(offset);
-                String name = formatDomainName(temp);
-                RecordType type = null;
-                type = extractRecordType();
-                if (type == null)
-                {
-                    System.err.println("Invalid record type detected. " +
-                                       "Skipping this record. \n");
-                    valid = false;
-                }
+                DomainName name = extractDomainName();
+                short typeCode = extractTypeCode();
                 short classType = extractClassType();
                 int ttl = extractTtl();
-                short rdlength = extractRdLength();
-                List<Byte> rdata = new LinkedList<Byte>();
-                rdlength = ifMX(type, rdata, rdlength);
-                if (valid && type.isRdataExpandable())
-                    rdata.addAll(extractDomainField(offset));
+                int rdlength = extractRdLength();
+                require(offset, rdlength);
+                int rdEnd = offset + rdlength;
+                RecordType type = RecordType.reverseTypeLookup(typeCode);
+                byte[] rdata = type != null && type.isRdataExpandable() ?
+                               expandRdata(type) :
+                               Arrays.copyOfRange(buff, offset, rdEnd);
+                Record record = Record.recordFactory(name, typeCode,
+                                                     classType, ttl, rdata);
+                if (record instanceof OPTRecord)
+                    takeOpt((OPTRecord) record);
                 else
-                {
-                    rdata.addAll(buff.subList(offset, offset + rdlength));
-                    offset += rdlength;
-                }
-                this.ifSOA(type, rdata);
-                // We subtract off rdlength so that we don't accidently incur
-                //an increase in offset by calling the expandRdata method.
-                if (valid)
-                    list.add(Record.recordFactory(name, type, classType,
-                                                  ttl, rdata));
+                    list.add(record);
+                // RDLENGTH says where the next record starts, however much of
+                // the RDATA was read while expanding it.
+                offset = rdEnd;
             }
-            // Removes all null elements from this list. Null elements will be
-            // returned if record type is not supported.
-            while (list.remove(null));
             return list;
         }
 
         /**
-         * Special case for mx record.
+         * Builds the RDATA for a record whose RDATA contains domain names.
+         * The names are copied in wire format with any pointers followed,
+         * so the RDATA can be read, and written again, without the rest of
+         * the packet. Bytes that aren't names are copied as they are.
+         * @param type The type of the current record.
+         * @return The RDATA, with its names uncompressed.
+         * @throws DnsException If the RDATA runs past the end of the packet.
+         */
+        private byte[] expandRdata(RecordType type) throws DnsException
+        {
+            int prefix = ifMX(type);
+            int nameOff = offset + prefix;
+            int len = copyWireName(nameOff, 0);
+            if (type == RecordType.SOA)
+                return soaRdata(nameOff, len);
+            byte[] rdata = new byte[prefix + len];
+            System.arraycopy(buff, offset, rdata, 0, prefix);
+            System.arraycopy(nameBuff, 0, rdata, prefix, len);
+            return rdata;
+        }
+
+        /**
+         * Special case for mx record, whose RDATA starts with a preference
+         * that is kept as-is ahead of the exchange name.
          * @param type To check if it's the MX record type.
-         * @param rdata The rdata to add to, in the event that it is an MX r
-         *              record.
-         * @param rdlength The current length, to be modified and returned.
-         * @return The possibly modified RD length.
+         * @return The number of bytes before the domain name in the RDATA.
+         * @throws DnsException If the preference runs past the end of the
+         *                      packet.
          */
-        public short ifMX(RecordType type, List<Byte> rdata, short rdlength)
+        public int ifMX(RecordType type) throws DnsException
         {
+            int prefix = 0;
             if (type == RecordType.MX)
             {
-                rdata.add(buff.get(offset));
-                rdata.add(buff.get(offset + ONE_BYTE));
-                offset += TWO_BYTES;
-                rdlength -= TWO_BYTES;
+                require(offset, MXRecord.PRIORITY_SIZE);
+                prefix = MXRecord.PRIORITY_SIZE;
             }
-            return rdlength;
+            return prefix;
         }
 
         /**
-         * Special case for a Source of Authority Record.
-         * @param type Relevant only if SOA record.
-         * @param rdata The rdata to add special things to if we have a
-         *              SOA record.
+         * Special case for a Source of Authority Record, whose RDATA holds
+         * the primary name server and the mailbox name, then the five SOA
+         * integers, which are copied as they are.
+         * @param nameOff The offset of the primary name server in the
+         *                packet.
+         * @param nameLen The length of the primary name server, which is in
+         *                nameBuff.
+         * @return The RDATA, with both names uncompressed.
+         * @throws DnsException If the RDATA runs past the end of the packet.
          */
-        public void ifSOA(RecordType type, List<Byte> rdata)
+        private byte[] soaRdata(int nameOff, int nameLen) throws DnsException
         {
-            if (type == RecordType.SOA)
-            {
-                rdata.add((byte) '\t');
-                rdata.addAll(extractDomainField(offset));
-                rdata.addAll(buff.subList(offset, offset + SOA_DATA));
-            }
+            byte[] mname = Arrays.copyOf(nameBuff, nameLen);
+            int mailOff = skipDomainField(nameOff);
+            int mailLen = copyWireName(mailOff, 0);
+            int dataOff = skipDomainField(mailOff);
+            require(dataOff, SOA_DATA);
+            byte[] rdata = new byte[nameLen + mailLen + SOA_DATA];
+            System.arraycopy(mname, 0, rdata, 0, nameLen);
+            System.arraycopy(nameBuff, 0, rdata, nameLen, mailLen);
+            System.arraycopy(buff, dataOff, rdata, nameLen + mailLen,
+                             SOA_DATA);
+            return rdata;
         }
 
+        /**
+         * Reads the domain name at the current offset, and moves the offset
+         * past it. The labels are gathered into nameBuff in wire format,
+         * following any pointers, so only the final DomainName is created.
+         * @return The domain name.
+         * @throws DnsException If the name is malformed.
+         */
+        protected DomainName extractDomainName() throws DnsException
+        {
+            int len = copyWireName(offset, 0);
+            offset = skipDomainField(offset);
+            return DomainName.fromWire(nameBuff, 0, len);
+        }
 
         /**
-         * Helper method used to extract domain fields from fields that could
-         * contain DNS fields. This is done because these fields require
-         * interpretation to put into a true, readable format, and also because
-         * some Domain names contain pointers which require unravelling. This
-         * must be handled carefully, so as not to overzealously increment our
-         * offset counter when examining pointers. In the event the first two
-         * bits of a byte in a Domain Name are 11, then it is a pointer.
-         * @param tempOffset The current offset to extract teh domain name from.
-         * @return Returns the Domain name in byte form, with '.' characters
-         *         added in appropriate locations.
+         * Copies the labels of the domain name starting at tempOff into
+         * nameBuff, each after its length, and ends them with a 0 length.
+         * @param tempOff The offset the domain name starts at.
+         * @param destPos The position in nameBuff to start writing at.
+         * @return The position in nameBuff after the 0 length.
+         * @throws DnsException If the name is malformed, or too long.
          */
-        protected List<Byte> extractDomainField(int tempOffset)
+        private int copyWireName(int tempOff, int destPos)
+                throws DnsException
         {
-            List<Byte> field = new LinkedList<>();
-            field = followLabel(tempOffset, field);
-            // Removes extra period from the end. Much simpler than trying
-            // to prevent it from getting placed at all.
-            field.remove(field.size() - 1);
-            return field;
+            int newOff = tempOff;
+            require(newOff, ONE_BYTE);
+            while (buff[newOff] != 0)
+            {
+                if ((buff[newOff] & DNS_PTR) == DNS_PTR)
+                    return copyWireName(pointerTarget(newOff, tempOff),
+                                        destPos);
+                if ((buff[newOff] & DNS_PTR) != 0)
+                    throw new DnsException("Unsupported label type in DNS " +
+                                           "Response.");
+                int size = ONE_BYTE + buff[newOff];
+                require(newOff, size + ONE_BYTE);
+                // Room must be left for the 0 length that ends the name.
+                if (destPos + size >= nameBuff.length)
+                    throw new DnsException("Domain name in DNS Response is " +
+                                           "too long.");
+                System.arraycopy(buff, newOff, nameBuff, destPos, size);
+                destPos += size;
+                newOff += size;
+            }
+            nameBuff[destPos] = 0;
+            return destPos + ONE_BYTE;
         }
 
         /**
-         * This method is called when a PTR is encountered. It extracts the
-         * offset contained by the ptr. If necessary, it increases the global
-         * offset, and then calls Label to attempt to read the next label.
-         * @param tempOff The current offset we are assuming.
-         * @param field The domain field we are unravelling.
-         * @return The list of bytes containing the domain name.
+         * Finds where the domain name starting at tempOff ends in the packet.
+         * A pointer always ends a name, so it is not followed.
+         * @param tempOff The offset the domain name starts at.
+         * @return The offset of the first byte after the name.
+         * @throws DnsException If the name runs past the end of the packet.
          */
-        private List<Byte> followPointer(int tempOff, List<Byte> field)
-        {
-            short ptr = Util.bytesToShort((byte) (buff.get(tempOff) &
-                                          DNS_PTR_OFF), buff.get(tempOff + 1));
-            assert ptr < offset : "Pointer exceeds offset";
-            // If we are working from the top of the list, increase the offset
-            // by two.
-            if (this.offset == tempOff)
+        private int skipDomainField(int tempOff) throws DnsException
+        {
+            require(tempOff, ONE_BYTE);
+            while (buff[tempOff] != 0 && (buff[tempOff] & DNS_PTR) != DNS_PTR)
             {
-                this.offset += TWO_BYTES;
+                tempOff += ONE_BYTE + Util.unsignByteToShort(buff[tempOff]);
+                require(tempOff, ONE_BYTE);
             }
-            return followLabel(ptr, field);
+            return tempOff + (buff[tempOff] == 0 ? ONE_BYTE : TWO_BYTES);
         }
 
         /**
-         * This method attempts to follow a label (domain name) in the buffer
-         * and construct a domain name from it. It is possible that a ptr is
-         * encountered, and handled appropriately.
-         * @param tempOff This is the temporary offset we are working from.
-         * @param field This is the domain name we are building.
-         * @return The list we are building containing the domain name.
+         * Reads the offset a pointer points to, which must be before the
+         * labels that led to it.
+         * @param tempOff The offset of the pointer.
+         * @param limit The offset the labels leading to this pointer began at.
+         * @return The offset pointed to.
+         * @throws DnsException If the pointer is malformed.
          */
-        private List<Byte> followLabel(int tempOff, List<Byte> field)
+        private int pointerTarget(int tempOff, int limit) throws DnsException
         {
-            int newOff = tempOff;
-            int size = 0;
-            boolean recurse = false;
-            int i;
-            do
+            require(tempOff, TWO_BYTES);
+            int ptr = Util.unsignShortToInt(Util.bytesToShort(
+                      (byte) (buff[tempOff] & DNS_PTR_OFF),
+                      buff[tempOff + ONE_BYTE]));
+            if (ptr >= limit)
             {
-                // Check if the "Size" byte is a pointer.
-                if ((buff.get(newOff) & DNS_PTR) == DNS_PTR)
-                {
-                    followPointer(newOff, field);
-                    recurse = true;
-                }
-                else
-                {
-                    size = buff.get(newOff);
-                    newOff += ONE_BYTE;
-                    if (newOff == offset + 1)
-                        offset += 1;
-                    // End if recurse is true. Pointers can only be at the end of a
-                    // label.
-                    for (i = newOff; i < newOff + size && !recurse; i++)
-                        // Check if this byte could be a pointer...
-                        if ((buff.get(i) & DNS_PTR) == DNS_PTR)
-                        {
-                            followPointer(i, field);
-                            recurse = true;
-                        }
-                        // Follow label as usual.
-                        else
-                            field.add(buff.get(i));
-                    if (newOff == offset)
-                        offset += size;
-                    newOff += size;
-                    // Append '.' character if necessary.
-                    if (!recurse && size != 0)
-                        field.add((byte) '.');
-                }
-            } while(!recurse && size != 0);
-            return field;
+                throw new DnsException("Compression pointer in DNS Response " +
+                                       "does not point backwards.");
+            }
+            return ptr;
+        }
+
+        /**
+         * Makes sure that len bytes starting at pos are part of the packet.
+         * @param pos The first byte that is about to be read.
+         * @param len The number of bytes about to be read.
+         * @throws DnsException If the packet ends before pos + len.
+         */
+        private void require(int pos, int len) throws DnsException
+        {
+            if (pos + len > length)
+                throw new DnsException("Malformed Response from DNS Server: " +
+                                       "packet ends unexpectedly.");
         }
     }
 }
@@ -0,0 +1,765 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, in-memory cache of Responses, keyed by the question they answer.
+ * Each entry lives for the smallest TTL among its records. Negative answers,
+ * saying the name does not exist (NXDOMAIN) or has no records of the type
+ * asked for (NODATA), live for the lesser of the TTL and MINIMUM of the SOA
+ * in their authority section, as RFC 2308 describes. Records handed
+ * out on a hit carry the time they have left to live, not the TTL they
+ * arrived with. Lookups never lock. When the cache is full, entries are
+ * examined a few at a time, going round the cache from where the last
+ * eviction stopped: expired entries met along the way are removed, and if
+ * that isn't enough, the one closest to expiring of those examined is
+ * evicted.
+ *
+ * Each entry counts its hits. If a Refresher is set, a hit on an entry
+ * that has been hit often enough, and has used up enough of its TTL, hands
+ * the entry's question to the Refresher, once, to be asked again before the
+ * entry expires. The answer replaces the entry when it is put, and lookups
+ * go on being answered from the old entry until then.
+ *
+ * If a stale window is set, entries are kept that long past their TTLs,
+ * so a stale answer can be served when no fresh one can be had (RFC 8767).
+ * Lookups treat them as expired; only getStale returns them, with every
+ * TTL set to STALE_TTL.
+ *
+ * If a CacheSnapshot is set, a question the cache has no entry for is
+ * looked up in the snapshot too, and an answer found there that has not
+ * expired is restored as an entry, as though it had been put.
+ *
+ * Entries are kept on the heap, as the Responses they were put as. A
+ * subclass may keep them some other way, as OffHeapResponseCache does, by
+ * overriding the methods that get and put them; how long an entry lives,
+ * when it is refreshed and what is counted are left to the protected
+ * methods here.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class ResponseCache
+{
+    /** The number of entries a cache holds by default. */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    /** The longest any entry is kept, in seconds, whatever its TTL says. */
+    public static final int MAX_TTL             = 604800;
+    /** The number of entries examined at a time to choose one to evict. */
+    public static final int EVICTION_SAMPLE     = 8;
+    /** The share of its TTL an entry uses up before it is refreshed, by
+     *  default. */
+    public static final double DEFAULT_REFRESH_AT = 0.8;
+    /** The hits an entry needs before it is refreshed, by default. */
+    public static final int DEFAULT_REFRESH_HITS  = 3;
+    /** The TTL of the records in a stale answer, in seconds (RFC 8767). */
+    public static final int STALE_TTL             = 30;
+    /** How long entries are kept past their TTLs by default when serving
+     *  stale answers, in seconds: a day, as RFC 8767 suggests. */
+    public static final int DEFAULT_STALE_WINDOW  = 86400;
+
+    /**
+     * Asks the question of a popular entry again, before the entry expires.
+     */
+    public interface Refresher
+    {
+        /**
+         * Starts asking a question again, without waiting for the answer,
+         * which is expected to be put in the cache when it comes.
+         * @param key The question.
+         * @return True if it is being asked, false if it can't be now.
+         */
+        boolean refresh(CacheKey key);
+    }
+
+    /**
+     * Is shown each entry of a cache in turn, by forEach.
+     */
+    public interface Visitor
+    {
+        /**
+         * Looks at an entry.
+         * @param key The question it answers.
+         * @param response The Response, with the TTLs it arrived with.
+         * @param stored When it was cached, in System.nanoTime() terms.
+         * @param expires When it expires, in System.nanoTime() terms.
+         */
+        void visit(CacheKey key, Resolver.Response response, long stored,
+                   long expires);
+    }
+
+    /** The entries, by the question they answer. */
+    private final ConcurrentHashMap<CacheKey, CacheEntry> entries;
+    /** The most entries this cache holds. */
+    private final int maxEntries;
+    /** The number of lookups answered from the cache. */
+    private final LongAdder hits;
+    /** The number of those hits that were negative answers. */
+    private final LongAdder negativeHits;
+    /** The number of lookups the cache could not answer. */
+    private final LongAdder misses;
+    /** The number of live entries removed to make room. */
+    private final LongAdder evictions;
+    /** The number of entries removed because their TTL ran out. */
+    private final LongAdder expirations;
+    /** Asks the questions of popular entries again, or null for none. */
+    private volatile Refresher refresher;
+    /** The share of its TTL an entry uses up before it is refreshed. */
+    private volatile double refreshAt;
+    /** The hits an entry needs before it is refreshed. */
+    private volatile int refreshHits;
+    /** How long entries are kept past their TTLs, in ns; 0 for not at
+     *  all. */
+    private volatile long staleWindow;
+    /** The number of stale answers handed out. */
+    private final LongAdder staleHits;
+    /** Entries saved by an earlier run, to fall back on, or null. */
+    private volatile CacheSnapshot snapshot;
+    /** Guards hand, so one thread at a time evicts. */
+    private final ReentrantLock evictLock;
+    /** Where eviction goes on examining entries from, or null before the
+     *  first. */
+    private Iterator<Map.Entry<CacheKey, CacheEntry>> hand;
+
+    /**
+     * Creates an empty cache.
+     * @param maxEntries The most entries this cache holds.
+     */
+    public ResponseCache(int maxEntries)
+    {
+        this.maxEntries  = maxEntries;
+        this.entries     = new ConcurrentHashMap<>();
+        this.hits        = new LongAdder();
+        this.negativeHits = new LongAdder();
+        this.misses      = new LongAdder();
+        this.evictions   = new LongAdder();
+        this.expirations = new LongAdder();
+        this.staleHits   = new LongAdder();
+        this.evictLock   = new ReentrantLock();
+        this.refreshAt   = DEFAULT_REFRESH_AT;
+        this.refreshHits = DEFAULT_REFRESH_HITS;
+    }
+
+    /**
+     * Sets what refreshes popular entries, and when.
+     * @param refresher Asks their questions again, or null to stop
+     *                  refreshing entries.
+     * @param refreshAt The share of its TTL, between 0 and 1, an entry uses
+     *                  up before it is refreshed.
+     * @param refreshHits The hits an entry needs before it is refreshed.
+     */
+    public void setRefresher(Refresher refresher, double refreshAt,
+                             int refreshHits)
+    {
+        if (refreshAt <= 0 || refreshAt > 1)
+            throw new IllegalArgumentException("Refresh point out of " +
+                                               "range: " + refreshAt);
+        this.refreshAt   = refreshAt;
+        this.refreshHits = refreshHits;
+        this.refresher   = refresher;
+    }
+
+    /**
+     * Sets how long entries are kept past their TTLs, to be served stale.
+     * @param seconds The stale window, or 0 to drop entries as soon as they
+     *                expire.
+     */
+    public void setStaleWindow(int seconds)
+    {
+        this.staleWindow = TimeUnit.SECONDS.toNanos(Math.max(seconds, 0));
+    }
+
+    /**
+     * Looks up the answer to a request.
+     * @param request The request to look up.
+     * @return The cached Response with its TTLs counted down, or null.
+     */
+    public Resolver.Response get(Request request)
+    {
+        return get(CacheKey.of(request));
+    }
+
+    /**
+     * Looks up the answer to a question.
+     * @param key The question to look up.
+     * @return The cached Response with its TTLs counted down, or null.
+     */
+    public Resolver.Response get(CacheKey key)
+    {
+        CacheEntry entry = entries.get(key);
+        long now = System.nanoTime();
+        if (entry != null && entry.isExpired(now))
+        {
+            // A stale entry is kept for getStale.
+            if (!entry.isStale(now, staleWindow) &&
+                entries.remove(key, entry))
+                countRemoval(true);
+            entry = null;
+        }
+        if (entry == null)
+            return restore(key);
+        countHit(entry.negative);
+        entry.hits.increment();
+        if (!entry.refreshing.get() &&
+            isDueForRefresh(now, entry.stored, entry.expires,
+                            entry.hits.sum()) &&
+            entry.refreshing.compareAndSet(false, true) && !refresh(key))
+            // Let a later hit try again.
+            entry.refreshing.set(false);
+        return entry.getResponse(now);
+    }
+
+    /**
+     * Lets a later hit on a question's entry hand it to the Refresher
+     * again, as the Refresher asks when a refresh it started fails.
+     * @param key The question.
+     */
+    public void refreshFailed(CacheKey key)
+    {
+        CacheEntry entry = entries.get(key);
+        if (entry != null)
+            entry.refreshing.set(false);
+    }
+
+    /**
+     * Checks if an entry should be refreshed: a Refresher is set, and the
+     * entry has been hit often enough and has used up enough of its TTL.
+     * @param now The current System.nanoTime().
+     * @param stored When the entry was cached.
+     * @param expires When the entry expires.
+     * @param entryHits The lookups the entry has answered.
+     * @return True if it should be refreshed.
+     */
+    protected boolean isDueForRefresh(long now, long stored, long expires,
+                                      long entryHits)
+    {
+        return refresher != null &&
+               now - stored >= (long) ((expires - stored) * refreshAt) &&
+               entryHits >= refreshHits;
+    }
+
+    /**
+     * Hands an entry's question to the Refresher.
+     * @param key The question.
+     * @return True if it is being asked again.
+     */
+    protected boolean refresh(CacheKey key)
+    {
+        Refresher current = refresher;
+        return current != null && current.refresh(key);
+    }
+
+    /**
+     * Answers a lookup the cache has no entry for from the snapshot, if
+     * there is one, restoring the entry found there. Counts the lookup as
+     * a hit if it is answered, or a miss if it is not.
+     * @param key The question looked up.
+     * @return The Response with its TTLs counted down, or null.
+     */
+    protected Resolver.Response restore(CacheKey key)
+    {
+        CacheSnapshot current = snapshot;
+        Resolver.Response response = current == null ? null :
+                                     current.restore(key, this);
+        if (response == null)
+            countMiss();
+        else
+            countHit(isNegative(response));
+        return response;
+    }
+
+    /**
+     * Sets the snapshot to fall back on when the cache has no entry.
+     * @param snapshot The snapshot, or null for none.
+     */
+    public void setSnapshot(CacheSnapshot snapshot)
+    {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Getter for snapshot.
+     * @return The snapshot fallen back on, or null if there is none.
+     */
+    public CacheSnapshot getSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Takes on another cache's Refresher, stale window and snapshot, as
+     * when this cache replaces it.
+     * @param other The cache replaced.
+     */
+    protected void copySettings(ResponseCache other)
+    {
+        this.refreshAt   = other.refreshAt;
+        this.refreshHits = other.refreshHits;
+        this.refresher   = other.refresher;
+        this.staleWindow = other.staleWindow;
+        this.snapshot    = other.snapshot;
+    }
+
+    /**
+     * Getter for staleWindow.
+     * @return How long entries are kept past their TTLs, in ns; 0 for not
+     *         at all.
+     */
+    protected long getStaleWindow()
+    {
+        return staleWindow;
+    }
+
+    /**
+     * Looks up a stale answer to a question: one whose TTL has run out, but
+     * that is still within the stale window.
+     * @param key The question to look up.
+     * @return The stale Response, with every TTL set to STALE_TTL, or null
+     *         if there is none, or the answer cached is still fresh.
+     */
+    public Resolver.Response getStale(CacheKey key)
+    {
+        CacheEntry entry = entries.get(key);
+        long now = System.nanoTime();
+        if (entry == null || !entry.isExpired(now) ||
+            !entry.isStale(now, staleWindow))
+            return null;
+        countStaleHit();
+        return entry.getStaleResponse();
+    }
+
+    /**
+     * Caches the Response to a request, if it can be cached.
+     * @param request The request that was answered.
+     * @param response The Response to it.
+     */
+    public void put(Request request, Resolver.Response response)
+    {
+        put(CacheKey.of(request), response);
+    }
+
+    /**
+     * Caches the Response to a question. Negative answers without an SOA
+     * record, and Responses whose TTL works out to zero, are not cached.
+     * A Response with a QueryTrace is cached without it, as the trace
+     * describes only the query that fetched it.
+     * @param key The question that was answered.
+     * @param response The Response to it.
+     */
+    public void put(CacheKey key, Resolver.Response response)
+    {
+        int ttl = isNegative(response) ? negativeTtl(response) :
+                                         minimumTtl(response);
+        if (ttl <= 0)
+            return;
+        long now = System.nanoTime();
+        putEntry(key, response, now, now + TimeUnit.SECONDS.toNanos(ttl));
+    }
+
+    /**
+     * Caches the Response to a question for a given time, which is worked
+     * out by put, or was by the run that saved a snapshot.
+     * @param key The question that was answered.
+     * @param response The Response to it, with the TTLs it arrived with.
+     * @param stored When it was cached, in System.nanoTime() terms.
+     * @param expires When it expires, in System.nanoTime() terms.
+     */
+    protected void putEntry(CacheKey key, Resolver.Response response,
+                            long stored, long expires)
+    {
+        if (maxEntries <= 0)
+            return;
+        CacheEntry entry = new CacheEntry(response.withoutTrace(), stored,
+                                          expires, isNegative(response));
+        if (entries.put(key, entry) == null && entries.size() > maxEntries)
+            evict();
+    }
+
+    /**
+     * Checks if the cache has an entry for a question that has not
+     * expired, without counting a lookup.
+     * @param key The question.
+     * @return True if it has.
+     */
+    protected boolean contains(CacheKey key)
+    {
+        CacheEntry entry = entries.get(key);
+        return entry != null && !entry.isExpired(System.nanoTime());
+    }
+
+    /**
+     * Shows each entry that has not expired to a visitor, as it was put.
+     * Entries put or removed while it runs may or may not be shown.
+     * @param visitor The visitor.
+     */
+    public void forEach(Visitor visitor)
+    {
+        long now = System.nanoTime();
+        for (Map.Entry<CacheKey, CacheEntry> entry : entries.entrySet())
+            if (!entry.getValue().isExpired(now))
+                visitor.visit(entry.getKey(), entry.getValue().response,
+                              entry.getValue().stored,
+                              entry.getValue().expires);
+    }
+
+    /**
+     * Checks if a Response is negative: NXDOMAIN, or NODATA, which is a
+     * successful Response with no answers.
+     * @param response The Response to check.
+     * @return True if the Response is negative.
+     */
+    protected static boolean isNegative(Resolver.Response response)
+    {
+        return response.getRcode() == Resolver.ResponseGenerator.NXDOMAIN ||
+               response.getAnswers().isEmpty();
+    }
+
+    /**
+     * Works out how long a negative Response may be cached for: the lesser
+     * of the SOA record's TTL and its MINIMUM field (RFC 2308, section 5).
+     * @param response The negative Response.
+     * @return The number of seconds to cache it for, or 0 if there is no
+     *         SOA record in the authority section.
+     */
+    protected static int negativeTtl(Resolver.Response response)
+    {
+        for (Record record : response.getAuthority())
+            if (record instanceof SOARecord)
+                return Math.min(MAX_TTL, Math.max(0, Math.min(
+                       record.getTtl(), ((SOARecord) record).getMinimum())));
+        return 0;
+    }
+
+    /**
+     * Finds the smallest TTL of the records in a Response, capped at
+     * MAX_TTL. TTLs with the top bit set are treated as 0, per RFC 2181.
+     * @param response The Response to examine.
+     * @return The number of seconds the Response may be cached for.
+     */
+    protected static int minimumTtl(Resolver.Response response)
+    {
+        int ttl = MAX_TTL;
+        for (List<Record> section : sections(response))
+            for (Record record : section)
+                ttl = Math.min(ttl, Math.max(record.getTtl(), 0));
+        return ttl;
+    }
+
+    /**
+     * The sections of a Response that hold resource records.
+     * @param response The Response.
+     * @return The answer, authority and additional sections.
+     */
+    private static List<List<Record>> sections(Resolver.Response response)
+    {
+        return List.of(response.getAnswers(), response.getAuthority(),
+                       response.getAdditional());
+    }
+
+    /**
+     * Removes entries until the cache is back within its bound. Entries are
+     * examined EVICTION_SAMPLE at a time, carrying on round the cache from
+     * where the last round stopped, so every entry is examined in turn.
+     * An expired entry that isn't being kept for getStale is removed as
+     * soon as it is met; if the cache is still over its bound after a
+     * round, the entry closest to expiring of those examined is evicted.
+     */
+    private void evict()
+    {
+        long now = System.nanoTime();
+        evictLock.lock();
+        try
+        {
+            while (entries.size() > maxEntries)
+            {
+                Map.Entry<CacheKey, CacheEntry> victim = null;
+                for (int i = 0; i < EVICTION_SAMPLE; i++)
+                {
+                    if (hand == null || !hand.hasNext())
+                        hand = entries.entrySet().iterator();
+                    if (!hand.hasNext())
+                        return;
+                    Map.Entry<CacheKey, CacheEntry> candidate = hand.next();
+                    CacheEntry entry = candidate.getValue();
+                    if (entry.isExpired(now) &&
+                        !entry.isStale(now, staleWindow))
+                    {
+                        if (entries.remove(candidate.getKey(), entry))
+                            countRemoval(true);
+                    }
+                    else if (victim == null ||
+                             entry.expiresBefore(victim.getValue()))
+                        victim = candidate;
+                }
+                if (victim != null && entries.size() > maxEntries &&
+                    entries.remove(victim.getKey(), victim.getValue()))
+                    countRemoval(victim.getValue().isExpired(now));
+            }
+        }
+        finally
+        {
+            evictLock.unlock();
+        }
+    }
+
+    /**
+     * Counts a lookup answered from the cache.
+     * @param negative Whether the answer was NXDOMAIN or NODATA.
+     */
+    protected void countHit(boolean negative)
+    {
+        hits.increment();
+        if (negative)
+            negativeHits.increment();
+    }
+
+    /**
+     * Counts a lookup the cache could not answer.
+     */
+    protected void countMiss()
+    {
+        misses.increment();
+    }
+
+    /**
+     * Counts a stale answer handed out.
+     */
+    protected void countStaleHit()
+    {
+        staleHits.increment();
+    }
+
+    /**
+     * Counts an entry removed: an eviction if it was live, or an
+     * expiration if its TTL had run out.
+     * @param expired Whether its TTL had run out.
+     */
+    protected void countRemoval(boolean expired)
+    {
+        if (expired)
+            expirations.increment();
+        else
+            evictions.increment();
+    }
+
+    /**
+     * Empties the cache. The counters are left alone.
+     */
+    public void clear()
+    {
+        entries.clear();
+    }
+
+    /**
+     * The number of entries currently cached, including any that have
+     * expired but have not been looked up since.
+     * @return The number of entries.
+     */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Getter for maxEntries.
+     * @return The most entries this cache holds.
+     */
+    public int getMaxEntries()
+    {
+        return maxEntries;
+    }
+
+    /**
+     * The number of lookups answered from the cache.
+     * @return The hit count.
+     */
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    /**
+     * The number of hits that were negative answers.
+     * @return The negative hit count.
+     */
+    public long getNegativeHits()
+    {
+        return negativeHits.sum();
+    }
+
+    /**
+     * The number of lookups the cache could not answer.
+     * @return The miss count.
+     */
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * The number of stale answers handed out by getStale.
+     * @return The stale hit count.
+     */
+    public long getStaleHits()
+    {
+        return staleHits.sum();
+    }
+
+    /**
+     * The number of live entries removed to make room for new ones.
+     * @return The eviction count.
+     */
+    public long getEvictions()
+    {
+        return evictions.sum();
+    }
+
+    /**
+     * The number of entries removed because their TTL ran out.
+     * @return The expiration count.
+     */
+    public long getExpirations()
+    {
+        return expirations.sum();
+    }
+
+    /**
+     * A cached Response and the time it stops being valid.
+     */
+    private static class CacheEntry
+    {
+        /** The Response as it was received. */
+        private final Resolver.Response response;
+        /** When the Response was cached, in System.nanoTime() terms. */
+        private final long stored;
+        /** When the Response expires, in System.nanoTime() terms. */
+        private final long expires;
+        /** Whether the Response is NXDOMAIN or NODATA. */
+        private final boolean negative;
+        /** The number of lookups this entry has answered. */
+        private final LongAdder hits;
+        /** Set once this entry's question has been handed to the
+         *  Refresher. */
+        private final AtomicBoolean refreshing;
+
+        /**
+         * Creates an entry.
+         * @param response The Response to cache.
+         * @param stored When it was cached, in System.nanoTime() terms.
+         * @param expires When it expires, in System.nanoTime() terms.
+         * @param negative Whether the Response is NXDOMAIN or NODATA.
+         */
+        private CacheEntry(Resolver.Response response, long stored,
+                           long expires, boolean negative)
+        {
+            this.response = response;
+            this.negative = negative;
+            this.stored   = stored;
+            this.expires  = expires;
+            this.hits     = new LongAdder();
+            this.refreshing = new AtomicBoolean();
+        }
+
+        /**
+         * Checks if this entry has expired.
+         * @param now The current System.nanoTime().
+         * @return True if the entry's TTL has run out.
+         */
+        private boolean isExpired(long now)
+        {
+            return now - expires >= 0;
+        }
+
+        /**
+         * Checks if this entry, once expired, may still be served stale.
+         * @param now The current System.nanoTime().
+         * @param window How long past its TTL an entry may be served, in
+         *               ns.
+         * @return True if its TTL ran out less than window ns ago.
+         */
+        private boolean isStale(long now, long window)
+        {
+            return now - expires < window;
+        }
+
+        /**
+         * Checks if this entry expires before another one.
+         * @param other The other entry.
+         * @return True if this entry expires first.
+         */
+        private boolean expiresBefore(CacheEntry other)
+        {
+            return expires - other.expires < 0;
+        }
+
+        /**
+         * Builds the Response to hand out, with every record's TTL reduced
+         * by the time the entry has been cached.
+         * @param now The current System.nanoTime().
+         * @return The Response with its remaining TTLs.
+         */
+        private Resolver.Response getResponse(long now)
+        {
+            int elapsed = (int) TimeUnit.NANOSECONDS.toSeconds(now - stored);
+            if (elapsed == 0)
+                return response;
+            return new Resolver.Response(response.getQueries(),
+                                         age(response.getAnswers(), elapsed),
+                                         age(response.getAuthority(), elapsed),
+                                         age(response.getAdditional(),
+                                             elapsed), response.getRcode(),
+                                         response.getOpt());
+        }
+
+        /**
+         * Builds the Response to hand out once the entry has expired, with
+         * every record's TTL set to STALE_TTL.
+         * @return The stale Response.
+         */
+        private Resolver.Response getStaleResponse()
+        {
+            return new Resolver.Response(response.getQueries(),
+                                         stale(response.getAnswers()),
+                                         stale(response.getAuthority()),
+                                         stale(response.getAdditional()),
+                                         response.getRcode(),
+                                         response.getOpt());
+        }
+
+        /**
+         * Copies a section, setting each record's TTL to STALE_TTL.
+         * @param section The records as they were received.
+         * @return The records with their stale TTLs.
+         */
+        private static List<Record> stale(List<Record> section)
+        {
+            List<Record> stale = new ArrayList<>(section.size());
+            for (Record record : section)
+                stale.add(record.withTtl(STALE_TTL));
+            return stale;
+        }
+
+        /**
+         * Copies a section, reducing each record's TTL.
+         * @param section The records as they were received.
+         * @param elapsed The number of seconds they have been cached.
+         * @return The records with their remaining TTLs.
+         */
+        private static List<Record> age(List<Record> section, int elapsed)
+        {
+            List<Record> aged = new ArrayList<>(section.size());
+            for (Record record : section)
+                aged.add(record.withTtl(Math.max(record.getTtl() - elapsed,
+                                                 0)));
+            return aged;
+        }
+    }
+}
@@ -1,8 +1,5 @@
 package edu.wcu.cs.agora.allen.DnsResolver;
 
-import java.nio.charset.StandardCharsets;
-import java.util.List;
-
 /**
  * Created by tyler on 10/24/13.
  */
@@ -18,19 +15,115 @@ public class SOARecord extends Record
     public static final int TWO_BYTES       = 2;
     /** Three byte indexes. */
     public static final int THREE_BYTES     = 3;
+    /** The position of SERIAL among the SOA ints. */
+    public static final int SERIAL          = 0;
+    /** The position of REFRESH among the SOA ints. */
+    public static final int REFRESH         = 1;
+    /** The position of RETRY among the SOA ints. */
+    public static final int RETRY           = 2;
+    /** The position of EXPIRE among the SOA ints. */
+    public static final int EXPIRE          = 3;
+    /** The position of MINIMUM among the SOA ints. */
+    public static final int MINIMUM         = 4;
+
+    /** The primary name server for the zone. */
+    private final DomainName primaryServer;
+    /** The mailbox of the person responsible for the zone. */
+    private final DomainName mailbox;
 
     /**
-     * Constructor simply calls super.
+     * Calls super, and reads the two names out of the RDATA.
      * @param name Associated with the name field in Record.
      * @param type Associated with the type field in Record.
      * @param classType Associated with the classType field in Record.
      * @param ttl Associated with the ttl field in Record.
      * @param rdata Associated with the RDATA field in Record.
      */
-    protected SOARecord(String name, RecordType type, String classType,
-                        int ttl, List<Byte> rdata)
+    protected SOARecord(DomainName name, RecordType type, String classType,
+                        int ttl, byte[] rdata)
     {
         super(name, type, classType, ttl, rdata);
+        this.primaryServer = DomainName.fromWire(rdata, 0);
+        this.mailbox       = DomainName.fromWire(rdata,
+                                                 primaryServer.getWireLength());
+    }
+
+    /**
+     * Getter for primaryServer.
+     * @return The name of the zone's primary name server.
+     */
+    public DomainName getPrimaryServer()
+    {
+        return primaryServer;
+    }
+
+    /**
+     * Getter for mailbox.
+     * @return The mailbox of the person responsible for the zone, as a
+     *         name.
+     */
+    public DomainName getMailbox()
+    {
+        return mailbox;
+    }
+
+    /**
+     * Getter for the zone's serial number.
+     * @return SERIAL from the RDATA.
+     */
+    public int getSerial()
+    {
+        return getSoaInt(SERIAL);
+    }
+
+    /**
+     * Getter for the zone's refresh interval.
+     * @return REFRESH from the RDATA, in seconds.
+     */
+    public int getRefresh()
+    {
+        return getSoaInt(REFRESH);
+    }
+
+    /**
+     * Getter for the zone's retry interval.
+     * @return RETRY from the RDATA, in seconds.
+     */
+    public int getRetry()
+    {
+        return getSoaInt(RETRY);
+    }
+
+    /**
+     * Getter for the zone's expiry limit.
+     * @return EXPIRE from the RDATA, in seconds.
+     */
+    public int getExpire()
+    {
+        return getSoaInt(EXPIRE);
+    }
+
+    /**
+     * Getter for the zone's minimum TTL, which RFC 2308 uses as the TTL for
+     * negative answers.
+     * @return MINIMUM from the RDATA, in seconds.
+     */
+    public int getMinimum()
+    {
+        return getSoaInt(MINIMUM);
+    }
+
+    /**
+     * Reads one of the five ints at the end of the RDATA.
+     * @param index The position of the int among the five.
+     * @return The int.
+     */
+    private int getSoaInt(int index)
+    {
+        byte[] rdata = super.getRdata();
+        int i = rdata.length - (NUM_INTS_IN_SOA - index) * INT_SIZE;
+        return Util.bytesToInt(rdata[i], rdata[i + ONE_BYTE],
+                               rdata[i + TWO_BYTES], rdata[i + THREE_BYTES]);
     }
 
     /**
@@ -44,24 +137,22 @@ public class SOARecord extends Record
     }
 
     /**
-     * Formats the RDATA in a readable format. Because this contains domain
-     * addresses, it is already formatted. We simply transform the bytes into
-     * String form.
+     * Formats the RDATA in a readable format: the primary name server, the
+     * mailbox, then the five SOA integers.
      * @return The string form of the RDATA.
      */
     private String formatRData()
     {
-        List<Byte> rdata = super.getRdata();
-        List<Byte> sublist = rdata.subList(0, rdata.size() -
-                                              NUM_INTS_IN_SOA * INT_SIZE);
-        String ret = new String(Util.unboxBytes(sublist),
-                                StandardCharsets.UTF_8) + "\t";
-        for (int i = 0; i < NUM_INTS_IN_SOA * INT_SIZE; i += INT_SIZE)
+        byte[] rdata = super.getRdata();
+        int names = rdata.length - NUM_INTS_IN_SOA * INT_SIZE;
+        StringBuilder ret = new StringBuilder();
+        ret.append(primaryServer).append('\t').append(mailbox).append('\t');
+        for (int i = names; i < rdata.length; i += INT_SIZE)
         {
-            ret += Util.bytesToInt(sublist.get(i), sublist.get(i + ONE_BYTE),
-                                   sublist.get(i + TWO_BYTES),
-                                   sublist.get(i + THREE_BYTES)) + "\t";
+            ret.append(Util.bytesToInt(rdata[i], rdata[i + ONE_BYTE],
+                                       rdata[i + TWO_BYTES],
+                                       rdata[i + THREE_BYTES])).append('\t');
         }
-        return ret;
+        return ret.toString();
     }
 }
@@ -0,0 +1,221 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * A SingleFlight keeps a table of the questions being asked of DNS servers,
+ * so that a question asked again while the first asking is still in flight
+ * waits for that answer rather than sending a packet of its own. Questions
+ * are the same if their CacheKeys are: the same name, ignoring case and a
+ * trailing '.', the same RecordType and the same class.
+ *
+ * The caller that finds no flight for its question becomes the leader, and
+ * sends it; the rest join, and get the leader's Response or exception when
+ * it arrives. A joined Response has no QueryTrace, as the trace describes
+ * only the query that was sent. A question leaves the table as soon as its
+ * flight lands, so a later one is answered from the cache, or sent again.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class SingleFlight
+{
+    /**
+     * A question sent by the leader of a flight, and waited on.
+     */
+    public interface Exchange
+    {
+        /**
+         * Sends the question and waits for its answer.
+         * @return The Response.
+         * @throws IOException If the question could not be answered.
+         */
+        Resolver.Response run() throws IOException;
+    }
+
+    /** The flights in the air, by the question they ask. */
+    private final ConcurrentHashMap<CacheKey,
+            CompletableFuture<Resolver.Response>> flights;
+    /** The number of questions sent, each leading a flight. */
+    private final LongAdder led;
+    /** The number of questions that joined a flight instead of being sent. */
+    private final LongAdder coalesced;
+
+    /**
+     * Creates an empty SingleFlight.
+     */
+    public SingleFlight()
+    {
+        this.flights   = new ConcurrentHashMap<>();
+        this.led       = new LongAdder();
+        this.coalesced = new LongAdder();
+    }
+
+    /**
+     * Asks a question and waits for the answer, joining the flight already
+     * asking it if there is one.
+     * @param key The question.
+     * @param exchange Sends the question, if this caller leads the flight.
+     * @return The Response.
+     * @throws IOException The exception of the exchange, whichever caller
+     *                     made it, or InterruptedIOException if interrupted
+     *                     while waiting on another caller's.
+     */
+    public Resolver.Response call(CacheKey key, Exchange exchange)
+                                  throws IOException
+    {
+        CompletableFuture<Resolver.Response> flight = new CompletableFuture<>();
+        CompletableFuture<Resolver.Response> joined =
+                flights.putIfAbsent(key, flight);
+        if (joined != null)
+        {
+            coalesced.increment();
+            return await(joined);
+        }
+        led.increment();
+        try
+        {
+            Resolver.Response response = exchange.run();
+            land(key, flight, response, null);
+            return response;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            land(key, flight, null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Asks a question without waiting for the answer, joining the flight
+     * already asking it if there is one.
+     * @param key The question.
+     * @param exchange Sends the question, if this caller leads the flight.
+     * @return A future that completes with the Response, or the exception
+     *         of the exchange.
+     */
+    public CompletableFuture<Resolver.Response> callAsync(CacheKey key,
+            Supplier<CompletableFuture<Resolver.Response>> exchange)
+    {
+        CompletableFuture<Resolver.Response> flight = new CompletableFuture<>();
+        CompletableFuture<Resolver.Response> joined =
+                flights.putIfAbsent(key, flight);
+        if (joined != null)
+        {
+            coalesced.increment();
+            // A copy, so a caller completing its future doesn't complete
+            // every other caller's.
+            return joined.thenApply(Resolver.Response::withoutTrace);
+        }
+        led.increment();
+        try
+        {
+            exchange.get().whenComplete((response, e) ->
+                    land(key, flight, response, e));
+        }
+        catch (RuntimeException e)
+        {
+            land(key, flight, null, e);
+        }
+        return flight.copy();
+    }
+
+    /**
+     * Takes a flight out of the table, then hands its result to the callers
+     * that joined it. It leaves first, so a caller that comes along once
+     * the result is known doesn't join a flight that has landed.
+     * @param key The question.
+     * @param flight The flight.
+     * @param response The Response, or null if the exchange failed.
+     * @param e The exception, if the exchange failed.
+     */
+    private void land(CacheKey key, CompletableFuture<Resolver.Response> flight,
+                      Resolver.Response response, Throwable e)
+    {
+        flights.remove(key, flight);
+        if (e == null)
+            flight.complete(response);
+        else
+            flight.completeExceptionally(unwrap(e));
+    }
+
+    /**
+     * Waits for the flight a caller joined.
+     * @param flight The flight.
+     * @return Its Response, without the leader's trace.
+     * @throws IOException The exception of the flight, or
+     *                     InterruptedIOException if interrupted.
+     */
+    private static Resolver.Response await(
+            CompletableFuture<Resolver.Response> flight) throws IOException
+    {
+        try
+        {
+            return flight.get().withoutTrace();
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for an " +
+                                             "answer in flight.");
+        }
+        catch (ExecutionException ee)
+        {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Removes the CompletionException futures wrap their failures in.
+     * @param e The failure.
+     * @return The failure that caused it.
+     */
+    private static Throwable unwrap(Throwable e)
+    {
+        while (e instanceof CompletionException && e.getCause() != null)
+            e = e.getCause();
+        return e;
+    }
+
+    /**
+     * Returns the number of flights in the air.
+     * @return The number of questions being asked now.
+     */
+    public int size()
+    {
+        return flights.size();
+    }
+
+    /**
+     * Getter for led.
+     * @return The number of questions sent, each leading a flight.
+     */
+    public long getLed()
+    {
+        return led.sum();
+    }
+
+    /**
+     * Getter for coalesced.
+     * @return The number of questions that joined a flight instead of being
+     *         sent.
+     */
+    public long getCoalesced()
+    {
+        return coalesced.sum();
+    }
+}
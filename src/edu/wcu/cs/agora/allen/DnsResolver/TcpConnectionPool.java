@@ -0,0 +1,507 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A TcpConnectionPool keeps TCP connections to DNS servers open between
+ * requests, and pipelines requests over them as RFC 7766 describes: many
+ * length-prefixed requests may be written to a connection before any of
+ * their responses arrive, and responses are matched to requests by their
+ * identifier and question, in whatever order the server sends them.
+ * Connections that have been idle for a while are closed by a reaper thread.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class TcpConnectionPool implements Closeable
+{
+    /** The most connections kept open to each server by default. */
+    public static final int DEFAULT_MAX_CONNECTIONS = 2;
+    /** The most requests outstanding on one connection by default, before
+     *  another connection is opened. */
+    public static final int DEFAULT_MAX_PIPELINE    = 64;
+    /** How long a connection may sit idle before it is closed, in ms. */
+    public static final int DEFAULT_IDLE_TIMEOUT    = 10000;
+    /** The number of attempts made when a connection dies under a request. */
+    public static final int ATTEMPTS                = 2;
+    /** The mask for an unsigned two-byte value. */
+    public static final int ID_MASK                 = 0xFFFF;
+
+    /** The open connections, by server. */
+    private final Map<InetSocketAddress, List<Connection>> connections;
+    /** Held while opening a connection to a server, by server, so that a
+     *  burst of requests doesn't open a connection each. */
+    private final Map<InetSocketAddress, ReentrantLock> openLocks;
+    /** Closes idle connections. */
+    private final ScheduledExecutorService reaper;
+    /** How long to wait for a response, and for a connection, in ms. */
+    private final int timeout;
+    /** The most connections kept open to each server. */
+    private final int maxConnections;
+    /** The most requests outstanding on one connection. */
+    private final int maxPipeline;
+    /** How long a connection may sit idle before it is closed, in ms. */
+    private final long idleTimeout;
+
+    /**
+     * Creates an empty pool, and starts its reaper.
+     * @param timeout How long to wait for a response or a connection, in ms.
+     * @param maxConnections The most connections kept open to each server.
+     * @param maxPipeline The most requests outstanding on one connection.
+     * @param idleTimeout How long a connection may sit idle, in ms.
+     */
+    public TcpConnectionPool(int timeout, int maxConnections, int maxPipeline,
+                             int idleTimeout)
+    {
+        this.timeout        = timeout;
+        this.maxConnections = maxConnections;
+        this.maxPipeline    = maxPipeline;
+        this.idleTimeout    = idleTimeout;
+        this.connections    = new ConcurrentHashMap<>();
+        this.openLocks      = new ConcurrentHashMap<>();
+        this.reaper = Executors.newSingleThreadScheduledExecutor(runnable ->
+        {
+            Thread thread = new Thread(runnable, "dns-tcp-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reaper.scheduleWithFixedDelay(this::reap, idleTimeout / 2,
+                                      idleTimeout / 2, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends a request over a pooled connection and waits for its response.
+     * If the connection is closed under the request before its response
+     * arrives, which servers are allowed to do, the request is sent once
+     * more over a new connection. Responses are parsed as they are read,
+     * straight out of the connection's buffer.
+     * @param request The request to send.
+     * @return The parsed response.
+     * @throws IOException SocketTimeoutException if no response arrives in
+     *                     time, DnsException if the response is malformed or
+     *                     the server closes every connection without
+     *                     answering, NxDomainException if the name does not
+     *                     exist, and other socket exceptions.
+     */
+    public Resolver.Response exchange(Request request) throws IOException
+    {
+        return exchange(request, null);
+    }
+
+    /**
+     * Sends a request over a pooled connection and waits for its response,
+     * as exchange(Request) does, marking the end of sending, waiting and
+     * parsing in its trace as each happens.
+     * @param request The request to send.
+     * @param trace The trace of the request, or null.
+     * @return The parsed response.
+     * @throws IOException As exchange(Request) does.
+     */
+    public Resolver.Response exchange(Request request, QueryTrace trace)
+                                      throws IOException
+    {
+        InetSocketAddress server = request.getServerAddress();
+        IOException failure = null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++)
+        {
+            Connection connection = acquire(server, request);
+            CompletableFuture<Resolver.Response> future =
+                    connection.send(request, trace);
+            try
+            {
+                return future.get(timeout, TimeUnit.MILLISECONDS);
+            }
+            catch (TimeoutException te)
+            {
+                connection.abandon(request);
+                throw new SocketTimeoutException("No TCP response within " +
+                                                 timeout + " ms.");
+            }
+            catch (InterruptedException ie)
+            {
+                connection.abandon(request);
+                Thread.currentThread().interrupt();
+                throw new SocketTimeoutException("Interrupted waiting for " +
+                                                 "a TCP response.");
+            }
+            catch (ExecutionException ee)
+            {
+                if (!(ee.getCause() instanceof IOException))
+                    throw new IOException(ee.getCause());
+                failure = (IOException) ee.getCause();
+                if (!(failure instanceof EOFException ||
+                      failure instanceof SocketException))
+                    throw failure;
+            }
+        }
+        throw new DnsException("TCP Port " + server.getPort() + " appears " +
+                               "to be unresponsive: " + failure.getMessage());
+    }
+
+    /**
+     * Finds a connection to send a request over: the open connection with
+     * the fewest outstanding requests that isn't already using the
+     * request's identifier. A new connection is opened if every one is
+     * busy and there is room for another.
+     * @param server The server to connect to.
+     * @param request The request about to be sent.
+     * @return The connection.
+     * @throws IOException If a new connection can't be opened.
+     */
+    private Connection acquire(InetSocketAddress server, Request request)
+                               throws IOException
+    {
+        List<Connection> list = connections.computeIfAbsent(server,
+                                        s -> new CopyOnWriteArrayList<>());
+        int id = request.getId();
+        Connection best = choose(list, id);
+        if (best != null)
+            return best;
+        ReentrantLock lock = openLocks.computeIfAbsent(server,
+                s -> new ReentrantLock());
+        lock.lock();
+        try
+        {
+            // Another thread may have opened one while we waited.
+            best = choose(list, id);
+            if (best == null)
+            {
+                best = new Connection(server);
+                list.add(best);
+            }
+            return best;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Chooses the least busy open connection that can take a request.
+     * @param list The connections to a server.
+     * @param id The identifier of the request.
+     * @return The connection, or null if a new one should be opened.
+     */
+    private Connection choose(List<Connection> list, int id)
+    {
+        list.removeIf(connection -> connection.closed);
+        Connection best = null;
+        for (Connection connection : list)
+        {
+            if (connection.isUsable(id) && (best == null ||
+                connection.getOutstanding() < best.getOutstanding()))
+                best = connection;
+        }
+        if (best != null && (best.getOutstanding() < maxPipeline ||
+                             list.size() >= maxConnections))
+            return best;
+        return null;
+    }
+
+    /**
+     * Closes every connection that has been idle for longer than the idle
+     * timeout, or that has died.
+     */
+    private void reap()
+    {
+        long now = System.nanoTime();
+        for (List<Connection> list : connections.values())
+        {
+            for (Connection connection : list)
+            {
+                if (connection.isIdle(now) || connection.closed)
+                {
+                    connection.close();
+                    list.remove(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * The number of connections currently open.
+     * @return The number of open connections, to every server.
+     */
+    public int getOpenConnections()
+    {
+        int open = 0;
+        for (List<Connection> list : connections.values())
+            for (Connection connection : list)
+                if (!connection.closed)
+                    open++;
+        return open;
+    }
+
+    /**
+     * Closes every connection and stops the reaper. Requests still
+     * outstanding fail.
+     */
+    @Override
+    public void close()
+    {
+        reaper.shutdownNow();
+        for (List<Connection> list : connections.values())
+            for (Connection connection : list)
+                connection.close();
+        connections.clear();
+    }
+
+    /**
+     * One TCP connection to a server, with a thread reading responses off it.
+     */
+    private class Connection
+    {
+        /** The socket for this connection. */
+        private final Socket socket;
+        /** Requests are written here, a whole message at a time. */
+        private final OutputStream out;
+        /** Responses are read from here. */
+        private final FrameReader in;
+        /** Held while writing, so messages from different threads don't
+         *  interleave. A lock rather than synchronized, so that a virtual
+         *  thread blocked writing doesn't pin its carrier. */
+        private final ReentrantLock writeLock;
+        /** The requests awaiting responses, by identifier. */
+        private final Map<Integer, Outstanding> pending;
+        /** When a request was last sent or a response last read, in
+         *  System.nanoTime() terms. */
+        private volatile long lastUsed;
+        /** Set once the connection has been closed. */
+        private volatile boolean closed;
+
+        /**
+         * Connects to a server and starts reading responses.
+         * @param server The server to connect to.
+         * @throws IOException If the connection can't be made.
+         */
+        private Connection(InetSocketAddress server) throws IOException
+        {
+            this.socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(server, timeout);
+            this.out       = new BufferedOutputStream(socket.getOutputStream());
+            this.in        = new FrameReader(socket.getInputStream());
+            this.writeLock = new ReentrantLock();
+            this.pending   = new ConcurrentHashMap<>();
+            this.lastUsed  = System.nanoTime();
+            Thread reader = new Thread(this::read, "dns-tcp-" + server);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        /**
+         * Writes a request to the connection.
+         * @param request The request to send.
+         * @param trace The trace of the request, or null.
+         * @return A future that completes with the response.
+         */
+        private CompletableFuture<Resolver.Response> send(Request request,
+                                                          QueryTrace trace)
+        {
+            Outstanding outstanding = new Outstanding(request, trace);
+            if (pending.putIfAbsent(request.getId(), outstanding) != null)
+            {
+                outstanding.future.completeExceptionally(new SocketException(
+                        "Identifier already in use on this connection."));
+                return outstanding.future;
+            }
+            lastUsed = System.nanoTime();
+            writeLock.lock();
+            try
+            {
+                if (closed)
+                    throw new SocketException("Connection closed.");
+                out.write(request.getRawTcpRequest());
+                out.flush();
+                if (trace != null)
+                    trace.end(QueryTrace.Phase.SEND);
+            }
+            catch (IOException ioe)
+            {
+                pending.remove(request.getId(), outstanding);
+                outstanding.future.completeExceptionally(ioe);
+                close();
+            }
+            finally
+            {
+                writeLock.unlock();
+            }
+            return outstanding.future;
+        }
+
+        /**
+         * Reads responses until the connection closes, completing the
+         * request each one answers. Each response is parsed before the next
+         * is read over it. Responses that answer nothing we sent are
+         * dropped.
+         *
+         * However the loop ends, whether the socket fails or a malformed
+         * frame throws some RuntimeException, the connection is closed and
+         * every request still outstanding on it fails with the reason, so
+         * none waits out its timeout on a connection that is gone.
+         */
+        private void read()
+        {
+            Exception failure;
+            try
+            {
+                while (true)
+                {
+                    int length = in.readFrame();
+                    byte[] response = in.getBuffer();
+                    lastUsed = System.nanoTime();
+                    if (length < Request.HEADER_LEN)
+                        continue;
+                    int id = ID_MASK & Util.bytesToShort(response[0],
+                                                         response[1]);
+                    Outstanding outstanding = pending.get(id);
+                    if (outstanding != null &&
+                        outstanding.request.matchesQuestion(response, length)
+                        && pending.remove(id, outstanding))
+                        complete(outstanding, response, length);
+                }
+            }
+            catch (IOException | RuntimeException e)
+            {
+                failure = e;
+            }
+            close();
+            for (Outstanding outstanding : pending.values())
+                outstanding.future.completeExceptionally(failure);
+            pending.clear();
+        }
+
+        /**
+         * Parses a response and completes its request with it, or with the
+         * reason it could not be parsed.
+         * @param outstanding The request the response answers.
+         * @param response The buffer holding the response.
+         * @param length The length of the response.
+         */
+        private void complete(Outstanding outstanding, byte[] response,
+                              int length)
+        {
+            QueryTrace trace = outstanding.trace;
+            if (trace != null)
+                trace.end(QueryTrace.Phase.WAIT);
+            try
+            {
+                Request request = outstanding.request;
+                Resolver.Response parsed = new Resolver.ResponseGenerator(
+                        response, length, request.getIdentifier(),
+                        request.isRecursionDesired()).getResponse();
+                if (trace != null)
+                    trace.end(QueryTrace.Phase.PARSE);
+                outstanding.future.complete(parsed);
+            }
+            catch (IOException | RuntimeException e)
+            {
+                outstanding.future.completeExceptionally(e);
+            }
+        }
+
+        /**
+         * Stops waiting for the response to a request, such as when it has
+         * timed out.
+         * @param request The request to stop waiting for.
+         */
+        private void abandon(Request request)
+        {
+            pending.remove(request.getId());
+        }
+
+        /**
+         * Checks if a request could be sent over this connection.
+         * @param id The identifier of the request.
+         * @return True if the connection is open and the identifier is free.
+         */
+        private boolean isUsable(int id)
+        {
+            return !closed && !pending.containsKey(id);
+        }
+
+        /**
+         * Checks if this connection has sat idle for too long.
+         * @param now The current System.nanoTime().
+         * @return True if nothing is outstanding and nothing has been sent or
+         *         read for longer than the idle timeout.
+         */
+        private boolean isIdle(long now)
+        {
+            return pending.isEmpty() && now - lastUsed >
+                   TimeUnit.MILLISECONDS.toNanos(idleTimeout);
+        }
+
+        /**
+         * The number of requests awaiting responses on this connection.
+         * @return The number of outstanding requests.
+         */
+        private int getOutstanding()
+        {
+            return pending.size();
+        }
+
+        /**
+         * Closes the connection. The reader thread notices, and fails
+         * whatever is still outstanding.
+         */
+        private void close()
+        {
+            closed = true;
+            try
+            {
+                socket.close();
+            }
+            catch (IOException ioe)
+            {
+                // Nothing left to do with a socket that won't close.
+            }
+        }
+    }
+
+    /**
+     * A request awaiting its response on a connection.
+     */
+    private static class Outstanding
+    {
+        /** The request that was sent. */
+        private final Request request;
+        /** Completed with the response. */
+        private final CompletableFuture<Resolver.Response> future;
+        /** The trace of the request, or null. */
+        private final QueryTrace trace;
+
+        /**
+         * Creates an outstanding request.
+         * @param request The request that was sent.
+         * @param trace The trace of the request, or null.
+         */
+        private Outstanding(Request request, QueryTrace trace)
+        {
+            this.request = request;
+            this.trace   = trace;
+            this.future  = new CompletableFuture<>();
+        }
+    }
+}
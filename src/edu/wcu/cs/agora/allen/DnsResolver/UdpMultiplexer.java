@@ -0,0 +1,558 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A UdpMultiplexer sends many UDP requests at once over a small set of
+ * long-lived DatagramChannels, all driven by one Selector thread. Replies are
+ * matched to their requests by the channel they arrive on, their 16-bit
+ * identifier, the server they came from and their question section, so any
+ * number of requests can be outstanding without a thread waiting on each.
+ *
+ * Futures are completed on the selector thread. Work that should not hold up
+ * other replies belongs in the async variants of CompletableFuture's methods.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class UdpMultiplexer implements Closeable
+{
+    /** The number of channels requests are spread over by default. */
+    public final static int DEFAULT_CHANNELS = 4;
+    /** The send and receive buffer we ask the OS for on each channel. */
+    public final static int SOCKET_BUFF      = 1 << 20;
+    /** How long to wait before retrying sends the OS had no room for, in ms.*/
+    public final static int BACKLOG_WAIT     = 1;
+    /** The number of bits the channel index is shifted by in a pending key. */
+    public final static int CHANNEL_SHIFT    = 16;
+    /** Mask for the identifier in a pending key. */
+    public final static int ID_MASK          = 0xFFFF;
+
+    /** The channels requests are sent from. */
+    private final DatagramChannel[] channels;
+    /** The selector watching every channel for replies. */
+    private final Selector selector;
+    /** The thread running the selector loop. */
+    private final Thread thread;
+    /** Requests handed to us by other threads, waiting to be sent. */
+    private final ConcurrentLinkedQueue<PendingQuery> submitted;
+    /** Set while a wakeup of the selector is already on its way. */
+    private final AtomicBoolean wakeupPending;
+    /** Picks the channel for the next request, round robin. */
+    private final AtomicInteger nextChannel;
+    /** The number of requests sent that have not completed yet. */
+    private final AtomicInteger outstanding;
+    /** Selector thread only: requests the OS had no room to send yet. */
+    private final ArrayDeque<PendingQuery> backlog;
+    /** Selector thread only: sent requests by channel and identifier. */
+    private final Map<Integer, PendingQuery> pending;
+    /** Selector thread only: sent requests ordered by when they time out. */
+    private final PriorityQueue<PendingQuery> deadlines;
+    /** The timeout for requests sent without one of their own, in ms. */
+    private final int timeout;
+    /** The size of the largest response we can receive. */
+    private final int bufferSize;
+    /** Cleared to stop the selector loop. */
+    private volatile boolean running;
+
+    /**
+     * Opens the channels and starts the selector thread. The thread is a
+     * daemon, so it does not keep the program alive.
+     * @param numChannels The number of channels to spread requests over.
+     * @param timeout How long to wait for each reply, in ms, unless the
+     *                request is sent with a timeout of its own.
+     * @param bufferSize The size of the largest response we can receive.
+     * @throws IOException If the channels or the selector can't be opened.
+     */
+    public UdpMultiplexer(int numChannels, int timeout, int bufferSize)
+                          throws IOException
+    {
+        this.timeout       = timeout;
+        this.bufferSize    = bufferSize;
+        this.submitted     = new ConcurrentLinkedQueue<>();
+        this.wakeupPending = new AtomicBoolean();
+        this.nextChannel   = new AtomicInteger();
+        this.outstanding   = new AtomicInteger();
+        this.backlog       = new ArrayDeque<>();
+        this.pending       = new HashMap<>();
+        this.deadlines     = new PriorityQueue<>();
+        this.selector      = Selector.open();
+        this.channels      = new DatagramChannel[numChannels];
+        for (int i = 0; i < numChannels; i++)
+        {
+            channels[i] = DatagramChannel.open();
+            channels[i].setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFF);
+            channels[i].setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFF);
+            channels[i].bind(null);
+            channels[i].configureBlocking(false);
+            channels[i].register(selector, SelectionKey.OP_READ, i);
+        }
+        running = true;
+        thread = new Thread(this::run, "dns-udp-multiplexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a request to be sent. This never blocks.
+     * @param request The request to send.
+     * @return A future that completes with the Response, or exceptionally
+     *         with a SocketTimeoutException, DnsException or
+     *         TruncatedUdpPacketException.
+     */
+    public CompletableFuture<Resolver.Response> send(Request request)
+    {
+        return send(request, timeout);
+    }
+
+    /**
+     * Queues a request to be sent, to be waited for no longer than given.
+     * This never blocks.
+     * @param request The request to send.
+     * @param timeout How long to wait for its reply, in ms.
+     * @return A future that completes as send(Request)'s does.
+     */
+    public CompletableFuture<Resolver.Response> send(Request request,
+                                                     int timeout)
+    {
+        return send(request, timeout, null);
+    }
+
+    /**
+     * Queues a request to be sent, marking the end of sending, waiting and
+     * parsing in its trace as each happens. This never blocks.
+     * @param request The request to send.
+     * @param timeout How long to wait for its reply, in ms.
+     * @param trace The trace of the request, or null.
+     * @return A future that completes as send(Request)'s does.
+     */
+    public CompletableFuture<Resolver.Response> send(Request request,
+                                                     int timeout,
+                                                     QueryTrace trace)
+    {
+        PendingQuery query = new PendingQuery(request,
+                Math.floorMod(nextChannel.getAndIncrement(), channels.length),
+                timeout, trace);
+        if (!running)
+        {
+            query.future.completeExceptionally(
+                    new IOException("The UDP multiplexer has been closed."));
+            return query.future;
+        }
+        outstanding.incrementAndGet();
+        submitted.add(query);
+        if (wakeupPending.compareAndSet(false, true))
+            selector.wakeup();
+        return query.future;
+    }
+
+    /**
+     * The number of requests that have been sent but not yet answered or
+     * timed out.
+     * @return The number of outstanding requests.
+     */
+    public int getOutstanding()
+    {
+        return outstanding.get();
+    }
+
+    /**
+     * Stops the selector thread and closes the channels. Requests still
+     * outstanding fail with an IOException.
+     * @throws IOException If closing the selector fails.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        running = false;
+        selector.wakeup();
+        try
+        {
+            thread.join(timeout);
+        }
+        catch (InterruptedException ie)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The selector loop. Sends what has been submitted, reads every reply
+     * that has arrived, and fails requests whose time is up.
+     */
+    private void run()
+    {
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        try
+        {
+            while (running)
+            {
+                selector.select(nextWait());
+                wakeupPending.set(false);
+                sendSubmitted();
+                Iterator<SelectionKey> keys =
+                        selector.selectedKeys().iterator();
+                while (keys.hasNext())
+                {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isValid() && key.isReadable())
+                        receive(key, buffer);
+                }
+                expire();
+            }
+        }
+        catch (IOException ioe)
+        {
+            System.err.println("UDP multiplexer stopped:\n" +
+                               ioe.getMessage());
+        }
+        finally
+        {
+            running = false;
+            shutdown();
+        }
+    }
+
+    /**
+     * Works out how long the selector may sleep for.
+     * @return The time until the next request times out, in ms. 0 means
+     *         there is nothing to wait for.
+     */
+    private long nextWait()
+    {
+        if (!backlog.isEmpty())
+            return BACKLOG_WAIT;
+        PendingQuery next = deadlines.peek();
+        if (next == null)
+            return 0;
+        return Math.max(1, (next.deadline - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * Sends the backlog and then everything submitted since the last pass,
+     * stopping if the OS has no room left to send.
+     * @throws IOException If a channel fails.
+     */
+    private void sendSubmitted() throws IOException
+    {
+        PendingQuery query;
+        while ((query = backlog.poll()) != null)
+        {
+            if (!transmit(query))
+            {
+                backlog.addFirst(query);
+                return;
+            }
+        }
+        while ((query = submitted.poll()) != null)
+        {
+            if (!transmit(query))
+            {
+                backlog.add(query);
+                backlog.addAll(submitted);
+                submitted.clear();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends one request, and starts waiting for its reply.
+     * @param query The request to send.
+     * @return False if the OS had no room to send it.
+     * @throws IOException If the channel fails.
+     */
+    private boolean transmit(PendingQuery query) throws IOException
+    {
+        byte[] packet = query.request.getRawTcpRequest();
+        ByteBuffer out = ByteBuffer.wrap(packet, Request.TCP_LEN_SIZE,
+                                         packet.length - Request.TCP_LEN_SIZE);
+        try
+        {
+            if (channels[query.channel].send(out, query.server) == 0)
+                return false;
+        }
+        catch (IOException ioe)
+        {
+            // A single unreachable server does not stop the other requests.
+            fail(query, ioe);
+            return true;
+        }
+        if (query.trace != null)
+            query.trace.end(QueryTrace.Phase.SEND);
+        query.deadline = System.nanoTime() + query.timeout * 1_000_000L;
+        query.next = pending.put(query.key, query);
+        deadlines.add(query);
+        return true;
+    }
+
+    /**
+     * Reads every datagram waiting on a channel, and hands each one to the
+     * request it answers. Datagrams that answer nothing are dropped.
+     * @param key The key of the readable channel.
+     * @param buffer The buffer to receive into.
+     * @throws IOException If the channel fails.
+     */
+    private void receive(SelectionKey key, ByteBuffer buffer) throws IOException
+    {
+        DatagramChannel channel = (DatagramChannel) key.channel();
+        int index = (Integer) key.attachment();
+        SocketAddress from;
+        buffer.clear();
+        while ((from = channel.receive(buffer)) != null)
+        {
+            byte[] reply = buffer.array();
+            int length = buffer.position();
+            if (length >= Request.HEADER_LEN)
+            {
+                int id = Util.unsignShortToInt(Util.bytesToShort(reply[0],
+                                                                 reply[1]));
+                PendingQuery query = take((index << CHANNEL_SHIFT) | id,
+                                          from, reply, length);
+                if (query != null)
+                    complete(query, reply, length);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Finds and removes the request a reply answers.
+     * @param key The channel and identifier of the reply.
+     * @param from The address the reply came from.
+     * @param reply The reply.
+     * @param length The length of the reply.
+     * @return The request, or null if the reply answers nothing we sent.
+     */
+    private PendingQuery take(int key, SocketAddress from, byte[] reply,
+                              int length)
+    {
+        PendingQuery previous = null;
+        PendingQuery query = pending.get(key);
+        while (query != null && !(query.server.equals(from) &&
+                                  query.request.matchesQuestion(reply,
+                                                                length)))
+        {
+            previous = query;
+            query = query.next;
+        }
+        if (query != null)
+        {
+            if (previous == null)
+            {
+                if (query.next == null)
+                    pending.remove(key);
+                else
+                    pending.put(key, query.next);
+            }
+            else
+                previous.next = query.next;
+            query.next = null;
+        }
+        return query;
+    }
+
+    /**
+     * Parses a reply and completes its request with the result.
+     * @param query The request the reply answers.
+     * @param reply The reply.
+     * @param length The length of the reply.
+     */
+    private void complete(PendingQuery query, byte[] reply, int length)
+    {
+        query.done = true;
+        outstanding.decrementAndGet();
+        if (query.trace != null)
+            query.trace.end(QueryTrace.Phase.WAIT);
+        try
+        {
+            Resolver.Response response = new Resolver.ResponseGenerator(
+                    reply, length, query.request.getIdentifier(),
+                    query.request.isRecursionDesired()).getResponse();
+            if (query.trace != null)
+                query.trace.end(QueryTrace.Phase.PARSE);
+            query.future.complete(response);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            query.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails every request whose time is up with a SocketTimeoutException.
+     */
+    private void expire()
+    {
+        long now = System.nanoTime();
+        PendingQuery query;
+        while ((query = deadlines.peek()) != null &&
+               (query.done || query.deadline - now <= 0))
+        {
+            deadlines.poll();
+            if (!query.done)
+            {
+                removePending(query);
+                fail(query, new SocketTimeoutException("No response within " +
+                                                       query.timeout + " ms."));
+            }
+        }
+    }
+
+    /**
+     * Removes a request from the pending table, wherever it is in the chain
+     * for its key.
+     * @param query The request to remove.
+     */
+    private void removePending(PendingQuery query)
+    {
+        PendingQuery head = pending.get(query.key);
+        if (head == query)
+        {
+            if (query.next == null)
+                pending.remove(query.key);
+            else
+                pending.put(query.key, query.next);
+        }
+        else
+        {
+            while (head != null && head.next != query)
+                head = head.next;
+            if (head != null)
+                head.next = query.next;
+        }
+        query.next = null;
+    }
+
+    /**
+     * Completes a request exceptionally.
+     * @param query The request that failed.
+     * @param e The reason it failed.
+     */
+    private void fail(PendingQuery query, IOException e)
+    {
+        query.done = true;
+        outstanding.decrementAndGet();
+        query.future.completeExceptionally(e);
+    }
+
+    /**
+     * Fails everything still outstanding and closes the channels. Only
+     * called by the selector thread, once its loop has ended.
+     */
+    private void shutdown()
+    {
+        IOException closed = new IOException("The UDP multiplexer has been " +
+                                             "closed.");
+        for (PendingQuery query : deadlines)
+            if (!query.done)
+                fail(query, closed);
+        for (PendingQuery query : backlog)
+            fail(query, closed);
+        PendingQuery query;
+        while ((query = submitted.poll()) != null)
+            fail(query, closed);
+        deadlines.clear();
+        backlog.clear();
+        pending.clear();
+        for (DatagramChannel channel : channels)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException ioe)
+            {
+                // Nothing left to do with a channel that won't close.
+            }
+        }
+        try
+        {
+            selector.close();
+        }
+        catch (IOException ioe)
+        {
+            // Nothing left to do with a selector that won't close.
+        }
+    }
+
+    /**
+     * A request that has been submitted, along with everything needed to
+     * match its reply and time it out.
+     */
+    private static class PendingQuery implements Comparable<PendingQuery>
+    {
+        /** The request being sent. */
+        private final Request request;
+        /** The server the request is sent to. */
+        private final InetSocketAddress server;
+        /** The index of the channel the request is sent from. */
+        private final int channel;
+        /** The channel and identifier, combined into a key for pending. */
+        private final int key;
+        /** Completed when the reply arrives or the request times out. */
+        private final CompletableFuture<Resolver.Response> future;
+        /** How long to wait for the reply, in ms. */
+        private final int timeout;
+        /** The trace of the request, or null. */
+        private final QueryTrace trace;
+        /** When the request times out, in System.nanoTime() terms. */
+        private long deadline;
+        /** The next request sharing this key, if any. */
+        private PendingQuery next;
+        /** Set once the request has been answered or has failed. */
+        private boolean done;
+
+        /**
+         * Creates a pending request.
+         * @param request The request being sent.
+         * @param channel The index of the channel to send it from.
+         * @param timeout How long to wait for the reply, in ms.
+         * @param trace The trace of the request, or null.
+         */
+        private PendingQuery(Request request, int channel, int timeout,
+                             QueryTrace trace)
+        {
+            this.request = request;
+            this.timeout = timeout;
+            this.trace   = trace;
+            this.server  = request.getServerAddress();
+            this.channel = channel;
+            byte[] packet = request.getRawTcpRequest();
+            this.key = (channel << CHANNEL_SHIFT) | (ID_MASK &
+                       Util.bytesToShort(packet[Request.TCP_LEN_SIZE],
+                                         packet[Request.TCP_LEN_SIZE + 1]));
+            this.future  = new CompletableFuture<>();
+        }
+
+        /**
+         * Orders requests by the time they time out.
+         * @param other The request to compare to.
+         * @return Negative if this request times out first.
+         */
+        @Override
+        public int compareTo(PendingQuery other)
+        {
+            return Long.compare(deadline - other.deadline, 0);
+        }
+    }
+}
@@ -0,0 +1,541 @@
+package edu.wcu.cs.agora.allen.DnsResolver;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An UpstreamPool is a set of DNS servers that answer the same questions,
+ * such as the recursive servers of an ISP or a public service. For each
+ * server it keeps a smoothed round trip time (SRTT) and its mean deviation
+ * (RTTVAR), updated from every UDP response the server sends as TCP does
+ * (RFC 6298), and the number of timeouts in a row.
+ *
+ * Each query goes to the healthy server with the lowest SRTT, except that a
+ * small share of them go to another healthy server chosen at random, so a
+ * server that was slow once has a chance to show it has recovered. A server
+ * that has not answered yet has an SRTT of 0, so each is tried early on. A
+ * server that times out several times in a row is unhealthy for a while,
+ * which doubles with each further timeout; if every server is unhealthy,
+ * the one due back soonest is tried.
+ *
+ * Each request to a server waits for its retransmission timeout (RTO):
+ * SRTT + 4 * RTTVAR, as Jacobson and Karels have it, within MIN_RTO_MS and
+ * Resolver.TIMEOUT, and doubled for each timeout in a row. A lost packet
+ * then costs a little more than the server's usual round trip, not the
+ * full TIMEOUT.
+ *
+ * With hedging on, a request still unanswered once the server's 95th
+ * percentile round trip time has passed is also sent to the next fastest
+ * server, and whichever answers first is used. That is about one request in
+ * twenty, and never more than MAX_HEDGE_SHARE of them.
+ *
+ * Servers are written as a comma separated list of addresses or host names,
+ * each optionally followed by ":" and a port.
+ *
+ * @author Tyler Allen
+ * @version 10/17/2026
+ */
+public class UpstreamPool
+{
+    /** Separates the servers in a list of them. */
+    public static final String SEPARATOR      = ",";
+    /** Separates a server from its port. */
+    public static final char PORT_SEPARATOR   = ':';
+    /** The share of queries sent to a server other than the fastest. */
+    public static final double EXPLORE_RATE   = 0.05;
+    /** The weight of each new RTT sample in the SRTT, as a shift: 1/8. */
+    public static final int SRTT_SHIFT        = 3;
+    /** The weight of each new deviation in the RTTVAR, as a shift: 1/4. */
+    public static final int RTTVAR_SHIFT      = 2;
+    /** The number of timeouts in a row that make a server unhealthy. */
+    public static final int MAX_FAILURES      = 3;
+    /** How long a server is first unhealthy for, in ms. */
+    public static final long BACKOFF_MS       = 1000;
+    /** The longest a server is unhealthy for, in ms. */
+    public static final long MAX_BACKOFF_MS   = 60000;
+    /** The number of RTTVARs the RTO allows above the SRTT. */
+    public static final int RTTVAR_WEIGHT     = 4;
+    /** The shortest RTO, in ms, so a server usually answering in much less
+     *  isn't given up on for a small delay. */
+    public static final int MIN_RTO_MS        = 50;
+    /** The number of recent round trip times percentiles are taken from. */
+    public static final int RTT_SAMPLES       = 256;
+    /** The number of samples a server needs before it is hedged. */
+    public static final int MIN_HEDGE_SAMPLES = 32;
+    /** The percentile of round trip time after which a request is hedged. */
+    public static final double HEDGE_PERCENTILE = 95;
+    /** The percentile is worked out again after this many new samples. */
+    public static final int PERCENTILE_EVERY  = 16;
+    /** The largest share of requests that may be hedged. */
+    public static final double MAX_HEDGE_SHARE = 0.1;
+    /** The number of percent in a whole. */
+    public static final double PERCENT        = 100.0;
+    /** The number of nanoseconds in a millisecond. */
+    public static final double NANOS_IN_MS    = 1e6;
+
+    /** The servers, in the order they were given. */
+    private final List<Upstream> upstreams;
+    /** The servers, by address. */
+    private final Map<InetSocketAddress, Upstream> byAddress;
+    /** The number of requests sent to the servers. */
+    private final LongAdder requests;
+    /** The number of those that were hedged. */
+    private final LongAdder hedges;
+    /** Whether slow requests are hedged. */
+    private volatile boolean hedging;
+
+    /**
+     * Creates a pool of servers.
+     * @param servers The addresses and ports of the servers.
+     * @throws IllegalArgumentException If there are no servers.
+     */
+    public UpstreamPool(List<InetSocketAddress> servers)
+    {
+        if (servers.isEmpty())
+            throw new IllegalArgumentException("No upstream servers");
+        Map<InetSocketAddress, Upstream> map = new LinkedHashMap<>();
+        for (InetSocketAddress server : servers)
+            map.putIfAbsent(server, new Upstream(server));
+        this.byAddress = Collections.unmodifiableMap(map);
+        this.upstreams = Collections.unmodifiableList(
+                new ArrayList<>(map.values()));
+        this.requests  = new LongAdder();
+        this.hedges    = new LongAdder();
+    }
+
+    /**
+     * Creates a pool from a comma separated list of servers.
+     * @param servers The servers, each an address or host name, optionally
+     *                followed by ":" and a port.
+     * @return The pool.
+     * @throws UnknownHostException If a server can't be found, or the list
+     *                              holds no servers.
+     */
+    public static UpstreamPool parse(String servers)
+                                     throws UnknownHostException
+    {
+        List<InetSocketAddress> list = new ArrayList<>();
+        for (String server : servers.split(SEPARATOR))
+        {
+            server = server.trim();
+            if (!server.isEmpty())
+                list.add(parseAddress(server, Request.DNS_PORT));
+        }
+        if (list.isEmpty())
+            throw new UnknownHostException("No servers in \"" + servers +
+                                           "\"");
+        return new UpstreamPool(list);
+    }
+
+    /**
+     * Parses one address, optionally followed by ":" and a port.
+     * @param server The address or host name, and port.
+     * @param defaultPort The port if none is given.
+     * @return The address.
+     * @throws UnknownHostException If the address can't be found, or the
+     *                              port is not a number.
+     */
+    public static InetSocketAddress parseAddress(String server,
+                                                 int defaultPort)
+                                                 throws UnknownHostException
+    {
+        int port = defaultPort;
+        int colon = server.lastIndexOf(PORT_SEPARATOR);
+        // An IPv6 address holds colons of its own, so only a single colon
+        // separates a port.
+        if (colon >= 0 && colon == server.indexOf(PORT_SEPARATOR))
+        {
+            try
+            {
+                port = Integer.parseInt(server.substring(colon + 1));
+            }
+            catch (NumberFormatException nfe)
+            {
+                throw new UnknownHostException("Invalid port: " + server);
+            }
+            server = server.substring(0, colon);
+        }
+        return new InetSocketAddress(InetAddress.getByName(server), port);
+    }
+
+    /**
+     * Chooses the server to send a query to.
+     * @return The healthy server with the lowest SRTT, or now and then
+     *         another healthy one; if none is healthy, the one due back
+     *         soonest.
+     */
+    public Upstream choose()
+    {
+        long now = System.nanoTime();
+        List<Upstream> healthy = new ArrayList<>(upstreams.size());
+        Upstream fastest = null;
+        Upstream soonest = null;
+        for (Upstream upstream : upstreams)
+        {
+            if (upstream.isHealthy(now))
+            {
+                healthy.add(upstream);
+                if (fastest == null || upstream.srtt < fastest.srtt)
+                    fastest = upstream;
+            }
+            else if (soonest == null ||
+                     upstream.downUntil - soonest.downUntil < 0)
+                soonest = upstream;
+        }
+        if (fastest == null)
+            return soonest;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (healthy.size() > 1 && random.nextDouble() < EXPLORE_RATE)
+            return healthy.get(random.nextInt(healthy.size()));
+        return fastest;
+    }
+
+    /**
+     * Chooses the server to hedge a request to another server with.
+     * @param first The server the request went to first.
+     * @return The healthy server other than first with the lowest SRTT, or
+     *         null if there is none.
+     */
+    public Upstream chooseOther(Upstream first)
+    {
+        long now = System.nanoTime();
+        Upstream fastest = null;
+        for (Upstream upstream : upstreams)
+            if (upstream != first && upstream.isHealthy(now) &&
+                (fastest == null || upstream.srtt < fastest.srtt))
+                fastest = upstream;
+        return fastest;
+    }
+
+    /**
+     * Counts a request sent to one of the servers.
+     */
+    public void countRequest()
+    {
+        requests.increment();
+    }
+
+    /**
+     * Checks whether a request may be hedged without hedges going over
+     * their share of requests, and if so counts it.
+     * @return True if the request may be hedged.
+     */
+    public boolean tryHedge()
+    {
+        if (hedges.sum() + 1 > requests.sum() * MAX_HEDGE_SHARE)
+            return false;
+        hedges.increment();
+        return true;
+    }
+
+    /**
+     * Turns hedging of slow requests on or off. It is off to begin with.
+     * @param hedging Whether to hedge slow requests.
+     */
+    public void setHedging(boolean hedging)
+    {
+        this.hedging = hedging;
+    }
+
+    /**
+     * Returns whether slow requests are hedged.
+     * @return True if hedging is on.
+     */
+    public boolean isHedging()
+    {
+        return hedging;
+    }
+
+    /**
+     * Getter for requests.
+     * @return The number of requests sent to the servers.
+     */
+    public long getRequests()
+    {
+        return requests.sum();
+    }
+
+    /**
+     * Getter for hedges.
+     * @return The number of requests that were hedged.
+     */
+    public long getHedges()
+    {
+        return hedges.sum();
+    }
+
+    /**
+     * Finds the server at an address.
+     * @param address The address and port of the server.
+     * @return The server, or null if it isn't in this pool.
+     */
+    public Upstream find(InetSocketAddress address)
+    {
+        return byAddress.get(address);
+    }
+
+    /**
+     * Returns every server, with its statistics.
+     * @return The servers, in the order they were given.
+     */
+    public List<Upstream> getUpstreams()
+    {
+        return upstreams;
+    }
+
+    /**
+     * One server in the pool, and what is known of how it responds.
+     */
+    public static class Upstream
+    {
+        /** The address and port of the server. */
+        private final InetSocketAddress address;
+        /** Guards the statistics below while they are updated. A lock rather
+         *  than synchronized, so a virtual thread doesn't pin its carrier. */
+        private final ReentrantLock lock;
+        /** The smoothed round trip time, in ns; 0 until the first sample. */
+        private volatile long srtt;
+        /** The mean deviation of the round trip time, in ns. */
+        private volatile long rttvar;
+        /** The number of responses received. */
+        private volatile long responses;
+        /** The number of queries that timed out or failed. */
+        private volatile long failures;
+        /** The number of those in a row, since the last response. */
+        private volatile int consecutiveFailures;
+        /** When the server is healthy again, in System.nanoTime() terms. */
+        private volatile long downUntil;
+        /** The most recent round trip times, in ns, as a ring. */
+        private final long[] samples;
+        /** The round trip time at HEDGE_PERCENTILE, in ns; 0 until there
+         *  are MIN_HEDGE_SAMPLES. */
+        private volatile long hedgeDelay;
+
+        /**
+         * Creates a server with no statistics yet.
+         * @param address The address and port of the server.
+         */
+        private Upstream(InetSocketAddress address)
+        {
+            this.address = address;
+            this.lock    = new ReentrantLock();
+            this.samples = new long[RTT_SAMPLES];
+        }
+
+        /**
+         * Creates a Request for this server.
+         * @param name The name to look up.
+         * @param type The type of record to look up.
+         * @return The Request.
+         * @throws UnknownHostException Never, as the server was already
+         *                              found.
+         */
+        public Request request(DomainName name, String type)
+                               throws UnknownHostException
+        {
+            return new Request(address.getAddress().getHostAddress(),
+                               address.getPort(), name, type,
+                               Request.UDP_PAYLOAD, true);
+        }
+
+        /**
+         * Folds the round trip time of a response into the statistics, and
+         * marks the server healthy.
+         * @param rtt The time from sending the query to receiving the
+         *            response, in ns.
+         */
+        public void success(long rtt)
+        {
+            lock.lock();
+            try
+            {
+                if (responses == 0)
+                {
+                    srtt   = rtt;
+                    rttvar = rtt / 2;
+                }
+                else
+                {
+                    rttvar += (Math.abs(srtt - rtt) - rttvar) >> RTTVAR_SHIFT;
+                    srtt   += (rtt - srtt) >> SRTT_SHIFT;
+                }
+                samples[(int) (responses % RTT_SAMPLES)] = rtt;
+                responses++;
+                consecutiveFailures = 0;
+                if (responses >= MIN_HEDGE_SAMPLES &&
+                    responses % PERCENTILE_EVERY == 0)
+                    hedgeDelay = percentile(HEDGE_PERCENTILE);
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Records a query that got no usable response. The time waited is
+         * folded into the SRTT, so a server that times out is chosen less;
+         * after several in a row, it is unhealthy for a while.
+         * @param waited The time waited before giving up, in ns.
+         */
+        public void failure(long waited)
+        {
+            lock.lock();
+            try
+            {
+                srtt = Math.max(srtt, srtt + ((waited - srtt) >> SRTT_SHIFT));
+                failures++;
+                int failed = ++consecutiveFailures;
+                if (failed >= MAX_FAILURES)
+                {
+                    int doublings = Math.min(failed - MAX_FAILURES,
+                                             Integer.SIZE - 2);
+                    long backoff = Math.min(BACKOFF_MS << doublings,
+                                            MAX_BACKOFF_MS);
+                    downUntil = System.nanoTime() +
+                                TimeUnit.MILLISECONDS.toNanos(backoff);
+                }
+            }
+            finally
+            {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Works out a percentile of the recent round trip times. Only
+         * called while holding the lock.
+         * @param percentile The percentile, from 0 to 100.
+         * @return The round trip time at that percentile, in ns.
+         */
+        private long percentile(double percentile)
+        {
+            int count = (int) Math.min(responses, RTT_SAMPLES);
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / PERCENT * count) - 1;
+            return sorted[Math.max(0, index)];
+        }
+
+        /**
+         * Works out how long to wait for a response from this server: the
+         * SRTT plus four RTTVARs, within MIN_RTO_MS and Resolver.TIMEOUT,
+         * doubled for each timeout in a row.
+         * @return The RTO, in ms; Resolver.TIMEOUT until the server has
+         *         answered.
+         */
+        public int getRto()
+        {
+            if (responses == 0)
+                return Resolver.TIMEOUT;
+            long rto = (long) Math.ceil((srtt + RTTVAR_WEIGHT * rttvar) /
+                                        NANOS_IN_MS);
+            rto = Math.max(rto, MIN_RTO_MS) << Math.min(consecutiveFailures,
+                                                        Integer.SIZE - 2);
+            return (int) Math.min(rto, Resolver.TIMEOUT);
+        }
+
+        /**
+         * Returns how long to wait for a response from this server before
+         * hedging the request to another.
+         * @return The 95th percentile of the recent round trip times, in ns,
+         *         or 0 if there have not been enough of them to say.
+         */
+        public long getHedgeDelay()
+        {
+            return hedgeDelay;
+        }
+
+        /**
+         * Checks if the server may be chosen.
+         * @param now The current System.nanoTime().
+         * @return False while it is backing off after timeouts.
+         */
+        private boolean isHealthy(long now)
+        {
+            return consecutiveFailures < MAX_FAILURES || now - downUntil >= 0;
+        }
+
+        /**
+         * Getter for address.
+         * @return The address and port of the server.
+         */
+        public InetSocketAddress getAddress()
+        {
+            return address;
+        }
+
+        /**
+         * Getter for srtt.
+         * @return The smoothed round trip time, in ns; 0 if the server has
+         *         not answered yet.
+         */
+        public long getSrtt()
+        {
+            return srtt;
+        }
+
+        /**
+         * Getter for rttvar.
+         * @return The mean deviation of the round trip time, in ns.
+         */
+        public long getRttvar()
+        {
+            return rttvar;
+        }
+
+        /**
+         * Getter for responses.
+         * @return The number of responses received.
+         */
+        public long getResponses()
+        {
+            return responses;
+        }
+
+        /**
+         * Getter for failures.
+         * @return The number of queries that timed out or failed.
+         */
+        public long getFailures()
+        {
+            return failures;
+        }
+
+        /**
+         * Checks if the server may be chosen now.
+         * @return False while it is backing off after timeouts.
+         */
+        public boolean isHealthy()
+        {
+            return isHealthy(System.nanoTime());
+        }
+
+        /**
+         * Describes the server and its statistics, on one line.
+         * @return The description.
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%s  srtt %.2f ms  rttvar %.2f ms  " +
+                                 "rto %d ms  p95 %.2f ms  %d responses  " +
+                                 "%d failures  %s", address,
+                                 srtt / NANOS_IN_MS, rttvar / NANOS_IN_MS,
+                                 getRto(), hedgeDelay / NANOS_IN_MS,
+                                 responses, failures,
+                                 isHealthy() ? "up" : "down");
+        }
+    }
+}
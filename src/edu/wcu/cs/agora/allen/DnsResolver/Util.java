@@ -77,7 +77,7 @@ public class Util
     public static int bytesToInt(byte byte1, byte byte2, byte byte3, byte byte4)
     {
         return (bytesToShort(byte1, byte2) << SHORT_LEN) |
-               bytesToShort(byte3, byte4);
+               unsignShortToInt(bytesToShort(byte3, byte4));
     }
 
     /**
@@ -178,7 +178,7 @@ public class Util
      */
     public static String readableTime(int seconds)
     {
-        long full_sec = unsignShortToInt((short) seconds);
+        long full_sec = Integer.toUnsignedLong(seconds);
         long min = full_sec /  SEC_IN_MIN;
         long sec = full_sec %  SEC_IN_MIN;
         long hour = min /  MIN_IN_HOUR;